@@ -0,0 +1,161 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+internal implementation notes:
+- instances are compared by identity because entities might implement equals
+and hashCode based on (changing) field values
+- instances are referenced weakly because forms might be discarded without
+saving or resetting, e.g. in creation mode; entries of collected instances are
+removed on every access
+*/
+/**
+ * Records the fields of instances which have been changed in forms created by
+ * {@link JPAReflectionFormBuilder} based on the field update events the
+ * builder receives. Used to update only the changed attributes of entities
+ * (see
+ * {@link de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage#update(java.lang.Object, java.util.Set) }).
+ * Only accessed on the event dispatch thread.
+ *
+ * @author richter
+ */
+public class DirtyFieldTracker {
+    private final Map<IdentityWeakReference, Set<Field>> dirtyFieldsMap = new HashMap<>();
+    private final ReferenceQueue<Object> collectedInstances = new ReferenceQueue<>();
+
+    /**
+     * Marks {@code field} of {@code instance} as changed.
+     * @param instance the changed instance
+     * @param field the changed field
+     */
+    public void markDirty(Object instance,
+            Field field) {
+        expungeCollectedInstances();
+        IdentityWeakReference key = new IdentityWeakReference(instance,
+                null //queue
+        );
+        Set<Field> dirtyFields = dirtyFieldsMap.get(key);
+        if(dirtyFields == null) {
+            dirtyFields = new HashSet<>();
+            dirtyFieldsMap.put(new IdentityWeakReference(instance,
+                            collectedInstances),
+                    dirtyFields);
+        }
+        dirtyFields.add(field);
+    }
+
+    /**
+     * The fields of {@code instance} changed since the last invocation of
+     * {@link #clear(java.lang.Object) }.
+     * @param instance the instance
+     * @return the changed fields or an empty set if none changed
+     */
+    public Set<Field> retrieveDirtyFields(Object instance) {
+        expungeCollectedInstances();
+        Set<Field> dirtyFields = dirtyFieldsMap.get(new IdentityWeakReference(instance,
+                null //queue
+        ));
+        if(dirtyFields == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(dirtyFields);
+    }
+
+    /**
+     * Forgets the changes of {@code instance}, e.g. after they've been
+     * written or the form has been reset or disposed.
+     * @param instance the instance
+     */
+    public void clear(Object instance) {
+        expungeCollectedInstances();
+        dirtyFieldsMap.remove(new IdentityWeakReference(instance,
+                null //queue
+        ));
+    }
+
+    /**
+     * The number of instances with recorded changes which haven't been
+     * collected.
+     * @return the number of instances
+     */
+    public int size() {
+        expungeCollectedInstances();
+        return dirtyFieldsMap.size();
+    }
+
+    /**
+     * The references to the tracked instances which allow tests to clear and
+     * enqueue them like the garbage collector would without depending on
+     * {@link System#gc() }.
+     * @return a copy of the references
+     */
+    List<Reference<Object>> retrieveReferences() {
+        return new ArrayList<>(dirtyFieldsMap.keySet());
+    }
+
+    private void expungeCollectedInstances() {
+        Object collectedInstance = collectedInstances.poll();
+        while(collectedInstance != null) {
+            dirtyFieldsMap.remove(collectedInstance);
+            collectedInstance = collectedInstances.poll();
+        }
+    }
+
+    /**
+     * A weak reference which is equal to references to the same instance and
+     * keeps the identity hash code of the instance after it's been cleared.
+     */
+    private static class IdentityWeakReference extends WeakReference<Object> {
+        private final int hashCode;
+
+        IdentityWeakReference(Object referent,
+                ReferenceQueue<Object> queue) {
+            super(referent,
+                    queue);
+            this.hashCode = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!(obj instanceof IdentityWeakReference)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null
+                    && referent == ((IdentityWeakReference) obj).get();
+        }
+    }
+}
@@ -23,6 +23,7 @@ import de.richtercloud.reflection.form.builder.ResetException;
 import de.richtercloud.reflection.form.builder.fieldhandler.FieldHandler;
 import de.richtercloud.reflection.form.builder.jpa.idapplier.IdApplicationException;
 import de.richtercloud.reflection.form.builder.jpa.idapplier.IdApplier;
+import de.richtercloud.reflection.form.builder.jpa.storage.MetamodelIndex;
 import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
 import de.richtercloud.reflection.form.builder.storage.StorageException;
 import java.awt.event.ActionEvent;
@@ -34,6 +35,7 @@ import java.util.Map;
 import java.util.Set;
 import javax.persistence.Id;
 import javax.persistence.IdClass;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
 import javax.swing.GroupLayout;
 import javax.swing.JButton;
 import javax.swing.JComponent;
@@ -91,6 +93,12 @@ public class EntityReflectionFormPanel extends JPAReflectionFormPanel<Object, En
     private final GroupLayout.Group verticalEntityControlsGroup = getLayout().createSequentialGroup();
     private final IdApplier idApplier;
     private final JPAFieldRetriever fieldRetriever;
+    /**
+     * The tracker of changed fields which allows to update only changed
+     * attributes in editing mode or {@code null} if the complete entity is
+     * always updated.
+     */
+    private final DirtyFieldTracker dirtyFieldTracker;
 
     /*
     internal implementation notes:
@@ -114,7 +122,6 @@ public class EntityReflectionFormPanel extends JPAReflectionFormPanel<Object, En
      * @param fieldHandler the {@link FieldHandler} to perform reset actions
      * @throws IllegalArgumentException if {@code issueHandler} is {@code null}
      */
-    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
     public EntityReflectionFormPanel(PersistenceStorage storage,
             Object instance,
             Class<?> entityClass,
@@ -126,6 +133,54 @@ public class EntityReflectionFormPanel extends JPAReflectionFormPanel<Object, En
             FieldHandler fieldHandler,
             IdApplier idApplier,
             Map<Class<?>, WarningHandler<?>> warningHandlers) {
+        this(storage,
+                instance,
+                entityClass,
+                fieldMapping,
+                issueHandler,
+                confirmMessageHandler,
+                editingMode,
+                fieldRetriever,
+                fieldHandler,
+                idApplier,
+                warningHandlers,
+                null //dirtyFieldTracker
+        );
+    }
+
+    /**
+     * Creates a new EntityReflectionFormPanel which updates only the fields
+     * recorded in {@code dirtyFieldTracker} in editing mode.
+     * @param storage the storage to use
+     * @param instance the instance to use
+     * @param entityClass the entity class
+     * @param fieldMapping the field mapping
+     * @param confirmMessageHandler the confirm message handler
+     * @param issueHandler the issue handler to use
+     * @param editingMode if {@code true} the save button with update an exiting
+     *     entity and a delete button will be provided, otherwise it will
+     *     persist a new entity and no delete button will be provided
+     * @param fieldRetriever the field retriever
+     * @param idApplier the id applier
+     * @param warningHandlers the warning handlers
+     * @param fieldHandler the {@link FieldHandler} to perform reset actions
+     * @param dirtyFieldTracker the tracker of changed fields or {@code null}
+     *     in order to always update the complete entity
+     * @throws IllegalArgumentException if {@code issueHandler} is {@code null}
+     */
+    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+    public EntityReflectionFormPanel(PersistenceStorage storage,
+            Object instance,
+            Class<?> entityClass,
+            Map<Field, JComponent> fieldMapping,
+            IssueHandler issueHandler,
+            ConfirmMessageHandler confirmMessageHandler,
+            boolean editingMode,
+            JPAFieldRetriever fieldRetriever,
+            FieldHandler fieldHandler,
+            IdApplier idApplier,
+            Map<Class<?>, WarningHandler<?>> warningHandlers,
+            DirtyFieldTracker dirtyFieldTracker) {
         super(storage,
                 instance,
                 entityClass,
@@ -147,10 +202,12 @@ public class EntityReflectionFormPanel extends JPAReflectionFormPanel<Object, En
             throw new IllegalArgumentException("fieldRetriever mustn't be null");
         }
         this.fieldRetriever = fieldRetriever;
+        this.dirtyFieldTracker = dirtyFieldTracker;
         saveButton.addActionListener((ActionEvent evt) -> {
             saveButtonActionPerformed(evt);
         });
         resetButton.addActionListener((ActionEvent e) -> {
+            clearDirtyFields();
             for(EntityReflectionFormPanelUpdateListener updateListener : getUpdateListeners()) {
                 updateListener.onReset(new ReflectionFormPanelUpdateEvent(ReflectionFormPanelUpdateEvent.INSTANCE_RESET,
                         null,
@@ -191,6 +248,28 @@ public class EntityReflectionFormPanel extends JPAReflectionFormPanel<Object, En
                 warningHandlers);
     }
 
+    /**
+     * Forgets the changes recorded for the current instance in order to
+     * avoid keeping them after the form has been disposed.
+     */
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        clearDirtyFields();
+    }
+
+    private void clearDirtyFields() {
+        if(dirtyFieldTracker != null) {
+            dirtyFieldTracker.clear(retrieveInstance());
+        }
+    }
+
+    @Override
+    public PersistenceStorage getStorage() {
+        return (PersistenceStorage) super.getStorage();
+            //the constructor only accepts PersistenceStorage
+    }
+
     public GroupLayout.Group getVerticalEntityControlsGroup() {
         return verticalEntityControlsGroup;
     }
@@ -333,9 +412,8 @@ public class EntityReflectionFormPanel extends JPAReflectionFormPanel<Object, En
                 if(keySet) {
                     //otherwise either the one ID field value is null or all
                     //ID field values are null
-                    Object existingInstance = getStorage().retrieve(primaryKey,
-                            getEntityClass());
-                    if(existingInstance != null) {
+                    if(getStorage().exists(primaryKey,
+                            getEntityClass())) {
                         this.issueHandler.handle(new Message(String.format("An instance of type '%s' with ID '%s' has already been persisted. Change the ID or edit the existing instance in editing mode.",
                                         getEntityClass(),
                                         primaryKey),
@@ -347,6 +425,7 @@ public class EntityReflectionFormPanel extends JPAReflectionFormPanel<Object, En
 
                 //persist
                 getStorage().store(instance);
+                clearDirtyFields();
                 this.issueHandler.handle(new Message(String.format("<html>persisted entity of type '%s' successfully</html>", this.getEntityClass()),
                         JOptionPane.INFORMATION_MESSAGE,
                         "Instance persisted successfully"));
@@ -355,7 +434,14 @@ public class EntityReflectionFormPanel extends JPAReflectionFormPanel<Object, En
             }
         } else {
             try {
-                getStorage().update(instance);
+                Set<String> dirtyAttributeNames = retrieveDirtyAttributeNames(instance);
+                if(dirtyAttributeNames != null) {
+                    getStorage().update(instance,
+                            dirtyAttributeNames);
+                }else {
+                    getStorage().update(instance);
+                }
+                clearDirtyFields();
                 this.issueHandler.handle(new Message(String.format("<html>Updated entity of type '%s' successfully.</html>", this.getEntityClass()),
                         JOptionPane.INFORMATION_MESSAGE,
                         "Instance updated successfully"));
@@ -365,6 +451,43 @@ public class EntityReflectionFormPanel extends JPAReflectionFormPanel<Object, En
         }
     }
 
+    /*
+    internal implementation notes:
+    - changes of embeddables and element collections are recorded for the
+    embeddable instance or not at all, so they can't be told from the dirty
+    fields of the entity
+    */
+    /**
+     * Retrieves the names of the persistent attributes of {@code instance}
+     * which have been changed in the form.
+     * @param instance the instance to check
+     * @return the attribute names or {@code null} if changes can't be tracked
+     *     reliably and the complete entity has to be updated
+     */
+    private Set<String> retrieveDirtyAttributeNames(Object instance) {
+        if(dirtyFieldTracker == null) {
+            return null;
+        }
+        MetamodelIndex metamodelIndex = getStorage().getMetamodelIndex();
+        if(metamodelIndex == null
+                || !metamodelIndex.isEntity(getEntityClass())) {
+            return null;
+        }
+        Map<String, PersistentAttributeType> attributeKinds = metamodelIndex.getAttributeKinds(getEntityClass());
+        if(attributeKinds.containsValue(PersistentAttributeType.EMBEDDED)
+                || attributeKinds.containsValue(PersistentAttributeType.ELEMENT_COLLECTION)) {
+            return null;
+        }
+        Set<String> retValue = new HashSet<>();
+        for(Field dirtyField : dirtyFieldTracker.retrieveDirtyFields(instance)) {
+            if(attributeKinds.containsKey(dirtyField.getName())) {
+                //transient fields don't need to be written
+                retValue.add(dirtyField.getName());
+            }
+        }
+        return retValue;
+    }
+
     private void handlePersistenceException(Exception ex) {
         String message = String.format("the following exception occured during persisting entity of type '%s': %s",
                 this.getEntityClass(),
@@ -75,6 +75,11 @@ public class JPAReflectionFormBuilder extends ReflectionFormBuilder<JPAFieldRetr
     private final ConfirmMessageHandler confirmMessageHandler;
     private final Map<Class<?>, WarningHandler<?>> warningHandlers;
     private final Map<Object, Set<Component>> idFieldComponentMap = new HashMap<>();
+    /**
+     * Records the fields changed in forms in order to allow
+     * {@link EntityReflectionFormPanel} to update only changed attributes.
+     */
+    private final DirtyFieldTracker dirtyFieldTracker = new DirtyFieldTracker();
 
     public JPAReflectionFormBuilder(PersistenceStorage storage,
             String fieldDescriptionDialogTitle,
@@ -102,6 +107,10 @@ public class JPAReflectionFormBuilder extends ReflectionFormBuilder<JPAFieldRetr
         return idFieldComponentMap;
     }
 
+    public DirtyFieldTracker getDirtyFieldTracker() {
+        return dirtyFieldTracker;
+    }
+
     public ReflectionFormPanel transformEntityClass(Class<?> entityClass,
             Object entityToUpdate,
             boolean editingMode,
@@ -121,7 +130,8 @@ public class JPAReflectionFormBuilder extends ReflectionFormBuilder<JPAFieldRetr
                 this.getFieldRetriever(),
                 fieldHandler,
                 this.idApplier,
-                this.warningHandlers);
+                this.warningHandlers,
+                this.dirtyFieldTracker);
         transformClass(entityClass,
                 instance,
                 fieldMapping,
@@ -199,6 +209,8 @@ public class JPAReflectionFormBuilder extends ReflectionFormBuilder<JPAFieldRetr
     protected void onFieldUpdate(FieldUpdateEvent event,
             Field field,
             Object instance) throws FieldUpdateException {
+        dirtyFieldTracker.markDirty(instance,
+                field);
         Object eventNewValue = event.getNewValue();
         Class<?> fieldType = field.getType();
         if(eventNewValue != null) {
@@ -253,7 +265,7 @@ public class JPAReflectionFormBuilder extends ReflectionFormBuilder<JPAFieldRetr
                 try {
                     storage.registerPostStoreCallback(instance, (object) -> {
                         try {
-                            storage.update(eventNewValue);
+                            storage.scheduleUpdate(eventNewValue);
                         } catch (StorageException ex) {
                             getIssueHandler().handle(new Message(ex, JOptionPane.ERROR_MESSAGE));
                         }
@@ -300,7 +312,7 @@ public class JPAReflectionFormBuilder extends ReflectionFormBuilder<JPAFieldRetr
                         try {
                             storage.registerPostStoreCallback(instance, (object) -> {
                                 try {
-                                    storage.update(eventNewValue);
+                                    storage.scheduleUpdate(eventNewValue);
                                 } catch (StorageException ex) {
                                     getIssueHandler().handle(new Message(ex, JOptionPane.ERROR_MESSAGE));
                                 }
@@ -320,7 +332,7 @@ public class JPAReflectionFormBuilder extends ReflectionFormBuilder<JPAFieldRetr
                         try {
                             storage.registerPostStoreCallback(instance, (object) -> {
                                 try {
-                                    storage.update(fieldCurrentValue);
+                                    storage.scheduleUpdate(fieldCurrentValue);
                                 } catch (StorageException ex) {
                                     getIssueHandler().handle(new Message(ex, JOptionPane.ERROR_MESSAGE));
                                 }
@@ -353,7 +365,7 @@ public class JPAReflectionFormBuilder extends ReflectionFormBuilder<JPAFieldRetr
                         try {
                             storage.registerPostStoreCallback(instance, (object) -> {
                                 try {
-                                    storage.update(eventNewValue);
+                                    storage.scheduleUpdate(eventNewValue);
                                 } catch (StorageException ex) {
                                     getIssueHandler().handle(new Message(ex, JOptionPane.ERROR_MESSAGE));
                                 }
@@ -366,7 +378,7 @@ public class JPAReflectionFormBuilder extends ReflectionFormBuilder<JPAFieldRetr
                         try {
                             storage.registerPostStoreCallback(instance, (object) -> {
                                 try {
-                                    storage.update(fieldCurrentValue);
+                                    storage.scheduleUpdate(fieldCurrentValue);
                                 } catch (StorageException ex) {
                                     getIssueHandler().handle(new Message(ex, JOptionPane.ERROR_MESSAGE));
                                 }
@@ -424,7 +436,7 @@ public class JPAReflectionFormBuilder extends ReflectionFormBuilder<JPAFieldRetr
                             try {
                                 storage.registerPostStoreCallback(instance, (object) -> {
                                     try {
-                                        storage.update(newValue);
+                                        storage.scheduleUpdate(newValue);
                                     } catch (StorageException ex) {
                                         getIssueHandler().handle(new Message(ex,
                                                 JOptionPane.ERROR_MESSAGE));
@@ -461,7 +473,7 @@ public class JPAReflectionFormBuilder extends ReflectionFormBuilder<JPAFieldRetr
                             try {
                                 storage.registerPostStoreCallback(instance, (object) -> {
                                     try {
-                                        storage.update(newValue);
+                                        storage.scheduleUpdate(newValue);
                                     } catch (StorageException ex) {
                                         getIssueHandler().handle(new Message(ex,
                                                 JOptionPane.ERROR_MESSAGE));
@@ -14,6 +14,7 @@
  */
 package de.richtercloud.reflection.form.builder.jpa;
 
+import de.richtercloud.reflection.form.builder.jpa.storage.MetamodelIndex;
 import de.richtercloud.validation.tools.FieldRetriever;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
@@ -154,6 +155,51 @@ public final class ReflectionFormBuilderHelperJPA {
         return retValue;
     }
 
+    /**
+     * Answers
+     * {@link #retrieveMappedFieldCandidates(java.lang.Class, java.util.List, de.richtercloud.validation.tools.FieldRetriever) }
+     * from {@code metamodelIndex} if it's available and covers
+     * {@code entityClass} without walking annotations and generic types.
+     *
+     * The index resolves element types from the metamodel so that collection
+     * types other than {@link List} are supported instead of causing an
+     * {@link IllegalArgumentException}. It requires the {@code ManyToOne} or
+     * {@code ManyToMany} association of the element type to reference
+     * {@code entityClass} or one of its sub- or superclasses, whereas the
+     * reflection-based variant compares the association with the element type
+     * and accepts every association with an explicit {@code targetEntity}.
+     * Both variants return the same fields for bidirectional {@link List}
+     * associations whose back reference specifies {@code targetEntity}, but
+     * the index returns bidirectional associations without
+     * {@code targetEntity} which the reflection-based variant misses and skips
+     * associations with a {@code targetEntity} of an unrelated class.
+     *
+     * @param metamodelIndex the index of the storage or {@code null}
+     * @param entityClass the entity class
+     * @param entityClassFields the entity class fields
+     * @param fieldRetriever the field retriever to use if the index can't be
+     *     used
+     * @return the set of fields as specified
+     */
+    public static Set<Field> retrieveMappedFieldCandidates(MetamodelIndex metamodelIndex,
+            Class<?> entityClass,
+            List<Field> entityClassFields,
+            FieldRetriever fieldRetriever) {
+        if(metamodelIndex == null || !metamodelIndex.isEntity(entityClass)) {
+            return retrieveMappedFieldCandidates(entityClass,
+                    entityClassFields,
+                    fieldRetriever);
+        }
+        Set<Field> candidates = metamodelIndex.getToManyMappedFieldCandidates(entityClass);
+        Set<Field> retValue = new HashSet<>();
+        for(Field entityClassField : entityClassFields) {
+            if(candidates.contains(entityClassField)) {
+                retValue.add(entityClassField);
+            }
+        }
+        return retValue;
+    }
+
     /**
      * Checks both the {@code entityClass} fields' annotations and the mapped
      * field candidates annotations for XToMany annoations with {@code mappedBy}
@@ -19,6 +19,7 @@ import de.richtercloud.message.handler.IssueHandler;
 import de.richtercloud.message.handler.MessageHandler;
 import de.richtercloud.reflection.form.builder.fieldhandler.FieldHandlingException;
 import de.richtercloud.reflection.form.builder.jpa.storage.FieldInitializer;
+import de.richtercloud.reflection.form.builder.jpa.storage.MetamodelIndex;
 import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
 import de.richtercloud.validation.tools.FieldRetriever;
 import java.awt.Component;
@@ -27,6 +28,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.DefaultListSelectionModel;
 import javax.swing.GroupLayout;
 import javax.swing.JComponent;
@@ -72,6 +74,8 @@ public abstract class AbstractQueryPanel<E> extends JPanel {
     private final MessageHandler messageHandler;
     private final List<E> initialValues;
     private final FieldRetriever fieldRetriever;
+    private final FieldInitializer fieldInitializer;
+    private final IssueHandler issueHandler;
 
     /**
      * Creates an {@code AbstractQueryPanel}.
@@ -123,6 +127,8 @@ public abstract class AbstractQueryPanel<E> extends JPanel {
             throw new IllegalArgumentException("messageHandler mustn't be null");
         }
         this.messageHandler = issueHandler;
+        this.issueHandler = issueHandler;
+        this.fieldInitializer = fieldInitializer;
         this.initialValues = initialValues;
         this.bidirectionalControlPanelSeparator = new JSeparator();
         this.separator = new JSeparator();
@@ -147,10 +153,21 @@ public abstract class AbstractQueryPanel<E> extends JPanel {
         this.queryResultTableRowSorter = new TableRowSorter<>(queryResultTableModel);
         this.queryResultTable.setRowSorter(queryResultTableRowSorter);
         this.queryComponent.addListener((QueryComponentEvent<E> event) -> {
+            if(event.isProjection()) {
+                queryResultTableRowSorter.setSortKeys(null);
+                queryResultTableModel.setProjectionStore(entityClass,
+                        storage.getMetamodelIndex(),
+                        event.getProjectionAttributeNames(),
+                        event.getProjectionStore(),
+                        this::loadEntity);
+                selectInitialValues();
+                return;
+            }
             List<E> queryResults = event.getQueryResults();
             try {
                 for(E queryResult : queryResults) {
-                    fieldInitializer.initialize(queryResult);
+                    storage.initialize(queryResult,
+                            fieldInitializer);
                     //every result retrieved for the query should be
                     //initialized
                 }
@@ -168,11 +185,7 @@ public abstract class AbstractQueryPanel<E> extends JPanel {
                 issueHandler.handleUnexpectedException(new ExceptionMessage(ex));
                 return;
             }
-            for(E initialValue : initialValues) {
-                int initialValueIndex = queryResultTableModel.getEntities().indexOf(initialValue);
-                queryResultTable.getSelectionModel().addSelectionInterval(initialValueIndex,
-                        initialValueIndex);
-            }
+            selectInitialValues();
         });
 
         GroupLayout layout = new GroupLayout(this);
@@ -253,6 +266,93 @@ public abstract class AbstractQueryPanel<E> extends JPanel {
         this.bidirectionalControlPanel = bidirectionalControlPanel;
     }
 
+    private void selectInitialValues() {
+        for(E initialValue : initialValues) {
+            int initialValueIndex = queryResultTableModel.getEntities().indexOf(initialValue);
+            queryResultTable.getSelectionModel().addSelectionInterval(initialValueIndex,
+                    initialValueIndex);
+        }
+    }
+
+    /**
+     * Loads the complete entity of a row in projection mode once it's
+     * selected on a thread of the async storage (see
+     * {@link PersistenceStorage#getAsyncStorage() }).
+     * @param rowEntityClass the class of the entity
+     * @param id the id of the entity
+     * @return a future which is completed with the initialized entity
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<E> loadEntity(Class<?> rowEntityClass,
+            Object id) {
+        return storage.getAsyncStorage().submit(() -> {
+            E retValue = (E) storage.retrieve(id,
+                    rowEntityClass);
+            if(retValue != null) {
+                try {
+                    storage.initialize(retValue,
+                            fieldInitializer);
+                } catch (FieldHandlingException ex) {
+                    LOGGER.error("unexpected exception during initialization of "
+                            + "loaded entity occured",
+                            ex);
+                    issueHandler.handleUnexpectedException(new ExceptionMessage(ex));
+                }
+            }
+            return retValue;
+        });
+    }
+
+    /*
+    internal implementation notes:
+    - only fields of the queried entity class are projected, fields which are
+    only declared in subclasses are displayed once the entity is loaded
+    */
+    /**
+     * Makes the query result table retrieve only the values of cheaply
+     * retrievable columns (see
+     * {@link EntityTableModel#isProjectable(java.lang.reflect.Field) } and
+     * {@link PersistenceStorage#retrieveLargeAttributeNames(java.lang.Class) }) with a
+     * projection query instead of complete entities. Complete entities are
+     * loaded lazily when a row is selected. This reduces the memory per row
+     * by orders of magnitude if entities contain binary data.
+     *
+     * @return {@code true} if projection mode has been enabled, {@code false}
+     *     if the entity class doesn't support it because it doesn't have a
+     *     single id field or if the query component queries several storages
+     *     (see
+     *     {@link QueryComponent#setFanOutQueryExecutor(de.richtercloud.reflection.form.builder.jpa.storage.FanOutQueryExecutor, java.util.Comparator) })
+     *     or if the storage isn't started
+     */
+    public boolean enableProjection() {
+        MetamodelIndex metamodelIndex = storage.getMetamodelIndex();
+        if(queryComponent.getFanOutQueryExecutor() != null
+                || metamodelIndex == null) {
+            return false;
+        }
+        List<String> projectionAttributeNames = queryResultTableModel.retrieveProjectionAttributeNames(entityClass,
+                metamodelIndex);
+        if(projectionAttributeNames == null) {
+            return false;
+        }
+        projectionAttributeNames.removeAll(storage.retrieveLargeAttributeNames(entityClass));
+            //the metamodel also knows large attributes which are mapped in
+            //XML or by type
+        queryComponent.setProjectionAttributeNames(projectionAttributeNames);
+        return true;
+    }
+
+    /**
+     * Makes the query result table retrieve complete entities again.
+     */
+    public void disableProjection() {
+        queryComponent.setProjectionAttributeNames(null);
+    }
+
+    public boolean isProjectionEnabled() {
+        return queryComponent.getProjectionAttributeNames() != null;
+    }
+
     /*
     internal implementation notes:
     - can't add a check whether mgr is a GroupLayout and fail with
@@ -343,6 +443,10 @@ public abstract class AbstractQueryPanel<E> extends JPanel {
         return messageHandler;
     }
 
+    public IssueHandler getIssueHandler() {
+        return issueHandler;
+    }
+
     public List<E> getInitialValues() {
         return Collections.unmodifiableList(initialValues);
     }
@@ -14,7 +14,10 @@
  */
 package de.richtercloud.reflection.form.builder.jpa.panels;
 
+import de.richtercloud.reflection.form.builder.jpa.storage.AsyncPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.CancellableQuery;
 import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority;
 import de.richtercloud.reflection.form.builder.storage.StorageException;
 import java.util.Collections;
 import java.util.HashSet;
@@ -28,6 +31,11 @@ import javax.swing.JPanel;
  */
 public abstract class AbstractStringPanel extends JPanel {
     private static final long serialVersionUID = 1L;
+    /**
+     * The time after which check queries are aborted since their result is
+     * most likely outdated by then.
+     */
+    public final static long CHECK_TIMEOUT_MILLIS = 10000;
     private final PersistenceStorage storage;
     private final int initialQueryLimit;
     private final Class<?> entityClass;
@@ -63,17 +71,48 @@ public abstract class AbstractStringPanel extends JPanel {
      * @param textFieldText the text field text to check
      * @return the list of suggestions
      */
-    /*
-    internal implementation notes:
-    - retrieving Query.getResultList is the shortest, maybe only way of getting
-    the size of the result set
-    */
     protected List<String> check(String textFieldText) throws StorageException {
+        return prepareCheck(textFieldText).execute();
+    }
+
+    /**
+     * Counts the entities which match {@code textFieldText} like
+     * {@link #check(java.lang.String) } without retrieving them. Use this if
+     * only the number of matches is needed.
+     * @param textFieldText the text field text to check
+     * @return the number of matching entities
+     * @throws StorageException if an exception occurs during the query
+     */
+    protected long checkCount(String textFieldText) throws StorageException {
+        return storage.count(generateQueryText(textFieldText),
+                QueryPriority.INTERACTIVE);
+    }
+
+    /**
+     * Creates the query of {@link #check(java.lang.String) } which can be
+     * cancelled if its result isn't needed anymore, e.g. because the text
+     * field has been changed while it's running. The query is aborted after
+     * {@link #CHECK_TIMEOUT_MILLIS}.
+     * @param textFieldText the text field text to check
+     * @return the cancellable query
+     */
+    protected CancellableQuery<String> prepareCheck(String textFieldText) {
         String queryText = generateQueryText(textFieldText);
-        List<String> retValue = storage.runQuery(queryText,
+        return storage.prepareQuery(queryText,
                 String.class, //clazz
-                this.initialQueryLimit);
-        return retValue;
+                this.initialQueryLimit,
+                QueryPriority.INTERACTIVE,
+                    //the user is waiting for the result while typing
+                CHECK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * The facade of the storage which should be used to run checks off the
+     * EDT.
+     * @return the asynchronous storage
+     */
+    protected AsyncPersistenceStorage getAsyncStorage() {
+        return storage.getAsyncStorage();
     }
 
     /**
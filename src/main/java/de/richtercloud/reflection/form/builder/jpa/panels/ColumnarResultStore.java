@@ -0,0 +1,303 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.panels;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/*
+internal implementation notes:
+- a row-oriented Object[] per row requires a boxed value and a header for every
+cell and an array per row, column-oriented primitive arrays only need 8 bytes
+per numeric cell and one bit per boolean cell
+- values are boxed again on read which is cheap compared to rendering and only
+happens for visible cells
+*/
+/**
+ * A compact, column-oriented, append-only store for query results. Numeric and
+ * boolean columns are kept in primitive arrays, all other columns in plain
+ * object arrays. {@code null} values are tracked in a separate bit set for
+ * primitive columns.
+ *
+ * @author richter
+ */
+class ColumnarResultStore {
+    private final static int INITIAL_CAPACITY = 16;
+    private final List<Class<?>> columnTypes;
+    private final Column[] columns;
+    private int rowCount;
+    private int capacity = INITIAL_CAPACITY;
+
+    /**
+     * Creates a {@code ColumnarResultStore}.
+     * @param columnTypes the declared type of every column which determines
+     *     how the column is stored
+     */
+    ColumnarResultStore(List<Class<?>> columnTypes) {
+        this.columnTypes = Collections.unmodifiableList(columnTypes);
+        this.columns = new Column[columnTypes.size()];
+        for(int i=0; i<columns.length; i++) {
+            columns[i] = createColumn(columnTypes.get(i));
+        }
+    }
+
+    private Column createColumn(Class<?> columnType) {
+        if(long.class.equals(columnType) || Long.class.equals(columnType)
+                || int.class.equals(columnType) || Integer.class.equals(columnType)
+                || short.class.equals(columnType) || Short.class.equals(columnType)
+                || byte.class.equals(columnType) || Byte.class.equals(columnType)) {
+            return new LongColumn(columnType);
+        }
+        if(double.class.equals(columnType) || Double.class.equals(columnType)
+                || float.class.equals(columnType) || Float.class.equals(columnType)) {
+            return new DoubleColumn(columnType);
+        }
+        if(boolean.class.equals(columnType) || Boolean.class.equals(columnType)) {
+            return new BooleanColumn();
+        }
+        return new ObjectColumn();
+    }
+
+    /**
+     * Appends a row.
+     * @param values the values of the row in column order
+     * @throws IllegalArgumentException if the number of values doesn't match
+     *     the number of columns
+     */
+    public void addRow(Object[] values) {
+        if(values.length != columns.length) {
+            throw new IllegalArgumentException(String.format("row has %d "
+                    + "values, but store has %d columns",
+                    values.length,
+                    columns.length));
+        }
+        if(rowCount == capacity) {
+            capacity *= 2;
+            for(Column column : columns) {
+                column.grow(capacity);
+            }
+        }
+        for(int i=0; i<columns.length; i++) {
+            columns[i].set(rowCount,
+                    values[i]);
+        }
+        rowCount++;
+    }
+
+    public Object getValue(int row,
+            int column) {
+        if(row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException(String.format("row %d is out "
+                    + "of bounds (row count is %d)",
+                    row,
+                    rowCount));
+        }
+        return columns[column].get(row);
+    }
+
+    /**
+     * Retrieves all values of row {@code row}.
+     * @param row the row index
+     * @return a new array with the values of the row in column order
+     */
+    public Object[] getRow(int row) {
+        Object[] retValue = new Object[columns.length];
+        for(int i=0; i<columns.length; i++) {
+            retValue[i] = getValue(row,
+                    i);
+        }
+        return retValue;
+    }
+
+    public List<Class<?>> getColumnTypes() {
+        return columnTypes;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Removes all rows and releases the memory occupied by them.
+     */
+    public void clear() {
+        rowCount = 0;
+        capacity = INITIAL_CAPACITY;
+        for(Column column : columns) {
+            column.reset(capacity);
+        }
+    }
+
+    private interface Column {
+
+        void set(int row, Object value);
+
+        Object get(int row);
+
+        void grow(int capacity);
+
+        void reset(int capacity);
+    }
+
+    private static class LongColumn implements Column {
+        private final Class<?> type;
+        private long[] values = new long[INITIAL_CAPACITY];
+        private final BitSet nulls = new BitSet();
+
+        LongColumn(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        public void set(int row, Object value) {
+            if(value == null) {
+                nulls.set(row);
+            }else {
+                values[row] = ((Number)value).longValue();
+            }
+        }
+
+        @Override
+        public Object get(int row) {
+            if(nulls.get(row)) {
+                return null;
+            }
+            long value = values[row];
+            if(int.class.equals(type) || Integer.class.equals(type)) {
+                return (int)value;
+            }else if(short.class.equals(type) || Short.class.equals(type)) {
+                return (short)value;
+            }else if(byte.class.equals(type) || Byte.class.equals(type)) {
+                return (byte)value;
+            }
+            return value;
+        }
+
+        @Override
+        public void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        public void reset(int capacity) {
+            values = new long[capacity];
+            nulls.clear();
+        }
+    }
+
+    private static class DoubleColumn implements Column {
+        private final Class<?> type;
+        private double[] values = new double[INITIAL_CAPACITY];
+        private final BitSet nulls = new BitSet();
+
+        DoubleColumn(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        public void set(int row, Object value) {
+            if(value == null) {
+                nulls.set(row);
+            }else {
+                values[row] = ((Number)value).doubleValue();
+            }
+        }
+
+        @Override
+        public Object get(int row) {
+            if(nulls.get(row)) {
+                return null;
+            }
+            if(float.class.equals(type) || Float.class.equals(type)) {
+                return (float)values[row];
+            }
+            return values[row];
+        }
+
+        @Override
+        public void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        public void reset(int capacity) {
+            values = new double[capacity];
+            nulls.clear();
+        }
+    }
+
+    private static class BooleanColumn implements Column {
+        private final BitSet values = new BitSet();
+        private final BitSet nulls = new BitSet();
+
+        @Override
+        public void set(int row, Object value) {
+            if(value == null) {
+                nulls.set(row);
+            }else {
+                values.set(row, (Boolean)value);
+            }
+        }
+
+        @Override
+        public Object get(int row) {
+            if(nulls.get(row)) {
+                return null;
+            }
+            return values.get(row);
+        }
+
+        @Override
+        public void grow(int capacity) {
+            //BitSet grows itself
+        }
+
+        @Override
+        public void reset(int capacity) {
+            values.clear();
+            nulls.clear();
+        }
+    }
+
+    private static class ObjectColumn implements Column {
+        private Object[] values = new Object[INITIAL_CAPACITY];
+
+        @Override
+        public void set(int row, Object value) {
+            values[row] = value;
+        }
+
+        @Override
+        public Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        public void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        public void reset(int capacity) {
+            values = new Object[capacity];
+        }
+    }
+}
@@ -16,8 +16,16 @@ package de.richtercloud.reflection.form.builder.jpa.panels;
 
 import de.richtercloud.reflection.form.builder.FieldInfo;
 import de.richtercloud.reflection.form.builder.fieldhandler.FieldHandlingException;
+import de.richtercloud.reflection.form.builder.jpa.storage.AsyncPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.MetamodelIndex;
 import de.richtercloud.validation.tools.FieldRetriever;
 import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Modifier;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -25,15 +33,45 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import javax.persistence.ElementCollection;
+import javax.persistence.Lob;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
 import javax.swing.table.DefaultTableModel;
 
+/*
+internal implementation notes:
+- in projection mode rows aren't stored in DefaultTableModel's data vector which
+stays empty, row count and values are retrieved from projectionStore instead
+- columns are configured the same way in both modes so that switching back to
+entity mode after clear doesn't require an update of columns
+- entities are loaded asynchronously in projection mode and stored on the EDT
+where the model is accessed, results of loads which have been started before
+the model has been changed are discarded
+*/
 /**
+ * A table model for entities which either holds complete entities or - in
+ * projection mode (see
+ * {@link #setProjectionRows(java.lang.Class, de.richtercloud.reflection.form.builder.jpa.storage.MetamodelIndex, java.util.List, java.util.List, de.richtercloud.reflection.form.builder.jpa.panels.EntityTableModel.EntityLoader) })
+ * - only the values of the displayed columns which can be retrieved from the
+ * database cheaply in a compact column-oriented store. Entities are loaded
+ * lazily in projection mode once they're requested through
+ * {@link #retrieveEntity(int) } or {@link #getEntities() }.
  *
  * @author richter
  * @param <E> the entity type
  */
 public class EntityTableModel<E> extends DefaultTableModel {
+    /**
+     * The value displayed for columns which haven't been retrieved in
+     * projection mode before the entity of the row has been loaded.
+     */
+    public final static String VALUE_NOT_LOADED = "(not loaded)";
 
     private static final long serialVersionUID = 1L;
     private final List<E> entities;
@@ -54,6 +92,21 @@ public class EntityTableModel<E> extends DefaultTableModel {
      * in order to avoid unnecessary iterations.
      */
     private Set<Class<?>> entityClasses = new HashSet<>();
+    /**
+     * The store of projection rows with the entity class in the first column
+     * followed by the projected attribute values or {@code null} if the model
+     * isn't in projection mode.
+     */
+    private ColumnarResultStore projectionStore;
+    /**
+     * Maps model column indices to columns of {@code projectionStore}. Columns
+     * which aren't contained haven't been projected.
+     */
+    private final Map<Integer, Integer> projectionColumns = new HashMap<>();
+    private int projectionIdColumn;
+    private Field projectionIdField;
+    private EntityLoader<E> projectionEntityLoader;
+    private ProjectedEntityList projectedEntities;
 
     public EntityTableModel(FieldRetriever fieldRetriever) throws FieldHandlingException {
         this(new LinkedList<E>(),
@@ -114,6 +167,9 @@ public class EntityTableModel<E> extends DefaultTableModel {
      * @throws FieldHandlingException if an exception occurs during field access
      */
     public void updateColumns(List<E> entities) throws FieldHandlingException {
+        if(projectionStore != null) {
+            clearProjection();
+        }
         Set<Class<?>> entityClassesNew = new HashSet<>();
         for(E entity : entities) {
             entityClassesNew.add(entity.getClass());
@@ -125,17 +181,29 @@ public class EntityTableModel<E> extends DefaultTableModel {
             return;
         }
 
-        this.setColumnCount(0); //(Default)TableModel doesn't have a better way
-            //to remove columns
-        fields.clear();
-        tooltipTextMap.clear();
         //Remove all rows and add them again after the columns have been changed
         while(this.getRowCount() > 0) {
             this.removeRow(0);
         }
-        this.entityClasses = entityClassesNew;
         List<E> entitiesOriginal = new LinkedList<>(this.entities);
         this.entities.clear();
+        configureColumns(entityClassesNew);
+        for(E entityOriginal : entitiesOriginal) {
+            addEntity(entityOriginal);
+        }
+    }
+
+    /**
+     * Recreates the columns for the relevant fields of {@code entityClassesNew}
+     * and a type column if it contains more than one class.
+     * @param entityClassesNew the classes to create columns for
+     */
+    private void configureColumns(Set<Class<?>> entityClassesNew) {
+        this.setColumnCount(0); //(Default)TableModel doesn't have a better way
+            //to remove columns
+        fields.clear();
+        tooltipTextMap.clear();
+        this.entityClasses = entityClassesNew;
         int i=0;
         if(entityClasses.size() > 1) {
             this.addColumn("Type");
@@ -161,9 +229,6 @@ public class EntityTableModel<E> extends DefaultTableModel {
                 i++;
             }
         }
-        for(E entityOriginal : entitiesOriginal) {
-            addEntity(entityOriginal);
-        }
     }
 
     /**
@@ -176,6 +241,7 @@ public class EntityTableModel<E> extends DefaultTableModel {
      *     fields
      */
     public void addEntity(E entity) throws FieldHandlingException {
+        checkNotProjection();
         List<Class<?>> entityClassesHierarchy = new LinkedList<>(this.entityClasses);
         Collections.sort(entityClassesHierarchy, (Class<?> o1, Class<?> o2) -> {
             if(o1.equals(o2)) {
@@ -233,19 +299,49 @@ public class EntityTableModel<E> extends DefaultTableModel {
     }
 
     public void removeEntity(E entity) {
+        checkNotProjection();
         removeRow(entities.indexOf(entity));
         entities.remove(entity);
     }
 
     public void removeEntity(int index) {
+        checkNotProjection();
         removeRow(index);
         entities.remove(index);
     }
 
+    /**
+     * The entities of the model. In projection mode entities are loaded
+     * synchronously when they're retrieved from the returned list with
+     * {@link List#get(int) } which blocks the calling thread, use
+     * {@link #retrieveEntity(int) } on the EDT instead.
+     * {@link List#indexOf(java.lang.Object) } and
+     * {@link List#contains(java.lang.Object) } compare ids without loading.
+     * @return the entities
+     */
     public List<E> getEntities() {
+        if(projectionStore != null) {
+            return Collections.unmodifiableList(projectedEntities);
+        }
         return Collections.unmodifiableList(entities);
     }
 
+    /**
+     * Retrieves the entity of model row {@code row} without blocking. In
+     * projection mode the entity is loaded asynchronously if it hasn't been
+     * loaded yet and the row is updated once the load completes.
+     * @param row the model row index
+     * @return a future which is completed on the EDT with the entity or
+     *     {@code null} if it has been removed in projection mode in the
+     *     meantime
+     */
+    public CompletableFuture<E> retrieveEntity(int row) {
+        if(projectionStore != null) {
+            return projectedEntities.getAsync(row);
+        }
+        return CompletableFuture.completedFuture(entities.get(row));
+    }
+
     public Map<Integer, String> getTooltipTextMap() {
         return Collections.unmodifiableMap(tooltipTextMap);
     }
@@ -254,6 +350,10 @@ public class EntityTableModel<E> extends DefaultTableModel {
      * Clears all data structures of the model.
      */
     public void clear() {
+        if(projectionStore != null) {
+            clearProjection();
+            return;
+        }
         while(this.getRowCount() > 0) {
             this.removeRow(0);
         }
@@ -263,4 +363,387 @@ public class EntityTableModel<E> extends DefaultTableModel {
         //remain exactly the same and they would be certainly overwritten if new
         //classes are introduced
     }
+
+    /**
+     * Whether {@code field} can be retrieved in a projection query cheaply,
+     * i.e. it's neither a large binary or character object nor an association
+     * or collection which would require to load other entities.
+     * @param field the field to check
+     * @return {@code true} if {@code field} can be projected, {@code false}
+     *     otherwise
+     */
+    public static boolean isProjectable(Field field) {
+        Class<?> fieldType = field.getType();
+        return !Modifier.isStatic(field.getModifiers())
+                && !Modifier.isTransient(field.getModifiers())
+                && !field.isAnnotationPresent(Lob.class)
+                && !field.isAnnotationPresent(OneToMany.class)
+                && !field.isAnnotationPresent(ManyToMany.class)
+                && !field.isAnnotationPresent(ManyToOne.class)
+                && !field.isAnnotationPresent(OneToOne.class)
+                && !field.isAnnotationPresent(ElementCollection.class)
+                && !fieldType.isArray()
+                && !Collection.class.isAssignableFrom(fieldType)
+                && !Map.class.isAssignableFrom(fieldType)
+                && !Blob.class.isAssignableFrom(fieldType)
+                && !Clob.class.isAssignableFrom(fieldType);
+    }
+
+    /**
+     * Retrieves the field of the single id attribute of {@code entityClass}
+     * from {@code metamodelIndex}.
+     * @param entityClass the entity class
+     * @param metamodelIndex the metamodel index of the storage
+     * @return the id field or {@code null} if {@code entityClass} uses an
+     *     {@link javax.persistence.IdClass} or property access
+     */
+    private static Field retrieveIdField(Class<?> entityClass,
+            MetamodelIndex metamodelIndex) {
+        String idAttributeName = metamodelIndex.getIdAttributeName(entityClass);
+        if(idAttributeName == null) {
+            return null;
+        }
+        Member idMember = metamodelIndex.getAttributeMember(entityClass,
+                idAttributeName);
+        if(!(idMember instanceof Field)) {
+            return null;
+        }
+        return (Field) idMember;
+    }
+
+    /**
+     * Retrieves the names of the attributes to pass to a projection query for
+     * {@code entityClass}, i.e. the id and all projectable relevant fields
+     * (see {@link #isProjectable(java.lang.reflect.Field) }).
+     * @param entityClass the queried entity class
+     * @param metamodelIndex the metamodel index of the storage
+     * @return the attribute names with the id first or {@code null} if
+     *     {@code entityClass} doesn't support projection because it doesn't
+     *     have a single id field
+     */
+    public List<String> retrieveProjectionAttributeNames(Class<?> entityClass,
+            MetamodelIndex metamodelIndex) {
+        Field idField = retrieveIdField(entityClass,
+                metamodelIndex);
+        if(idField == null) {
+            return null;
+        }
+        List<String> retValue = new LinkedList<>();
+        retValue.add(idField.getName());
+        for(Field field : fieldRetriever.retrieveRelevantFields(entityClass)) {
+            if(!field.equals(idField)
+                    && isProjectable(field)) {
+                retValue.add(field.getName());
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * Replaces the content of the model with {@code projectionRows} retrieved
+     * with a projection query and switches to projection mode. The mode is left
+     * with {@link #clear() } or
+     * {@link #updateColumns(java.util.List) }.
+     *
+     * @param entityClass the queried entity class
+     * @param metamodelIndex the metamodel index of the storage
+     * @param attributeNames the names of the projected attributes as returned
+     *     by {@link #retrieveProjectionAttributeNames(java.lang.Class, de.richtercloud.reflection.form.builder.jpa.storage.MetamodelIndex) }
+     * @param projectionRows the rows with the entity class as first element
+     *     followed by the values of {@code attributeNames}
+     * @param entityLoader the loader of complete entities
+     */
+    public void setProjectionRows(Class<?> entityClass,
+            MetamodelIndex metamodelIndex,
+            List<String> attributeNames,
+            List<Object[]> projectionRows,
+            EntityLoader<E> entityLoader) {
+        Map<String, Field> relevantFields = new HashMap<>();
+        for(Field field : fieldRetriever.retrieveRelevantFields(entityClass)) {
+            relevantFields.put(field.getName(), field);
+        }
+        Field idField = retrieveIdField(entityClass,
+                metamodelIndex);
+        List<Class<?>> storeColumnTypes = new ArrayList<>(attributeNames.size()+1);
+        storeColumnTypes.add(Class.class);
+        for(String attributeName : attributeNames) {
+            Field field = idField != null && attributeName.equals(idField.getName())
+                    ? idField
+                    : relevantFields.get(attributeName);
+            storeColumnTypes.add(field != null ? field.getType() : Object.class);
+        }
+        ColumnarResultStore store = new ColumnarResultStore(storeColumnTypes);
+        for(Object[] projectionRow : projectionRows) {
+            store.addRow(projectionRow);
+        }
+        setProjectionStore(entityClass,
+                metamodelIndex,
+                attributeNames,
+                store,
+                entityLoader);
+    }
+
+    /**
+     * Replaces the content of the model with the rows of
+     * {@code projectionStore} and switches to projection mode without copying
+     * the rows.
+     *
+     * @param entityClass the queried entity class
+     * @param metamodelIndex the metamodel index of the storage
+     * @param attributeNames the names of the projected attributes as returned
+     *     by {@link #retrieveProjectionAttributeNames(java.lang.Class, de.richtercloud.reflection.form.builder.jpa.storage.MetamodelIndex) }
+     * @param projectionStore the store with the entity class in the first
+     *     column followed by the values of {@code attributeNames}
+     * @param entityLoader the loader of complete entities
+     */
+    void setProjectionStore(Class<?> entityClass,
+            MetamodelIndex metamodelIndex,
+            List<String> attributeNames,
+            ColumnarResultStore projectionStore,
+            EntityLoader<E> entityLoader) {
+        Field idField = retrieveIdField(entityClass,
+                metamodelIndex);
+        if(idField == null || !idField.getName().equals(attributeNames.get(0))) {
+            throw new IllegalArgumentException(String.format("attributeNames "
+                    + "have to start with the single id attribute of %s",
+                    entityClass.getName()));
+        }
+        clear();
+        Set<Class<?>> entityClassesNew = new HashSet<>();
+        for(int i=0; i<projectionStore.getRowCount(); i++) {
+            entityClassesNew.add((Class<?>) projectionStore.getValue(i,
+                    0));
+        }
+        if(entityClassesNew.isEmpty()) {
+            entityClassesNew.add(entityClass);
+        }
+        configureColumns(entityClassesNew);
+        projectionColumns.clear();
+        for(Map.Entry<Integer, Field> column : fields.entrySet()) {
+            int attributeIndex = attributeNames.indexOf(column.getValue().getName());
+            if(attributeIndex >= 0
+                    && column.getValue().getDeclaringClass().isAssignableFrom(entityClass)) {
+                projectionColumns.put(column.getKey(),
+                        attributeIndex+1);
+            }
+        }
+        idField.setAccessible(true);
+        this.projectionIdField = idField;
+        this.projectionIdColumn = 1;
+        this.projectionEntityLoader = entityLoader;
+        this.projectionStore = projectionStore;
+        this.projectedEntities = new ProjectedEntityList(projectionStore.getRowCount());
+        fireTableDataChanged();
+    }
+
+    public boolean isProjection() {
+        return projectionStore != null;
+    }
+
+    private void clearProjection() {
+        projectionStore = null;
+        projectedEntities = null;
+        projectionEntityLoader = null;
+        projectionColumns.clear();
+        fireTableDataChanged();
+    }
+
+    private void checkNotProjection() {
+        if(projectionStore != null) {
+            throw new IllegalStateException("the model is in projection mode, "
+                    + "use clear in order to leave it");
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        if(projectionStore != null) {
+            return projectionStore.getRowCount();
+        }
+        return super.getRowCount();
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if(projectionStore == null) {
+            return super.getValueAt(row, column);
+        }
+        Class<?> rowClass = (Class<?>) projectionStore.getValue(row, 0);
+        if(entityClasses.size() > 1 && column == 0) {
+            return rowClass.getSimpleName(); //type column
+        }
+        Integer storeColumn = projectionColumns.get(column);
+        if(storeColumn != null) {
+            return projectionStore.getValue(row, storeColumn);
+        }
+        Field field = fields.get(column);
+        if(!field.getDeclaringClass().isAssignableFrom(rowClass)) {
+            //field of another subclass
+            return null;
+        }
+        E entity = projectedEntities.getLoaded(row);
+        if(entity == null) {
+            return VALUE_NOT_LOADED;
+        }
+        try {
+            return field.get(entity);
+        } catch (IllegalArgumentException
+                | IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void setValueAt(Object aValue, int row, int column) {
+        checkNotProjection();
+        super.setValueAt(aValue, row, column);
+    }
+
+    /**
+     * Loads complete entities in projection mode.
+     * @param <E> the entity type
+     */
+    @FunctionalInterface
+    public interface EntityLoader<E> {
+
+        /**
+         * Starts loading the entity with id {@code id} without blocking the
+         * calling thread.
+         * @param entityClass the class of the entity which has been retrieved
+         *     in the projection query
+         * @param id the id of the entity
+         * @return a future which is completed with the loaded entity or
+         *     {@code null} if it has been removed in the meantime
+         */
+        CompletableFuture<E> load(Class<?> entityClass, Object id);
+    }
+
+    /**
+     * The list of entities in projection mode which loads entities once they're
+     * requested.
+     */
+    private class ProjectedEntityList extends AbstractList<E> {
+        private final Object[] loadedEntities;
+        /**
+         * The loads which have been started by {@link #getAsync(int) } and
+         * haven't completed yet in order to avoid loading an entity twice if
+         * it's requested again during the load.
+         */
+        private final Map<Integer, CompletableFuture<E>> loadingEntities = new HashMap<>();
+
+        ProjectedEntityList(int size) {
+            this.loadedEntities = new Object[size];
+        }
+
+        @SuppressWarnings("unchecked")
+        E getLoaded(int index) {
+            return (E) loadedEntities[index];
+        }
+
+        private CompletableFuture<E> startLoad(int index) {
+            return projectionEntityLoader.load((Class<?>) projectionStore.getValue(index, 0),
+                    projectionStore.getValue(index, projectionIdColumn));
+        }
+
+        private void storeLoaded(int index,
+                E entity) {
+            if(entity == null
+                    || projectedEntities != this
+                    || loadedEntities[index] != null) {
+                //removed in the meantime, the model has been changed during
+                //the load or the entity has been loaded synchronously
+                return;
+            }
+            loadedEntities[index] = entity;
+            fireTableRowsUpdated(index, index);
+                //display the columns which haven't been projected
+        }
+
+        /**
+         * Loads the entity at {@code index} asynchronously if it hasn't been
+         * loaded yet. Has to be called on the EDT.
+         * @param index the index
+         * @return a future which is completed on the EDT after the entity has
+         *     been stored in the model
+         */
+        CompletableFuture<E> getAsync(int index) {
+            E loaded = getLoaded(index);
+            if(loaded != null) {
+                return CompletableFuture.completedFuture(loaded);
+            }
+            CompletableFuture<E> retValue = loadingEntities.get(index);
+            if(retValue == null) {
+                CompletableFuture<E> loading = new CompletableFuture<>();
+                loadingEntities.put(index,
+                        loading);
+                AsyncPersistenceStorage.whenCompleteOnEDT(startLoad(index),
+                        (entity, ex) -> {
+                            loadingEntities.remove(index);
+                            if(ex != null) {
+                                loading.completeExceptionally(ex);
+                                return;
+                            }
+                            storeLoaded(index,
+                                    entity);
+                            E storedEntity = getLoaded(index);
+                            loading.complete(storedEntity != null
+                                    ? storedEntity
+                                    : entity);
+                        });
+                retValue = loading;
+            }
+            return retValue;
+        }
+
+        /**
+         * Loads the entity at {@code index} synchronously if it hasn't been
+         * loaded yet.
+         * @param index the index
+         * @return the entity or {@code null} if it has been removed in the
+         *     meantime
+         * @throws java.util.concurrent.CompletionException if the load fails
+         */
+        @Override
+        public E get(int index) {
+            E retValue = getLoaded(index);
+            if(retValue == null) {
+                retValue = startLoad(index).join();
+                storeLoaded(index,
+                        retValue);
+            }
+            return retValue;
+        }
+
+        @Override
+        public int size() {
+            return loadedEntities.length;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            if(o == null
+                    || !projectionIdField.getDeclaringClass().isInstance(o)) {
+                return -1;
+            }
+            Object id;
+            try {
+                id = projectionIdField.get(o);
+            } catch (IllegalArgumentException
+                    | IllegalAccessException ex) {
+                throw new IllegalStateException(ex);
+            }
+            for(int i=0; i<loadedEntities.length; i++) {
+                if(Objects.equals(id, projectionStore.getValue(i, projectionIdColumn))) {
+                    //ids are unique in the entity hierarchy
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return indexOf(o) >= 0;
+        }
+    }
 }
@@ -18,9 +18,21 @@ import de.richtercloud.message.handler.ExceptionMessage;
 import de.richtercloud.message.handler.IssueHandler;
 import de.richtercloud.message.handler.Message;
 import de.richtercloud.reflection.form.builder.fieldhandler.FieldHandlingException;
+import de.richtercloud.reflection.form.builder.jpa.storage.AsyncPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.CancellableQuery;
+import de.richtercloud.reflection.form.builder.jpa.storage.FanOutQueryExecutor;
+import de.richtercloud.reflection.form.builder.jpa.storage.MetamodelIndex;
 import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.QueryCancelledException;
+import de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority;
 import de.richtercloud.reflection.form.builder.storage.StorageException;
 import java.awt.event.ActionEvent;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashSet;
@@ -28,6 +40,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.BorderFactory;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.GroupLayout;
@@ -42,7 +57,6 @@ import javax.swing.JTextArea;
 import javax.swing.LayoutStyle;
 import javax.swing.SpinnerModel;
 import javax.swing.SpinnerNumberModel;
-import javax.swing.SwingUtilities;
 import javax.swing.event.PopupMenuEvent;
 import javax.swing.event.PopupMenuListener;
 import org.slf4j.Logger;
@@ -125,6 +139,32 @@ public class QueryComponent<E> extends JPanel {
      * create the text.
      */
     private final QueryHistoryEntryStorage entryStorage;
+    /**
+     * The currently running query which is cancelled if a new query is
+     * started before it finishes.
+     */
+    private final AtomicReference<CancellableQuery<?>> runningQuery = new AtomicReference<>();
+    /**
+     * The timeout after which queries are aborted or {@code 0} for no timeout.
+     */
+    private volatile long queryTimeoutMillis;
+    /**
+     * The names of the attributes which are retrieved in a projection query
+     * instead of the complete entities or {@code null} if complete entities
+     * ought to be retrieved.
+     */
+    private volatile List<String> projectionAttributeNames;
+    /**
+     * The executor which runs queries on several storages in parallel instead
+     * of {@code storage} or {@code null} if only {@code storage} ought to be
+     * queried.
+     */
+    private volatile FanOutQueryExecutor fanOutQueryExecutor;
+    /**
+     * The order in which results of fan-out queries are merged or
+     * {@code null} if they're merged in the order the storages answer.
+     */
+    private volatile Comparator<? super E> fanOutResultComparator;
 
     public static void validateEntityClass(Class<?> entityClass,
             PersistenceStorage storage) {
@@ -426,10 +466,13 @@ public class QueryComponent<E> extends JPanel {
         if(!async) {
             try {
                 LOGGER.debug("running query synchronously");
-                List<E> queryResult = executeQueryNonGUI(queryLimit, queryText);
+                QueryComponentEvent<E> queryResult = executeQueryNonGUI(queryLimit, queryText);
                 executeQueryGUI(queryResult,
                         queryText,
                         skipHistoryEntryUsageCountIncrement);
+            }catch(QueryCancelledException ex) {
+                LOGGER.debug("query has been cancelled", ex);
+                this.queryStatusLabel.setText(generateCancellationStatusMessage(ex));
             }catch(StorageException ex) {
                 LOGGER.info("an exception occured while executing the query", ex);
                 this.queryStatusLabel.setText(generateStatusMessage(ex.getMessage()));
@@ -437,30 +480,37 @@ public class QueryComponent<E> extends JPanel {
         }else {
             LOGGER.debug("running query asynchronously");
             this.setEnabled(false);
-            Thread queryThread = new Thread(() -> {
-                List<E> queryResult;
-                try {
-                    queryResult = executeQueryNonGUI(queryLimit, queryText);
-                } catch (StorageException ex) {
+            CompletableFuture<QueryComponentEvent<E>> queryFuture = storage.getAsyncStorage().submit(() -> executeQueryNonGUI(queryLimit,
+                    queryText));
+            AsyncPersistenceStorage.whenCompleteOnEDT(queryFuture,
+                    (queryResult, ex) -> {
+                if(ex instanceof QueryCancelledException) {
+                    LOGGER.debug("query has been cancelled", ex);
+                    this.queryStatusLabel.setText(generateCancellationStatusMessage((QueryCancelledException) ex));
+                }else if(ex instanceof StorageException) {
                     LOGGER.info("an exception occured while executing the query", ex);
                     this.queryStatusLabel.setText(generateStatusMessage(ex.getMessage()));
-                    return;
-                }
-                SwingUtilities.invokeLater(() -> {
+                }else if(ex instanceof RejectedExecutionException) {
+                    LOGGER.info("query has been rejected", ex);
+                    this.queryStatusLabel.setText(generateStatusMessage("Too "
+                            + "many operations are pending, try again later"));
+                }else if(ex != null) {
+                    LOGGER.error("an unexpected exception occured during query execution",
+                            ex);
+                    issueHandler.handleUnexpectedException(new ExceptionMessage(ex));
+                }else {
                     try {
                         executeQueryGUI(queryResult,
                                 queryText,
                                 skipHistoryEntryUsageCountIncrement);
-                        setEnabled(true);
-                    }catch(Throwable ex) {
+                    }catch(Throwable guiEx) {
                         LOGGER.error("an unexpected exception occured during query execution GUI callback",
-                                ex);
-                        issueHandler.handleUnexpectedException(new ExceptionMessage(ex));
+                                guiEx);
+                        issueHandler.handleUnexpectedException(new ExceptionMessage(guiEx));
                     }
-                });
-            },
-                    "query-thread");
-            queryThread.start();
+                }
+                setEnabled(true);
+            });
         }
     }
 
@@ -468,16 +518,97 @@ public class QueryComponent<E> extends JPanel {
      * The non-GUI part of {@link #executeQuery(int, java.lang.String, boolean) }.
      * @param queryLimit the query limit
      * @param queryText the query text
-     * @return the list of retrieved queries
+     * @return the unfiltered query results or projection rows
      * @throws StorageException in case the storage access fails
      */
-    private List<E> executeQueryNonGUI(int queryLimit,
+    private QueryComponentEvent<E> executeQueryNonGUI(int queryLimit,
             String queryText) throws StorageException {
         LOGGER.debug("executing query '{}'", queryText);
-        List<E> queryResults = storage.runQuery(queryText, entityClass, queryLimit);
+        List<String> projectionAttributeNames = this.projectionAttributeNames;
+        FanOutQueryExecutor fanOutQueryExecutor = this.fanOutQueryExecutor;
+        QueryComponentEvent<E> retValue;
+        if(projectionAttributeNames == null) {
+            CancellableQuery<E> query;
+            if(fanOutQueryExecutor == null) {
+                query = storage.prepareQuery(queryText,
+                        entityClass,
+                        queryLimit,
+                        QueryPriority.NORMAL,
+                        queryTimeoutMillis);
+            }else {
+                query = fanOutQueryExecutor.prepareQuery(queryText,
+                        entityClass,
+                        queryLimit,
+                        QueryPriority.NORMAL,
+                        queryTimeoutMillis,
+                        fanOutResultComparator);
+            }
+            retValue = new QueryComponentEvent<>(executeCancellableQuery(query));
+        }else {
+            //projection mode and fan-out are mutually exclusive
+            ColumnarResultStore projectionStore = new ColumnarResultStore(retrieveProjectionColumnTypes(projectionAttributeNames));
+            CancellableQuery<Object[]> query = storage.prepareProjectionCursorQuery(queryText,
+                    projectionAttributeNames,
+                    queryLimit,
+                    QueryPriority.NORMAL,
+                    queryTimeoutMillis,
+                    projectionStore::addRow);
+            executeCancellableQuery(query);
+            retValue = new QueryComponentEvent<>(projectionAttributeNames,
+                    projectionStore);
+        }
         this.lastQueryLimit = queryLimit;
         this.lastQueryText = queryText;
-        return queryResults;
+        return retValue;
+    }
+
+    /**
+     * The column types of the store of projection rows, i.e. {@link Class} for
+     * the entity class followed by the declared types of
+     * {@code projectionAttributeNames} which allows numeric and boolean
+     * attributes to be stored in primitive arrays.
+     * @param projectionAttributeNames the names of the projected attributes
+     * @return the column types
+     */
+    private List<Class<?>> retrieveProjectionColumnTypes(List<String> projectionAttributeNames) {
+        MetamodelIndex metamodelIndex = storage.getMetamodelIndex();
+        List<Class<?>> retValue = new ArrayList<>(projectionAttributeNames.size()+1);
+        retValue.add(Class.class);
+        for(String projectionAttributeName : projectionAttributeNames) {
+            Member attributeMember = metamodelIndex == null
+                    ? null
+                    : metamodelIndex.getAttributeMember(entityClass,
+                            projectionAttributeName);
+            if(attributeMember instanceof Field) {
+                retValue.add(((Field)attributeMember).getType());
+            }else if(attributeMember instanceof Method) {
+                retValue.add(((Method)attributeMember).getReturnType());
+            }else {
+                retValue.add(Object.class);
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * Executes {@code query} after cancelling the currently running query
+     * which is superseded by it.
+     * @param <T> the type of results
+     * @param query the query to execute
+     * @return the query results
+     * @throws StorageException in case the storage access fails
+     */
+    private <T> List<T> executeCancellableQuery(CancellableQuery<T> query) throws StorageException {
+        CancellableQuery<?> supersededQuery = runningQuery.getAndSet(query);
+        if(supersededQuery != null) {
+            supersededQuery.cancel();
+        }
+        try {
+            return query.execute();
+        }finally {
+            runningQuery.compareAndSet(query,
+                    null);
+        }
     }
 
     /*
@@ -489,8 +620,8 @@ public class QueryComponent<E> extends JPanel {
     */
     /**
      * The GUI-part of {@link #executeQuery(int, java.lang.String, boolean) }.
-     * @param queryResults the query results which should have been retrieved in
-     *     the non-GUI routine of executing queries, i.e.
+     * @param queryResult the query results or projection rows which should
+     *     have been retrieved in the non-GUI routine of executing queries, i.e.
      *     {@link #executeQueryNonGUI(int, java.lang.String) }
      * @param queryText the text used to retrieve the query results
      * @param skipHistoryEntryUsageCountIncrement allows to skip the increment
@@ -499,46 +630,52 @@ public class QueryComponent<E> extends JPanel {
      *     created and the query run without the users explicit request
      */
     @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
-    private void executeQueryGUI(List<E> queryResults,
+    private void executeQueryGUI(QueryComponentEvent<E> queryResult,
             String queryText,
             boolean skipHistoryEntryUsageCountIncrement) {
-        ListIterator<E> queryResultsItr = queryResults.listIterator();
-        while(queryResultsItr.hasNext()) {
-            E queryResult = queryResultsItr.next();
-            //first check whether query requests are assignable from entity
-            //class in order to avoid nonsense - or in the case of
-            //SUBTYPES_FORBID for equality...
-            assert subtypeComboBox.getSelectedItem() != null;
-            if(subtypeComboBox.getSelectedItem().equals(SUBTYPES_FORBID)) {
-                if(!queryResult.getClass().equals(entityClass)) {
-                    this.issueHandler.handle(new Message("The query result "
-                            + "contained entities which are not of the extact "
-                            + "type of this query panel (super and subclasses "
-                            + "aren't allow, consider adding a "
-                            + "`WHERE TYPE([identifier]) = [entity class]` "
-                            + "clause to the query)",
-                            JOptionPane.ERROR_MESSAGE,
-                            "Query error"));
+        QueryComponentEvent<E> event;
+        if(!queryResult.isProjection()) {
+            List<E> queryResults = new LinkedList<>(queryResult.getQueryResults());
+            ListIterator<E> queryResultsItr = queryResults.listIterator();
+            while(queryResultsItr.hasNext()) {
+                Class<?> resultClass = queryResultsItr.next().getClass();
+                if(!validateResultClass(resultClass)) {
                     return;
                 }
-            } else {
-                if(!entityClass.isAssignableFrom(queryResult.getClass())) {
-                    this.issueHandler.handle(new Message(String.format("The query result "
-                            + "contained entities which are not a subtype of "
-                            + "the entity class %s.", entityClass.getSimpleName()),
-                            JOptionPane.ERROR_MESSAGE,
-                            "Query error"));
+                if(isResultClassFiltered(resultClass)) {
+                    queryResultsItr.remove();
+                }
+            }
+            event = new QueryComponentEvent<>(queryResults);
+        }else {
+            //rows are only copied if some of them are filtered in order to
+            //keep the memory footprint of large results low
+            ColumnarResultStore projectionStore = queryResult.getProjectionStore();
+            BitSet filteredRows = new BitSet();
+            for(int i=0; i<projectionStore.getRowCount(); i++) {
+                Class<?> resultClass = (Class<?>) projectionStore.getValue(i,
+                        0);
+                if(!validateResultClass(resultClass)) {
                     return;
                 }
+                if(isResultClassFiltered(resultClass)) {
+                    filteredRows.set(i);
+                }
             }
-            //...then eventually filter
-            if(subtypeComboBox.getSelectedItem().equals(SUBTYPES_FILTER)
-                    && !queryResult.getClass().equals(entityClass)) {
-                queryResultsItr.remove();
+            if(!filteredRows.isEmpty()) {
+                ColumnarResultStore unfilteredStore = projectionStore;
+                projectionStore = new ColumnarResultStore(unfilteredStore.getColumnTypes());
+                for(int i=0; i<unfilteredStore.getRowCount(); i++) {
+                    if(!filteredRows.get(i)) {
+                        projectionStore.addRow(unfilteredStore.getRow(i));
+                    }
+                }
             }
+            event = new QueryComponentEvent<>(queryResult.getProjectionAttributeNames(),
+                    projectionStore);
         }
         for(QueryComponentListener<E> listener : listeners) {
-            listener.onQueryExecuted(new QueryComponentEvent<>(queryResults));
+            listener.onQueryExecuted(event);
         }
         this.queryStatusLabel.setText("Query executed successfully.");
         //- Rather than figuring out which (badly documented) JComboBox function
@@ -585,6 +722,45 @@ public class QueryComponent<E> extends JPanel {
             //to create a new item
     }
 
+    /**
+     * Checks whether query results are assignable from entity class in order
+     * to avoid nonsense - or in the case of {@link #SUBTYPES_FORBID} for
+     * equality - and reports an error if they're not.
+     * @param resultClass the class of a query result
+     * @return {@code true} if the result is valid, {@code false} otherwise
+     */
+    private boolean validateResultClass(Class<?> resultClass) {
+        assert subtypeComboBox.getSelectedItem() != null;
+        if(subtypeComboBox.getSelectedItem().equals(SUBTYPES_FORBID)) {
+            if(!resultClass.equals(entityClass)) {
+                this.issueHandler.handle(new Message("The query result "
+                        + "contained entities which are not of the extact "
+                        + "type of this query panel (super and subclasses "
+                        + "aren't allow, consider adding a "
+                        + "`WHERE TYPE([identifier]) = [entity class]` "
+                        + "clause to the query)",
+                        JOptionPane.ERROR_MESSAGE,
+                        "Query error"));
+                return false;
+            }
+        } else {
+            if(!entityClass.isAssignableFrom(resultClass)) {
+                this.issueHandler.handle(new Message(String.format("The query result "
+                        + "contained entities which are not a subtype of "
+                        + "the entity class %s.", entityClass.getSimpleName()),
+                        JOptionPane.ERROR_MESSAGE,
+                        "Query error"));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isResultClassFiltered(Class<?> resultClass) {
+        return subtypeComboBox.getSelectedItem().equals(SUBTYPES_FILTER)
+                && !resultClass.equals(entityClass);
+    }
+
     public void repeatLastQuery() {
         executeQuery(lastQueryLimit,
                 lastQueryText,
@@ -605,6 +781,108 @@ public class QueryComponent<E> extends JPanel {
         return queryComboBox;
     }
 
+    /**
+     * Cancels the currently running query if there's any. The query reports a
+     * cancellation in the status label.
+     */
+    public void cancelQuery() {
+        CancellableQuery<?> query = runningQuery.get();
+        if(query != null) {
+            query.cancel();
+        }
+    }
+
+    public long getQueryTimeoutMillis() {
+        return queryTimeoutMillis;
+    }
+
+    /**
+     * Sets the timeout after which queries are aborted.
+     * @param queryTimeoutMillis the timeout in milliseconds or {@code 0} for no
+     *     timeout
+     */
+    public void setQueryTimeoutMillis(long queryTimeoutMillis) {
+        this.queryTimeoutMillis = queryTimeoutMillis;
+    }
+
+    public List<String> getProjectionAttributeNames() {
+        return projectionAttributeNames;
+    }
+
+    /**
+     * Makes the component run queries as projections which only retrieve
+     * {@code projectionAttributeNames} instead of complete entities, see
+     * {@link PersistenceStorage#prepareProjectionQuery(java.lang.String, java.util.List, int, de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority, long) }.
+     * Listeners then receive {@link QueryComponentEvent}s with projection
+     * rows. Queries entered by the user have to select a single
+     * identification variable in this mode.
+     * @param projectionAttributeNames the names of the attributes to retrieve
+     *     or {@code null} in order to retrieve complete entities
+     * @throws IllegalStateException if {@code projectionAttributeNames} isn't
+     *     {@code null} and a fan-out executor is set (see
+     *     {@link #setFanOutQueryExecutor(de.richtercloud.reflection.form.builder.jpa.storage.FanOutQueryExecutor, java.util.Comparator) })
+     */
+    public void setProjectionAttributeNames(List<String> projectionAttributeNames) {
+        if(projectionAttributeNames != null
+                && fanOutQueryExecutor != null) {
+            throw new IllegalStateException("projection mode isn't supported "
+                    + "while a fan-out executor is set");
+        }
+        this.projectionAttributeNames = projectionAttributeNames == null
+                ? null
+                : Collections.unmodifiableList(new ArrayList<>(projectionAttributeNames));
+    }
+
+    public FanOutQueryExecutor getFanOutQueryExecutor() {
+        return fanOutQueryExecutor;
+    }
+
+    /*
+    internal implementation notes:
+    - projection mode is rejected because entities of projection rows are
+    loaded from the storage of the component while the row might have been
+    retrieved from another storage of the executor
+    */
+    /**
+     * Makes the component run queries on all storages of
+     * {@code fanOutQueryExecutor} in parallel, e.g. in order to search
+     * several archives at once. The query limit applies to the merged
+     * results. The component doesn't shut down the executor.
+     *
+     * Results don't carry the storage they've been retrieved from, so
+     * listeners have to treat them as read-only and mustn't update or delete
+     * them through the storage of the component. Projection mode (see
+     * {@link #setProjectionAttributeNames(java.util.List) }) isn't supported
+     * while an executor is set.
+     *
+     * @param fanOutQueryExecutor the executor or {@code null} in order to
+     *     query only the storage passed to the constructor
+     * @param resultComparator the order of merged results which the query
+     *     should produce with its {@code ORDER BY} clause as well or
+     *     {@code null} to merge results in the order the storages answer
+     * @throws IllegalStateException if {@code fanOutQueryExecutor} isn't
+     *     {@code null} and projection mode is enabled
+     */
+    public void setFanOutQueryExecutor(FanOutQueryExecutor fanOutQueryExecutor,
+            Comparator<? super E> resultComparator) {
+        if(fanOutQueryExecutor != null
+                && projectionAttributeNames != null) {
+            throw new IllegalStateException("a fan-out executor isn't "
+                    + "supported in projection mode");
+        }
+        this.fanOutResultComparator = resultComparator;
+        this.fanOutQueryExecutor = fanOutQueryExecutor;
+    }
+
+    private String generateCancellationStatusMessage(QueryCancelledException ex) {
+        if(ex.isTimeout()) {
+            return generateStatusMessage(String.format("Query exceeded the "
+                    + "timeout of %d ms",
+                    queryTimeoutMillis));
+        }
+        return generateStatusMessage("Query has been cancelled");
+    }
+
     /**
      * Allows later changes to message generation depending on the mechanism
      * used for displaying (label (might require {@code <html></html>} tags around message), textarea, dialog, etc.)
@@ -14,6 +14,7 @@
  */
 package de.richtercloud.reflection.form.builder.jpa.panels;
 
+import java.util.AbstractList;
 import java.util.Collections;
 import java.util.List;
 
@@ -28,14 +29,106 @@ public class QueryComponentEvent<E> {
     - Has generic type `? extends E` rather than `E` in order to allow passing
     return value of Query.getResultList directly. This is for convenience only
     and can be changed back in case of trouble.
+    - projection rows are kept in the compact store they've been read into
+    from the cursor and only exposed as list view, rows passed as list are
+    copied into a store with untyped columns
     */
     private final List<E> queryResults;
+    /**
+     * The names of the projected attributes or {@code null} if the query
+     * hasn't been run as projection.
+     */
+    private final List<String> projectionAttributeNames;
+    /**
+     * The store of projection rows or {@code null} if the query hasn't been
+     * run as projection.
+     */
+    private final ColumnarResultStore projectionStore;
 
     public QueryComponentEvent(List<E> queryResults) {
         this.queryResults = queryResults;
+        this.projectionAttributeNames = null;
+        this.projectionStore = null;
     }
 
+    /**
+     * Creates an event for a query which has been run as projection, see
+     * {@link de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage#prepareProjectionQuery(java.lang.String, java.util.List, int, de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority, long) }.
+     * @param projectionAttributeNames the names of the projected attributes
+     * @param projectionRows the rows with the entity class as first element
+     *     followed by the values of {@code projectionAttributeNames}
+     */
+    public QueryComponentEvent(List<String> projectionAttributeNames,
+            List<Object[]> projectionRows) {
+        this(projectionAttributeNames,
+                new ColumnarResultStore(Collections.nCopies(projectionAttributeNames.size()+1,
+                        Object.class)));
+        for(Object[] projectionRow : projectionRows) {
+            projectionStore.addRow(projectionRow);
+        }
+    }
+
+    /**
+     * Creates an event for a query which has been run as projection with the
+     * rows in {@code projectionStore}.
+     * @param projectionAttributeNames the names of the projected attributes
+     * @param projectionStore the store with the entity class in the first
+     *     column followed by the values of {@code projectionAttributeNames}
+     */
+    QueryComponentEvent(List<String> projectionAttributeNames,
+            ColumnarResultStore projectionStore) {
+        this.queryResults = Collections.emptyList();
+        this.projectionAttributeNames = projectionAttributeNames;
+        this.projectionStore = projectionStore;
+    }
+
+    /**
+     * The retrieved entities which is empty if the query has been run as
+     * projection.
+     * @return the query results
+     */
     public List<E> getQueryResults() {
         return Collections.unmodifiableList(queryResults);
     }
+
+    public boolean isProjection() {
+        return projectionAttributeNames != null;
+    }
+
+    public List<String> getProjectionAttributeNames() {
+        return projectionAttributeNames == null
+                ? null
+                : Collections.unmodifiableList(projectionAttributeNames);
+    }
+
+    /**
+     * The projection rows. Every access to a row creates a new array.
+     * @return the rows which are empty if the query hasn't been run as
+     *     projection
+     */
+    public List<Object[]> getProjectionRows() {
+        if(projectionStore == null) {
+            return Collections.emptyList();
+        }
+        return new AbstractList<Object[]>() {
+            @Override
+            public Object[] get(int index) {
+                return projectionStore.getRow(index);
+            }
+
+            @Override
+            public int size() {
+                return projectionStore.getRowCount();
+            }
+        };
+    }
+
+    /**
+     * The store of the projection rows.
+     * @return the store or {@code null} if the query hasn't been run as
+     *     projection
+     */
+    ColumnarResultStore getProjectionStore() {
+        return projectionStore;
+    }
 }
@@ -0,0 +1,86 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.panels;
+
+import de.richtercloud.reflection.form.builder.jpa.storage.WarmUpQuerySource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Provides the most used queries of a {@link QueryHistoryEntryStorage} for
+ * the warm-up of a storage (see
+ * {@link de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage#warmUp(de.richtercloud.reflection.form.builder.jpa.storage.WarmUpQuerySource, de.richtercloud.reflection.form.builder.jpa.storage.StorageWarmUpListener) }).
+ *
+ * @author richter
+ */
+public class QueryHistoryWarmUpQuerySource implements WarmUpQuerySource {
+    /**
+     * The number of queries per entity class used by default.
+     */
+    public final static int QUERY_COUNT_DEFAULT = 5;
+    private final QueryHistoryEntryStorage entryStorage;
+    private final int queryCount;
+
+    public QueryHistoryWarmUpQuerySource(QueryHistoryEntryStorage entryStorage) {
+        this(entryStorage,
+                QUERY_COUNT_DEFAULT);
+    }
+
+    /**
+     * Creates a new {@code QueryHistoryWarmUpQuerySource}.
+     * @param entryStorage the storage to retrieve the query history from
+     * @param queryCount the maximum number of queries per entity class
+     */
+    public QueryHistoryWarmUpQuerySource(QueryHistoryEntryStorage entryStorage,
+            int queryCount) {
+        if(entryStorage == null) {
+            throw new IllegalArgumentException("entryStorage mustn't be null");
+        }
+        if(queryCount < 0) {
+            throw new IllegalArgumentException("queryCount mustn't be negative");
+        }
+        this.entryStorage = entryStorage;
+        this.queryCount = queryCount;
+    }
+
+    /**
+     * Retrieves the texts of the {@code queryCount} entries with the highest
+     * usage count for {@code entityClass}.
+     * @param entityClass the entity class
+     * @return the query texts ordered by descending usage count
+     */
+    @Override
+    public List<String> retrieveQueryTexts(Class<?> entityClass) {
+        List<QueryHistoryEntry> entries = entryStorage.retrieve(entityClass);
+        if(entries == null || entries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<QueryHistoryEntry> sortedEntries = new ArrayList<>(entries);
+        sortedEntries.sort(Collections.reverseOrder());
+            //QueryHistoryEntry is ordered by usage count
+        List<String> retValue = new ArrayList<>(Math.min(queryCount,
+                sortedEntries.size()));
+        for(QueryHistoryEntry entry : sortedEntries) {
+            if(retValue.size() == queryCount) {
+                break;
+            }
+            if(!retValue.contains(entry.getText())) {
+                retValue.add(entry.getText());
+            }
+        }
+        return retValue;
+    }
+}
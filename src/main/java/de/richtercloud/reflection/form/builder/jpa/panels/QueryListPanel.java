@@ -34,6 +34,7 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.GroupLayout;
 import javax.swing.JButton;
 import javax.swing.JLabel;
@@ -72,11 +73,13 @@ public class QueryListPanel<E> extends AbstractQueryPanel<E> {
     private final JSplitPane resultSplitPane;
     private final JPanel resultPanel;
 
-    private static BidirectionalControlPanel generateBidirectionalControlPanel(Class<?> entityClass,
+    private static BidirectionalControlPanel generateBidirectionalControlPanel(PersistenceStorage storage,
+            Class<?> entityClass,
             FieldRetriever fieldRetriever,
             String bidirectionalHelpDialogTitle) throws FieldHandlingException {
         List<Field> entityClassFields = fieldRetriever.retrieveRelevantFields(entityClass);
-        Set<Field> mappedFieldCandidates = ReflectionFormBuilderHelperJPA.retrieveMappedFieldCandidates(entityClass,
+        Set<Field> mappedFieldCandidates = ReflectionFormBuilderHelperJPA.retrieveMappedFieldCandidates(storage.getMetamodelIndex(),
+                entityClass,
                 entityClassFields,
                 fieldRetriever);
         BidirectionalControlPanel bidirectionalControlPanel = new BidirectionalControlPanel(entityClass,
@@ -116,7 +119,8 @@ public class QueryListPanel<E> extends AbstractQueryPanel<E> {
             FieldInitializer fieldInitializer,
             QueryHistoryEntryStorage entryStorage) throws ResetException,
             FieldHandlingException {
-        super(generateBidirectionalControlPanel(entityClass,
+        super(generateBidirectionalControlPanel(storage,
+                entityClass,
                 fieldRetriever,
                 bidirectionalHelpDialogTitle),
                 new QueryComponent<>(storage,
@@ -149,6 +153,11 @@ public class QueryListPanel<E> extends AbstractQueryPanel<E> {
         this.resultPanel = new JPanel();
 
         this.getQueryComponent().addListener((QueryComponentEvent<E> event) -> {
+            if(event.isProjection()) {
+                //entities aren't loaded yet, columns are updated when they're
+                //added
+                return;
+            }
             try {
                 resultTable.getModel().updateColumns(event.getQueryResults());
             }catch(FieldHandlingException ex) {
@@ -260,12 +269,51 @@ public class QueryListPanel<E> extends AbstractQueryPanel<E> {
     })
     private void addButtonActionPerformed(ActionEvent evt) {
         int[] indices = this.getQueryResultTable().getSelectedRows();
+        int[] convertedIndices = new int[indices.length];
+        List<CompletableFuture<E>> queryResultFutures = new LinkedList<>();
+        for(int i=0; i<indices.length; i++) {
+            convertedIndices[i] = this.getQueryResultTable().convertRowIndexToModel(indices[i]);
+                //necessary since sorting is possible
+            queryResultFutures.add(this.getQueryResultTable().getModel().retrieveEntity(convertedIndices[i]));
+                //entities might have to be loaded in projection mode which
+                //mustn't block the EDT
+        }
+        CompletableFuture.allOf(queryResultFutures.toArray(new CompletableFuture<?>[queryResultFutures.size()])).whenComplete((result, ex) -> {
+            //futures are completed on the EDT
+            if(ex != null) {
+                LOGGER.error("unexpected exception during loading of selected entities occured",
+                        ex);
+                getIssueHandler().handleUnexpectedException(new ExceptionMessage(ex));
+                return;
+            }
+            List<E> queryResults = new LinkedList<>();
+            for(CompletableFuture<E> queryResultFuture : queryResultFutures) {
+                queryResults.add(queryResultFuture.join());
+            }
+            addQueryResults(convertedIndices,
+                    queryResults);
+        });
+    }
+
+    /**
+     * Adds {@code queryResults} to the result table and notifies item
+     * listeners.
+     * @param convertedIndices the model indices of the query results in the
+     *     query result table
+     * @param queryResults the query results
+     */
+    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+    private void addQueryResults(int[] convertedIndices,
+            List<E> queryResults) {
         List<E> eventItems = new LinkedList<>(); //a list to pass to the item
             //event ought to be maintained before adding to resultTable's model
-        for(int index : indices) {
-            int convertedIndex = this.getQueryResultTable().convertRowIndexToModel(index);
-                //necessary since sorting is possible
-            E queryResult = this.getQueryResultTable().getModel().getEntities().get(convertedIndex);
+        for(int i=0; i<convertedIndices.length; i++) {
+            int convertedIndex = convertedIndices[i];
+            E queryResult = queryResults.get(i);
+            if(queryResult == null) {
+                //removed in the meantime
+                continue;
+            }
             eventItems.add(queryResult);
             for(ListPanelItemListener<E> updateListener : updateListeners) {
                 try {
@@ -278,6 +326,11 @@ public class QueryListPanel<E> extends AbstractQueryPanel<E> {
                 }
             }
             try {
+                List<E> resultEntities = new LinkedList<>(this.resultTable.getModel().getEntities());
+                resultEntities.add(queryResult);
+                this.resultTable.getModel().updateColumns(resultEntities);
+                    //necessary if the query result table is in projection
+                    //mode, doesn't do anything otherwise
                 this.resultTable.getModel().addEntity(queryResult);
             } catch (FieldHandlingException ex) {
                 LOGGER.info("an exception occured while executing the query", ex);
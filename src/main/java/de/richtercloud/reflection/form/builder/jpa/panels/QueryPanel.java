@@ -14,10 +14,12 @@
  */
 package de.richtercloud.reflection.form.builder.jpa.panels;
 
+import de.richtercloud.message.handler.ExceptionMessage;
 import de.richtercloud.message.handler.IssueHandler;
 import de.richtercloud.reflection.form.builder.ResetException;
 import de.richtercloud.reflection.form.builder.fieldhandler.FieldHandlingException;
 import de.richtercloud.reflection.form.builder.jpa.storage.FieldInitializer;
+import de.richtercloud.reflection.form.builder.jpa.storage.MetamodelIndex;
 import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
 import de.richtercloud.validation.tools.FieldRetriever;
 import java.lang.reflect.Field;
@@ -89,6 +91,41 @@ public class QueryPanel<E> extends AbstractQueryPanel<E> {
         return retValue;
     }
 
+    /**
+     * Answers {@link #retrieveMappedFieldCandidates(java.lang.Class, java.util.List) }
+     * from {@code metamodelIndex} if it's available and covers
+     * {@code entityClass}.
+     *
+     * The index only takes mapped {@code OneToOne} and {@code ManyToOne}
+     * associations of the target into account (including the ones inherited
+     * from its superclasses) which reference {@code entityClass} or one of its
+     * sub- or superclasses whereas the reflection-based variant checks every
+     * declared field of the target regardless of its mapping. Both variants
+     * return the same fields for bidirectional associations declared on the
+     * entity classes themselves.
+     *
+     * @param metamodelIndex the index of the storage or {@code null}
+     * @param entityClass the entity class
+     * @param entityClassFields the entity class fields
+     * @return the set of fields as specified
+     */
+    public static Set<Field> retrieveMappedFieldCandidates(MetamodelIndex metamodelIndex,
+            Class<?> entityClass,
+            List<Field> entityClassFields) {
+        if(metamodelIndex == null || !metamodelIndex.isEntity(entityClass)) {
+            return retrieveMappedFieldCandidates(entityClass,
+                    entityClassFields);
+        }
+        Set<Field> candidates = metamodelIndex.getToOneMappedFieldCandidates(entityClass);
+        Set<Field> retValue = new HashSet<>();
+        for(Field entityClassField : entityClassFields) {
+            if(candidates.contains(entityClassField)) {
+                retValue.add(entityClassField);
+            }
+        }
+        return retValue;
+    }
+
     /**
      * Retrieves the mapped-by field.
      * @param entityClassFields the entity class fields
@@ -149,7 +186,8 @@ public class QueryPanel<E> extends AbstractQueryPanel<E> {
                 new BidirectionalControlPanel(entityClass,
                         bidirectionalHelpDialogTitle,
                         retrieveMappedByFieldPanel(fieldRetriever.retrieveRelevantFields(entityClass)),
-                        retrieveMappedFieldCandidates(entityClass,
+                        retrieveMappedFieldCandidates(storage.getMetamodelIndex(),
+                                entityClass,
                                 fieldRetriever.retrieveRelevantFields(entityClass))),
                 queryResultTableHeight,
                 queryResultTableSelectionMode,
@@ -242,12 +280,25 @@ public class QueryPanel<E> extends AbstractQueryPanel<E> {
                     //no selection (might occur during initialization)
                     return;
                 }
-                Object newSelectionItem = QueryPanel.this.getQueryResultTable().getModel().getEntities().get(newSelectionIndex);
-                for(QueryPanelUpdateListener updateListener : getUpdateListeners()) {
-                    LOGGER.debug("notifying update listener {} about selection change", updateListener);
-                    updateListener.onUpdate(new QueryPanelUpdateEvent(newSelectionItem,
-                            QueryPanel.this));
-                }
+                //the entity might have to be loaded in projection mode which
+                //mustn't block the EDT
+                QueryPanel.this.getQueryResultTable().getModel().retrieveEntity(newSelectionIndex).whenComplete((newSelectionItem, ex) -> {
+                    if(ex != null) {
+                        LOGGER.error("unexpected exception during loading of selected entity occured",
+                                ex);
+                        getIssueHandler().handleUnexpectedException(new ExceptionMessage(ex));
+                        return;
+                    }
+                    if(QueryPanel.this.getQueryResultTableSelectionModel().getMinSelectionIndex() != newSelectionIndex) {
+                        //selection changed during the load
+                        return;
+                    }
+                    for(QueryPanelUpdateListener updateListener : getUpdateListeners()) {
+                        LOGGER.debug("notifying update listener {} about selection change", updateListener);
+                        updateListener.onUpdate(new QueryPanelUpdateEvent(newSelectionItem,
+                                QueryPanel.this));
+                    }
+                });
             }
         });
         getQueryComponent().runQuery(true, //async (at creation)
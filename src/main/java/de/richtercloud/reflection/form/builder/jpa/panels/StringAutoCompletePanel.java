@@ -23,7 +23,10 @@ import ca.odell.glazedlists.swing.DefaultEventComboBoxModel;
 import de.richtercloud.message.handler.ExceptionMessage;
 import de.richtercloud.message.handler.IssueHandler;
 import de.richtercloud.message.handler.Message;
+import de.richtercloud.reflection.form.builder.jpa.storage.AsyncPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.CancellableQuery;
 import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.QueryCancelledException;
 import de.richtercloud.reflection.form.builder.storage.StorageException;
 import de.richtercloud.validation.tools.FieldRetriever;
 import java.awt.EventQueue;
@@ -34,6 +37,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import javax.swing.JComboBox;
 import javax.swing.SwingUtilities;
 import javax.swing.text.JTextComponent;
@@ -80,7 +84,12 @@ public class StringAutoCompletePanel extends AbstractStringPanel {
      * is overkill and not constructive.
      */
     private boolean queryRunning;
-    private QueryThread pendingThread;
+    private QueryTask pendingTask;
+    /**
+     * The query of the currently running {@link QueryTask} which is
+     * cancelled when it's superseded by a newer update.
+     */
+    private volatile CancellableQuery<String> runningQuery;
 
     private static Field retrieveFieldByName(FieldRetriever fieldRetriever,
             Class<?> entityClass,
@@ -164,16 +173,17 @@ public class StringAutoCompletePanel extends AbstractStringPanel {
         this.comboBox.getEditor().getEditorComponent().addKeyListener(new KeyAdapter() {
             /**
              * Handles querying the storage with the text of the text field
-             * right after the update. The query happens on a separate thread.
-             * If a query is running while the method is invoked from the EDT,
-             * a reference for processing is stored and started from within the
-             * currently running query thread. This reference is overwritten by
+             * right after the update. The query happens on the executor of
+             * {@link AsyncPersistenceStorage}. If a query is running while the
+             * method is invoked from the EDT, a reference for processing is
+             * stored and submitted from within the currently running query
+             * task. This reference is overwritten by
              * any newer key release events which happen while the first query
              * is still running, so that the result of the last update doesn't
              * get lost like it would if the all updates would be discarded
              * while a query is running.
              *
-             * The fact that the next query thread is started from within the
+             * The fact that the next query task is submitted from within the
              * previous one avoids the need for a separate thread polling from a
              * queue which is more intuitive, but unnecessary and requires
              * overriding finalize.
@@ -191,16 +201,21 @@ public class StringAutoCompletePanel extends AbstractStringPanel {
                 assert textFieldText != null;
                 LOGGER.trace(String.format("checking auto-completion for text field text '%s'",
                         textFieldText));
-                pendingThread = new QueryThread(textFieldText);
+                pendingTask = new QueryTask(textFieldText);
                 if(!queryRunning) {
                     queryRunning = true;
-                    pendingThread.start();
+                    submitQueryTask(pendingTask);
                 }else {
                     LOGGER.trace(String.format("queuing auto-completion check "
                             + "for text field text '%s' (will be discarded if "
                             + "a newer update arrives before the currently "
                             + "running query terminates)",
                             textFieldText));
+                    CancellableQuery<String> runningQuery = StringAutoCompletePanel.this.runningQuery;
+                    if(runningQuery != null) {
+                        runningQuery.cancel();
+                            //the result of the running query is outdated
+                    }
                 }
             }
         });
@@ -235,16 +250,35 @@ public class StringAutoCompletePanel extends AbstractStringPanel {
     }
 
     /**
-     * A thread which handles queries for auto-completion candidates after text
-     * field updates. Starts a new thread as last statement if
-     * {@code pendingThread} has been overwritten by an update event.
+     * Submits {@code queryTask} to the executor of the storage. If the task is
+     * rejected because the executor is saturated or shut down, the query is
+     * skipped and the next update will try again.
+     * @param queryTask the task to submit
+     */
+    private void submitQueryTask(QueryTask queryTask) {
+        getAsyncStorage().submit(() -> {
+            queryTask.run();
+            return null;
+        }).whenComplete((result, ex) -> {
+            if(ex instanceof RejectedExecutionException) {
+                LOGGER.debug(String.format("auto-completion check for text "
+                        + "field text '%s' has been rejected",
+                        queryTask.textFieldText));
+                queryRunning = false;
+            }
+        });
+    }
+
+    /**
+     * A task which handles queries for auto-completion candidates after text
+     * field updates. Submits a new task as last statement if
+     * {@code pendingTask} has been overwritten by an update event.
      */
     @SuppressWarnings("PMD.AccessorMethodGeneration")
-    private class QueryThread extends Thread {
+    private class QueryTask implements Runnable {
         private final String textFieldText;
 
-        protected QueryThread(String textFieldText) {
-            super("string-auto-complete-panel-check-thread");
+        protected QueryTask(String textFieldText) {
             this.textFieldText = textFieldText;
         }
 
@@ -252,8 +286,10 @@ public class StringAutoCompletePanel extends AbstractStringPanel {
         @SuppressWarnings("PMD.AvoidCatchingThrowable")
         public void run() {
             List<String> checkResults;
+            CancellableQuery<String> query = prepareCheck(textFieldText);
+            runningQuery = query;
             try {
-                checkResults = check(textFieldText);
+                checkResults = query.execute();
                 if(!lastCheckResults.equals(checkResults)) {
                     try {
                         SwingUtilities.invokeAndWait(() -> {
@@ -274,6 +310,13 @@ public class StringAutoCompletePanel extends AbstractStringPanel {
                     }
                     lastCheckResults = checkResults;
                 }
+            }catch(QueryCancelledException ex) {
+                //superseded by a newer update or timed out in which case the
+                //next update will try again
+                LOGGER.debug(String.format("auto-completion check for text "
+                        + "field text '%s' has been cancelled (timeout: %s)",
+                        textFieldText,
+                        ex.isTimeout()));
             }catch(StorageException ex) {
                 LOGGER.error("an exception during storage occured", ex);
                 issueHandler.handle(new Message(ex));
@@ -283,9 +326,10 @@ public class StringAutoCompletePanel extends AbstractStringPanel {
                 issueHandler.handleUnexpectedException(new ExceptionMessage(ex));
                 throw ex;
             }finally {
-                if(pendingThread != null
-                        && pendingThread != this) {
-                    pendingThread.start();
+                runningQuery = null;
+                if(pendingTask != null
+                        && pendingTask != this) {
+                    submitQueryTask(pendingTask);
                 }else {
                     queryRunning = false;
                 }
@@ -18,15 +18,14 @@ import de.richtercloud.message.handler.ExceptionMessage;
 import de.richtercloud.message.handler.IssueHandler;
 import de.richtercloud.reflection.form.builder.ResetException;
 import de.richtercloud.reflection.form.builder.fieldhandler.FieldHandlingException;
+import de.richtercloud.reflection.form.builder.jpa.storage.AsyncPersistenceStorage;
 import de.richtercloud.reflection.form.builder.jpa.storage.FieldInitializer;
 import de.richtercloud.reflection.form.builder.jpa.storage.PersistenceStorage;
 import de.richtercloud.reflection.form.builder.storage.StorageException;
 import de.richtercloud.validation.tools.FieldRetriever;
 import java.util.Date;
-import java.util.List;
 import javax.swing.GroupLayout;
 import javax.swing.ListSelectionModel;
-import javax.swing.SwingUtilities;
 
 /**
  * A panel to include an automatic check for existing entites with the value
@@ -246,34 +245,29 @@ public class StringCheckPanel extends AbstractStringPanel {
             return;
         }
         if(!async) {
-            List<?> checkResult = check(this.textField.getText());
-            updateStatusLabelPostQuery(checkResult);
+            long checkCount = checkCount(this.textField.getText());
+            updateStatusLabelPostQuery(checkCount);
         }else {
-            Thread checkThread = new Thread(() -> {
-                this.setEnabled(false);
-                List<?> checkResult;
-                try {
-                    checkResult = check(textField.getText());
-                } catch (StorageException ex) {
-                    issueHander.handle(new ExceptionMessage(ex));
-                    return;
-                }
-                SwingUtilities.invokeLater(() -> {
-                    updateStatusLabelPostQuery(checkResult);
-                    setEnabled(true);
-                });
-            },
-                    "string-check-panel-check-thread");
-            checkThread.start();
+            this.setEnabled(false);
+            String textFieldText = textField.getText();
+            AsyncPersistenceStorage.whenCompleteOnEDT(getAsyncStorage().submit(() -> checkCount(textFieldText)),
+                    (checkCount, ex) -> {
+                        setEnabled(true);
+                        if(ex != null) {
+                            issueHander.handle(new ExceptionMessage(ex));
+                            return;
+                        }
+                        updateStatusLabelPostQuery(checkCount);
+                    });
         }
     }
 
-    private void updateStatusLabelPostQuery(List<?> checkResult) {
-        if(checkResult.isEmpty()) {
+    private void updateStatusLabelPostQuery(long checkCount) {
+        if(checkCount == 0) {
             this.statusLabel.setText(String.format("no existing entities with the specified value for this property are found in the database"));
             this.showButton.setEnabled(false);
         }else {
-            this.statusLabel.setText(String.format("%d entities with the specified value for this property exist already in the database", checkResult.size()));
+            this.statusLabel.setText(String.format("%d entities with the specified value for this property exist already in the database", checkCount));
             this.showButton.setEnabled(true);
         }
     }
@@ -37,19 +37,23 @@ public abstract class AbstractSequenceManager<T> implements SequenceManager<T> {
 
     protected <T> T doSQLTask(SQLTask<T> task) throws SequenceManagementException {
         EntityManager entityManager = getStorage().retrieveEntityManager();
-        entityManager.getTransaction().begin();
-        try(Connection connection = entityManager.unwrap(Connection.class)) {
-            try {
-                return task.run(connection);
-            } catch (SQLException ex) {
+        try {
+            entityManager.getTransaction().begin();
+            try(Connection connection = entityManager.unwrap(Connection.class)) {
+                try {
+                    return task.run(connection);
+                } catch (SQLException ex) {
+                    throw new SequenceManagementException(ex);
+                        //everything will be wrapped into a SequenceManagementException
+                        //anyway, so the wrapping might as well occur here
+                } finally {
+                    entityManager.getTransaction().commit();
+                }
+            }catch(SQLException ex) {
                 throw new SequenceManagementException(ex);
-                    //everything will be wrapped into a SequenceManagementException
-                    //anyway, so the wrapping might as well occur here
-            } finally {
-                entityManager.getTransaction().commit();
             }
-        }catch(SQLException ex) {
-            throw new SequenceManagementException(ex);
+        }finally {
+            getStorage().releaseEntityManager(entityManager);
         }
     }
 }
@@ -14,7 +14,11 @@
  */
 package de.richtercloud.reflection.form.builder.jpa.storage;
 
+import com.mchange.v2.c3p0.PooledDataSource;
+import de.richtercloud.message.handler.IssueHandler;
 import de.richtercloud.reflection.form.builder.FieldInfo;
+import de.richtercloud.reflection.form.builder.fieldhandler.FieldHandlingException;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManager;
 import de.richtercloud.reflection.form.builder.storage.AbstractStorage;
 import de.richtercloud.reflection.form.builder.storage.StorageCallback;
 import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
@@ -23,21 +27,79 @@ import de.richtercloud.reflection.form.builder.storage.StorageException;
 import de.richtercloud.validation.tools.FieldRetriever;
 import de.richtercloud.validation.tools.OutputMode;
 import de.richtercloud.validation.tools.ValidationUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.Semaphore;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.persistence.EntityExistsException;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.Lob;
 import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
+import javax.persistence.QueryTimeoutException;
 import javax.persistence.RollbackException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
-import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.sql.DataSource;
+import javax.swing.SwingUtilities;
+import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
+import javax.validation.Validation;
+import javax.validation.ValidationException;
+import javax.validation.Validator;
+import org.hibernate.CacheMode;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.LockOptions;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jpa.boot.internal.ParsedPersistenceXmlDescriptor;
+import org.hibernate.jpa.boot.internal.PersistenceXmlParser;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.proxy.HibernateProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,6 +122,12 @@ of DB and JPA provider) even occur when running only one query at the same time
 when having one 7-page document (with ca. 100 MB binary data) in the database
 - need to limit parallel querying in order to avoid memory leak no matter
 whether large binary data is fetched lazily or not
+- EntityManagers used to be created for every operation and never closed which
+let persistence contexts accumulate -> every operation now leases an
+EntityManager from EntityManagerPool and releases it in a finally block which
+clears the persistence context (see EntityManagerPool for details)
+- the prioritization of EDT queries mentioned above is implemented by
+QueryAdmissionController based on QueryPriority
 */
 /**
  * {@link Storage} which uses any kind of JPA with any underlying database.
@@ -68,6 +136,51 @@ whether large binary data is fetched lazily or not
  */
 public abstract class AbstractPersistenceStorage<C extends AbstractPersistenceStorageConf> extends AbstractStorage<Object, AbstractPersistenceStorageConf> implements PersistenceStorage<Long> {
     private final static Logger LOGGER = LoggerFactory.getLogger(AbstractPersistenceStorage.class);
+    /**
+     * The number of objects after which the persistence context is flushed and
+     * cleared in bulk operations like {@link #storeAll(java.util.Collection) }
+     * which is also used as JDBC batch size.
+     */
+    public final static int BATCH_SIZE = 50;
+    /**
+     * The number of rows fetched in one round trip by
+     * {@link #prepareProjectionCursorQuery(java.lang.String, java.util.List, int, de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority, long, java.util.function.Consumer) }.
+     */
+    private final static int PROJECTION_FETCH_SIZE = 500;
+    /**
+     * The factor of the initial parallel query count the adaptive query limit
+     * can grow to.
+     */
+    public final static int MAX_QUERY_LIMIT_FACTOR = 4;
+    /**
+     * The maximum time to wait for a running warm-up to stop in
+     * {@link #shutdown() }.
+     */
+    private final static long WARM_UP_CANCEL_TIMEOUT_MILLIS = 5000;
+    /**
+     * The standard JPA hint for the query timeout in milliseconds.
+     */
+    private final static String QUERY_TIMEOUT_HINT = "javax.persistence.query.timeout";
+    private final static String KEYSET_SORT_KEY_PARAMETER = "keysetLastSortKey";
+    private final static String KEYSET_ID_PARAMETER = "keysetLastId";
+    private final static String PARTIAL_UPDATE_ID_PARAMETER = "partialUpdateId";
+    private final static Pattern WHERE_PATTERN = Pattern.compile("\\bWHERE\\b",
+            Pattern.CASE_INSENSITIVE);
+    private final static Pattern SELECT_PATTERN = Pattern.compile("^\\s*SELECT\\s+(DISTINCT\\s+)?(.+?)\\s+(FROM\\b)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private final static Pattern IDENTIFICATION_VARIABLE_PATTERN = Pattern.compile("[\\p{javaJavaIdentifierStart}][\\p{javaJavaIdentifierPart}]*");
+    private final static Pattern ORDER_BY_PATTERN = Pattern.compile("\\bORDER\\s+BY\\b",
+            Pattern.CASE_INSENSITIVE);
+    private final static Pattern FROM_PATTERN = Pattern.compile("\\bFROM\\b",
+            Pattern.CASE_INSENSITIVE);
+    private final static Pattern GROUP_BY_PATTERN = Pattern.compile("\\bGROUP\\s+BY\\b",
+            Pattern.CASE_INSENSITIVE);
+    private final static Pattern HAVING_PATTERN = Pattern.compile("\\bHAVING\\b",
+            Pattern.CASE_INSENSITIVE);
+    private final static Pattern CONSTRUCTOR_EXPRESSION_PATTERN = Pattern.compile("^NEW\\b",
+            Pattern.CASE_INSENSITIVE);
+    private final static Pattern AGGREGATE_EXPRESSION_PATTERN = Pattern.compile("^(AVG|MAX|MIN|SUM|COUNT)\\s*\\(",
+            Pattern.CASE_INSENSITIVE);
     private EntityManagerFactory entityManagerFactory;
     private final C storageConf;
     private final String persistenceUnitName;
@@ -78,9 +191,81 @@ public abstract class AbstractPersistenceStorage<C extends AbstractPersistenceSt
     internal implementation notes:
     - providing a default value doesn't make sense because callers need to
     determine which value makes sense based on expected memory consumption
+    -> parallelQueryCount is only the initial limit which is adjusted by
+    QueryAdmissionController based on heap usage and query latency
     */
-    private final Semaphore querySemaphore;
+    private final QueryAdmissionController queryAdmissionController;
+    /**
+     * Caches the result of
+     * {@link #retrieveLargeAttributeNames(java.lang.Class) }.
+     */
+    private final Map<Class<?>, Set<String>> largeAttributeNamesCache = new ConcurrentHashMap<>();
     private final FieldRetriever fieldRetriever;
+    /**
+     * The pool of {@link EntityManager}s used for all operations. Recreated in
+     * {@link #recreateEntityManager() }.
+     */
+    private EntityManagerPool entityManagerPool;
+    /**
+     * The index of the metamodel of {@link #entityManagerFactory} which is
+     * recreated in {@link #recreateEntityManager() }.
+     */
+    private volatile MetamodelIndex metamodelIndex;
+    /**
+     * The fingerprint of the database scheme of the storage configuration
+     * which is generated on first use (see
+     * {@link #retrieveSchemeFingerprint() }).
+     */
+    private String schemeFingerprint;
+    /**
+     * Whether the cached scheme fingerprint matches the entity classes which
+     * is checked once per creation of the entity manager factory in
+     * {@link #recreateEntityManager() }.
+     */
+    private boolean schemeUnchanged;
+    /**
+     * The validator for partial updates which is created on first use.
+     */
+    private Validator validator;
+    /**
+     * Whether a Bean Validation provider is available, set to {@code false}
+     * after the creation of {@link #validator} failed once.
+     */
+    private boolean validatorAvailable = true;
+    private final int parallelQueryCount;
+    /**
+     * The cache for results of
+     * {@link #runQuery(java.lang.String, java.lang.Class, int) } or
+     * {@code null} if caching is disabled (the default).
+     */
+    private volatile QueryResultCache queryResultCache;
+    /**
+     * The asynchronous facade created on demand in
+     * {@link #getAsyncStorage() }.
+     */
+    private AsyncPersistenceStorage asyncStorage;
+    private final StorageMetrics storageMetrics;
+    /**
+     * The name under which {@link #storageMetrics} is registered in the
+     * platform MBean server or {@code null} if it isn't registered.
+     */
+    private ObjectName storageMetricsObjectName;
+    /**
+     * Records statistics of query fingerprints and slow queries.
+     */
+    private final SlowQueryLog slowQueryLog = new SlowQueryLog();
+    /**
+     * The queue of updates scheduled with
+     * {@link #scheduleUpdate(java.lang.Object) } or {@code null} if
+     * write-behind is disabled (the default).
+     */
+    private volatile WriteBehindQueue writeBehindQueue;
+    /**
+     * The thread running the warm-up started with
+     * {@link #warmUp(de.richtercloud.reflection.form.builder.jpa.storage.WarmUpQuerySource, de.richtercloud.reflection.form.builder.jpa.storage.StorageWarmUpListener) }
+     * or {@code null} if no warm-up is running.
+     */
+    private Thread warmUpThread;
 
     public AbstractPersistenceStorage(C storageConf,
             String persistenceUnitName,
@@ -93,22 +278,64 @@ public abstract class AbstractPersistenceStorage<C extends AbstractPersistenceSt
         if(parallelQueryCount <= 0) {
             throw new IllegalArgumentException("parallelQueryCount has to be > 0");
         }
-        this.querySemaphore = new Semaphore(parallelQueryCount);
+        this.queryAdmissionController = new QueryAdmissionController(parallelQueryCount, //initialLimit
+                1, //minLimit
+                parallelQueryCount*MAX_QUERY_LIMIT_FACTOR //maxLimit
+        );
+        this.parallelQueryCount = parallelQueryCount;
+        this.storageMetrics = new StorageMetrics(queryAdmissionController,
+                () -> entityManagerPool,
+                this::retrieveConnectionPoolStatistics);
         storageConf.validate();
+        if(storageConf.getPoolMinSize() != null
+                && storageConf.getPoolMaxSize() == null
+                && storageConf.getPoolMinSize() > queryAdmissionController.getMaxLimit()+parallelQueryCount) {
+            //an explicit maximum is validated against the minimum by the
+            //configuration, the derived maximum is only known here
+            throw new StorageConfValidationException(String.format("pool "
+                    + "minimum size %d is greater than pool maximum size %d "
+                    + "derived from parallel query count %d",
+                    storageConf.getPoolMinSize(),
+                    queryAdmissionController.getMaxLimit()+parallelQueryCount,
+                    parallelQueryCount));
+        }
     }
 
     @Override
     public void start() throws StorageCreationException {
         super.start();
-        //storageConf already validated in constructor (and immutable)
-        init();
-        recreateEntityManager();
+        long startupStartNanos = System.nanoTime();
+        boolean startupFailed = true;
+        try {
+            //storageConf already validated in constructor (and immutable)
+            init();
+            long initNanos = System.nanoTime()-startupStartNanos;
+            recreateEntityManager();
+                //the only creation of the EntityManagerFactory during startup
+            long startupNanos = System.nanoTime()-startupStartNanos;
+            LOGGER.info(String.format("storage started in %d ms (%d ms "
+                    + "initialization, %d ms creation of entity manager "
+                    + "factory)",
+                    TimeUnit.NANOSECONDS.toMillis(startupNanos),
+                    TimeUnit.NANOSECONDS.toMillis(initNanos),
+                    TimeUnit.NANOSECONDS.toMillis(startupNanos-initNanos)));
+            startupFailed = false;
+        }finally {
+            storageMetrics.recordOperation(StorageOperation.STARTUP,
+                    System.nanoTime()-startupStartNanos,
+                    startupFailed);
+        }
+        registerStorageMetrics();
     }
 
     protected abstract void init() throws StorageCreationException;
 
     @Override
     public void delete(Object object) throws StorageException {
+        discardScheduledUpdate(object);
+            //avoids that a pending update recreates the entity
+        long operationStartNanos = System.nanoTime();
+        boolean operationFailed = true;
         EntityManager entityManager = this.retrieveEntityManager();
         try {
             Object toRemove = entityManager.merge(object);
@@ -122,13 +349,19 @@ public abstract class AbstractPersistenceStorage<C extends AbstractPersistenceSt
             entityManager.getTransaction().begin();
             entityManager.remove(toRemove);
             entityManager.getTransaction().commit();
-
+            invalidateQueryResultCache(object.getClass());
+            operationFailed = false;
         }catch(EntityExistsException ex) {
             entityManager.getTransaction().rollback();
             throw new StorageException(ex);
         }catch(RollbackException ex) {
              //cannot call entityManager.getTransaction().rollback() here because transaction isn' active
             throw new StorageException(ex);
+        }finally {
+            releaseEntityManager(entityManager);
+            storageMetrics.recordOperation(StorageOperation.DELETE,
+                    System.nanoTime()-operationStartNanos,
+                    operationFailed);
         }
     }
 
@@ -139,6 +372,8 @@ public abstract class AbstractPersistenceStorage<C extends AbstractPersistenceSt
      */
     @Override
     public void store(Object object) throws StorageException {
+        long operationStartNanos = System.nanoTime();
+        boolean operationFailed = true;
         EntityManager entityManager = this.retrieveEntityManager();
         try {
             List<StorageCallback> preStoreCallbacks = getPreStoreCallbacks(object);
@@ -159,6 +394,7 @@ public abstract class AbstractPersistenceStorage<C extends AbstractPersistenceSt
             entityManager.getTransaction().begin();
             entityManager.persist(object);
             entityManager.getTransaction().commit();
+            invalidateQueryResultCache(object.getClass());
             List<StorageCallback> postStoreCallbacks = getPostStoreCallbacks(object);
             if(postStoreCallbacks != null) {
                 for(StorageCallback postStoreCallback : postStoreCallbacks) {
@@ -167,55 +403,244 @@ public abstract class AbstractPersistenceStorage<C extends AbstractPersistenceSt
             }
             entityManager.detach(object); //detaching necessary in
                 //order to be able to change one single value and save again
+            operationFailed = false;
         }catch(EntityExistsException ex) {
             entityManager.getTransaction().rollback();
             throw new StorageException(ex);
         }catch(RollbackException ex) {
              //cannot call entityManager.getTransaction().rollback() here because transaction isn' active
             throw new StorageException(ex);
+        }finally {
+            releaseEntityManager(entityManager);
+            storageMetrics.recordOperation(StorageOperation.STORE,
+                    System.nanoTime()-operationStartNanos,
+                    operationFailed);
         }
     }
 
     @Override
     public void refresh(Object object) throws StorageException {
         EntityManager entityManager = this.retrieveEntityManager();
-        entityManager.getTransaction().begin();
-        entityManager.refresh(object);
-        entityManager.getTransaction().commit();
+        try {
+            entityManager.getTransaction().begin();
+            entityManager.refresh(object);
+            entityManager.getTransaction().commit();
+        }finally {
+            releaseEntityManager(entityManager);
+        }
     }
 
     /**
      * A wrapper around {@link EntityManager#persist(java.lang.Object) }.
+     * Discards a pending update of the same entity scheduled with
+     * {@link #scheduleUpdate(java.lang.Object) }.
      * @param object the object to update
      * @throws StorageException wraps any exception which occurs during storage
      */
     @Override
     public void update(Object object) throws StorageException {
+        discardScheduledUpdate(object);
+        update0(object);
+    }
+
+    /*
+    internal implementation notes:
+    - only basic attributes are written with a bulk update because associations
+    might require cascading of the merge (e.g. to a new entity) and collections
+    can't be assigned in JPQL
+    - a bulk update bypasses bean validation of the JPA provider, so the object
+    is validated explicitly; the complete object is validated rather than the
+    changed attributes because class-level constraints might depend on them
+    - if no row is updated the entity has been deleted in the meantime and the
+    full update is performed in order to keep the semantics of update (which
+    recreates the entity with merge)
+    */
+    /**
+     * Writes only {@code attributeNames} of {@code object} with a targeted
+     * JPQL {@code UPDATE} statement which avoids loading the entity in
+     * {@link EntityManager#merge(java.lang.Object) } and sending the values
+     * of all columns (including large binary ones). Falls back to
+     * {@link #update(java.lang.Object) } if {@code object} has no id yet, one
+     * of the attributes isn't a basic attribute or the entity class doesn't
+     * support bulk updates (see
+     * {@link MetamodelIndex#supportsBulkUpdate(java.lang.Class) }) as well
+     * as if {@code attributeNames} is empty. Discards a pending update of the
+     * same entity scheduled with {@link #scheduleUpdate(java.lang.Object) }.
+     *
+     * @param object the object to update
+     * @param attributeNames the names of the changed attributes
+     * @throws StorageException wraps any exception which occurs during the
+     *     update or validation of {@code object}
+     * @throws IllegalArgumentException if one of {@code attributeNames} isn't
+     *     an attribute of the class of {@code object}
+     */
+    @Override
+    public void update(Object object,
+            Set<String> attributeNames) throws StorageException {
+        if(attributeNames.isEmpty()) {
+            //changes might have been made without being tracked
+            update(object);
+            return;
+        }
+        Class<?> entityClass = Hibernate.getClass(object);
+        MetamodelIndex metamodelIndex = this.metamodelIndex;
+        if(object instanceof HibernateProxy
+                || !metamodelIndex.supportsBulkUpdate(entityClass)) {
+            update(object);
+            return;
+        }
+        Map<String, PersistentAttributeType> attributeKinds = metamodelIndex.getAttributeKinds(entityClass);
+        for(String attributeName : attributeNames) {
+            PersistentAttributeType attributeKind = attributeKinds.get(attributeName);
+            if(attributeKind == null) {
+                throw new IllegalArgumentException(String.format("%s isn't an "
+                        + "attribute of entity class %s",
+                        attributeName,
+                        entityClass.getName()));
+            }
+            if(attributeKind != PersistentAttributeType.BASIC) {
+                LOGGER.debug(String.format("attribute %s of entity class %s "
+                        + "isn't basic, performing full update",
+                        attributeName,
+                        entityClass.getName()));
+                update(object);
+                return;
+            }
+        }
+        Object id = entityManagerFactory.getPersistenceUnitUtil().getIdentifier(object);
+        if(id == null) {
+            update(object);
+            return;
+        }
+        validate(object);
+        discardScheduledUpdate(object);
+        List<String> assignments = new LinkedList<>();
+        Map<String, Object> parameters = new HashMap<>();
+        for(String attributeName : attributeNames) {
+            String parameterName = String.format("value%d",
+                    parameters.size());
+            assignments.add(String.format("e.%s = :%s",
+                    attributeName,
+                    parameterName));
+            parameters.put(parameterName,
+                    retrieveAttributeValue(object,
+                            metamodelIndex.getAttributeMember(entityClass,
+                                    attributeName)));
+        }
+        String idAttributeName = metamodelIndex.getIdAttributeName(entityClass);
+        String queryText = String.format("UPDATE %s e SET %s WHERE e.%s = :%s",
+                metamodelIndex.getEntityName(entityClass),
+                String.join(", ", assignments),
+                idAttributeName,
+                PARTIAL_UPDATE_ID_PARAMETER);
+        LOGGER.debug(String.format("running partial update '%s'",
+                queryText));
+        int updatedCount;
+        long operationStartNanos = System.nanoTime();
+        boolean operationFailed = true;
+        EntityManager entityManager = this.retrieveEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            javax.persistence.Query query = entityManager.createQuery(queryText);
+            for(Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                query.setParameter(parameter.getKey(),
+                        parameter.getValue());
+            }
+            query.setParameter(PARTIAL_UPDATE_ID_PARAMETER,
+                    id);
+            updatedCount = query.executeUpdate();
+            entityManager.getTransaction().commit();
+            invalidateQueryResultCache(entityClass);
+            operationFailed = false;
+        }catch(PersistenceException | IllegalArgumentException ex) {
+            if(entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            throw new StorageException(ex);
+        }finally {
+            releaseEntityManager(entityManager);
+            storageMetrics.recordOperation(StorageOperation.UPDATE,
+                    System.nanoTime()-operationStartNanos,
+                    operationFailed);
+        }
+        if(updatedCount == 0) {
+            LOGGER.debug(String.format("partial update of %s with id %s "
+                    + "didn't find the entity, performing full update",
+                    entityClass.getName(),
+                    id));
+            update(object);
+        }
+    }
+
+    /**
+     * Validates the constraints of {@code object} including class-level ones
+     * like the JPA provider does during a flush. Validation is skipped if no
+     * Bean Validation provider is available.
+     * @param object the object to validate
+     * @throws StorageException if a constraint is violated
+     */
+    private void validate(Object object) throws StorageException {
+        Validator validator = retrieveValidator();
+        if(validator == null) {
+            return;
+        }
+        Set<ConstraintViolation<Object>> violations = validator.validate(object);
+        if(!violations.isEmpty()) {
+            ConstraintViolationException ex = new ConstraintViolationException(violations);
+            throw new StorageException(buildConstraintViolationMessage(ex,
+                    object),
+                    ex);
+        }
+    }
+
+    private synchronized Validator retrieveValidator() {
+        if(validator == null && validatorAvailable) {
+            try {
+                validator = Validation.buildDefaultValidatorFactory().getValidator();
+            }catch(ValidationException ex) {
+                LOGGER.debug("no Bean Validation provider available, skipping "
+                        + "validation of partial updates",
+                        ex);
+                validatorAvailable = false;
+            }
+        }
+        return validator;
+    }
+
+    private static Object retrieveAttributeValue(Object object,
+            Member member) throws StorageException {
+        try {
+            if(member instanceof Field) {
+                Field field = (Field) member;
+                field.setAccessible(true);
+                return field.get(object);
+            }
+            Method getter = (Method) member;
+            getter.setAccessible(true);
+            return getter.invoke(object);
+        }catch(IllegalAccessException | InvocationTargetException ex) {
+            throw new StorageException(ex);
+        }
+    }
+
+    private void update0(Object object) throws StorageException {
+        long operationStartNanos = System.nanoTime();
+        boolean operationFailed = true;
         EntityManager entityManager = this.retrieveEntityManager();
         try {
             entityManager.getTransaction().begin();
             entityManager.merge(object);
             entityManager.flush();
             entityManager.getTransaction().commit();
+            invalidateQueryResultCache(object.getClass());
             entityManager.detach(object); //detaching necessary in
                 //order to be able to change one single value and save again
+            operationFailed = false;
         }catch(ConstraintViolationException ex) {
             //needs to be caught here because ConstraintViolationException is
             //so smart to not contain the violation text in its message
-            Set violations = ex.getConstraintViolations();
-            String message = ValidationUtils.buildConstraintVioloationMessage(violations,
-                    object,
-                    fieldRetriever,
-                violationField -> {
-                    FieldInfo violationFieldInfo = violationField.getAnnotation(FieldInfo.class);
-                    if(violationFieldInfo != null) {
-                        return violationFieldInfo.name();
-                    }
-                    return null;
-                },
-                    OutputMode.HTML_HTML //output mode
-            ); //@TODO: fix checkstyle indentation failure, see https://github.com/checkstyle/checkstyle/issues/3342
-                //for issue report
+            String message = buildConstraintViolationMessage(ex,
+                    object);
             throw new StorageException(message,
                     ex);
         }catch(EntityExistsException ex) {
@@ -224,9 +649,254 @@ public abstract class AbstractPersistenceStorage<C extends AbstractPersistenceSt
         }catch(RollbackException ex) {
              //cannot call entityManager.getTransaction().rollback() here because transaction isn' active
             throw new StorageException(ex);
+        }finally {
+            releaseEntityManager(entityManager);
+            storageMetrics.recordOperation(StorageOperation.UPDATE,
+                    System.nanoTime()-operationStartNanos,
+                    operationFailed);
+        }
+    }
+
+    private String buildConstraintViolationMessage(ConstraintViolationException ex,
+            Object object) {
+        Set violations = ex.getConstraintViolations();
+        String retValue = ValidationUtils.buildConstraintVioloationMessage(violations,
+                object,
+                fieldRetriever,
+            violationField -> {
+                FieldInfo violationFieldInfo = violationField.getAnnotation(FieldInfo.class);
+                if(violationFieldInfo != null) {
+                    return violationFieldInfo.name();
+                }
+                return null;
+            },
+                OutputMode.HTML_HTML //output mode
+        ); //@TODO: fix checkstyle indentation failure, see https://github.com/checkstyle/checkstyle/issues/3342
+            //for issue report
+        return retValue;
+    }
+
+    /*
+    internal implementation notes:
+    - StorageCallbacks are invoked the same way as in store, but post store
+    callbacks are invoked after the commit of the one transaction since they
+    might run storage operations on the stored objects (e.g. the callbacks
+    registered by JPAReflectionFormBuilder)
+    */
+    /**
+     * Persists all of {@code objects} in one transaction using JDBC batching
+     * (see {@link #getEntityManagerProperties() }). The persistence context is
+     * flushed and cleared every {@link #BATCH_SIZE} objects in order to keep
+     * memory consumption constant.
+     *
+     * @param objects the objects to store
+     * @throws StorageException wraps any exception which occurs during storage
+     *     in which case none of {@code objects} has been stored
+     */
+    @Override
+    public void storeAll(Collection<?> objects) throws StorageException {
+        for(Object object : objects) {
+            List<StorageCallback> preStoreCallbacks = getPreStoreCallbacks(object);
+            if(preStoreCallbacks != null) {
+                for(StorageCallback preStoreCallback : preStoreCallbacks) {
+                    preStoreCallback.callback(object);
+                }
+            }
+        }
+        runBatch(objects,
+                (entityManager, object) -> entityManager.persist(object));
+        for(Object object : objects) {
+            List<StorageCallback> postStoreCallbacks = getPostStoreCallbacks(object);
+            if(postStoreCallbacks != null) {
+                for(StorageCallback postStoreCallback : postStoreCallbacks) {
+                    postStoreCallback.callback(object);
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges all of {@code objects} in one transaction using JDBC batching.
+     * @param objects the objects to update
+     * @throws StorageException wraps any exception which occurs during storage
+     *     in which case none of {@code objects} has been updated
+     * @see #storeAll(java.util.Collection)
+     */
+    @Override
+    public void updateAll(Collection<?> objects) throws StorageException {
+        for(Object object : objects) {
+            discardScheduledUpdate(object);
+        }
+        runBatch(objects,
+                (entityManager, object) -> entityManager.merge(object));
+    }
+
+    /**
+     * Removes all of {@code objects} in one transaction using JDBC batching.
+     * Objects are merged before removal (see {@link #delete(java.lang.Object) }
+     * for details). Use
+     * {@link #deleteAllById(java.util.Collection, java.lang.Class) } in order
+     * to avoid merging.
+     * @param objects the objects to delete
+     * @throws StorageException wraps any exception which occurs during storage
+     *     in which case none of {@code objects} has been deleted
+     */
+    @Override
+    public void deleteAll(Collection<?> objects) throws StorageException {
+        for(Object object : objects) {
+            discardScheduledUpdate(object);
+        }
+        runBatch(objects,
+                (entityManager, object) -> entityManager.remove(entityManager.merge(object)));
+    }
+
+    /*
+    internal implementation notes:
+    - bulk JPQL DELETE doesn't cascade and doesn't remove rows of element
+    collection or join tables which is acceptable for a dedicated method, but
+    not as replacement for deleteAll
+    - chunking avoids hitting limits of the number of IN list elements of some
+    databases
+    */
+    /**
+     * Deletes all entities of type {@code clazz} with an id in {@code ids}
+     * with bulk JPQL {@code DELETE} statements in one transaction. This is way
+     * faster than {@link #deleteAll(java.util.Collection) }, but bypasses
+     * cascades and lifecycle callbacks.
+     * @param ids the ids of the entities to delete
+     * @param clazz the entity class
+     * @return the number of deleted entities
+     * @throws StorageException wraps any exception which occurs during storage
+     * @throws IllegalArgumentException if {@code clazz} uses an id class or
+     *     embedded id
+     */
+    @Override
+    public int deleteAllById(Collection<?> ids,
+            Class<?> clazz) throws StorageException {
+        MetamodelIndex metamodelIndex = this.metamodelIndex;
+        String idAttributeName = metamodelIndex.getIdAttributeName(clazz);
+        if(idAttributeName == null) {
+            throw new IllegalArgumentException(String.format("entity class %s "
+                    + "doesn't have a single id attribute",
+                    clazz.getName()));
+        }
+        String queryText = String.format("DELETE FROM %s e WHERE e.%s IN :ids",
+                metamodelIndex.getEntityName(clazz),
+                idAttributeName);
+        List<Object> idList = new ArrayList<>(ids);
+        WriteBehindQueue writeBehindQueue = this.writeBehindQueue;
+        if(writeBehindQueue != null) {
+            Class<?> rootEntityClass = retrieveRootEntityClass(clazz);
+            try {
+                for(Object id : idList) {
+                    writeBehindQueue.discard(rootEntityClass,
+                            id);
+                }
+            }catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new StorageException(ex);
+            }
+        }
+        int retValue = 0;
+        long operationStartNanos = System.nanoTime();
+        boolean operationFailed = true;
+        EntityManager entityManager = this.retrieveEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            for(int i=0; i<idList.size(); i+=BATCH_SIZE) {
+                List<Object> idChunk = idList.subList(i,
+                        Math.min(i+BATCH_SIZE, idList.size()));
+                retValue += entityManager.createQuery(queryText)
+                        .setParameter("ids", idChunk)
+                        .executeUpdate();
+            }
+            entityManager.getTransaction().commit();
+            invalidateQueryResultCache(clazz);
+            operationFailed = false;
+        }catch(PersistenceException ex) {
+            if(entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            throw new StorageException(ex);
+        }finally {
+            releaseEntityManager(entityManager);
+            storageMetrics.recordOperation(StorageOperation.BATCH,
+                    System.nanoTime()-operationStartNanos,
+                    operationFailed);
+        }
+        LOGGER.debug(String.format("deleted %d entities of type %s with bulk query",
+                retValue,
+                clazz.getName()));
+        return retValue;
+    }
+
+    /**
+     * Runs {@code operation} on every of {@code objects} in one transaction and
+     * flushes and clears the persistence context every {@link #BATCH_SIZE}
+     * objects.
+     * @param objects the objects to process
+     * @param operation the operation to run on every object
+     * @throws StorageException wraps any exception which occurs during storage
+     */
+    private void runBatch(Collection<?> objects,
+            BatchOperation operation) throws StorageException {
+        long operationStartNanos = System.nanoTime();
+        boolean operationFailed = true;
+        EntityManager entityManager = this.retrieveEntityManager();
+        Object current = null;
+        try {
+            entityManager.getTransaction().begin();
+            int count = 0;
+            for(Object object : objects) {
+                current = object;
+                operation.run(entityManager,
+                        object);
+                count++;
+                if(count % BATCH_SIZE == 0) {
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+            entityManager.flush();
+            entityManager.getTransaction().commit();
+            entityManager.clear();
+                //detaching necessary in order to be able to change one single
+                //value and save again (see store)
+            Set<Class<?>> writtenClasses = new HashSet<>();
+            for(Object object : objects) {
+                writtenClasses.add(object.getClass());
+            }
+            for(Class<?> writtenClass : writtenClasses) {
+                invalidateQueryResultCache(writtenClass);
+            }
+            operationFailed = false;
+        }catch(ConstraintViolationException ex) {
+            if(entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            String message = buildConstraintViolationMessage(ex,
+                    current);
+            throw new StorageException(message,
+                    ex);
+        }catch(PersistenceException ex) {
+            if(entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            throw new StorageException(ex);
+        }finally {
+            releaseEntityManager(entityManager);
+            storageMetrics.recordOperation(StorageOperation.BATCH,
+                    System.nanoTime()-operationStartNanos,
+                    operationFailed);
         }
     }
 
+    @FunctionalInterface
+    private interface BatchOperation {
+
+        void run(EntityManager entityManager, Object object);
+    }
+
     /**
      * A wrapper around
      * {@link EntityManager#find(java.lang.Class, java.lang.Object) }.
@@ -237,134 +907,2169 @@ public abstract class AbstractPersistenceStorage<C extends AbstractPersistenceSt
      */
     @Override
     public <T> T retrieve(Object id, Class<T> clazz) {
+        long operationStartNanos = System.nanoTime();
+        boolean operationFailed = true;
         EntityManager entityManager = this.retrieveEntityManager();
-        return entityManager.find(clazz, id);
+        try {
+            T retValue = entityManager.find(clazz, id);
+            operationFailed = false;
+            return retValue;
+        }finally {
+            releaseEntityManager(entityManager);
+            storageMetrics.recordOperation(StorageOperation.RETRIEVE,
+                    System.nanoTime()-operationStartNanos,
+                    operationFailed);
+        }
     }
 
     @Override
     public boolean isClassSupported(Class<?> clazz) {
-        EntityManager entityManager = this.retrieveEntityManager();
-        Metamodel meta = entityManager.getMetamodel();
-        try {
-            meta.entity(clazz);
-            return true;
-        }catch(IllegalArgumentException ex) {
-            return false;
+        if(!isStarted()) {
+            throw new IllegalStateException("persistence storage hasn't been "
+                    + "started");
         }
+        return metamodelIndex.isEntity(clazz);
     }
 
-    private <E> TypedQuery<E> createQuery(String queryText, Class<E> entityClass) throws StorageException {
-        EntityManager entityManager = this.retrieveEntityManager();
-        return entityManager.createQuery(queryText, entityClass);
+    @Override
+    public MetamodelIndex getMetamodelIndex() {
+        return metamodelIndex;
     }
 
-    @SuppressWarnings("PMD.AvoidThrowingRawExceptionTypes")
     @Override
     public <T> List<T> runQuery(String queryString,
             Class<T> clazz,
             int queryLimit) throws StorageException {
-        LOGGER.trace(String.format("waiting for semaphore (with approx. %d "
-                + "other threads)",
-                querySemaphore.getQueueLength()));
-        querySemaphore.acquireUninterruptibly();
-        try {
-            LOGGER.trace(String.format("semaphore aquired (%d remaining permits)", querySemaphore.availablePermits()));
-            LOGGER.debug(String.format("running query '%s'", queryString));
-            List<T> retValue;
-            TypedQuery<T> query = createQuery(queryString,
-                    clazz);
-            retValue = query.setMaxResults(queryLimit).getResultList();
-            return retValue;
-        }finally {
-            querySemaphore.release();
-            LOGGER.trace(String.format("semaphore released (%d remaining permits)", querySemaphore.availablePermits()));
-        }
+        return runQuery(queryString,
+                clazz,
+                queryLimit,
+                retrieveDefaultQueryPriority());
     }
 
     @Override
-    public <T> List<T> runQuery(String attribueName,
-            String attributeValue,
-            Class<T> clazz) {
-        LOGGER.trace(String.format("waiting for semaphore (with approx. %d "
-                + "other threads)",
-                querySemaphore.getQueueLength()));
-        querySemaphore.acquireUninterruptibly();
-        try {
-            LOGGER.trace(String.format("semaphore aquired (%d remaining permits, approx. %d threads waiting)",
-                    querySemaphore.availablePermits(),
-                    querySemaphore.getQueueLength()));
-            EntityManager entityManager = this.retrieveEntityManager();
-            CriteriaQuery<T> criteria = entityManager.getCriteriaBuilder().createQuery(clazz);
-            Root<T> personRoot = criteria.from(clazz);
-            criteria.select( personRoot );
-            criteria.where( entityManager.getCriteriaBuilder().equal( personRoot.get(attribueName),
-                    attributeValue));
-                //attributeName Company.name was used before, unclear why (causes
-                //` java.lang.IllegalArgumentException: The attribute [Company.name] is not present in the managed type [EntityTypeImpl@553585467:Company [ javaType: class richtercloud.document.scanner.model.Company descriptor: RelationalDescriptor(richtercloud.document.scanner.model.Company --> [DatabaseTable(COMPANY)]), mappings: 8]].`)
-            return entityManager.createQuery( criteria ).getResultList();
-        }finally {
-            querySemaphore.release();
-            LOGGER.trace(String.format("semaphore released (%d remaining permits)", querySemaphore.availablePermits()));
-        }
+    public <T> List<T> runQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority) throws StorageException {
+        return executeQuery(queryString,
+                clazz,
+                queryLimit,
+                queryPriority,
+                null //cancellableQuery
+        );
     }
 
     @Override
-    public <T> List<T> runQueryAll(Class<T> clazz) {
-        LOGGER.trace(String.format("waiting for semaphore (with approx. %d "
-                + "other threads)",
-                querySemaphore.getQueueLength()));
-        querySemaphore.acquireUninterruptibly();
-        try {
-            LOGGER.trace(String.format("semaphore aquired (%d remaining permits)", querySemaphore.availablePermits()));
-            EntityManager entityManager = this.retrieveEntityManager();
-            CriteriaQuery<T> criteriaQuery = entityManager.getCriteriaBuilder().createQuery(clazz);
-            Root<T> queryRoot = criteriaQuery.from(clazz);
-            criteriaQuery.select(queryRoot);
-            return entityManager.createQuery(criteriaQuery).getResultList();
-        }finally{
-            querySemaphore.release();
-            LOGGER.trace(String.format("semaphore released (%d remaining permits)", querySemaphore.availablePermits()));
-        }
+    public <T> List<T> runQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis) throws StorageException {
+        return prepareQuery(queryString,
+                clazz,
+                queryLimit,
+                queryPriority,
+                timeoutMillis).execute();
     }
 
     @Override
-    public boolean isManaged(Object object) {
-        return this.retrieveEntityManager().contains(object);
+    public <T> CancellableQuery<T> prepareQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis) {
+        return new CancellableQuery<>(timeoutMillis,
+                cancellableQuery -> executeQuery(queryString,
+                        clazz,
+                        queryLimit,
+                        queryPriority,
+                        cancellableQuery));
     }
 
-    /**
-     * Get the {@link EntityManager} used for persistent storage.
-     * @return
-     */
+    /*
+    internal implementation notes:
+    - the projection is run through executeQuery in order to share admission,
+    caching and cancellation, Object[] isn't an entity, so that it's admitted
+    with the default weight which is correct because large attributes should
+    never be projected
+    */
     @Override
-    public EntityManager retrieveEntityManager() {
-        if(!isStarted()) {
-            throw new IllegalStateException("persistence storage hasn't been "
-                    + "started");
-        }
-        return this.entityManagerFactory.createEntityManager();
+    public CancellableQuery<Object[]> prepareProjectionQuery(String queryString,
+            List<String> attributeNames,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis) {
+        String projectionQueryText = buildProjectionQueryText(queryString,
+                attributeNames);
+        LOGGER.debug(String.format("prepared projection query '%s'",
+                projectionQueryText));
+        return prepareQuery(projectionQueryText,
+                Object[].class,
+                queryLimit,
+                queryPriority,
+                timeoutMillis);
     }
 
+    /*
+    internal implementation notes:
+    - rows are read with a forward-only cursor (see streamQuery for the
+    requirements of the JDBC drivers) and handed to the consumer one by one, so
+    that they're never collected in a list; they bypass the query result cache
+    for the same reason
+    - projection rows don't contain entities, so the session doesn't have to be
+    cleared while scrolling
+    */
     @Override
-    public void shutdown() {
-        if(this.entityManagerFactory != null && this.entityManagerFactory.isOpen()) {
-            //might be null if an exception occured in Derby
-            this.entityManagerFactory.close();
+    public CancellableQuery<Object[]> prepareProjectionCursorQuery(String queryString,
+            List<String> attributeNames,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis,
+            Consumer<Object[]> rowConsumer) {
+        String projectionQueryText = buildProjectionQueryText(queryString,
+                attributeNames);
+        LOGGER.debug(String.format("prepared projection cursor query '%s'",
+                projectionQueryText));
+        return new CancellableQuery<>(timeoutMillis,
+                cancellableQuery -> {
+                    scrollProjectionQuery(projectionQueryText,
+                            queryLimit,
+                            queryPriority,
+                            rowConsumer,
+                            cancellableQuery);
+                    return Collections.emptyList();
+                });
+    }
+
+    private void scrollProjectionQuery(String projectionQueryText,
+            int queryLimit,
+            QueryPriority queryPriority,
+            Consumer<Object[]> rowConsumer,
+            CancellableQuery<Object[]> cancellableQuery) throws StorageException {
+        int queryWeight = retrieveQueryWeight(Object[].class);
+        long queryStartNanos = tryAcquireQueryCapacity(queryWeight,
+                queryPriority,
+                cancellableQuery);
+        int queryResultCount = -1;
+        try {
+            LOGGER.debug(String.format("scrolling query '%s'", projectionQueryText));
+            int rowCount = 0;
+            EntityManager entityManager = this.retrieveEntityManager();
+            try {
+                entityManager.getTransaction().begin();
+                Session session = entityManager.unwrap(Session.class);
+                Query query = session.createQuery(projectionQueryText);
+                query.setMaxResults(queryLimit);
+                query.setFetchSize(PROJECTION_FETCH_SIZE);
+                query.setReadOnly(true);
+                query.setCacheMode(CacheMode.IGNORE);
+                if(cancellableQuery.hasDeadline()) {
+                    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(cancellableQuery.retrieveRemainingNanos());
+                    query.setTimeout((int) Math.min(Integer.MAX_VALUE,
+                            Math.max(1L, (remainingMillis+999)/1000)));
+                        //seconds, see executeQuery
+                }
+                cancellableQuery.setRunningSession(session);
+                ScrollableResults scrollableResults = null;
+                try {
+                    cancellableQuery.checkCancelled();
+                    scrollableResults = query.scroll(ScrollMode.FORWARD_ONLY);
+                    while(scrollableResults.next()) {
+                        rowConsumer.accept(scrollableResults.get());
+                        rowCount++;
+                        if(rowCount % PROJECTION_FETCH_SIZE == 0) {
+                            cancellableQuery.checkCancelled();
+                        }
+                    }
+                }catch(HibernateException ex) {
+                    cancellableQuery.checkCancelled(ex);
+                    if(ex instanceof org.hibernate.QueryTimeoutException) {
+                        throw new QueryCancelledException(ex.getMessage(),
+                                true, //timeout
+                                ex);
+                    }
+                    throw new StorageException(ex);
+                }finally {
+                    cancellableQuery.setRunningSession(null);
+                    if(scrollableResults != null) {
+                        scrollableResults.close();
+                    }
+                }
+                cancellableQuery.checkCancelled();
+            }catch(PersistenceException ex) {
+                throw new StorageException(ex);
+            }finally {
+                if(entityManager.getTransaction().isActive()) {
+                    entityManager.getTransaction().rollback();
+                }
+                releaseEntityManager(entityManager);
+            }
+            queryResultCount = rowCount;
+        }finally {
+            releaseQueryCapacity(queryWeight,
+                    queryStartNanos,
+                    projectionQueryText,
+                    queryResultCount);
         }
     }
 
-    protected Map<String, String> getEntityManagerProperties() {
-        Map<String, String> properties = new HashMap<>(4);
-        properties.put("javax.persistence.jdbc.url", storageConf.getConnectionURL());
-        properties.put("javax.persistence.jdbc.user", storageConf.getUsername());
-        properties.put("javax.persistence.jdbc.password", storageConf.getPassword());
-        properties.put("javax.persistence.jdbc.driver", storageConf.getDatabaseDriver());
-        //see comments in persistence.xml as well
+    /*
+    internal implementation notes:
+    - the timeout is passed to the JDBC driver with the standard
+    javax.persistence.query.timeout hint which Hibernate rounds to seconds for
+    Statement.setQueryTimeout, so that it's at least one second; it's only a
+    fallback for drivers which don't support Statement.cancel since the
+    deadline timer of CancellableQuery cancels the statement when the deadline
+    passes which makes the statement return and the capacity be released
+    */
+    /**
+     * Runs {@code queryString} or retrieves its result from the query result
+     * cache.
+     * @param cancellableQuery the handle which allows to cancel the query or
+     *     {@code null} if the query isn't cancellable and has no deadline
+     */
+    @SuppressWarnings("PMD.AvoidThrowingRawExceptionTypes")
+    private <T> List<T> executeQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority,
+            CancellableQuery<T> cancellableQuery) throws StorageException {
+        QueryResultCache queryResultCache = this.queryResultCache;
+            //local copy since the cache might be disabled concurrently
+        long cacheGeneration = 0;
+        if(queryResultCache != null) {
+            List<T> cachedResult = queryResultCache.get(queryString,
+                    clazz,
+                    queryLimit);
+            if(cachedResult != null) {
+                LOGGER.debug(String.format("using cached result for query '%s'", queryString));
+                return cachedResult;
+            }
+            cacheGeneration = queryResultCache.getGeneration();
+        }
+        int queryWeight = retrieveQueryWeight(clazz);
+        long queryStartNanos;
+        if(cancellableQuery == null) {
+            queryStartNanos = acquireQueryCapacity(queryWeight,
+                    queryPriority);
+        }else {
+            queryStartNanos = tryAcquireQueryCapacity(queryWeight,
+                    queryPriority,
+                    cancellableQuery);
+        }
+        int queryResultCount = -1;
+        try {
+            LOGGER.debug(String.format("running query '%s'", queryString));
+            List<T> retValue;
+            EntityManager entityManager = this.retrieveEntityManager();
+            try {
+                TypedQuery<T> query = entityManager.createQuery(queryString,
+                        clazz);
+                query.setMaxResults(queryLimit);
+                if(cancellableQuery == null) {
+                    retValue = query.getResultList();
+                }else {
+                    if(cancellableQuery.hasDeadline()) {
+                        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(cancellableQuery.retrieveRemainingNanos());
+                        query.setHint(QUERY_TIMEOUT_HINT,
+                                (int) Math.min(Integer.MAX_VALUE,
+                                        Math.max(1000L, remainingMillis)));
+                    }
+                    cancellableQuery.setRunningSession(entityManager.unwrap(Session.class));
+                    try {
+                        cancellableQuery.checkCancelled();
+                        retValue = query.getResultList();
+                    }catch(PersistenceException ex) {
+                        cancellableQuery.checkCancelled(ex);
+                        if(ex instanceof QueryTimeoutException) {
+                            throw new QueryCancelledException(ex.getMessage(),
+                                    true, //timeout
+                                    ex);
+                        }
+                        throw ex;
+                    }finally {
+                        cancellableQuery.setRunningSession(null);
+                    }
+                    cancellableQuery.checkCancelled();
+                        //discard results of queries which have been
+                        //cancelled while the statement was being prepared
+                }
+            }finally {
+                releaseEntityManager(entityManager);
+            }
+            if(queryResultCache != null) {
+                queryResultCache.put(queryString,
+                        clazz,
+                        queryLimit,
+                        retValue,
+                        retrieveQueryEntityClasses(queryString,
+                                clazz),
+                        cacheGeneration);
+            }
+            queryResultCount = retValue.size();
+            return retValue;
+        }finally {
+            releaseQueryCapacity(queryWeight,
+                    queryStartNanos,
+                    queryString,
+                    queryResultCount);
+        }
+    }
+
+    @Override
+    public <T> List<T> runQuery(String attribueName,
+            String attributeValue,
+            Class<T> clazz) {
+        int queryWeight = retrieveQueryWeight(clazz);
+        long queryStartNanos = acquireQueryCapacity(queryWeight,
+                retrieveDefaultQueryPriority());
+        int queryResultCount = -1;
+        try {
+            EntityManager entityManager = this.retrieveEntityManager();
+            try {
+                CriteriaQuery<T> criteria = entityManager.getCriteriaBuilder().createQuery(clazz);
+                Root<T> personRoot = criteria.from(clazz);
+                criteria.select( personRoot );
+                criteria.where( entityManager.getCriteriaBuilder().equal( personRoot.get(attribueName),
+                        attributeValue));
+                    //attributeName Company.name was used before, unclear why (causes
+                    //` java.lang.IllegalArgumentException: The attribute [Company.name] is not present in the managed type [EntityTypeImpl@553585467:Company [ javaType: class richtercloud.document.scanner.model.Company descriptor: RelationalDescriptor(richtercloud.document.scanner.model.Company --> [DatabaseTable(COMPANY)]), mappings: 8]].`)
+                List<T> retValue = entityManager.createQuery( criteria ).getResultList();
+                queryResultCount = retValue.size();
+                return retValue;
+            }finally {
+                releaseEntityManager(entityManager);
+            }
+        }finally {
+            releaseQueryCapacity(queryWeight,
+                    queryStartNanos,
+                    null, //queryText (criteria query)
+                    queryResultCount);
+        }
+    }
+
+    @Override
+    public <T> List<T> runQueryAll(Class<T> clazz) {
+        int queryWeight = retrieveQueryWeight(clazz);
+        long queryStartNanos = acquireQueryCapacity(queryWeight,
+                retrieveDefaultQueryPriority());
+        int queryResultCount = -1;
+        try {
+            EntityManager entityManager = this.retrieveEntityManager();
+            try {
+                CriteriaQuery<T> criteriaQuery = entityManager.getCriteriaBuilder().createQuery(clazz);
+                Root<T> queryRoot = criteriaQuery.from(clazz);
+                criteriaQuery.select(queryRoot);
+                List<T> retValue = entityManager.createQuery(criteriaQuery).getResultList();
+                queryResultCount = retValue.size();
+                return retValue;
+            }finally {
+                releaseEntityManager(entityManager);
+            }
+        }finally {
+            releaseQueryCapacity(queryWeight,
+                    queryStartNanos,
+                    null, //queryText (criteria query)
+                    queryResultCount);
+        }
+    }
+
+    @Override
+    public long count(String queryString) throws StorageException {
+        return count(queryString,
+                retrieveDefaultQueryPriority());
+    }
+
+    /*
+    internal implementation notes:
+    - the count query is derived from queryString rather than counting the
+    results of queryString in a subquery because JPQL doesn't support subqueries
+    in the FROM clause
+    - grouped queries return one row per group and COUNT would count per group,
+    so the rows of a query which selects a literal per group (or the original
+    selection if it's needed for DISTINCT or aggregates) are counted instead
+    */
+    @Override
+    public long count(String queryString,
+            QueryPriority queryPriority) throws StorageException {
+        if(isGroupedQuery(queryString)) {
+            String groupCountQueryText = buildGroupCountQueryText(queryString);
+            LOGGER.debug(String.format("running group count query '%s'", groupCountQueryText));
+            return runGroupCountQuery(groupCountQueryText,
+                    queryPriority);
+        }
+        String countQueryText = buildCountQueryText(queryString);
+        LOGGER.debug(String.format("running count query '%s'", countQueryText));
+        return runScalarQuery(countQueryText,
+                Long.class,
+                queryPriority);
+    }
+
+    /*
+    internal implementation notes:
+    - selecting a literal instead of the original selection avoids hydrating
+    entities, Hibernate supports literals in the SELECT clause although JPQL
+    doesn't
+    - COUNT would have to visit all matching rows while the database can stop
+    after the first with setMaxResults(1)
+    */
+    @Override
+    public boolean exists(String queryString) throws StorageException {
+        String existsQueryText = buildExistsQueryText(queryString);
+        LOGGER.debug(String.format("running exists query '%s'", existsQueryText));
+        int queryWeight = QueryAdmissionController.WEIGHT_DEFAULT;
+            //only a literal is transferred
+        long queryStartNanos = acquireQueryCapacity(queryWeight,
+                retrieveDefaultQueryPriority());
+        int queryResultCount = -1;
+        try {
+            EntityManager entityManager = this.retrieveEntityManager();
+            try {
+                boolean retValue = !entityManager.createQuery(existsQueryText)
+                        .setMaxResults(1)
+                        .getResultList().isEmpty();
+                queryResultCount = retValue ? 1 : 0;
+                return retValue;
+            }catch(PersistenceException | IllegalArgumentException ex) {
+                throw new StorageException(ex);
+            }finally {
+                releaseEntityManager(entityManager);
+            }
+        }finally {
+            releaseQueryCapacity(queryWeight,
+                    queryStartNanos,
+                    existsQueryText,
+                    queryResultCount);
+        }
+    }
+
+    /*
+    internal implementation notes:
+    - EntityManager.find would load the complete entity (including possibly
+    large binary attributes) or return it from the persistence context
+    - an @IdClass id is compared attribute by attribute because JPQL doesn't
+    support comparing an identification variable with an id class instance
+    */
+    @Override
+    public boolean exists(Object id,
+            Class<?> clazz) throws StorageException {
+        if(id == null) {
+            throw new IllegalArgumentException("id mustn't be null");
+        }
+        MetamodelIndex metamodelIndex = this.metamodelIndex;
+        List<String> conditions = new LinkedList<>();
+        Map<String, Object> parameters = new HashMap<>();
+        String singleIdAttributeName = metamodelIndex.getIdAttributeName(clazz);
+        if(singleIdAttributeName != null) {
+            conditions.add(String.format("e.%s = :%s",
+                    singleIdAttributeName,
+                    singleIdAttributeName));
+            parameters.put(singleIdAttributeName,
+                    id);
+        }else {
+            for(String idAttributeName : metamodelIndex.getIdClassAttributeNames(clazz)) {
+                conditions.add(String.format("e.%s = :%s",
+                        idAttributeName,
+                        idAttributeName));
+                parameters.put(idAttributeName,
+                        retrieveIdClassValue(id,
+                                idAttributeName));
+            }
+        }
+        String queryText = String.format("SELECT COUNT(e) FROM %s e WHERE %s",
+                metamodelIndex.getEntityName(clazz),
+                String.join(" AND ", conditions));
+        int queryWeight = QueryAdmissionController.WEIGHT_DEFAULT;
+        long queryStartNanos = acquireQueryCapacity(queryWeight,
+                retrieveDefaultQueryPriority());
+        int queryResultCount = -1;
+        try {
+            EntityManager entityManager = this.retrieveEntityManager();
+            try {
+                TypedQuery<Long> query = entityManager.createQuery(queryText,
+                        Long.class);
+                for(Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                    query.setParameter(parameter.getKey(),
+                            parameter.getValue());
+                }
+                boolean retValue = query.getSingleResult() > 0;
+                queryResultCount = 1;
+                return retValue;
+            }catch(PersistenceException | IllegalArgumentException ex) {
+                throw new StorageException(ex);
+            }finally {
+                releaseEntityManager(entityManager);
+            }
+        }finally {
+            releaseQueryCapacity(queryWeight,
+                    queryStartNanos,
+                    queryText,
+                    queryResultCount);
+        }
+    }
+
+    private <T> T runScalarQuery(String queryString,
+            Class<T> clazz,
+            QueryPriority queryPriority) throws StorageException {
+        int queryWeight = QueryAdmissionController.WEIGHT_DEFAULT;
+            //only a scalar is transferred no matter which entities are
+            //involved
+        long queryStartNanos = acquireQueryCapacity(queryWeight,
+                queryPriority);
+        int queryResultCount = -1;
+        try {
+            EntityManager entityManager = this.retrieveEntityManager();
+            try {
+                T retValue = entityManager.createQuery(queryString,
+                        clazz).getSingleResult();
+                queryResultCount = 1;
+                return retValue;
+            }catch(PersistenceException | IllegalArgumentException ex) {
+                throw new StorageException(ex);
+            }finally {
+                releaseEntityManager(entityManager);
+            }
+        }finally {
+            releaseQueryCapacity(queryWeight,
+                    queryStartNanos,
+                    queryString,
+                    queryResultCount);
+        }
+    }
+
+    private long runGroupCountQuery(String queryString,
+            QueryPriority queryPriority) throws StorageException {
+        int queryWeight = QueryAdmissionController.WEIGHT_DEFAULT;
+            //only one literal or aggregate row per group is transferred
+        long queryStartNanos = acquireQueryCapacity(queryWeight,
+                queryPriority);
+        int queryResultCount = -1;
+        try {
+            EntityManager entityManager = this.retrieveEntityManager();
+            try {
+                queryResultCount = entityManager.createQuery(queryString).getResultList().size();
+                return queryResultCount;
+            }catch(PersistenceException | IllegalArgumentException ex) {
+                throw new StorageException(ex);
+            }finally {
+                releaseEntityManager(entityManager);
+            }
+        }finally {
+            releaseQueryCapacity(queryWeight,
+                    queryStartNanos,
+                    queryString,
+                    queryResultCount);
+        }
+    }
+
+    /**
+     * Replaces the selection of {@code queryString} with {@code COUNT} of it
+     * and removes an {@code ORDER BY} clause which doesn't make sense for a
+     * count query. Selections of more than one expression or a constructor
+     * expression are counted with Hibernate's {@code COUNT(*)} since every
+     * row of the {@code FROM} clause is one result. Grouped queries (see
+     * {@link #isGroupedQuery(java.lang.String) }) have to be counted with
+     * {@link #buildGroupCountQueryText(java.lang.String) }.
+     * @param queryString the query to transform
+     * @return the count query text
+     * @throws IllegalArgumentException if {@code queryString} doesn't start
+     *     with a {@code SELECT} clause or selects distinct tuples which can't
+     *     be counted without a subquery in the {@code FROM} clause
+     */
+    static String buildCountQueryText(String queryString) {
+        Matcher selectMatcher = retrieveSelectMatcher(queryString);
+        String selection = retrieveSelection(queryString,
+                selectMatcher);
+        String fromClause = retrieveFromClause(queryString,
+                selectMatcher);
+        if(splitTopLevel(selection).size() == 1
+                && !CONSTRUCTOR_EXPRESSION_PATTERN.matcher(selection).find()) {
+            return String.format("SELECT COUNT(%s%s) %s",
+                    selectMatcher.group(1) != null ? "DISTINCT " : "",
+                    selection,
+                    fromClause);
+        }
+        if(selectMatcher.group(1) != null) {
+            throw new IllegalArgumentException(String.format("query '%s' "
+                    + "selects distinct tuples which can't be counted",
+                    queryString));
+        }
+        return String.format("SELECT COUNT(*) %s",
+                fromClause);
+    }
+
+    /**
+     * Whether {@code queryString} returns one row per group, i.e. has a
+     * {@code GROUP BY} or {@code HAVING} clause or selects aggregate
+     * expressions, so that it can't be counted with {@code COUNT}.
+     * @param queryString the query to check
+     * @return {@code true} if {@code queryString} is grouped, {@code false}
+     *     otherwise
+     * @throws IllegalArgumentException if {@code queryString} doesn't start
+     *     with a {@code SELECT} clause
+     */
+    static boolean isGroupedQuery(String queryString) {
+        Matcher selectMatcher = retrieveSelectMatcher(queryString);
+        String fromClause = retrieveFromClause(queryString,
+                selectMatcher);
+        if(findTopLevel(fromClause,
+                GROUP_BY_PATTERN,
+                0) >= 0
+                || findTopLevel(fromClause,
+                        HAVING_PATTERN,
+                        0) >= 0) {
+            return true;
+        }
+        for(String selectExpression : splitTopLevel(retrieveSelection(queryString,
+                selectMatcher))) {
+            if(AGGREGATE_EXPRESSION_PATTERN.matcher(selectExpression).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Transforms the grouped query {@code queryString} (see
+     * {@link #isGroupedQuery(java.lang.String) }) into a query which returns
+     * one row per result of {@code queryString} and as little data as
+     * possible, i.e. a literal per group unless the selection is needed for
+     * {@code DISTINCT} or aggregates without {@code GROUP BY}. The
+     * {@code ORDER BY} clause is removed.
+     * @param queryString the query to transform
+     * @return the query whose rows have to be counted
+     * @throws IllegalArgumentException if {@code queryString} doesn't start
+     *     with a {@code SELECT} clause
+     */
+    static String buildGroupCountQueryText(String queryString) {
+        Matcher selectMatcher = retrieveSelectMatcher(queryString);
+        String fromClause = retrieveFromClause(queryString,
+                selectMatcher);
+        if(selectMatcher.group(1) == null
+                && findTopLevel(fromClause,
+                        GROUP_BY_PATTERN,
+                        0) >= 0) {
+            return String.format("SELECT 1 %s",
+                    fromClause);
+        }
+        return String.format("SELECT %s%s %s",
+                selectMatcher.group(1) != null ? "DISTINCT " : "",
+                retrieveSelection(queryString,
+                        selectMatcher),
+                fromClause);
+    }
+
+    /**
+     * Replaces the selection of {@code queryString} which has to be a single
+     * identification variable with the type of the selected entity followed by
+     * the paths of {@code attributeNames}.
+     * @param queryString the query to transform
+     * @param attributeNames the names of the attributes to select
+     * @return the projection query text
+     * @throws IllegalArgumentException if {@code queryString} doesn't start
+     *     with a {@code SELECT} clause or doesn't select an identification
+     *     variable
+     */
+    static String buildProjectionQueryText(String queryString,
+            List<String> attributeNames) {
+        Matcher selectMatcher = retrieveSelectMatcher(queryString);
+        String alias = selectMatcher.group(2).trim();
+        if(!IDENTIFICATION_VARIABLE_PATTERN.matcher(alias).matches()) {
+            throw new IllegalArgumentException(String.format("query '%s' "
+                    + "doesn't select an identification variable",
+                    queryString));
+        }
+        StringBuilder selectionBuilder = new StringBuilder(String.format("TYPE(%s)",
+                alias));
+        for(String attributeName : attributeNames) {
+            selectionBuilder.append(String.format(", %s.%s",
+                    alias,
+                    attributeName));
+        }
+        return String.format("SELECT %s%s %s",
+                selectMatcher.group(1) != null ? "DISTINCT " : "",
+                selectionBuilder.toString(),
+                queryString.substring(selectMatcher.start(3)).trim());
+    }
+
+    /**
+     * Replaces the selection of {@code queryString} with a literal and removes
+     * an {@code ORDER BY} clause.
+     * @param queryString the query to transform
+     * @return the exists query text
+     * @throws IllegalArgumentException if {@code queryString} doesn't start
+     *     with a {@code SELECT} clause
+     */
+    static String buildExistsQueryText(String queryString) {
+        Matcher selectMatcher = retrieveSelectMatcher(queryString);
+        return String.format("SELECT 1 %s",
+                retrieveFromClause(queryString,
+                        selectMatcher));
+    }
+
+    private static Matcher retrieveSelectMatcher(String queryString) {
+        Matcher retValue = SELECT_PATTERN.matcher(queryString);
+        if(!retValue.find()) {
+            throw new IllegalArgumentException(String.format("query '%s' "
+                    + "doesn't start with a SELECT clause",
+                    queryString));
+        }
+        return retValue;
+    }
+
+    /**
+     * Retrieves the selection of {@code queryString} which ends at the first
+     * {@code FROM} which isn't part of a function call like {@code TRIM} or a
+     * subquery.
+     */
+    private static String retrieveSelection(String queryString,
+            Matcher selectMatcher) {
+        return queryString.substring(selectMatcher.start(2),
+                retrieveFromClauseStart(queryString,
+                        selectMatcher)).trim();
+    }
+
+    private static int retrieveFromClauseStart(String queryString,
+            Matcher selectMatcher) {
+        int retValue = findTopLevel(queryString,
+                FROM_PATTERN,
+                selectMatcher.start(2));
+        if(retValue < 0) {
+            throw new IllegalArgumentException(String.format("query '%s' "
+                    + "doesn't have a FROM clause",
+                    queryString));
+        }
+        return retValue;
+    }
+
+    /*
+    internal implementation notes:
+    - an escaped quote in a string literal ('') toggles the literal state twice
+    and thus doesn't need to be handled
+    */
+    /**
+     * Marks the characters of {@code text} which are neither enclosed in
+     * parentheses nor part of a string literal.
+     */
+    private static boolean[] retrieveTopLevelCharacters(String text) {
+        boolean[] retValue = new boolean[text.length()];
+        int depth = 0;
+        boolean literal = false;
+        for(int i=0; i<text.length(); i++) {
+            char character = text.charAt(i);
+            if(character == '\'') {
+                literal = !literal;
+            }else if(!literal) {
+                if(character == '(') {
+                    depth++;
+                }else if(character == ')') {
+                    depth--;
+                }else {
+                    retValue[i] = depth == 0;
+                }
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * Finds the first match of {@code pattern} in {@code text} starting at
+     * {@code fromIndex} which isn't enclosed in parentheses or a string
+     * literal.
+     * @return the start of the match or {@code -1} if there's none
+     */
+    private static int findTopLevel(String text,
+            Pattern pattern,
+            int fromIndex) {
+        boolean[] topLevelCharacters = retrieveTopLevelCharacters(text);
+        Matcher matcher = pattern.matcher(text);
+        while(matcher.find()) {
+            if(matcher.start() >= fromIndex
+                    && topLevelCharacters[matcher.start()]) {
+                return matcher.start();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits {@code text} at commas which aren't enclosed in parentheses or a
+     * string literal, e.g. the expressions of a selection.
+     * @param text the text to split
+     * @return the trimmed parts
+     */
+    static List<String> splitTopLevel(String text) {
+        boolean[] topLevelCharacters = retrieveTopLevelCharacters(text);
+        List<String> retValue = new LinkedList<>();
+        int partStart = 0;
+        for(int i=0; i<text.length(); i++) {
+            if(topLevelCharacters[i] && text.charAt(i) == ',') {
+                retValue.add(text.substring(partStart, i).trim());
+                partStart = i+1;
+            }
+        }
+        retValue.add(text.substring(partStart).trim());
+        return retValue;
+    }
+
+    private static String retrieveFromClause(String queryString,
+            Matcher selectMatcher) {
+        String retValue = queryString.substring(retrieveFromClauseStart(queryString,
+                selectMatcher));
+        int orderByStart = findTopLevel(retValue,
+                ORDER_BY_PATTERN,
+                0);
+        if(orderByStart >= 0) {
+            retValue = retValue.substring(0, orderByStart);
+        }
+        return retValue.trim();
+    }
+
+    private static Object retrieveIdClassValue(Object id,
+            String idAttributeName) throws StorageException {
+        Class<?> idClass = id.getClass();
+        while(idClass != null) {
+            try {
+                Field idField = idClass.getDeclaredField(idAttributeName);
+                idField.setAccessible(true);
+                return idField.get(id);
+            }catch(NoSuchFieldException ex) {
+                idClass = idClass.getSuperclass();
+            }catch(IllegalAccessException ex) {
+                throw new StorageException(ex);
+            }
+        }
+        throw new IllegalArgumentException(String.format("id class %s "
+                + "doesn't have a field for id attribute %s",
+                id.getClass().getName(),
+                idAttributeName));
+    }
+
+    /*
+    internal implementation notes:
+    - PostgreSQL JDBC driver only uses a server-side cursor if auto-commit is
+    disabled and a fetch size is set -> run in a (read-only) transaction which
+    is rolled back on close
+    - MySQL Connector/J only streams with useCursorFetch=true in the connection
+    URL, otherwise the complete result is buffered by the driver
+    - the query permit is held until the stream is closed because an open
+    cursor occupies the same resources as a running query
+    */
+    /**
+     * Runs {@code queryString} and streams the result with a server-side
+     * cursor backed by Hibernate's {@link ScrollableResults} instead of loading
+     * it completely. Returned entities are detached every {@code fetchSize}
+     * rows, so that memory consumption is bounded no matter how large the
+     * result is.
+     *
+     * The returned stream has to be closed, preferably in a
+     * try-with-resources statement, unless it's consumed completely.
+     *
+     * @param <T> the type of results
+     * @param queryString the JPQL query
+     * @param clazz the type of results
+     * @param fetchSize the number of rows fetched in one round trip
+     * @return the stream of results
+     * @throws StorageException wraps any exception which occurs while creating
+     *     the query
+     */
+    @Override
+    public <T> Stream<T> streamQuery(String queryString,
+            Class<T> clazz,
+            int fetchSize) throws StorageException {
+        return streamQuery(queryString,
+                clazz,
+                fetchSize,
+                retrieveDefaultQueryPriority());
+    }
+
+    @Override
+    public <T> Stream<T> streamQuery(String queryString,
+            Class<T> clazz,
+            int fetchSize,
+            QueryPriority queryPriority) throws StorageException {
+        if(fetchSize <= 0) {
+            throw new IllegalArgumentException("fetchSize has to be > 0");
+        }
+        int queryWeight = retrieveQueryWeight(clazz);
+        acquireQueryCapacity(queryWeight,
+                queryPriority);
+        EntityManager entityManager;
+        try {
+            entityManager = this.retrieveEntityManager();
+        }catch(RuntimeException ex) {
+            releaseQueryCapacity(queryWeight,
+                    -1, //queryStartNanos
+                    null, //queryText
+                    -1 //queryResultCount
+            );
+            throw ex;
+        }
+        Runnable closeCallback = () -> {
+            try {
+                if(entityManager.getTransaction().isActive()) {
+                    entityManager.getTransaction().rollback();
+                }
+                releaseEntityManager(entityManager);
+            }finally {
+                releaseQueryCapacity(queryWeight,
+                        -1, //queryStartNanos (the lifetime of a cursor doesn't
+                            //reflect the database load)
+                        null, //queryText
+                        -1 //queryResultCount
+                );
+            }
+        };
+        try {
+            LOGGER.debug(String.format("streaming query '%s'", queryString));
+            entityManager.getTransaction().begin();
+            Session session = entityManager.unwrap(Session.class);
+            Query query = session.createQuery(queryString);
+            query.setFetchSize(fetchSize);
+            query.setReadOnly(true);
+            query.setCacheMode(CacheMode.IGNORE);
+            ScrollableResults scrollableResults = query.scroll(ScrollMode.FORWARD_ONLY);
+            ScrollableResultsIterator<T> iterator = new ScrollableResultsIterator<>(scrollableResults,
+                    session,
+                    clazz,
+                    fetchSize, //clearInterval
+                    closeCallback);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                            Spliterator.ORDERED),
+                    false //parallel
+            ).onClose(iterator::close);
+        }catch(RuntimeException ex) {
+            closeCallback.run();
+            throw new StorageException(ex);
+        }
+    }
+
+    /*
+    internal implementation notes:
+    - pageSize+1 results are retrieved in order to figure out whether there's a
+    next page without an extra query returning an empty page
+    - the existing WHERE condition is put in parentheses because AND binds
+    stronger than a possible top-level OR in it
+    - optional sort attributes are rejected because comparisons with NULL are
+    never true, so that the keyset condition would skip all rows with a null
+    sort key; JPQL doesn't support NULLS FIRST/LAST which would be necessary
+    to handle them with an additional IS NULL condition portably
+    */
+    @Override
+    public <T> KeysetPage<T> runQueryPage(String queryString,
+            String alias,
+            Class<T> clazz,
+            String sortAttributeName,
+            KeysetToken continuationToken,
+            int pageSize) throws StorageException {
+        if(pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize has to be > 0");
+        }
+        String idAttributeName = metamodelIndex.getIdAttributeName(clazz);
+        if(idAttributeName == null) {
+            throw new IllegalArgumentException(String.format("entity class %s "
+                    + "doesn't have a single id attribute",
+                    clazz.getName()));
+        }
+        SingularAttribute<? super T, ?> sortAttribute = entityManagerFactory.getMetamodel().entity(clazz).getSingularAttribute(sortAttributeName);
+        if(sortAttribute.isOptional()
+                && !sortAttribute.getJavaType().isPrimitive()) {
+            throw new IllegalArgumentException(String.format("sort attribute "
+                    + "%s of entity class %s is optional, rows with a null "
+                    + "sort key can't be paged",
+                    sortAttributeName,
+                    clazz.getName()));
+        }
+        String keysetQueryText = buildKeysetQueryText(queryString,
+                alias,
+                sortAttributeName,
+                idAttributeName,
+                continuationToken != null);
+        int queryWeight = retrieveQueryWeight(clazz);
+        long queryStartNanos = acquireQueryCapacity(queryWeight,
+                retrieveDefaultQueryPriority());
+        int queryResultCount = -1;
+        try {
+            LOGGER.debug(String.format("running keyset query '%s'", keysetQueryText));
+            List<T> results;
+            EntityManager entityManager = this.retrieveEntityManager();
+            try {
+                TypedQuery<T> query = entityManager.createQuery(keysetQueryText,
+                        clazz);
+                if(continuationToken != null) {
+                    query.setParameter(KEYSET_SORT_KEY_PARAMETER,
+                            continuationToken.getLastSortKey());
+                    query.setParameter(KEYSET_ID_PARAMETER,
+                            continuationToken.getLastId());
+                }
+                results = query.setMaxResults(pageSize+1).getResultList();
+            }catch(PersistenceException | IllegalArgumentException ex) {
+                throw new StorageException(ex);
+            }finally {
+                releaseEntityManager(entityManager);
+            }
+            queryResultCount = results.size();
+            if(results.size() <= pageSize) {
+                return new KeysetPage<>(results,
+                        null //continuationToken
+                );
+            }
+            List<T> pageResults = new ArrayList<>(results.subList(0, pageSize));
+            T last = pageResults.get(pageSize-1);
+            KeysetToken nextToken = new KeysetToken(retrieveAttributeValue(last,
+                            sortAttribute),
+                    entityManagerFactory.getPersistenceUnitUtil().getIdentifier(last));
+            return new KeysetPage<>(pageResults,
+                    nextToken);
+        }finally {
+            releaseQueryCapacity(queryWeight,
+                    queryStartNanos,
+                    keysetQueryText,
+                    queryResultCount);
+        }
+    }
+
+    /**
+     * Appends the keyset condition (if {@code continued} is {@code true}) and
+     * the ordering by sort key and id to {@code queryString}.
+     * @param queryString the query to extend
+     * @param alias the identification variable of the selected entity
+     * @param sortAttributeName the name of the sort attribute
+     * @param idAttributeName the name of the id attribute
+     * @param continued whether a page following a previous one is retrieved
+     * @return the extended query text
+     * @throws IllegalArgumentException if {@code queryString} already contains
+     *     an {@code ORDER BY} clause
+     */
+    static String buildKeysetQueryText(String queryString,
+            String alias,
+            String sortAttributeName,
+            String idAttributeName,
+            boolean continued) {
+        if(ORDER_BY_PATTERN.matcher(queryString).find()) {
+            throw new IllegalArgumentException(String.format("query '%s' "
+                    + "mustn't contain an ORDER BY clause",
+                    queryString));
+        }
+        String sortPath = String.format("%s.%s", alias, sortAttributeName);
+        String idPath = String.format("%s.%s", alias, idAttributeName);
+        StringBuilder retValueBuilder = new StringBuilder(queryString.length()+128);
+        if(continued) {
+            String keysetCondition = String.format("(%s > :%s OR (%s = :%s AND %s > :%s))",
+                    sortPath,
+                    KEYSET_SORT_KEY_PARAMETER,
+                    sortPath,
+                    KEYSET_SORT_KEY_PARAMETER,
+                    idPath,
+                    KEYSET_ID_PARAMETER);
+            Matcher whereMatcher = WHERE_PATTERN.matcher(queryString);
+            if(whereMatcher.find()) {
+                retValueBuilder.append(queryString, 0, whereMatcher.end())
+                        .append(" (")
+                        .append(queryString.substring(whereMatcher.end()).trim())
+                        .append(") AND ")
+                        .append(keysetCondition);
+            }else {
+                retValueBuilder.append(queryString.trim())
+                        .append(" WHERE ")
+                        .append(keysetCondition);
+            }
+        }else {
+            retValueBuilder.append(queryString.trim());
+        }
+        retValueBuilder.append(String.format(" ORDER BY %s, %s",
+                sortPath,
+                idPath));
+        return retValueBuilder.toString();
+    }
+
+    private static Object retrieveAttributeValue(Object entity,
+            Attribute<?, ?> attribute) throws StorageException {
+        Member member = attribute.getJavaMember();
+        try {
+            if(member instanceof Field) {
+                Field field = (Field) member;
+                field.setAccessible(true);
+                return field.get(entity);
+            }else if(member instanceof Method) {
+                Method method = (Method) member;
+                method.setAccessible(true);
+                return method.invoke(entity);
+            }
+        }catch(IllegalAccessException | InvocationTargetException ex) {
+            throw new StorageException(ex);
+        }
+        throw new IllegalArgumentException(String.format("attribute %s isn't "
+                + "backed by a field or a method",
+                attribute.getName()));
+    }
+
+    /**
+     * Blocks until a query of weight {@code queryWeight} is admitted by the
+     * {@link QueryAdmissionController}.
+     * @param queryWeight the weight of the query
+     * @param queryPriority the priority of the query
+     * @return the start time of the query in nanoseconds to pass to
+     *     {@link #releaseQueryCapacity(int, long, java.lang.String, int) }
+     */
+    private long acquireQueryCapacity(int queryWeight,
+            QueryPriority queryPriority) {
+        LOGGER.trace(String.format("waiting for query admission with priority "
+                + "%s (with approx. %d other threads)",
+                queryPriority,
+                queryAdmissionController.getQueueLength()));
+        long waitStartNanos = System.nanoTime();
+        queryAdmissionController.acquire(queryWeight,
+                queryPriority);
+        long queryStartNanos = System.nanoTime();
+        storageMetrics.recordAdmissionWait(queryStartNanos-waitStartNanos);
+        LOGGER.trace(String.format("query of weight %d admitted (%d remaining "
+                + "capacity)",
+                queryWeight,
+                queryAdmissionController.getAvailableCapacity()));
+        return queryStartNanos;
+    }
+
+    /**
+     * Waits for admission of a cancellable query until it's admitted,
+     * cancelled or its deadline passes.
+     * @param queryWeight the weight of the query
+     * @param queryPriority the priority of the query
+     * @param cancellableQuery the query handle
+     * @return the start time of the query in nanoseconds to pass to
+     *     {@link #releaseQueryCapacity(int, long, java.lang.String, int) }
+     * @throws QueryCancelledException if the query has been cancelled or its
+     *     deadline passed before it has been admitted
+     */
+    private long tryAcquireQueryCapacity(int queryWeight,
+            QueryPriority queryPriority,
+            CancellableQuery<?> cancellableQuery) throws QueryCancelledException {
+        LOGGER.trace(String.format("waiting for admission of cancellable "
+                + "query with priority %s (with approx. %d other threads)",
+                queryPriority,
+                queryAdmissionController.getQueueLength()));
+        long waitStartNanos = System.nanoTime();
+        boolean admitted = queryAdmissionController.tryAcquire(queryWeight,
+                queryPriority,
+                cancellableQuery.hasDeadline()
+                        ? Math.max(0, cancellableQuery.retrieveRemainingNanos())
+                        : -1, //timeoutNanos
+                cancellableQuery::isCancelled);
+        long queryStartNanos = System.nanoTime();
+        storageMetrics.recordAdmissionWait(queryStartNanos-waitStartNanos);
+            //waits of queries which are cancelled while waiting are recorded
+            //as well since they reflect contention
+        if(!admitted) {
+            cancellableQuery.checkCancelled();
+            throw new QueryCancelledException("query has been interrupted "
+                    + "while waiting for admission",
+                    false, //timeout
+                    null //cause
+            );
+        }
+        return queryStartNanos;
+    }
+
+    /**
+     * Releases capacity acquired with
+     * {@link #acquireQueryCapacity(int, de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority) }.
+     * @param queryWeight the weight of the query
+     * @param queryStartNanos the value returned by
+     *     {@code acquireQueryCapacity} or a negative value in order to not
+     *     record the query duration
+     * @param queryText the text of the query to record in the slow query log
+     *     or {@code null} if the query has no text (e.g. criteria queries)
+     * @param queryResultCount the number of results of the query or a
+     *     negative value if it failed with an exception
+     */
+    private void releaseQueryCapacity(int queryWeight,
+            long queryStartNanos,
+            String queryText,
+            int queryResultCount) {
+        long queryDurationNanos = -1;
+        if(queryStartNanos >= 0) {
+            queryDurationNanos = System.nanoTime()-queryStartNanos;
+        }
+        queryAdmissionController.release(queryWeight,
+                queryDurationNanos);
+        LOGGER.trace(String.format("query capacity released (%d remaining "
+                + "capacity)",
+                queryAdmissionController.getAvailableCapacity()));
+        if(queryDurationNanos >= 0) {
+            //after the release since writing the slow query log file
+            //mustn't delay waiting queries
+            storageMetrics.recordOperation(StorageOperation.QUERY,
+                    queryDurationNanos,
+                    queryResultCount < 0);
+            if(queryText != null) {
+                slowQueryLog.record(queryText,
+                        queryDurationNanos,
+                        queryResultCount);
+            }
+        }
+    }
+
+    /*
+    internal implementation notes:
+    - only attributes of the entity itself are checked because associations are
+    fetched with separate queries (unless eagerly joined which would require
+    evaluation of fetch types and is not worth it)
+    */
+    /**
+     * Figures out the weight of a query with results of type {@code clazz}
+     * which is {@link QueryAdmissionController#WEIGHT_LARGE} for entities with
+     * large attributes (see
+     * {@link #retrieveLargeAttributeNames(java.lang.Class) }) and
+     * {@link QueryAdmissionController#WEIGHT_DEFAULT} otherwise.
+     * @param clazz the result type
+     * @return the query weight
+     */
+    protected int retrieveQueryWeight(Class<?> clazz) {
+        if(!isClassSupported(clazz)) {
+            return QueryAdmissionController.WEIGHT_DEFAULT;
+        }
+        return retrieveLargeAttributeNames(clazz).isEmpty()
+                ? QueryAdmissionController.WEIGHT_DEFAULT
+                : QueryAdmissionController.WEIGHT_LARGE;
+    }
+
+    /**
+     * Figures out the attributes of {@code clazz} which are {@code byte[]},
+     * {@code Byte[]}, {@link Blob} or {@link Clob} or annotated with
+     * {@link Lob} based on the metamodel.
+     * @param clazz the entity class
+     * @return the names of the large attributes
+     */
+    @Override
+    public Set<String> retrieveLargeAttributeNames(Class<?> clazz) {
+        Set<String> retValue = largeAttributeNamesCache.get(clazz);
+        if(retValue != null) {
+            return retValue;
+        }
+        retValue = new HashSet<>();
+        for(Attribute<?, ?> attribute : entityManagerFactory.getMetamodel().entity(clazz).getAttributes()) {
+            Class<?> attributeType = attribute.getJavaType();
+            Member javaMember = attribute.getJavaMember();
+            if(isBinaryAttributeType(attributeType)
+                    || Clob.class.isAssignableFrom(attributeType)
+                    || javaMember instanceof Field && ((Field)javaMember).isAnnotationPresent(Lob.class)
+                    || javaMember instanceof Method && ((Method)javaMember).isAnnotationPresent(Lob.class)) {
+                retValue.add(attribute.getName());
+            }
+        }
+        retValue = Collections.unmodifiableSet(retValue);
+        largeAttributeNamesCache.put(clazz, retValue);
+        return retValue;
+    }
+
+    private static boolean isBinaryAttributeType(Class<?> attributeType) {
+        return byte[].class.equals(attributeType)
+                || Byte[].class.equals(attributeType)
+                || Blob.class.isAssignableFrom(attributeType);
+    }
+
+    /*
+    internal implementation notes:
+    - JPQL and Hibernate's types materialize byte[] attributes completely, so
+    that the mapped column is selected with plain JDBC on the connection of the
+    session which is resolved with Hibernate's entity persister
+    - the transaction is kept open until the stream is closed because drivers
+    like PostgreSQL's only stream large objects inside a transaction
+    - in a JOINED inheritance hierarchy the primary key column of subclass
+    tables is assumed to have the same name as the one of the root table which
+    is the default of @PrimaryKeyJoinColumn
+    */
+    @Override
+    public InputStream openBinaryAttribute(Object id,
+            Class<?> clazz,
+            String attributeName) throws StorageException {
+        if(id == null) {
+            throw new IllegalArgumentException("id mustn't be null");
+        }
+        Attribute<?, ?> attribute = entityManagerFactory.getMetamodel().entity(clazz).getAttribute(attributeName);
+        if(!isBinaryAttributeType(attribute.getJavaType())) {
+            throw new IllegalArgumentException(String.format("attribute %s of "
+                    + "entity class %s isn't binary",
+                    attributeName,
+                    clazz.getName()));
+        }
+        AbstractEntityPersister entityPersister = (AbstractEntityPersister) entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getEntityPersister(clazz.getName());
+        String[] columnNames = entityPersister.getPropertyColumnNames(attributeName);
+        String[] idColumnNames = entityPersister.getIdentifierColumnNames();
+        if(columnNames.length != 1 || idColumnNames.length != 1) {
+            throw new IllegalArgumentException(String.format("attribute %s of "
+                    + "entity class %s has to be mapped to exactly one column "
+                    + "and the entity class to have a single id column",
+                    attributeName,
+                    clazz.getName()));
+        }
+        String sql = String.format("SELECT %s FROM %s WHERE %s = ?",
+                columnNames[0],
+                entityPersister.getPropertyTableName(attributeName),
+                idColumnNames[0]);
+        int queryWeight = QueryAdmissionController.WEIGHT_LARGE;
+        acquireQueryCapacity(queryWeight,
+                retrieveDefaultQueryPriority());
+        EntityManager entityManager;
+        try {
+            entityManager = this.retrieveEntityManager();
+        }catch(RuntimeException ex) {
+            releaseQueryCapacity(queryWeight,
+                    -1, //queryStartNanos
+                    null, //queryText
+                    -1 //queryResultCount
+            );
+            throw ex;
+        }
+        Runnable closeCallback = () -> {
+            try {
+                if(entityManager.getTransaction().isActive()) {
+                    entityManager.getTransaction().rollback();
+                }
+                releaseEntityManager(entityManager);
+            }finally {
+                releaseQueryCapacity(queryWeight,
+                        -1, //queryStartNanos (the time the stream is open
+                            //doesn't reflect the database load)
+                        null, //queryText
+                        -1 //queryResultCount
+                );
+            }
+        };
+        try {
+            LOGGER.debug(String.format("opening binary attribute with '%s'",
+                    sql));
+            entityManager.getTransaction().begin();
+            InputStream retValue = entityManager.unwrap(Session.class).doReturningWork(connection -> {
+                PreparedStatement statement = connection.prepareStatement(sql);
+                try {
+                    statement.setObject(1, id);
+                    ResultSet resultSet = statement.executeQuery();
+                    InputStream binaryStream = null;
+                    if(resultSet.next()) {
+                        binaryStream = resultSet.getBinaryStream(1);
+                    }
+                    if(binaryStream == null) {
+                        //entity doesn't exist or attribute is null
+                        statement.close();
+                        return null;
+                    }
+                    return new BinaryAttributeInputStream(binaryStream,
+                            statement,
+                            closeCallback);
+                }catch(SQLException | RuntimeException ex) {
+                    statement.close();
+                    throw ex;
+                }
+            });
+            if(retValue == null) {
+                closeCallback.run();
+            }
+            return retValue;
+        }catch(RuntimeException ex) {
+            closeCallback.run();
+            throw new StorageException(ex);
+        }
+    }
+
+    /**
+     * The priority of queries which are run without explicit priority which is
+     * {@link QueryPriority#INTERACTIVE} on the event dispatch thread (where
+     * the GUI is blocked until the query finishes) and
+     * {@link QueryPriority#NORMAL} otherwise.
+     * @return the default query priority
+     */
+    protected QueryPriority retrieveDefaultQueryPriority() {
+        if(SwingUtilities.isEventDispatchThread()) {
+            return QueryPriority.INTERACTIVE;
+        }
+        return QueryPriority.NORMAL;
+    }
+
+    /*
+    internal implementation notes:
+    - the number of threads equals the maximum query limit so that queries
+    wait for admission in QueryAdmissionController where they're ordered by
+    priority rather than in the FIFO queue of the executor
+    */
+    /**
+     * Creates the asynchronous facade of this storage on first invocation.
+     * The facade is shut down in {@link #shutdown() }.
+     * @return the asynchronous storage
+     */
+    @Override
+    public synchronized AsyncPersistenceStorage getAsyncStorage() {
+        if(asyncStorage == null) {
+            asyncStorage = new AsyncPersistenceStorage(this,
+                    queryAdmissionController.getMaxLimit(), //threadCount
+                    AsyncPersistenceStorage.QUEUE_CAPACITY_DEFAULT);
+        }
+        return asyncStorage;
+    }
+
+    /**
+     * The controller which limits parallel queries and provides the current
+     * limit and queue length.
+     * @return the query admission controller
+     */
+    public QueryAdmissionController getQueryAdmissionController() {
+        return queryAdmissionController;
+    }
+
+    @Override
+    public StorageMetrics getStorageMetrics() {
+        return storageMetrics;
+    }
+
+    /*
+    internal implementation notes:
+    - a dedicated thread is used rather than the executor of
+    AsyncPersistenceStorage because the warm-up mustn't occupy one of the threads
+    which run user queries
+    - a running warm-up is cancelled when a new one is started because both
+    would do the same work
+    */
+    /**
+     * Starts the warm-up on a background thread with minimal priority and
+     * returns immediately, so that it can be invoked on the event dispatch
+     * thread. The warm-up opens connections up to the minimum size of the
+     * connection pool, translates the queries for all entities and their
+     * count of every entity class of the storage configuration and the
+     * queries provided by {@code querySource}. It's cancelled in {@link #shutdown() }.
+     *
+     * @param querySource the source of queries to translate or {@code null}
+     *     if no queries should be translated
+     * @param listener the listener which is notified about progress on the
+     *     warm-up thread or {@code null}
+     * @return a future which is completed when the warm-up finished,
+     *     completed exceptionally if it failed unexpectedly and cancelled if
+     *     the warm-up was cancelled
+     * @throws IllegalStateException if the storage isn't started
+     */
+    @Override
+    public synchronized CompletableFuture<Void> warmUp(WarmUpQuerySource querySource,
+            StorageWarmUpListener listener) {
+        EntityManagerFactory entityManagerFactory = this.entityManagerFactory;
+        if(entityManagerFactory == null || !entityManagerFactory.isOpen()) {
+            throw new IllegalStateException("storage isn't started");
+        }
+        if(warmUpThread != null) {
+            warmUpThread.interrupt();
+        }
+        StorageWarmUp warmUp = new StorageWarmUp(this,
+                metamodelIndex,
+                retrieveConnectionProvider(),
+                retrievePoolMinSize(), //connectionCount
+                storageConf.getEntityClasses(),
+                querySource,
+                listener);
+        CompletableFuture<Void> retValue = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            long warmUpStartNanos = System.nanoTime();
+            try {
+                warmUp.run();
+                LOGGER.info(String.format("storage warm-up finished in %d ms",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-warmUpStartNanos)));
+                retValue.complete(null);
+            }catch(InterruptedException ex) {
+                LOGGER.debug("storage warm-up cancelled");
+                retValue.cancel(false //mayInterruptIfRunning
+                );
+            }catch(RuntimeException ex) {
+                LOGGER.warn("unexpected exception during storage warm-up",
+                        ex);
+                retValue.completeExceptionally(ex);
+            }finally {
+                synchronized(this) {
+                    if(warmUpThread == Thread.currentThread()) {
+                        warmUpThread = null;
+                    }
+                }
+            }
+        },
+                "storage-warm-up-thread");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        this.warmUpThread = thread;
+        thread.start();
+        return retValue;
+    }
+
+    /**
+     * Interrupts a running warm-up and waits at most
+     * {@link #WARM_UP_CANCEL_TIMEOUT_MILLIS} for it to stop.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private void cancelWarmUp() throws InterruptedException {
+        Thread warmUpThread;
+        synchronized(this) {
+            warmUpThread = this.warmUpThread;
+        }
+        if(warmUpThread == null) {
+            return;
+        }
+        warmUpThread.interrupt();
+        warmUpThread.join(WARM_UP_CANCEL_TIMEOUT_MILLIS);
+    }
+
+    /*
+    internal implementation notes:
+    - the writer of the queue bypasses update and updateAll since they discard
+    pending updates which would discard updates coalesced while the batch is
+    being written
+    */
+    /**
+     * Enables write-behind of updates scheduled with
+     * {@link #scheduleUpdate(java.lang.Object) }. Scheduled updates are
+     * coalesced per entity and written in batches of up to
+     * {@link #BATCH_SIZE} entities on a background thread. Failures are
+     * reported to {@code issueHandler}.
+     *
+     * Queries don't wait for pending updates, so callers which need to read
+     * their writes have to invoke {@link #flushScheduledUpdates() } before.
+     *
+     * @param issueHandler the issue handler to report failed updates to
+     * @param capacity the maximum number of pending updates after which
+     *     {@code scheduleUpdate} blocks
+     * @param lingerMillis the time the writer waits for further updates to
+     *     coalesce and batch before writing
+     * @throws IllegalStateException if write-behind is already enabled
+     */
+    public synchronized void enableWriteBehind(IssueHandler issueHandler,
+            int capacity,
+            long lingerMillis) {
+        if(this.writeBehindQueue != null) {
+            throw new IllegalStateException("write-behind is already enabled");
+        }
+        this.writeBehindQueue = new WriteBehindQueue(new WriteBehindQueue.EntityWriter() {
+                    @Override
+                    public void writeAll(List<Object> entities) throws StorageException {
+                        runBatch(entities,
+                                (entityManager, object) -> entityManager.merge(object));
+                    }
+
+                    @Override
+                    public void write(Object entity) throws StorageException {
+                        update0(entity);
+                    }
+                },
+                this::retrieveWriteBehindKey,
+                EntitySnapshotCreator::createSnapshot,
+                issueHandler,
+                capacity,
+                BATCH_SIZE, //maxBatchSize
+                lingerMillis);
+    }
+
+    /**
+     * Writes all pending updates and disables write-behind, so that
+     * {@link #scheduleUpdate(java.lang.Object) } updates synchronously.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *     for the pending updates to be written
+     */
+    public synchronized void disableWriteBehind() throws InterruptedException {
+        WriteBehindQueue writeBehindQueue = this.writeBehindQueue;
+        if(writeBehindQueue == null) {
+            return;
+        }
+        this.writeBehindQueue = null;
+        writeBehindQueue.close();
+    }
+
+    /**
+     * The write-behind queue which provides the number of pending updates.
+     * @return the write-behind queue or {@code null} if write-behind is
+     *     disabled
+     */
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    /**
+     * Queues an update of a snapshot of {@code object} if write-behind is
+     * enabled (see
+     * {@link #enableWriteBehind(de.richtercloud.message.handler.IssueHandler, int, long) })
+     * and updates it synchronously otherwise. The snapshot is created on the
+     * calling thread (see {@link EntitySnapshotCreator}), so that
+     * {@code object} can be modified further while the update is pending.
+     * @param object the object to update
+     * @throws StorageException if the synchronous update fails or the thread
+     *     is interrupted while waiting for capacity in the queue
+     */
+    @Override
+    public void scheduleUpdate(Object object) throws StorageException {
+        WriteBehindQueue writeBehindQueue = this.writeBehindQueue;
+        if(writeBehindQueue == null) {
+            update(object);
+            return;
+        }
+        try {
+            writeBehindQueue.enqueue(object);
+        }catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(ex);
+        }catch(IllegalStateException ex) {
+            //write-behind has been disabled concurrently
+            update(object);
+        }
+    }
+
+    @Override
+    public void flushScheduledUpdates() throws InterruptedException {
+        WriteBehindQueue writeBehindQueue = this.writeBehindQueue;
+        if(writeBehindQueue != null) {
+            writeBehindQueue.flush();
+        }
+    }
+
+    private void discardScheduledUpdate(Object object) throws StorageException {
+        WriteBehindQueue writeBehindQueue = this.writeBehindQueue;
+        if(writeBehindQueue == null) {
+            return;
+        }
+        try {
+            writeBehindQueue.discard(object);
+        }catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(ex);
+        }
+    }
+
+    /**
+     * Creates the key of {@code entity} in the write-behind queue from the
+     * root entity class of its hierarchy and its id so that different
+     * instances representing the same row are coalesced.
+     * @param entity the entity
+     * @return the key or {@code null} if {@code entity} doesn't have an id yet
+     */
+    private Object retrieveWriteBehindKey(Object entity) {
+        Class<?> entityClass = Hibernate.getClass(entity);
+            //unwraps proxies
+        if(!isClassSupported(entityClass)) {
+            return null;
+        }
+        Object id = entityManagerFactory.getPersistenceUnitUtil().getIdentifier(entity);
+        if(id == null) {
+            return null;
+        }
+        return WriteBehindQueue.createKey(retrieveRootEntityClass(entityClass),
+                id);
+    }
+
+    private Class<?> retrieveRootEntityClass(Class<?> clazz) {
+        return metamodelIndex.getRootEntityClass(clazz);
+    }
+
+    /**
+     * The recorder of per-fingerprint statistics of all queries with a query
+     * text which allows to configure the slow query threshold and log file.
+     * @return the slow query log
+     */
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Wraps {@code sequenceManager} in order to record its calls as
+     * {@link StorageOperation#SEQUENCE} in the storage metrics. Subclasses
+     * should pass their sequence manager through this method.
+     * @param sequenceManager the sequence manager to wrap
+     * @return the wrapping sequence manager
+     */
+    protected SequenceManager<Long> measureSequenceManager(SequenceManager<Long> sequenceManager) {
+        return new MeasuringSequenceManager(sequenceManager,
+                storageMetrics);
+    }
+
+    /*
+    internal implementation notes:
+    - failing registration doesn't fail the start of the storage since metrics
+    are still available through getStorageMetrics
+    */
+    /**
+     * Registers the storage metrics in the platform MBean server under the
+     * name created with
+     * {@link StorageMetrics#createObjectName(java.lang.String, java.lang.Object) }.
+     */
+    private synchronized void registerStorageMetrics() {
+        if(storageMetricsObjectName != null) {
+            //start invoked more than once
+            return;
+        }
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = StorageMetrics.createObjectName(persistenceUnitName,
+                    this);
+            mBeanServer.registerMBean(storageMetrics,
+                    objectName);
+            this.storageMetricsObjectName = objectName;
+            LOGGER.debug(String.format("registered storage metrics as '%s'",
+                    objectName));
+        }catch(JMException ex) {
+            LOGGER.warn("registration of storage metrics MBean failed",
+                    ex);
+        }
+    }
+
+    private synchronized void unregisterStorageMetrics() {
+        if(storageMetricsObjectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(storageMetricsObjectName);
+        }catch(JMException ex) {
+            LOGGER.warn("unregistration of storage metrics MBean failed",
+                    ex);
+        }finally {
+            storageMetricsObjectName = null;
+        }
+    }
+
+    /**
+     * Enables caching of results of
+     * {@link #runQuery(java.lang.String, java.lang.Class, int) }. Cached
+     * results are invalidated whenever an entity of a class the query refers
+     * to is written through this storage. Writes which bypass the storage
+     * (e.g. through {@link #retrieveEntityManager() } or by other
+     * applications) aren't noticed, so that caching should only be enabled if
+     * the storage is the only writer.
+     *
+     * @param maxEntries the maximum number of cached results
+     */
+    public void enableQueryResultCache(int maxEntries) {
+        this.queryResultCache = new QueryResultCache(maxEntries);
+    }
+
+    public void disableQueryResultCache() {
+        this.queryResultCache = null;
+    }
+
+    /**
+     * The query result cache which provides hit and miss counts.
+     * @return the query result cache or {@code null} if caching is disabled
+     */
+    public QueryResultCache getQueryResultCache() {
+        return queryResultCache;
+    }
+
+    private void invalidateQueryResultCache(Class<?> entityClass) {
+        QueryResultCache queryResultCache = this.queryResultCache;
+        if(queryResultCache != null) {
+            queryResultCache.invalidate(entityClass);
+        }
+    }
+
+    /*
+    internal implementation notes:
+    - path expressions (e.g. `e.company.name`) refer to entities without naming
+    them, so that all entities reachable through associations from named
+    entities are added in order to never miss an invalidation
+    */
+    /**
+     * Figures out which entity classes the result of {@code queryString} might
+     * depend on, i.e. all entities named in the query, {@code clazz} if it's
+     * an entity and all entities transitively reachable through associations
+     * from them.
+     * @param queryString the query
+     * @param clazz the result class
+     * @return the set of entity classes
+     */
+    private Set<Class<?>> retrieveQueryEntityClasses(String queryString,
+            Class<?> clazz) {
+        MetamodelIndex metamodelIndex = this.metamodelIndex;
+        Set<Class<?>> retValue = new HashSet<>();
+        Queue<Class<?>> queue = new LinkedList<>();
+        for(Class<?> entityClass : metamodelIndex.getEntityClasses()) {
+            if(entityClass.equals(clazz)
+                    || metamodelIndex.getEntityNamePattern(entityClass).matcher(queryString).find()) {
+                queue.add(entityClass);
+            }
+        }
+        while(!queue.isEmpty()) {
+            Class<?> entityClass = queue.poll();
+            if(!retValue.add(entityClass)) {
+                continue;
+            }
+            for(Class<?> targetClass : metamodelIndex.getToOneTargets(entityClass).values()) {
+                if(metamodelIndex.isEntity(targetClass)) {
+                    queue.add(targetClass);
+                }
+            }
+            for(Class<?> targetClass : metamodelIndex.getToManyTargets(entityClass).values()) {
+                if(metamodelIndex.isEntity(targetClass)) {
+                    queue.add(targetClass);
+                }
+            }
+        }
+        return retValue;
+    }
+
+    /*
+    internal implementation notes:
+    - checking a newly created EntityManager with EntityManager.contains always
+    returned false because no entity is ever contained in a fresh persistence
+    context
+    - only entity managers leased by the calling thread are checked because
+    EntityManager isn't thread-safe; since entity managers are cleared when
+    they're released, objects are only managed during an operation of the
+    calling thread, e.g. in a storage callback
+    */
+    /**
+     * Checks whether {@code object} is contained in the persistence context of
+     * an {@link EntityManager} currently leased by the calling thread.
+     * @param object the object to check
+     * @return {@code true} if {@code object} is managed, {@code false}
+     *     otherwise
+     */
+    @Override
+    public boolean isManaged(Object object) {
+        if(!isStarted()) {
+            throw new IllegalStateException("persistence storage hasn't been "
+                    + "started");
+        }
+        return entityManagerPool.containsLeasedByCurrentThread(object);
+    }
+
+    /*
+    internal implementation notes:
+    - entity managers are cleared when they're released, so that lazily
+    fetched fields of returned entities can't be loaded afterwards; the entity
+    is reattached to a leased entity manager with LockOptions.NONE which
+    neither accesses the database nor checks the version and the transaction
+    is rolled back since nothing is supposed to be written
+    - reattaching fails for entities which haven't been stored (they don't have
+    lazily fetched fields) and entities with modified collections (which are
+    initialized already), those are initialized without reattaching
+    */
+    @Override
+    public void initialize(Object entity,
+            FieldInitializer fieldInitializer) throws FieldHandlingException {
+        if(entity == null) {
+            throw new IllegalArgumentException("entity mustn't be null");
+        }
+        EntityManager entityManager = retrieveEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            try {
+                entityManager.unwrap(Session.class).buildLockRequest(LockOptions.NONE).lock(entity);
+            }catch(HibernateException ex) {
+                LOGGER.debug(String.format("entity %s can't be reattached, "
+                        + "initializing it without",
+                        entity),
+                        ex);
+            }
+            fieldInitializer.initialize(entity);
+        }finally {
+            if(entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            releaseEntityManager(entityManager);
+        }
+    }
+
+    /**
+     * Leases an {@link EntityManager} from the storage's
+     * {@link EntityManagerPool}. Callers have to return it with
+     * {@link #releaseEntityManager(javax.persistence.EntityManager) } in a
+     * {@code finally} block.
+     * @return the leased entity manager
+     */
+    @Override
+    public EntityManager retrieveEntityManager() {
+        if(!isStarted()) {
+            throw new IllegalStateException("persistence storage hasn't been "
+                    + "started");
+        }
+        return this.entityManagerPool.acquire();
+    }
+
+    @Override
+    public void releaseEntityManager(EntityManager entityManager) {
+        this.entityManagerPool.release(entityManager);
+    }
+
+    protected EntityManagerPool getEntityManagerPool() {
+        return entityManagerPool;
+    }
+
+    @Override
+    public void shutdown() {
+        unregisterStorageMetrics();
+        try {
+            cancelWarmUp();
+        }catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("interrupted while waiting for warm-up to stop during "
+                    + "shutdown",
+                    ex);
+        }
+        try {
+            disableWriteBehind();
+        }catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("interrupted while writing pending updates during "
+                    + "shutdown",
+                    ex);
+        }
+        synchronized(this) {
+            if(this.asyncStorage != null) {
+                this.asyncStorage.shutdown();
+            }
+        }
+        if(this.entityManagerPool != null) {
+            this.entityManagerPool.close();
+        }
+        if(this.entityManagerFactory != null && this.entityManagerFactory.isOpen()) {
+            //might be null if an exception occured in Derby
+            this.entityManagerFactory.close();
+        }
+    }
+
+    protected Map<String, String> getEntityManagerProperties() {
+        Map<String, String> properties = new HashMap<>(8);
+        properties.put("javax.persistence.jdbc.url", storageConf.getConnectionURL());
+        properties.put("javax.persistence.jdbc.user", storageConf.getUsername());
+        properties.put("javax.persistence.jdbc.password", storageConf.getPassword());
+        properties.put("javax.persistence.jdbc.driver", storageConf.getDatabaseDriver());
+        if(schemeUnchanged) {
+            properties.put("hibernate.hbm2ddl.auto", "none");
+            properties.put("javax.persistence.schema-generation.database.action", "none");
+                //override settings of persistence.xml
+        }
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(BATCH_SIZE));
+        properties.put("hibernate.order_inserts", "true");
+        properties.put("hibernate.order_updates", "true");
+            //ordering is necessary in order to get statements for different
+            //entity types into separate batches in bulk operations
+        properties.put("hibernate.connection.provider_class",
+                "org.hibernate.c3p0.internal.C3P0ConnectionProvider");
+            //Hibernate's built-in connection pool isn't meant for production
+        properties.put("hibernate.c3p0.min_size",
+                String.valueOf(retrievePoolMinSize()));
+        properties.put("hibernate.c3p0.max_size",
+                String.valueOf(retrievePoolMaxSize()));
+        properties.put("hibernate.c3p0.timeout",
+                String.valueOf(storageConf.getPoolIdleTimeoutSeconds()));
+        properties.put("hibernate.c3p0.idle_test_period",
+                String.valueOf(storageConf.getPoolValidationIntervalSeconds()));
+        properties.put("hibernate.c3p0.testConnectionOnCheckout",
+                String.valueOf(storageConf.isPoolValidationOnCheckout()));
+        properties.put("hibernate.c3p0.maxStatementsPerConnection",
+                String.valueOf(storageConf.getStatementCacheSize()));
+            //properties which aren't mapped by Hibernate are passed to c3p0
+            //without the prefix
+        //see comments in persistence.xml as well
         return properties;
     }
 
+    /*
+    internal implementation notes:
+    - the fingerprint is only stored after the entity manager factory has been
+    created successfully, so that a failed validation or update is repeated at
+    the next start
+    - the scheme tooling is only skipped if it's configured to validate or
+    update in the persistence unit since create and create-drop have to
+    recreate the tables at every start regardless of a fingerprint cached by a
+    previous configuration; the action is read from persistence.xml because it
+    has to be known before the entity manager factory is created
+    - a database created from scratch at the location of a cached fingerprint
+    has to be excluded with isSchemeFingerprintApplicable
+    - failures to read or write the fingerprint file are logged only because
+    they just cause the scheme tooling to run
+    */
+    /**
+     * Whether the fingerprint of the database scheme (see
+     * {@link AbstractPersistenceStorageConf#generateSchemeFingerprint() })
+     * matches the one cached in
+     * {@link AbstractPersistenceStorageConf#getSchemeFingerprintFile() } after
+     * the last successful creation of the entity manager factory. In this case
+     * scheme validation and update ({@code hbm2ddl}) are skipped in
+     * {@link #getEntityManagerProperties() }.
+     * @return {@code true} if the scheme is unchanged, {@code false} if it
+     *     changed, hasn't been cached yet, the persistence unit isn't
+     *     configured to validate or update the scheme or
+     *     {@link #isSchemeFingerprintApplicable() } returns {@code false}
+     */
+    protected boolean isSchemeUnchanged() {
+        if(!isSchemeFingerprintApplicable()) {
+            return false;
+        }
+        String configuredSchemeAction = retrieveConfiguredSchemeAction();
+        if(!isSchemeActionSkippable(configuredSchemeAction)) {
+            LOGGER.debug(String.format("scheme action '%s' of persistence unit "
+                    + "%s can't be skipped",
+                    configuredSchemeAction,
+                    persistenceUnitName));
+            return false;
+        }
+        File schemeFingerprintFile = storageConf.getSchemeFingerprintFile();
+        if(schemeFingerprintFile == null
+                || !schemeFingerprintFile.exists()) {
+            return false;
+        }
+        try {
+            String schemeFingerprintOld = new String(Files.readAllBytes(schemeFingerprintFile.toPath()),
+                    StandardCharsets.UTF_8);
+            return retrieveSchemeFingerprint().equals(schemeFingerprintOld);
+        }catch(IOException ex) {
+            LOGGER.warn(String.format("reading scheme fingerprint file '%s' "
+                    + "failed, validating scheme",
+                    schemeFingerprintFile.getAbsolutePath()),
+                    ex);
+            return false;
+        }
+    }
+
+    /**
+     * Whether the fingerprint of the database scheme can be used to skip
+     * scheme validation and update which requires that the database keeps its
+     * scheme between starts. Storages whose database is created from scratch
+     * at start have to return {@code false}.
+     * @return {@code true} by default
+     */
+    protected boolean isSchemeFingerprintApplicable() {
+        return true;
+    }
+
+    /**
+     * Reads the value of {@code hibernate.hbm2ddl.auto} of the persistence
+     * unit from {@code persistence.xml}.
+     * @return the configured value or {@code null} if it isn't configured or
+     *     the persistence unit can't be found
+     */
+    private String retrieveConfiguredSchemeAction() {
+        for(ParsedPersistenceXmlDescriptor persistenceUnit : PersistenceXmlParser.locatePersistenceUnits(Collections.emptyMap())) {
+            if(persistenceUnitName.equals(persistenceUnit.getName())) {
+                return persistenceUnit.getProperties().getProperty("hibernate.hbm2ddl.auto");
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSchemeActionSkippable(Object schemeAction) {
+        return "update".equals(schemeAction)
+                || "validate".equals(schemeAction);
+    }
+
+    private void storeSchemeFingerprint() {
+        if(!isSchemeFingerprintApplicable()
+                || !isSchemeActionSkippable(entityManagerFactory.getProperties().get("hibernate.hbm2ddl.auto"))) {
+            return;
+        }
+        File schemeFingerprintFile = storageConf.getSchemeFingerprintFile();
+        if(schemeFingerprintFile == null) {
+            return;
+        }
+        try {
+            Files.write(schemeFingerprintFile.toPath(),
+                    retrieveSchemeFingerprint().getBytes(StandardCharsets.UTF_8));
+        }catch(IOException ex) {
+            LOGGER.warn(String.format("writing scheme fingerprint file '%s' "
+                    + "failed, the scheme will be validated at the next start",
+                    schemeFingerprintFile.getAbsolutePath()),
+                    ex);
+        }
+    }
+
+    private synchronized String retrieveSchemeFingerprint() {
+        if(schemeFingerprint == null) {
+            schemeFingerprint = storageConf.generateSchemeFingerprint();
+        }
+        return schemeFingerprint;
+    }
+
+    /*
+    internal implementation notes:
+    - the number of queries running in parallel is limited by
+    QueryAdmissionController to at most its maximum limit and every query
+    holds one connection; writes aren't admission controlled and are assumed to
+    be at most as parallel as parallelQueryCount
+    */
+    /**
+     * The maximum size of the JDBC connection pool which is taken from the
+     * storage configuration or derived from the parallel query count.
+     * @return the maximum pool size
+     */
+    protected int retrievePoolMaxSize() {
+        Integer poolMaxSize = storageConf.getPoolMaxSize();
+        if(poolMaxSize != null) {
+            return poolMaxSize;
+        }
+        return queryAdmissionController.getMaxLimit()+parallelQueryCount;
+    }
+
+    /**
+     * The minimum size of the JDBC connection pool which is taken from the
+     * storage configuration or is {@code parallelQueryCount} (the number of
+     * entity managers kept idle in the {@link EntityManagerPool}), capped at
+     * the maximum pool size in both cases.
+     * @return the minimum pool size
+     */
+    protected int retrievePoolMinSize() {
+        Integer poolMinSize = storageConf.getPoolMinSize();
+        return Math.min(poolMinSize != null ? poolMinSize : parallelQueryCount,
+                retrievePoolMaxSize());
+    }
+
+    /**
+     * Retrieves the connection provider of the current
+     * {@link EntityManagerFactory}.
+     * @return the connection provider or {@code null} if the storage isn't
+     *     started
+     */
+    private ConnectionProvider retrieveConnectionProvider() {
+        EntityManagerFactory entityManagerFactory = this.entityManagerFactory;
+        if(entityManagerFactory == null || !entityManagerFactory.isOpen()) {
+            return null;
+        }
+        return entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry().getService(ConnectionProvider.class);
+    }
+
+    /**
+     * Retrieves the state of the connection pool of the current
+     * {@link EntityManagerFactory} for the storage metrics.
+     * @return the connection pool statistics or {@code null} if the storage
+     *     isn't started or doesn't use a c3p0 pool (e.g. because a subclass
+     *     or the persistence unit configured a different connection provider)
+     */
+    private ConnectionPoolStatistics retrieveConnectionPoolStatistics() {
+        ConnectionProvider connectionProvider = retrieveConnectionProvider();
+        if(connectionProvider == null
+                || !connectionProvider.isUnwrappableAs(DataSource.class)) {
+            return null;
+        }
+        DataSource dataSource = connectionProvider.unwrap(DataSource.class);
+        if(!(dataSource instanceof PooledDataSource)) {
+            return null;
+        }
+        PooledDataSource pooledDataSource = (PooledDataSource) dataSource;
+        try {
+            return new ConnectionPoolStatistics(retrievePoolMinSize(),
+                    retrievePoolMaxSize(),
+                    pooledDataSource.getNumConnectionsDefaultUser(),
+                    pooledDataSource.getNumBusyConnectionsDefaultUser(),
+                    pooledDataSource.getNumIdleConnectionsDefaultUser(),
+                    pooledDataSource.getNumThreadsAwaitingCheckoutDefaultUser(),
+                    pooledDataSource.getStatementCacheNumStatementsDefaultUser());
+        }catch(SQLException ex) {
+            LOGGER.debug("retrieving connection pool statistics failed",
+                    ex);
+            return null;
+        }
+    }
+
     public void recreateEntityManager() throws StorageCreationException {
+        this.schemeUnchanged = isSchemeUnchanged();
+        if(schemeUnchanged) {
+            LOGGER.info("database scheme unchanged since the last start, "
+                    + "skipping scheme validation and update");
+        }
         Map<String, String> properties = getEntityManagerProperties();
+        if(this.entityManagerPool != null) {
+            this.entityManagerPool.close();
+        }
         if(this.entityManagerFactory != null && this.entityManagerFactory.isOpen()) {
             this.entityManagerFactory.close();
         }
@@ -373,6 +3078,20 @@ public abstract class AbstractPersistenceStorage<C extends AbstractPersistenceSt
         this.entityManagerFactory = Persistence.createEntityManagerFactory(persistenceUnitName,
                 properties //additional properties
         );
+        this.metamodelIndex = MetamodelIndex.create(entityManagerFactory.getMetamodel(),
+                storageConf.getEntityClasses());
+        if(!schemeUnchanged) {
+            //the scheme has been validated or updated successfully by the
+            //creation of the factory
+            storeSchemeFingerprint();
+        }
+        this.entityManagerPool = new EntityManagerPool(entityManagerFactory,
+                parallelQueryCount //maxIdle
+        );
+        QueryResultCache queryResultCache = this.queryResultCache;
+        if(queryResultCache != null) {
+            queryResultCache.clear();
+        }
     }
 
     @Override
@@ -23,13 +23,26 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import javax.persistence.Embeddable;
 import org.apache.commons.lang3.builder.RecursiveToStringStyle;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -49,6 +62,10 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 public abstract class AbstractPersistenceStorageConf implements StorageConf, Serializable {
     private static final long serialVersionUID = 1L;
     public final static String PASSWORD_DEFAULT = "";
+    public final static int POOL_IDLE_TIMEOUT_SECONDS_DEFAULT = 300;
+    public final static int POOL_VALIDATION_INTERVAL_SECONDS_DEFAULT = 60;
+    public final static int STATEMENT_CACHE_SIZE_DEFAULT = 50;
+    public final static String SCHEME_FINGERPRINT_FILE_SUFFIX = ".fingerprint";
     /**
      * Embedded Derby doesn't need a non-empty username, but the network
      * connection does.
@@ -67,6 +84,45 @@ public abstract class AbstractPersistenceStorageConf implements StorageConf, Ser
      * classes are bound to one connection type (represented by a driver).
      */
     private final String databaseDriver;
+    /*
+    internal implementation notes:
+    - pool settings are wrappers with null representing the default because
+    fields added to a Serializable class are initialized with 0 or false (rather
+    than their initializer) when deserializing configurations persisted with an
+    older version
+    */
+    /**
+     * The minimum number of pooled connections or {@code null} in order to
+     * derive it from the parallel query count of the storage.
+     */
+    private Integer poolMinSize;
+    /**
+     * The maximum number of pooled connections or {@code null} in order to
+     * derive it from the parallel query count of the storage.
+     */
+    private Integer poolMaxSize;
+    /**
+     * The number of seconds after which idle connections above the minimum
+     * pool size are closed or {@code null} for
+     * {@link #POOL_IDLE_TIMEOUT_SECONDS_DEFAULT}.
+     */
+    private Integer poolIdleTimeoutSeconds;
+    /**
+     * Whether connections are validated before they're handed out or
+     * {@code null} for {@code false}. Idle connections are validated every
+     * {@link #getPoolValidationIntervalSeconds() } seconds anyway.
+     */
+    private Boolean poolValidationOnCheckout;
+    /**
+     * The interval in which idle connections are validated or {@code null}
+     * for {@link #POOL_VALIDATION_INTERVAL_SECONDS_DEFAULT}.
+     */
+    private Integer poolValidationIntervalSeconds;
+    /**
+     * The number of prepared statements cached per connection or
+     * {@code null} for {@link #STATEMENT_CACHE_SIZE_DEFAULT}.
+     */
+    private Integer statementCacheSize;
 
     /**
      * Generates a checksum to track changes to {@code clazz} from the hash codes of declared fields and methods (tracking both might cause redundancies, but increases safety of getting all changes of database relevant properties).
@@ -98,6 +154,132 @@ public abstract class AbstractPersistenceStorageConf implements StorageConf, Ser
         return retValue;
     }
 
+    /*
+    internal implementation notes:
+    - the order of Class.getDeclaredFields and Class.getDeclaredMethods as well
+    as of annotations is unspecified, so everything is sorted before it's
+    digested
+    - all declared fields and methods are digested rather than only mapped ones
+    because unannotated attributes are mapped as well and the access type
+    decides whether fields or getters are relevant; a change to an irrelevant
+    member only causes one start with schema tooling
+    - the string representation of annotations depends on the JDK version, so
+    a JDK update might cause one start with schema tooling as well
+    */
+    /**
+     * Generates a digest of the structure of {@code classes} which is
+     * relevant for the database scheme, i.e. the names, types, modifiers and
+     * annotations of the classes, their superclasses and the embeddable
+     * classes they use as well as of their declared fields and methods. In
+     * contrast to {@link #generateSchemeChecksum(java.lang.Class) } the digest
+     * is independent of the iteration order of {@code classes} and the order
+     * in which members are reported and changes with the content of
+     * annotations.
+     *
+     * @param classes the classes to generate for
+     * @return the hexadecimal SHA-256 digest
+     */
+    public static String generateSchemeFingerprint(Set<Class<?>> classes) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        }catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+                //SHA-256 is required to be supported by every JVM
+        }
+        List<Class<?>> pending = new ArrayList<>(classes);
+        Set<Class<?>> digested = new HashSet<>();
+        List<String> lines = new ArrayList<>();
+        while(!pending.isEmpty()) {
+            Class<?> clazz = pending.remove(pending.size()-1);
+            if(clazz == null
+                    || clazz.equals(Object.class)
+                    || !digested.add(clazz)) {
+                continue;
+            }
+            lines.add(generateSchemeFingerprintDescription(clazz,
+                    pending));
+        }
+        lines.sort(Comparator.naturalOrder());
+        for(String line : lines) {
+            messageDigest.update(line.getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder retValue = new StringBuilder();
+        for(byte digestByte : messageDigest.digest()) {
+            retValue.append(String.format("%02x", digestByte));
+        }
+        return retValue.toString();
+    }
+
+    /**
+     * Describes {@code clazz} for
+     * {@link #generateSchemeFingerprint(java.util.Set) } and adds its
+     * superclass and the embeddable classes used by its fields to
+     * {@code pending}.
+     * @param clazz the class to describe
+     * @param pending the classes which still need to be described
+     * @return the description starting with the class name
+     */
+    private static String generateSchemeFingerprintDescription(Class<?> clazz,
+            List<Class<?>> pending) {
+        pending.add(clazz.getSuperclass());
+        List<String> memberLines = new ArrayList<>();
+        for(Field field : clazz.getDeclaredFields()) {
+            if(field.isSynthetic()
+                    || Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            memberLines.add(String.format("%s %s %s",
+                    Modifier.toString(field.getModifiers()),
+                    field.getGenericType().getTypeName(),
+                    field.getName())
+                    +generateAnnotationsDescription(field.getDeclaredAnnotations()));
+            addEmbeddables(field.getGenericType(),
+                    pending);
+        }
+        for(Method method : clazz.getDeclaredMethods()) {
+            if(method.isSynthetic()
+                    || Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            memberLines.add(method.toGenericString()
+                    +generateAnnotationsDescription(method.getDeclaredAnnotations()));
+        }
+        memberLines.sort(Comparator.naturalOrder());
+        StringBuilder retValue = new StringBuilder(clazz.getName());
+        retValue.append(generateAnnotationsDescription(clazz.getDeclaredAnnotations()));
+        retValue.append('\n');
+        for(String memberLine : memberLines) {
+            retValue.append(memberLine).append('\n');
+        }
+        return retValue.toString();
+    }
+
+    private static String generateAnnotationsDescription(Annotation[] annotations) {
+        String[] descriptions = new String[annotations.length];
+        for(int i=0; i<annotations.length; i++) {
+            descriptions[i] = annotations[i].toString();
+        }
+        Arrays.sort(descriptions);
+        return Arrays.toString(descriptions);
+    }
+
+    private static void addEmbeddables(Type type,
+            List<Class<?>> pending) {
+        if(type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            if(clazz.isAnnotationPresent(Embeddable.class)) {
+                pending.add(clazz);
+            }
+        }else if(type instanceof ParameterizedType) {
+            //element collections and maps
+            for(Type typeArgument : ((ParameterizedType) type).getActualTypeArguments()) {
+                addEmbeddables(typeArgument,
+                        pending);
+            }
+        }
+    }
+
     public AbstractPersistenceStorageConf(String databaseDriver,
             Set<Class<?>> entityClasses,
             String username,
@@ -184,6 +366,103 @@ public abstract class AbstractPersistenceStorageConf implements StorageConf, Ser
         this.schemeChecksumFile = schemeChecksumFile;
     }
 
+    /**
+     * The file in which the fingerprint of the database scheme (see
+     * {@link #generateSchemeFingerprint() }) is cached next to
+     * {@link #getSchemeChecksumFile() }.
+     * @return the fingerprint file or {@code null} if no scheme checksum file
+     *     is configured
+     */
+    public File getSchemeFingerprintFile() {
+        if(schemeChecksumFile == null) {
+            return null;
+        }
+        return new File(schemeChecksumFile.getAbsoluteFile().getParentFile(),
+                schemeChecksumFile.getName()+SCHEME_FINGERPRINT_FILE_SUFFIX);
+    }
+
+    /**
+     * Generates the fingerprint of the database scheme of the entity classes
+     * (see {@link #generateSchemeFingerprint(java.util.Set) }) in the
+     * database of {@link #getConnectionURL() }, so that the same fingerprint
+     * file can't be mistaken for another database.
+     * @return the fingerprint
+     */
+    public String generateSchemeFingerprint() {
+        return generateSchemeFingerprint(entityClasses)
+                +" "+getConnectionURL();
+    }
+
+    public Integer getPoolMinSize() {
+        return poolMinSize;
+    }
+
+    public void setPoolMinSize(Integer poolMinSize) {
+        this.poolMinSize = poolMinSize;
+    }
+
+    public Integer getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    public void setPoolMaxSize(Integer poolMaxSize) {
+        this.poolMaxSize = poolMaxSize;
+    }
+
+    public int getPoolIdleTimeoutSeconds() {
+        return poolIdleTimeoutSeconds != null
+                ? poolIdleTimeoutSeconds
+                : POOL_IDLE_TIMEOUT_SECONDS_DEFAULT;
+    }
+
+    public void setPoolIdleTimeoutSeconds(int poolIdleTimeoutSeconds) {
+        this.poolIdleTimeoutSeconds = poolIdleTimeoutSeconds;
+    }
+
+    public boolean isPoolValidationOnCheckout() {
+        return poolValidationOnCheckout != null && poolValidationOnCheckout;
+    }
+
+    public void setPoolValidationOnCheckout(boolean poolValidationOnCheckout) {
+        this.poolValidationOnCheckout = poolValidationOnCheckout;
+    }
+
+    public int getPoolValidationIntervalSeconds() {
+        return poolValidationIntervalSeconds != null
+                ? poolValidationIntervalSeconds
+                : POOL_VALIDATION_INTERVAL_SECONDS_DEFAULT;
+    }
+
+    public void setPoolValidationIntervalSeconds(int poolValidationIntervalSeconds) {
+        this.poolValidationIntervalSeconds = poolValidationIntervalSeconds;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize != null
+                ? statementCacheSize
+                : STATEMENT_CACHE_SIZE_DEFAULT;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Copies the pool and statement cache settings to {@code target}. Unset
+     * settings stay unset in {@code target}, so that it keeps deriving them.
+     * Used by copy factories which create copies with the constructor of the
+     * subclass since it doesn't take the pool settings.
+     * @param target the configuration to copy the settings to
+     */
+    public void copyPoolSettingsTo(AbstractPersistenceStorageConf target) {
+        target.poolMinSize = this.poolMinSize;
+        target.poolMaxSize = this.poolMaxSize;
+        target.poolIdleTimeoutSeconds = this.poolIdleTimeoutSeconds;
+        target.poolValidationOnCheckout = this.poolValidationOnCheckout;
+        target.poolValidationIntervalSeconds = this.poolValidationIntervalSeconds;
+        target.statementCacheSize = this.statementCacheSize;
+    }
+
     /*
     internal implementation notes:
     - Metamodel implementations don't reliably implement `equals` (e.g.
@@ -208,6 +487,7 @@ public abstract class AbstractPersistenceStorageConf implements StorageConf, Ser
         if(this.databaseName == null) {
             throw new StorageConfValidationException("Database name isn't specified");
         }
+        validatePool();
         if(!schemeChecksumFile.exists()) {
             try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(Files.newOutputStream(schemeChecksumFile.toPath()))) {
                 Map<Class<?>, Long> checksumMap = generateSchemeChecksumMap(entityClasses);
@@ -228,9 +508,11 @@ public abstract class AbstractPersistenceStorageConf implements StorageConf, Ser
                                     + "'%s'. The indicates a change to the "
                                     + "metamodel and the database scheme needs "
                                     + "to be adjusted externally. It might "
-                                    + "help to store the entities in an XML "
-                                    + "file, open the XML file and store the "
-                                    + "entities in the new format. If you're "
+                                    + "help to export the entities with "
+                                    + "EntityExporter before changing the "
+                                    + "entity classes and to import them into "
+                                    + "a new database with EntityImporter "
+                                    + "afterwards. If you're "
                                     + "sure you know what you're doing, "
                                     + "consider removing the old scheme "
                                     + "checksum file '%s' and restart the "
@@ -247,6 +529,36 @@ public abstract class AbstractPersistenceStorageConf implements StorageConf, Ser
         }
     }
 
+    private void validatePool() throws StorageConfValidationException {
+        if(poolMinSize != null && poolMinSize < 0) {
+            throw new StorageConfValidationException("pool minimum size has "
+                    + "to be >= 0");
+        }
+        if(poolMaxSize != null && poolMaxSize <= 0) {
+            throw new StorageConfValidationException("pool maximum size has "
+                    + "to be > 0");
+        }
+        if(poolMinSize != null && poolMaxSize != null
+                && poolMinSize > poolMaxSize) {
+            throw new StorageConfValidationException(String.format("pool "
+                    + "minimum size %d is greater than pool maximum size %d",
+                    poolMinSize,
+                    poolMaxSize));
+        }
+        if(getPoolIdleTimeoutSeconds() < 0) {
+            throw new StorageConfValidationException("pool idle timeout has "
+                    + "to be >= 0");
+        }
+        if(getPoolValidationIntervalSeconds() < 0) {
+            throw new StorageConfValidationException("pool validation "
+                    + "interval has to be >= 0");
+        }
+        if(getStatementCacheSize() < 0) {
+            throw new StorageConfValidationException("statement cache size "
+                    + "has to be >= 0");
+        }
+    }
+
     @Override
     public int hashCode() {
         int hash = 7;
@@ -256,6 +568,12 @@ public abstract class AbstractPersistenceStorageConf implements StorageConf, Ser
         hash = 67 * hash + Objects.hashCode(this.schemeChecksumFile);
         hash = 67 * hash + Objects.hashCode(this.entityClasses);
         hash = 67 * hash + Objects.hashCode(this.databaseDriver);
+        hash = 67 * hash + Objects.hashCode(this.poolMinSize);
+        hash = 67 * hash + Objects.hashCode(this.poolMaxSize);
+        hash = 67 * hash + getPoolIdleTimeoutSeconds();
+        hash = 67 * hash + (isPoolValidationOnCheckout() ? 1 : 0);
+        hash = 67 * hash + getPoolValidationIntervalSeconds();
+        hash = 67 * hash + getStatementCacheSize();
         return hash;
     }
 
@@ -275,6 +593,24 @@ public abstract class AbstractPersistenceStorageConf implements StorageConf, Ser
         if (!Objects.equals(this.schemeChecksumFile, other.schemeChecksumFile)) {
             return false;
         }
+        if (!Objects.equals(this.poolMinSize, other.poolMinSize)) {
+            return false;
+        }
+        if (!Objects.equals(this.poolMaxSize, other.poolMaxSize)) {
+            return false;
+        }
+        if (this.getPoolIdleTimeoutSeconds() != other.getPoolIdleTimeoutSeconds()) {
+            return false;
+        }
+        if (this.isPoolValidationOnCheckout() != other.isPoolValidationOnCheckout()) {
+            return false;
+        }
+        if (this.getPoolValidationIntervalSeconds() != other.getPoolValidationIntervalSeconds()) {
+            return false;
+        }
+        if (this.getStatementCacheSize() != other.getStatementCacheSize()) {
+            return false;
+        }
         return Objects.equals(this.entityClasses, other.entityClasses);
     }
 
@@ -25,12 +25,17 @@ import de.richtercloud.reflection.form.builder.storage.StorageConfValidationExce
 import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
 import de.richtercloud.validation.tools.FieldRetriever;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.net.Socket;
+import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import javax.persistence.spi.PersistenceProviderResolverHolder;
 import javax.swing.JOptionPane;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -58,9 +63,15 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
      */
     private static final int WAIT_SERVER_UP_MILLIS_MAX = 10000;
     /**
-     * The wait time between checks whether the server is up in ms.
+     * The initial wait time between checks whether the server is up in ms
+     * which is doubled after every failed check up to
+     * {@link #WAIT_SERVER_UP_INTERVAL_MILLIS_MAX}.
      */
-    private static final int WAIT_SERVER_UP_INTERVAL_MILLIS = 1000;
+    private static final int WAIT_SERVER_UP_INTERVAL_MILLIS_INITIAL = 5;
+    /**
+     * The maximum wait time between checks whether the server is up in ms.
+     */
+    private static final int WAIT_SERVER_UP_INTERVAL_MILLIS_MAX = 500;
     /**
      * Used to prevent messing up shutdown routine(s) when run by more
      * than one thread and to check whether shutdown has been requested after
@@ -75,6 +86,16 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
     private Process process;
     private OutputReaderThread processStdoutReaderThread;
     private OutputReaderThread processStderrReaderThread;
+    /**
+     * Detects the ready line in the process output if
+     * {@link #getReadyLinePattern() } isn't {@code null}.
+     */
+    private ProcessReadyLineDetector readyLineDetector;
+    /**
+     * Whether the database has been created in {@link #init() } which means
+     * that it doesn't have a scheme yet.
+     */
+    private boolean databaseCreated;
     private final IssueHandler issueHandler;
     private final SequenceManager<Long> sequenceManager;
     /**
@@ -96,7 +117,7 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
                 fieldRetriever);
         this.issueHandler = issueHandler;
         this.shortDescription = shortDescription;
-        this.sequenceManager = createSequenceManager();
+        this.sequenceManager = measureSequenceManager(createSequenceManager());
     }
 
     /**
@@ -163,17 +184,15 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
         }
     }
 
+    /**
+     * A database created in {@link #init() } doesn't have a scheme, so the
+     * fingerprint can only be used for existing databases.
+     * @return {@code true} if the database hasn't been created at start,
+     *     {@code false} otherwise
+     */
     @Override
-    public void start() throws StorageCreationException {
-        super.start();
-        try {
-            Thread.sleep(2000);
-            //@TODO: find more elegant way to do this (check whether server
-            //is available
-        } catch (InterruptedException ex) {
-            throw new StorageCreationException(ex);
-        }
-        recreateEntityManager();
+    protected boolean isSchemeFingerprintApplicable() {
+        return !databaseCreated;
     }
 
     protected abstract void preCreation() throws IOException;
@@ -197,6 +216,22 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
             StorageCreationException,
             InterruptedException;
 
+    /**
+     * The pattern of the line which the server process prints on stdout or
+     * stderr once it accepts connections. The line wakes up
+     * {@link #waitForServerToBeUp(de.richtercloud.reflection.form.builder.jpa.storage.WaitForServerToBeUpLambda, java.lang.String) }
+     * so that the server is checked right after it became ready rather than
+     * after the next backoff interval. The checks are still performed since
+     * the line might be printed to a log file instead or differ between
+     * server versions.
+     *
+     * @return the pattern or {@code null} if the server is only checked with
+     *     backoff (the default)
+     */
+    protected Pattern getReadyLinePattern() {
+        return null;
+    }
+
     /*
     internal implementation notes:
     - There's no sense in putting this into recreateEntityManager since it
@@ -226,26 +261,28 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
             }
             preCreation();
             boolean needToCreate = needToCreate();
+            this.databaseCreated = needToCreate;
             if(needToCreate) {
                 createDatabase();
             }else {
                 LOGGER.info("the database is expected to exist and be operational");
             }
+            long processStartNanos = System.nanoTime();
             this.process = createProcess();
             this.processThread = createProcessWatchThread();
             this.processThread.start();
+            preloadPersistenceProviders();
             if(needToCreate) {
                 setupDatabase();
             }
             try {
                 //wait for the server to be up and running
                 waitForServerToBeUp(() -> {
-                    try {
-                        Properties connectionProps = new Properties();
-                        connectionProps.put("user", getStorageConf().getUsername());
-                        connectionProps.put("password", getStorageConf().getPassword());
-                        DriverManager.getConnection(getStorageConf().getConnectionURL(),
-                                connectionProps);
+                    Properties connectionProps = new Properties();
+                    connectionProps.put("user", getStorageConf().getUsername());
+                    connectionProps.put("password", getStorageConf().getPassword());
+                    try (Connection connection = DriverManager.getConnection(getStorageConf().getConnectionURL(),
+                            connectionProps)) {
                         return null;
                     } catch (SQLException ex) {
                         return ex;
@@ -253,6 +290,10 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
                 },
                         shortDescription);
                 setServerRunning(true);
+                LOGGER.info(String.format("%s accepted connections %d ms "
+                        + "after the process has been started",
+                        shortDescription,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-processStartNanos)));
             } catch (ServerStartTimeoutException ex) {
                 LOGGER.error("a server start timeout exception occured",
                         ex);
@@ -282,11 +323,59 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
         }
     }
 
+    /*
+    internal implementation notes:
+    - Hibernate obtains a connection during the creation of the
+    EntityManagerFactory (JDBC metadata and hbm2ddl), so the factory can't be
+    created before the server is up; resolving the persistence providers which
+    loads a large part of Hibernate's classes can be done while the server is
+    booting, though
+    */
+    /**
+     * Resolves the available persistence providers on a background thread
+     * while the server process is starting so that the creation of the
+     * {@link javax.persistence.EntityManagerFactory} in
+     * {@link #recreateEntityManager() } after the server is up doesn't have to
+     * wait for it. Failures are ignored since they'll occur again during the
+     * creation of the factory and are reported there.
+     */
+    private void preloadPersistenceProviders() {
+        Thread preloadThread = new Thread(() -> {
+            try {
+                long preloadStartNanos = System.nanoTime();
+                PersistenceProviderResolverHolder.getPersistenceProviderResolver().getPersistenceProviders();
+                LOGGER.debug(String.format("resolved persistence providers in %d ms",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-preloadStartNanos)));
+            }catch(RuntimeException ex) {
+                LOGGER.debug("resolving persistence providers failed",
+                        ex);
+            }
+        },
+                "storage-provider-preload-thread");
+        preloadThread.setDaemon(true);
+        preloadThread.start();
+    }
+
+    /*
+    internal implementation notes:
+    - the backoff starts in the millisecond range because most servers are up
+    in well below a second, especially if the data directory already exists;
+    waiting a fixed second between checks made the startup up to a second
+    slower than necessary
+    - the timeout is measured in wall clock time because with a backoff the
+    sum of the intervals doesn't reflect the time spent in checks (e.g. a
+    createdb process run)
+    */
     /**
      * Since {@code createdb} needs to be performed on a running server, but no
      * DBC test connection can be obtained before {@code createdb} has been run
      * the wait routine is needed at two place inside {@link #init() }.
      *
+     * The check is repeated with exponential backoff starting at
+     * {@link #WAIT_SERVER_UP_INTERVAL_MILLIS_INITIAL} ms. If the subclass
+     * specifies a ready line (see {@link #getReadyLinePattern() }) the wait
+     * between checks ends as soon as the line appears in the process output.
+     *
      * @param waitForServerToBeUpLambda allows to pass arbitrary code to run
      *     during the wait
      * @param processName a name for the process used to enhance logging
@@ -303,7 +392,9 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
             InterruptedException,
             IOException,
             ServerStartTimeoutException {
-        int waitServerUpMillis = 0;
+        long waitStartNanos = System.nanoTime();
+        long waitServerUpIntervalMillis = WAIT_SERVER_UP_INTERVAL_MILLIS_INITIAL;
+        int checkCount = 0;
         while(true) {
             if(!process.isAlive()) {
                 //fail fast check (doesn't make sense to run the loop again if
@@ -322,7 +413,24 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
                         IOUtils.toString(processStderrReaderThread.getProcessOutputStream())));
             }
             Exception waitForServerToBeUpLambdaException = waitForServerToBeUpLambda.run();
+            checkCount += 1;
+            long waitServerUpMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-waitStartNanos);
             if(waitForServerToBeUpLambdaException == null) {
+                LOGGER.debug(String.format("%s succeeded after %d ms and %d "
+                        + "check(s)",
+                        processName,
+                        waitServerUpMillis,
+                        checkCount));
+                ProcessReadyLineDetector readyLineDetector = this.readyLineDetector;
+                if(readyLineDetector != null && readyLineDetector.isReady()) {
+                    LOGGER.debug(String.format("%s succeeded %d ms after the "
+                            + "ready line of the %s process appeared",
+                            processName,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-readyLineDetector.getReadyNanos()),
+                            shortDescription));
+                        //shows how much of the startup time is spent after
+                        //the server reports readiness
+                }
                 break;
             }
             if(waitServerUpMillis > WAIT_SERVER_UP_MILLIS_MAX) {
@@ -337,14 +445,25 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
                         ExceptionUtils.getRootCause(waitForServerToBeUpLambdaException)),
                         waitForServerToBeUpLambdaException);
             }
-            waitServerUpMillis += WAIT_SERVER_UP_INTERVAL_MILLIS;
-            if(waitServerUpMillis < WAIT_SERVER_UP_MILLIS_MAX) {
+            long intervalMillis = Math.min(waitServerUpIntervalMillis,
+                    WAIT_SERVER_UP_MILLIS_MAX-waitServerUpMillis);
+            if(intervalMillis > 0) {
                 LOGGER.debug(String.format("%s failed "
                         + "(server might not be up yet, next check "
-                        + "in %d ms",
+                        + "in at most %d ms",
                         processName,
-                        WAIT_SERVER_UP_INTERVAL_MILLIS));
-                Thread.sleep(WAIT_SERVER_UP_INTERVAL_MILLIS);
+                        intervalMillis));
+                ProcessReadyLineDetector readyLineDetector = this.readyLineDetector;
+                if(readyLineDetector != null && !readyLineDetector.isReady()) {
+                    readyLineDetector.await(intervalMillis,
+                            TimeUnit.MILLISECONDS);
+                        //returns immediately once the ready line appeared
+                        //or the process terminated
+                }else {
+                    Thread.sleep(intervalMillis);
+                }
+                waitServerUpIntervalMillis = Math.min(waitServerUpIntervalMillis*2,
+                        WAIT_SERVER_UP_INTERVAL_MILLIS_MAX);
             }else {
                 LOGGER.warn(String.format("%s failed all "
                         + "connection attempts, aborting in order "
@@ -358,13 +477,25 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
     }
 
     protected Thread createProcessWatchThread() {
+        PrintStream processStdoutTarget = System.out;
+        PrintStream processStderrTarget = System.err;
+        Pattern readyLinePattern = getReadyLinePattern();
+        if(readyLinePattern != null) {
+            this.readyLineDetector = new ProcessReadyLineDetector(readyLinePattern);
+            processStdoutTarget = new PrintStream(readyLineDetector.wrap(System.out),
+                    true //autoFlush
+            );
+            processStderrTarget = new PrintStream(readyLineDetector.wrap(System.err),
+                    true //autoFlush
+            );
+        }
         this.processStdoutReaderThread = new OutputReaderThread(process.getInputStream(),
                 OutputReaderThreadMode.OUTPUT_STREAM,
-                System.out,
+                processStdoutTarget,
                 "storage-process-stdout-thread");
         this.processStderrReaderThread = new OutputReaderThread(process.getErrorStream(),
                 OutputReaderThreadMode.OUTPUT_STREAM,
-                System.err,
+                processStderrTarget,
                 "storage-process-stderr-thread");
         this.processStdoutReaderThread.start();
         this.processStderrReaderThread.start();
@@ -372,6 +503,12 @@ public abstract class AbstractProcessPersistenceStorage<C extends AbstractNetwor
             try {
                 LOGGER.trace("waiting for process to finish");
                 process.waitFor();
+                ProcessReadyLineDetector readyLineDetector = this.readyLineDetector;
+                if(readyLineDetector != null) {
+                    readyLineDetector.signalProcessTerminated();
+                        //avoid waitForServerToBeUp waiting for the next check
+                        //in order to fail
+                }
                 if(getShutdownLock().tryLock()) {
                     LOGGER.trace("locked shutdown lock");
                     try {
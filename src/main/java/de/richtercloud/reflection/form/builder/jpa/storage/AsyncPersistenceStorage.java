@@ -0,0 +1,293 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import javax.swing.SwingUtilities;
+
+/*
+internal implementation notes:
+- tasks which can't be queued because the queue is full are rejected by
+completing the returned future exceptionally with a RejectedExecutionException
+rather than running them in the calling thread because the caller is most
+likely the EDT
+- futures are completed manually instead of using CompletableFuture.supplyAsync
+because storage operations throw the checked StorageException
+*/
+/**
+ * Runs operations of a {@link PersistenceStorage} asynchronously on one
+ * bounded thread pool with named threads and provides the results as
+ * {@link CompletableFuture}s. Use {@link #whenCompleteOnEDT(java.util.concurrent.CompletableFuture, java.util.function.BiConsumer) }
+ * in order to process results in the GUI.
+ *
+ * Retrieved with {@link PersistenceStorage#getAsyncStorage() } which ensures
+ * that there's only one instance per storage.
+ *
+ * @author richter
+ */
+public class AsyncPersistenceStorage {
+    public final static int QUEUE_CAPACITY_DEFAULT = 100;
+    private final static Executor EDT_EXECUTOR = SwingUtilities::invokeLater;
+    private final PersistenceStorage<?> storage;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Creates an executor which runs {@code runnable} on the event dispatch
+     * thread.
+     * @return the executor
+     */
+    public static Executor edtExecutor() {
+        return EDT_EXECUTOR;
+    }
+
+    /**
+     * Invokes {@code action} on the event dispatch thread once {@code future}
+     * completes. The exception passed to {@code action} is unwrapped from
+     * {@link CompletionException}.
+     * @param <T> the type of the result
+     * @param future the future to wait for
+     * @param action the action receiving either the result or the exception
+     * @return a future completing after {@code action}
+     */
+    public static <T> CompletableFuture<Void> whenCompleteOnEDT(CompletableFuture<T> future,
+            BiConsumer<? super T, ? super Throwable> action) {
+        return future.handleAsync((result, ex) -> {
+            Throwable cause = ex;
+            if(cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            action.accept(result, cause);
+            return null;
+        },
+                EDT_EXECUTOR);
+    }
+
+    /**
+     * Creates a new {@code AsyncPersistenceStorage}.
+     * @param storage the storage to delegate to
+     * @param threadCount the number of threads
+     * @param queueCapacity the maximum number of waiting tasks
+     */
+    public AsyncPersistenceStorage(PersistenceStorage<?> storage,
+            int threadCount,
+            int queueCapacity) {
+        if(storage == null) {
+            throw new IllegalArgumentException("storage mustn't be null");
+        }
+        this.storage = storage;
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable,
+                    String.format("persistence-storage-async-%d",
+                            threadNumber.getAndIncrement()));
+            thread.setDaemon(true);
+                //mustn't prevent the JVM from exiting
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threadCount, //corePoolSize
+                threadCount, //maximumPoolSize
+                60, //keepAliveTime
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs {@code task} asynchronously.
+     * @param <T> the type of the result
+     * @param task the task to run
+     * @return the future which is completed with the result of {@code task},
+     *     the exception thrown by it or a {@link RejectedExecutionException}
+     *     if the queue is full or the executor has been shut down
+     */
+    public <T> CompletableFuture<T> submit(StorageTask<T> task) {
+        CompletableFuture<T> retValue = new CompletableFuture<>();
+        try {
+            executor.execute(new AsyncTask<>(task,
+                    retValue));
+        }catch(RejectedExecutionException ex) {
+            rejectedCount.incrementAndGet();
+            retValue.completeExceptionally(ex);
+        }
+        return retValue;
+    }
+
+    /**
+     * Runs a cancellable query asynchronously. Cancelling the returned future
+     * cancels the query.
+     * @param <T> the type of results
+     * @param queryString the JPQL query
+     * @param clazz the type of results
+     * @param queryLimit the maximum number of results
+     * @param queryPriority the priority of the query
+     * @param timeoutMillis the timeout in milliseconds or a value {@code <= 0}
+     *     for no timeout
+     * @return the future of the query results
+     */
+    public <T> CompletableFuture<List<T>> runQueryAsync(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis) {
+        CancellableQuery<T> query = storage.prepareQuery(queryString,
+                clazz,
+                queryLimit,
+                queryPriority,
+                timeoutMillis);
+        CompletableFuture<List<T>> retValue = submit(query::execute);
+        retValue.whenComplete((result, ex) -> {
+            if(retValue.isCancelled()) {
+                query.cancel();
+            }
+        });
+        return retValue;
+    }
+
+    public CompletableFuture<Void> storeAsync(Object object) {
+        return submit(() -> {
+            storage.store(object);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> updateAsync(Object object) {
+        return submit(() -> {
+            storage.update(object);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteAsync(Object object) {
+        return submit(() -> {
+            storage.delete(object);
+            return null;
+        });
+    }
+
+    public <T> CompletableFuture<T> retrieveAsync(Object id,
+            Class<T> clazz) {
+        return submit(() -> storage.retrieve(id, clazz));
+    }
+
+    /**
+     * The number of tasks waiting for execution.
+     * @return the queue size
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * The number of tasks which can be queued before tasks are rejected.
+     * @return the remaining queue capacity
+     */
+    public int getRemainingQueueCapacity() {
+        return executor.getQueue().remainingCapacity();
+    }
+
+    /**
+     * The approximate number of threads executing tasks.
+     * @return the active count
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompletedTaskCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public int getLargestPoolSize() {
+        return executor.getLargestPoolSize();
+    }
+
+    /**
+     * The number of tasks which have been rejected because the queue was full
+     * or the executor has been shut down.
+     * @return the rejected count
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Stops accepting tasks and interrupts running ones. The futures of queued
+     * tasks are completed with a {@link RejectedExecutionException}.
+     */
+    public void shutdown() {
+        List<Runnable> queuedTasks = executor.shutdownNow();
+        for(Runnable queuedTask : queuedTasks) {
+            ((AsyncTask<?>)queuedTask).getFuture().completeExceptionally(new RejectedExecutionException("asynchronous storage has been shut down"));
+        }
+    }
+
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    private static class AsyncTask<T> implements Runnable {
+        private final StorageTask<T> task;
+        private final CompletableFuture<T> future;
+
+        AsyncTask(StorageTask<T> task,
+                CompletableFuture<T> future) {
+            this.task = task;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            if(future.isDone()) {
+                //cancelled while waiting in the queue
+                return;
+            }
+            try {
+                future.complete(task.run());
+            }catch(Throwable ex) {
+                //errors have to complete the future as well since callers
+                //would wait forever otherwise
+                future.completeExceptionally(ex);
+            }
+        }
+
+        public CompletableFuture<T> getFuture() {
+            return future;
+        }
+    }
+
+    /**
+     * A storage operation which returns a result.
+     * @param <T> the type of the result
+     */
+    @FunctionalInterface
+    public interface StorageTask<T> {
+
+        T run() throws StorageException;
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/*
+internal implementation notes:
+- JDBC drivers only guarantee that the stream returned by
+ResultSet.getBinaryStream is readable while the result set is open, so that
+the statement (which closes its result set) and the transaction are kept open
+until the stream is closed
+*/
+/**
+ * An {@link InputStream} over the value of a binary attribute which is read
+ * from the database while it's consumed.
+ *
+ * Callers have to close the stream, preferably in a try-with-resources
+ * statement, in order to free the database resources and the resources passed
+ * as {@code closeCallback}.
+ *
+ * @author richter
+ */
+public class BinaryAttributeInputStream extends FilterInputStream {
+    private final Statement statement;
+    private final Runnable closeCallback;
+    private boolean closed;
+
+    /**
+     * Creates a new {@code BinaryAttributeInputStream}.
+     * @param binaryStream the stream retrieved from a result set of
+     *     {@code statement}
+     * @param statement the statement to close
+     * @param closeCallback invoked once after {@code statement} has been
+     *     closed in order to release resources like
+     *     the transaction, entity manager and query capacity
+     */
+    public BinaryAttributeInputStream(InputStream binaryStream,
+            Statement statement,
+            Runnable closeCallback) {
+        super(binaryStream);
+        this.statement = statement;
+        this.closeCallback = closeCallback;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the stream and the underlying statement and invokes the close
+     * callback. Subsequent calls don't have any effect.
+     * @throws IOException if closing the stream or statement fails (the
+     *     close callback is invoked nevertheless)
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            try {
+                super.close();
+            }finally {
+                statement.close();
+            }
+        }catch(SQLException ex) {
+            throw new IOException(ex);
+        }finally {
+            closeCallback.run();
+        }
+    }
+}
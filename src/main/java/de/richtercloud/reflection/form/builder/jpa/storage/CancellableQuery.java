@@ -0,0 +1,230 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- the query is executed in the thread calling execute so that callers keep
+control over threading (panels use their own threads)
+- the session executing the query is published so that cancel can invoke
+Session.cancelQuery which calls Statement.cancel on the running JDBC
+statement; if cancel is invoked between publishing of the session and the
+start of the statement, the statement isn't cancelled, but its result is
+discarded and the query is still bounded by the timeout hint
+- the deadline is enforced by a task on a timer shared by all queries which
+cancels the running statement when the deadline passes because the JDBC
+timeout hint only has a precision of seconds; the task doesn't set cancelled,
+so that the resulting QueryCancelledException reports a timeout; the task is
+removed from the timer as soon as execute returns in order to not accumulate
+tasks of queries which finish before their deadline
+- capacity acquired from QueryAdmissionController is released by the
+executing thread as soon as the cancelled statement returns rather than by
+the cancelling thread because the connection might still be in use until then
+*/
+/**
+ * A handle for a query which can be cancelled from any thread while it's
+ * waiting for admission or running and which is aborted once its deadline has
+ * passed. Created with
+ * {@link PersistenceStorage#prepareQuery(java.lang.String, java.lang.Class, int, de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority, long) }
+ * and executed with {@link #execute() } which can only be invoked once.
+ *
+ * @author richter
+ * @param <T> the type of results
+ */
+public class CancellableQuery<T> {
+    private final static Logger LOGGER = LoggerFactory.getLogger(CancellableQuery.class);
+    /**
+     * The timer which cancels running statements at their deadline.
+     */
+    private final static ScheduledThreadPoolExecutor DEADLINE_TIMER = createDeadlineTimer();
+
+    private static ScheduledThreadPoolExecutor createDeadlineTimer() {
+        ScheduledThreadPoolExecutor retValue = new ScheduledThreadPoolExecutor(1,
+                runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "query-deadline-timer");
+                    thread.setDaemon(true);
+                        //mustn't prevent the JVM from exiting
+                    return thread;
+                });
+        retValue.setRemoveOnCancelPolicy(true);
+        return retValue;
+    }
+    private final long timeoutMillis;
+    private final QueryExecutor<T> queryExecutor;
+    private final AtomicBoolean executed = new AtomicBoolean();
+    private volatile boolean cancelled;
+    private volatile Session runningSession;
+    /**
+     * The deadline in terms of {@link System#nanoTime() } which is set when
+     * the execution starts.
+     */
+    private volatile long deadlineNanos;
+
+    /**
+     * Creates a new {@code CancellableQuery}.
+     * @param timeoutMillis the maximum time in milliseconds between the start
+     *     of {@link #execute() } and the end of the query or a value
+     *     {@code <= 0} for no timeout
+     * @param queryExecutor the routine which executes the query
+     */
+    public CancellableQuery(long timeoutMillis,
+            QueryExecutor<T> queryExecutor) {
+        this.timeoutMillis = timeoutMillis;
+        this.queryExecutor = queryExecutor;
+    }
+
+    /**
+     * Runs the query in the calling thread.
+     * @return the query results
+     * @throws QueryCancelledException if the query has been cancelled or its
+     *     deadline passed
+     * @throws StorageException if another exception occurs during the query
+     * @throws IllegalStateException if the query has already been executed
+     */
+    public List<T> execute() throws StorageException {
+        if(!executed.compareAndSet(false, true)) {
+            throw new IllegalStateException("query has already been executed");
+        }
+        ScheduledFuture<?> deadlineFuture = null;
+        if(timeoutMillis > 0) {
+            deadlineNanos = System.nanoTime()+timeoutMillis*1000000L;
+            deadlineFuture = DEADLINE_TIMER.schedule(this::cancelRunningStatement,
+                    timeoutMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        try {
+            checkCancelled();
+            return queryExecutor.execute(this);
+        }finally {
+            if(deadlineFuture != null) {
+                deadlineFuture.cancel(false //mayInterruptIfRunning
+                );
+            }
+        }
+    }
+
+    /**
+     * Cancels the query. Has no effect if the query has already finished.
+     */
+    public void cancel() {
+        cancelled = true;
+        cancelRunningStatement();
+    }
+
+    /**
+     * Cancels the statement which is currently running in the published
+     * session, if any.
+     */
+    private void cancelRunningStatement() {
+        Session session = runningSession;
+        if(session != null) {
+            try {
+                session.cancelQuery();
+            }catch(HibernateException ex) {
+                //the query might have finished in the meantime or the driver
+                //doesn't support cancellation which is bounded by the timeout
+                LOGGER.debug("cancelling running query failed", ex);
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Whether a timeout has been specified.
+     * @return {@code true} if the query has a deadline
+     */
+    public boolean hasDeadline() {
+        return timeoutMillis > 0;
+    }
+
+    /**
+     * The time left until the deadline.
+     * @return the remaining time in nanoseconds (which might be negative) or
+     *     {@link Long#MAX_VALUE} if there's no deadline
+     */
+    public long retrieveRemainingNanos() {
+        if(!hasDeadline()) {
+            return Long.MAX_VALUE;
+        }
+        return deadlineNanos-System.nanoTime();
+    }
+
+    /**
+     * Throws a {@link QueryCancelledException} if the query has been cancelled
+     * or its deadline passed.
+     * @throws QueryCancelledException if the query has been cancelled or timed
+     *     out
+     */
+    public void checkCancelled() throws QueryCancelledException {
+        checkCancelled(null);
+    }
+
+    /**
+     * Throws a {@link QueryCancelledException} with cause {@code cause} if the
+     * query has been cancelled or its deadline passed.
+     * @param cause the exception caused by the cancellation
+     * @throws QueryCancelledException if the query has been cancelled or timed
+     *     out
+     */
+    public void checkCancelled(Throwable cause) throws QueryCancelledException {
+        if(cancelled) {
+            throw new QueryCancelledException("query has been cancelled",
+                    false, //timeout
+                    cause);
+        }
+        if(hasDeadline() && retrieveRemainingNanos() <= 0) {
+            throw new QueryCancelledException(String.format("query exceeded "
+                    + "its timeout of %d ms",
+                    timeoutMillis),
+                    true, //timeout
+                    cause);
+        }
+    }
+
+    /**
+     * Publishes the session which executes the query so that
+     * {@link #cancel() } can reach the running statement. Pass {@code null}
+     * after execution.
+     * @param runningSession the session
+     */
+    void setRunningSession(Session runningSession) {
+        this.runningSession = runningSession;
+    }
+
+    /**
+     * Executes the query of a {@link CancellableQuery}.
+     * @param <T> the type of results
+     */
+    @FunctionalInterface
+    public interface QueryExecutor<T> {
+
+        List<T> execute(CancellableQuery<T> cancellableQuery) throws StorageException;
+    }
+}
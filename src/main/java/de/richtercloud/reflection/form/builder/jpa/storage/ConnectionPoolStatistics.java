@@ -0,0 +1,95 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * An immutable copy of the state of the JDBC connection pool of a
+ * {@link AbstractPersistenceStorage} (see
+ * {@link AbstractPersistenceStorageConf#getPoolMaxSize() } for its
+ * configuration).
+ *
+ * @author richter
+ */
+public class ConnectionPoolStatistics {
+    private final int minSize;
+    private final int maxSize;
+    private final int connectionCount;
+    private final int busyConnectionCount;
+    private final int idleConnectionCount;
+    private final int threadsAwaitingCheckoutCount;
+    private final int cachedStatementCount;
+
+    @ConstructorProperties({"minSize", "maxSize", "connectionCount",
+        "busyConnectionCount", "idleConnectionCount",
+        "threadsAwaitingCheckoutCount", "cachedStatementCount"})
+    public ConnectionPoolStatistics(int minSize,
+            int maxSize,
+            int connectionCount,
+            int busyConnectionCount,
+            int idleConnectionCount,
+            int threadsAwaitingCheckoutCount,
+            int cachedStatementCount) {
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.connectionCount = connectionCount;
+        this.busyConnectionCount = busyConnectionCount;
+        this.idleConnectionCount = idleConnectionCount;
+        this.threadsAwaitingCheckoutCount = threadsAwaitingCheckoutCount;
+        this.cachedStatementCount = cachedStatementCount;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * The number of open connections.
+     * @return the connection count
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    public int getBusyConnectionCount() {
+        return busyConnectionCount;
+    }
+
+    public int getIdleConnectionCount() {
+        return idleConnectionCount;
+    }
+
+    /**
+     * The number of threads waiting for a connection because all connections
+     * are busy and the maximum size has been reached.
+     * @return the number of waiting threads
+     */
+    public int getThreadsAwaitingCheckoutCount() {
+        return threadsAwaitingCheckoutCount;
+    }
+
+    /**
+     * The number of prepared statements cached in all connections.
+     * @return the cached statement count
+     */
+    public int getCachedStatementCount() {
+        return cachedStatementCount;
+    }
+}
@@ -19,6 +19,9 @@ import de.richtercloud.reflection.form.builder.storage.StorageConf;
 import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
 import de.richtercloud.reflection.form.builder.storage.StorageFactory;
 import de.richtercloud.validation.tools.FieldRetriever;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
  *
@@ -26,6 +29,7 @@ import de.richtercloud.validation.tools.FieldRetriever;
  */
 public class DelegatingPersistenceStorageFactory implements StorageFactory<PersistenceStorage, StorageConf> {
     private final DerbyEmbeddedPersistenceStorageFactory derbyEmbeddedPersistenceStorageFactory;
+    private final DerbyMemoryPersistenceStorageFactory derbyMemoryPersistenceStorageFactory;
     private final DerbyNetworkPersistenceStorageFactory derbyNetworkPersistenceStorageFactory;
     private final PostgresqlPersistenceStorageFactory postgresqlPersistenceStorageFactory;
     private final PostgresqlAutoPersistenceStorageFactory postgresqlAutoPersistenceStorageFactory;
@@ -38,6 +42,9 @@ public class DelegatingPersistenceStorageFactory implements StorageFactory<Persi
         this.derbyEmbeddedPersistenceStorageFactory = new DerbyEmbeddedPersistenceStorageFactory(persistenceUnitName,
                 parallelQueryCount,
                 fieldRetriever);
+        this.derbyMemoryPersistenceStorageFactory = new DerbyMemoryPersistenceStorageFactory(persistenceUnitName,
+                parallelQueryCount,
+                fieldRetriever);
         this.derbyNetworkPersistenceStorageFactory = new DerbyNetworkPersistenceStorageFactory(persistenceUnitName,
                 parallelQueryCount,
                 fieldRetriever);
@@ -54,12 +61,44 @@ public class DelegatingPersistenceStorageFactory implements StorageFactory<Persi
                 fieldRetriever);
     }
 
+    /**
+     * Creates a new {@code DelegatingPersistenceStorageFactory} which creates
+     * in-memory Derby storages with the settings of
+     * {@code derbyEmbeddedPersistenceStorageFactory}.
+     * @param derbyEmbeddedPersistenceStorageFactory the factory for embedded
+     *     Derby storages
+     * @param derbyNetworkPersistenceStorageFactory the factory for network
+     *     Derby storages
+     * @param postgresqlNetworkPersistenceStorageFactory the factory for
+     *     PostgreSQL storages
+     * @param postgresqlAutoPersistenceStorageFactory the factory for managed
+     *     PostgreSQL storages
+     * @param mySQLAutoPersistenceStorageFactory the factory for managed MySQL
+     *     storages
+     */
     public DelegatingPersistenceStorageFactory(DerbyEmbeddedPersistenceStorageFactory derbyEmbeddedPersistenceStorageFactory,
             DerbyNetworkPersistenceStorageFactory derbyNetworkPersistenceStorageFactory,
             PostgresqlPersistenceStorageFactory postgresqlNetworkPersistenceStorageFactory,
             PostgresqlAutoPersistenceStorageFactory postgresqlAutoPersistenceStorageFactory,
             MySQLAutoPersistenceStorageFactory mySQLAutoPersistenceStorageFactory) {
+        this(derbyEmbeddedPersistenceStorageFactory,
+                new DerbyMemoryPersistenceStorageFactory(derbyEmbeddedPersistenceStorageFactory.getPersistenceUnitName(),
+                        derbyEmbeddedPersistenceStorageFactory.getParallelQueryCount(),
+                        derbyEmbeddedPersistenceStorageFactory.getFieldRetriever()),
+                derbyNetworkPersistenceStorageFactory,
+                postgresqlNetworkPersistenceStorageFactory,
+                postgresqlAutoPersistenceStorageFactory,
+                mySQLAutoPersistenceStorageFactory);
+    }
+
+    public DelegatingPersistenceStorageFactory(DerbyEmbeddedPersistenceStorageFactory derbyEmbeddedPersistenceStorageFactory,
+            DerbyMemoryPersistenceStorageFactory derbyMemoryPersistenceStorageFactory,
+            DerbyNetworkPersistenceStorageFactory derbyNetworkPersistenceStorageFactory,
+            PostgresqlPersistenceStorageFactory postgresqlNetworkPersistenceStorageFactory,
+            PostgresqlAutoPersistenceStorageFactory postgresqlAutoPersistenceStorageFactory,
+            MySQLAutoPersistenceStorageFactory mySQLAutoPersistenceStorageFactory) {
         this.derbyEmbeddedPersistenceStorageFactory = derbyEmbeddedPersistenceStorageFactory;
+        this.derbyMemoryPersistenceStorageFactory = derbyMemoryPersistenceStorageFactory;
         this.derbyNetworkPersistenceStorageFactory = derbyNetworkPersistenceStorageFactory;
         this.postgresqlPersistenceStorageFactory = postgresqlNetworkPersistenceStorageFactory;
         this.postgresqlAutoPersistenceStorageFactory = postgresqlAutoPersistenceStorageFactory;
@@ -71,6 +110,8 @@ public class DelegatingPersistenceStorageFactory implements StorageFactory<Persi
         PersistenceStorage retValue;
         if(storageConf instanceof DerbyEmbeddedPersistenceStorageConf) {
             retValue = derbyEmbeddedPersistenceStorageFactory.create((DerbyEmbeddedPersistenceStorageConf) storageConf);
+        }else if(storageConf instanceof DerbyMemoryPersistenceStorageConf) {
+            retValue = derbyMemoryPersistenceStorageFactory.create((DerbyMemoryPersistenceStorageConf) storageConf);
         }else if(storageConf instanceof DerbyNetworkPersistenceStorageConf) {
             retValue = derbyNetworkPersistenceStorageFactory.create((DerbyNetworkPersistenceStorageConf) storageConf);
         }else if(storageConf instanceof PostgresqlAutoPersistenceStorageConf) {
@@ -79,10 +120,58 @@ public class DelegatingPersistenceStorageFactory implements StorageFactory<Persi
             retValue = postgresqlPersistenceStorageFactory.create((PostgresqlPersistenceStorageConf) storageConf);
         }else if(storageConf instanceof MySQLAutoPersistenceStorageConf) {
             retValue = mySQLAutoPersistenceStorageFactory.create((MySQLAutoPersistenceStorageConf) storageConf);
+        }else if(storageConf instanceof RoutingPersistenceStorageConf) {
+            retValue = createRoutingPersistenceStorage((RoutingPersistenceStorageConf) storageConf);
         }else {
             throw new IllegalArgumentException(String.format("Storage configurations of type '%s' aren't supported by this storage factory",
                     storageConf.getClass()));
         }
         return retValue;
     }
+
+    /*
+    internal implementation notes:
+    - the asynchronous facade of the routing storage gets as many threads as
+    the facades of all delegates together since every delegate limits its
+    parallel queries itself
+    */
+    /**
+     * Creates one started storage for every distinct configuration of
+     * {@code storageConf} and a {@link RoutingPersistenceStorage} routing to
+     * them. Already created delegates are shut down if the creation of
+     * another one fails.
+     * @param storageConf the composite configuration
+     * @return the started routing storage
+     * @throws StorageCreationException if the creation of a delegate fails
+     */
+    @SuppressWarnings("unchecked")
+    private RoutingPersistenceStorage createRoutingPersistenceStorage(RoutingPersistenceStorageConf storageConf) throws StorageCreationException {
+        Map<AbstractPersistenceStorageConf, PersistenceStorage<Long>> delegateMap = new IdentityHashMap<>();
+        int asyncThreadCount = 0;
+        RoutingPersistenceStorage retValue;
+        try {
+            for(AbstractPersistenceStorageConf delegateConf : storageConf.getDistinctStorageConfs()) {
+                PersistenceStorage<Long> delegate = create(delegateConf);
+                delegateMap.put(delegateConf,
+                        delegate);
+                asyncThreadCount += ((AbstractPersistenceStorage<?>) delegate).getQueryAdmissionController().getMaxLimit();
+            }
+            Map<Class<?>, PersistenceStorage<Long>> routes = new HashMap<>();
+            for(Map.Entry<Class<?>, AbstractPersistenceStorageConf> route : storageConf.getRoutes().entrySet()) {
+                routes.put(route.getKey(),
+                        delegateMap.get(route.getValue()));
+            }
+            retValue = new RoutingPersistenceStorage(storageConf,
+                    delegateMap.get(storageConf.getDefaultStorageConf()),
+                    routes,
+                    asyncThreadCount);
+            retValue.start();
+        }catch(StorageCreationException | RuntimeException ex) {
+            for(PersistenceStorage<Long> delegate : delegateMap.values()) {
+                delegate.shutdown();
+            }
+            throw ex;
+        }
+        return retValue;
+    }
 }
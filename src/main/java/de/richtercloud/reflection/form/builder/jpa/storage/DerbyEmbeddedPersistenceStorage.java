@@ -20,6 +20,7 @@ import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManager;
 import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
 import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
 import de.richtercloud.validation.tools.FieldRetriever;
+import java.io.File;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import org.slf4j.Logger;
@@ -41,7 +42,7 @@ public class DerbyEmbeddedPersistenceStorage extends AbstractPersistenceStorage<
                 persistenceUnitName,
                 parallelQueryCount,
                 fieldRetriever);
-        this.sequenceManager = new DerbySequenceManager(this);
+        this.sequenceManager = measureSequenceManager(new DerbySequenceManager(this));
     }
 
     @Override
@@ -68,6 +69,17 @@ public class DerbyEmbeddedPersistenceStorage extends AbstractPersistenceStorage<
         }
     }
 
+    /**
+     * A database directory which doesn't exist yet is created by Derby
+     * without scheme, so the fingerprint can only be used if it exists.
+     * @return {@code true} if the database directory exists, {@code false}
+     *     otherwise
+     */
+    @Override
+    protected boolean isSchemeFingerprintApplicable() {
+        return new File(getStorageConf().getDatabaseName()).exists();
+    }
+
     @Override
     public boolean checkSequenceExists(String sequenceName) throws SequenceManagementException {
         return this.sequenceManager.checkSequenceExists(sequenceName);
@@ -0,0 +1,286 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.jpa.sequence.DerbySequenceManager;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManagementException;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManager;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import de.richtercloud.validation.tools.FieldRetriever;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- snapshots are written into a temporary directory and moved into place
+afterwards, so that a crash during the backup doesn't destroy the last complete
+snapshot; the previous snapshot is kept until the new one is in place and used
+for restoring if the process died between the two moves
+- SYSCS_BACKUP_DATABASE writes the backup into a subdirectory of the passed
+directory which is named after the database, the subdirectory is looked up
+rather than assuming its name
+- snapshots use a connection from DriverManager rather than from the pool
+because they might run during shutdown when the pool is being closed
+- the database is dropped at shutdown in order to release its memory and to
+allow restoring it in the same JVM later
+*/
+/**
+ * A storage which keeps a Derby database in memory (see
+ * {@link DerbyMemoryPersistenceStorageConf}). If a snapshot directory is
+ * configured the database is restored from the latest snapshot at start and
+ * snapshots are written with {@code SYSCS_UTIL.SYSCS_BACKUP_DATABASE} at
+ * shutdown, in the configured interval and on {@link #snapshot() }.
+ *
+ * @author richter
+ */
+public class DerbyMemoryPersistenceStorage extends AbstractPersistenceStorage<DerbyMemoryPersistenceStorageConf> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DerbyMemoryPersistenceStorage.class);
+    private final static String SNAPSHOT_TEMP_SUFFIX = ".tmp";
+    private final static String SNAPSHOT_PREVIOUS_SUFFIX = ".previous";
+    private final static String BACKUP_STATEMENT = "CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)";
+    /**
+     * The SQL state of the exception which Derby throws after a successful
+     * drop of an in-memory database.
+     */
+    private final static String DROP_SUCCESS_SQL_STATE = "08006";
+    private final SequenceManager<Long> sequenceManager;
+    /**
+     * Serializes snapshots triggered periodically, manually and at shutdown.
+     */
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService snapshotExecutor;
+
+    public DerbyMemoryPersistenceStorage(DerbyMemoryPersistenceStorageConf storageConf,
+            String persistenceUnitName,
+            int parallelQueryCount,
+            FieldRetriever fieldRetriever) throws StorageConfValidationException, StorageCreationException {
+        super(storageConf,
+                persistenceUnitName,
+                parallelQueryCount,
+                fieldRetriever);
+        this.sequenceManager = measureSequenceManager(new DerbySequenceManager(this));
+    }
+
+    /**
+     * Restores the database from the latest snapshot if there's one.
+     * @throws StorageCreationException if the restore fails
+     */
+    @Override
+    protected void init() throws StorageCreationException {
+        File snapshot = retrieveLatestSnapshot();
+        if(snapshot == null) {
+            return;
+        }
+        long restoreStartNanos = System.nanoTime();
+        try {
+            DriverManager.getConnection(getStorageConf().getRestoreConnectionURL(snapshot),
+                    getStorageConf().getUsername(),
+                    getStorageConf().getPassword()).close();
+        } catch (SQLException ex) {
+            throw new StorageCreationException(ex);
+        }
+        LOGGER.info(String.format("restored in-memory database from snapshot "
+                + "'%s' in %d ms",
+                snapshot.getAbsolutePath(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-restoreStartNanos)));
+    }
+
+    @Override
+    public void start() throws StorageCreationException {
+        super.start();
+        if(getStorageConf().getSnapshotDir() != null
+                && getStorageConf().getSnapshotIntervalSeconds() > 0) {
+            this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable,
+                        "derby-memory-snapshot-thread");
+                thread.setDaemon(true);
+                    //mustn't prevent the JVM from exiting
+                return thread;
+            });
+            this.snapshotExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    snapshot();
+                }catch(StorageException ex) {
+                    LOGGER.warn("writing snapshot of in-memory database "
+                            + "failed, retrying in the next interval",
+                            ex);
+                }
+            },
+                    getStorageConf().getSnapshotIntervalSeconds(), //initialDelay
+                    getStorageConf().getSnapshotIntervalSeconds(), //delay
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * The directory of the latest complete snapshot.
+     * @return the snapshot directory or {@code null} if snapshots are
+     *     disabled or none has been written yet
+     */
+    private File retrieveLatestSnapshot() {
+        File snapshotDir = getStorageConf().getSnapshotDir();
+        if(snapshotDir == null) {
+            return null;
+        }
+        File snapshot = new File(snapshotDir,
+                getStorageConf().getDatabaseName());
+        if(snapshot.isDirectory()) {
+            return snapshot;
+        }
+        File previousSnapshot = new File(snapshotDir,
+                getStorageConf().getDatabaseName()+SNAPSHOT_PREVIOUS_SUFFIX);
+        if(previousSnapshot.isDirectory()) {
+            return previousSnapshot;
+        }
+        return null;
+    }
+
+    /**
+     * Writes a snapshot of the database into the configured snapshot
+     * directory replacing the previous one. Can be invoked while the storage
+     * is used.
+     * @throws StorageException if the backup or moving the snapshot into
+     *     place fails in which case the previous snapshot is kept
+     * @throws IllegalStateException if no snapshot directory is configured
+     */
+    public void snapshot() throws StorageException {
+        File snapshotDir = getStorageConf().getSnapshotDir();
+        if(snapshotDir == null) {
+            throw new IllegalStateException("no snapshot directory configured");
+        }
+        String databaseName = getStorageConf().getDatabaseName();
+        File tempDir = new File(snapshotDir,
+                databaseName+SNAPSHOT_TEMP_SUFFIX);
+        File snapshot = new File(snapshotDir,
+                databaseName);
+        File previousSnapshot = new File(snapshotDir,
+                databaseName+SNAPSHOT_PREVIOUS_SUFFIX);
+        synchronized(snapshotLock) {
+            long snapshotStartNanos = System.nanoTime();
+            try {
+                FileUtils.deleteDirectory(tempDir);
+                FileUtils.forceMkdir(tempDir);
+                try (Connection connection = DriverManager.getConnection(getStorageConf().getConnectionURL(),
+                        getStorageConf().getUsername(),
+                        getStorageConf().getPassword());
+                        CallableStatement backupStatement = connection.prepareCall(BACKUP_STATEMENT)) {
+                    backupStatement.setString(1,
+                            tempDir.getAbsolutePath());
+                    backupStatement.execute();
+                }
+                File[] backups = tempDir.listFiles(File::isDirectory);
+                if(backups == null || backups.length != 1) {
+                    throw new StorageException(String.format("backup in '%s' "
+                            + "doesn't contain exactly one database directory",
+                            tempDir.getAbsolutePath()),
+                            null);
+                }
+                if(snapshot.exists()) {
+                    FileUtils.deleteDirectory(previousSnapshot);
+                    Files.move(snapshot.toPath(),
+                            previousSnapshot.toPath());
+                }
+                Files.move(backups[0].toPath(),
+                        snapshot.toPath());
+                FileUtils.deleteDirectory(previousSnapshot);
+                FileUtils.deleteDirectory(tempDir);
+            }catch(SQLException | IOException ex) {
+                throw new StorageException(ex);
+            }
+            LOGGER.debug(String.format("wrote snapshot of in-memory database "
+                    + "to '%s' in %d ms",
+                    snapshot.getAbsolutePath(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-snapshotStartNanos)));
+        }
+    }
+
+    /**
+     * Writes a final snapshot if a snapshot directory is configured, shuts
+     * down the storage and drops the in-memory database.
+     */
+    @Override
+    public void shutdown() {
+        if(snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+                //a running snapshot finishes before the final one because
+                //both hold snapshotLock
+        }
+        if(getStorageConf().getSnapshotDir() != null) {
+            try {
+                flushScheduledUpdates();
+                    //otherwise they'd be written after the snapshot
+                snapshot();
+            }catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                LOGGER.warn("interrupted while writing pending updates before "
+                        + "the final snapshot",
+                        ex);
+            }catch(StorageException ex) {
+                LOGGER.error("writing the final snapshot of the in-memory "
+                        + "database failed, changes since the last snapshot "
+                        + "are lost",
+                        ex);
+            }
+        }
+        super.shutdown();
+        try {
+            DriverManager.getConnection(getStorageConf().getDropConnectionURL());
+        } catch (SQLException ex) {
+            if(!DROP_SUCCESS_SQL_STATE.equals(ex.getSQLState())) {
+                LOGGER.error("an exception during dropping of the in-memory "
+                        + "database occured",
+                        ex);
+            }
+        }
+    }
+
+    /**
+     * The in-memory database is created from scratch unless it's restored
+     * from a snapshot, so the scheme always needs to be created.
+     * @return {@code false}
+     */
+    @Override
+    protected boolean isSchemeFingerprintApplicable() {
+        return false;
+    }
+
+    @Override
+    public boolean checkSequenceExists(String sequenceName) throws SequenceManagementException {
+        return this.sequenceManager.checkSequenceExists(sequenceName);
+    }
+
+    @Override
+    public void createSequence(String sequenceName) throws SequenceManagementException {
+        this.sequenceManager.createSequence(sequenceName);
+    }
+
+    @Override
+    public Long getNextSequenceValue(String sequenceName) throws SequenceManagementException {
+        return this.sequenceManager.getNextSequenceValue(sequenceName);
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Set;
+import org.apache.derby.jdbc.EmbeddedDriver;
+
+/**
+ * Configuration of a Derby database which is kept in memory using Derby's
+ * {@code memory:} subprotocol, e.g. for a fast scratch or cache database or
+ * for quick integration tests and benchmarks.
+ *
+ * The content is lost at shutdown unless a snapshot directory is configured
+ * in which case a snapshot is written at shutdown and optionally in a fixed
+ * interval and the database is restored from the latest snapshot at start.
+ *
+ * @author richter
+ */
+public class DerbyMemoryPersistenceStorageConf extends AbstractPersistenceStorageConf {
+    private static final long serialVersionUID = 1L;
+    private final static String DRIVER_NAME = EmbeddedDriver.class.getName();
+    public final static String USERNAME_DEFAULT = "";
+    public final static int SNAPSHOT_INTERVAL_SECONDS_DEFAULT = 0;
+    static {
+        try {
+            Class.forName(DRIVER_NAME);
+        } catch (ClassNotFoundException ex) {
+            //dependencies not provided properly
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+    /**
+     * The directory in which snapshots are stored or {@code null} if no
+     * snapshots should be written.
+     */
+    private File snapshotDir;
+    /**
+     * The interval in which snapshots are written in addition to the snapshot
+     * at shutdown or {@code 0} if snapshots should only be written at
+     * shutdown.
+     */
+    private int snapshotIntervalSeconds = SNAPSHOT_INTERVAL_SECONDS_DEFAULT;
+
+    public DerbyMemoryPersistenceStorageConf(Set<Class<?>> entityClasses,
+            String databaseName,
+            File schemeChecksumFile) throws IOException {
+        super(DRIVER_NAME, //databaseDriver
+                entityClasses,
+                USERNAME_DEFAULT,
+                databaseName,
+                schemeChecksumFile);
+    }
+
+    public DerbyMemoryPersistenceStorageConf(String databaseDriver,
+            Set<Class<?>> entityClasses,
+            String username,
+            String password,
+            String databaseName,
+            File schemeChecksumFile) throws FileNotFoundException, IOException {
+        super(databaseDriver,
+                entityClasses,
+                username,
+                password,
+                databaseName,
+                schemeChecksumFile);
+    }
+
+    @Override
+    public String getConnectionURL() {
+        return String.format("jdbc:derby:memory:%s;create=true",
+                getDatabaseName());
+    }
+
+    /**
+     * The URL which creates the in-memory database from the snapshot in
+     * {@code snapshot}.
+     * @param snapshot the snapshot directory of the database (i.e. the
+     *     subdirectory of {@link #getSnapshotDir() } written by Derby)
+     * @return the connection URL
+     */
+    public String getRestoreConnectionURL(File snapshot) {
+        return String.format("jdbc:derby:memory:%s;restoreFrom=%s",
+                getDatabaseName(),
+                snapshot.getAbsolutePath());
+    }
+
+    /**
+     * The URL which drops the in-memory database and releases its memory.
+     * @return the connection URL
+     */
+    public String getDropConnectionURL() {
+        return String.format("jdbc:derby:memory:%s;drop=true",
+                getDatabaseName());
+    }
+
+    public File getSnapshotDir() {
+        return snapshotDir;
+    }
+
+    public void setSnapshotDir(File snapshotDir) {
+        this.snapshotDir = snapshotDir;
+    }
+
+    public int getSnapshotIntervalSeconds() {
+        return snapshotIntervalSeconds;
+    }
+
+    public void setSnapshotIntervalSeconds(int snapshotIntervalSeconds) {
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "Derby in-memory database";
+    }
+
+    @Override
+    public String getLongDescription() {
+        return "Very fast, but limited by the available memory. The content "
+                + "is lost at shutdown unless a snapshot directory is "
+                + "configured.";
+    }
+
+    @Override
+    public void validate() throws StorageConfValidationException {
+        super.validate();
+        if(getDatabaseName().contains("/") || getDatabaseName().contains(File.separator)) {
+            throw new StorageConfValidationException(String.format("Database name '%s' must not contain path separators",
+                    getDatabaseName()));
+        }
+        if(snapshotIntervalSeconds < 0) {
+            throw new StorageConfValidationException("snapshot interval has "
+                    + "to be >= 0");
+        }
+        if(snapshotDir != null && snapshotDir.exists() && !snapshotDir.isDirectory()) {
+            throw new StorageConfValidationException(String.format("snapshot "
+                    + "directory '%s' exists, but isn't a directory",
+                    snapshotDir.getAbsolutePath()));
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = super.hashCode();
+        hash = 47 * hash + Objects.hashCode(this.snapshotDir);
+        hash = 47 * hash + this.snapshotIntervalSeconds;
+        return hash;
+    }
+
+    protected boolean equalsTransitive(DerbyMemoryPersistenceStorageConf other) {
+        if(!super.equalsTransitive(other)) {
+            return false;
+        }
+        if (this.snapshotIntervalSeconds != other.snapshotIntervalSeconds) {
+            return false;
+        }
+        return Objects.equals(this.snapshotDir, other.snapshotDir);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final DerbyMemoryPersistenceStorageConf other = (DerbyMemoryPersistenceStorageConf) obj;
+        return equalsTransitive(other);
+    }
+}
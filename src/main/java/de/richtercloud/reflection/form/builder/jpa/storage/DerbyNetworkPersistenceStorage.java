@@ -38,7 +38,7 @@ public class DerbyNetworkPersistenceStorage extends AbstractPersistenceStorage<D
                 persistenceUnitName,
                 parallelQueryCount,
                 fieldRetriever);
-        this.sequenceManager = new DerbySequenceManager(this);
+        this.sequenceManager = measureSequenceManager(new DerbySequenceManager(this));
     }
 
     @Override
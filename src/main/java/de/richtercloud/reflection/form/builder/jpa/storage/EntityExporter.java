@@ -0,0 +1,702 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import javax.persistence.EntityManager;
+import javax.persistence.OrderBy;
+import javax.persistence.OrderColumn;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import org.hibernate.CacheMode;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- entities are read with PersistenceStorage.streamQuery which detaches them
+every fetchSize rows; the current entity stays attached until the next one is
+requested, so that remaining lazy attributes (e.g. maps) can be loaded
+- to-many associations and element collections aren't read from the entities
+which would load them with one query per entity and attribute, but with one
+join query per attribute which selects pairs of owner id and target id (or
+element) ordered by the owner id like the entity query; the rows are consumed
+while the entities are written; these queries run on a separate entity manager
+in one transaction and without query permit since the export already holds
+one for the entity query (acquiring more might deadlock with a low limit)
+- rows of join queries which are left over after all entities have been
+written mean that the database has been modified during the export which
+can't be detected earlier because owner ids are only compared for equality
+(the order of the database might not match the one of Comparable)
+- entity classes without a single basic id attribute can't be ordered by id,
+their collections are read from the entities
+- ids of associated entities are retrieved with
+PersistenceUnitUtil.getIdentifier which doesn't initialize proxies
+- every record is written into a reused buffer first because its length
+precedes it in the file which allows EntityImporter to decode records in
+parallel
+- sections are ordered by id if the entity class has a single id attribute
+which makes references between entities of the same class point backwards in
+most cases (e.g. parents are usually created before their children)
+*/
+/**
+ * Writes all entities of a {@link PersistenceStorage} into a compact binary
+ * stream which can be read with {@link EntityImporter} into a storage with a
+ * different schema, e.g. after entity classes have been changed. Entities are
+ * streamed from the database with {@link QueryPriority#BACKGROUND}, so that
+ * memory consumption doesn't depend on the size of the database and
+ * interactive queries aren't blocked.
+ *
+ * Each entity class is written into its own section in an order which
+ * ensures that targets of associations are written before the entities
+ * referencing them (see
+ * {@link #sortByDependencies(de.richtercloud.reflection.form.builder.jpa.storage.MetamodelIndex, java.util.Collection) }).
+ * Associations are written as ids of their targets and only their owning
+ * side is written since the inverse side is restored by the database.
+ * Attributes of map type which refer to entities aren't supported and skipped
+ * and embeddables which contain associations can't be exported.
+ * {@link RoutingPersistenceStorage}s aren't supported, entities have to be
+ * exported from each delegate separately.
+ *
+ * @author richter
+ */
+public class EntityExporter {
+    private final static Logger LOGGER = LoggerFactory.getLogger(EntityExporter.class);
+    public final static int FETCH_SIZE_DEFAULT = 500;
+    private final static int BUFFER_SIZE = 65536;
+    private final PersistenceStorage<?> storage;
+    private final int fetchSize;
+
+    public EntityExporter(PersistenceStorage<?> storage) {
+        this(storage,
+                FETCH_SIZE_DEFAULT);
+    }
+
+    public EntityExporter(PersistenceStorage<?> storage,
+            int fetchSize) {
+        if(storage == null) {
+            throw new IllegalArgumentException("storage mustn't be null");
+        }
+        if(storage instanceof RoutingPersistenceStorage) {
+            //the entity manager of a routing storage is the one of its
+            //default delegate which doesn't manage the routed classes
+            throw new IllegalArgumentException(String.format("%s doesn't "
+                    + "support %s, use it with each delegate instead",
+                    EntityExporter.class.getSimpleName(),
+                    RoutingPersistenceStorage.class.getSimpleName()));
+        }
+        if(fetchSize <= 0) {
+            throw new IllegalArgumentException("fetchSize has to be > 0");
+        }
+        this.storage = storage;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Exports all entities of all entity classes of the storage.
+     * @param outputStream the stream to write to which is finished, but not
+     *     closed
+     * @return the number of exported entities
+     * @throws StorageException if an exception occurs during querying or
+     *     writing
+     */
+    public long export(OutputStream outputStream) throws StorageException {
+        return export(retrieveMetamodelIndex().getEntityClasses(),
+                outputStream);
+    }
+
+    /**
+     * Exports all entities of {@code entityClasses}. Instances of subclasses
+     * are only exported if their class is part of {@code entityClasses}.
+     * @param entityClasses the entity classes to export
+     * @param outputStream the stream to write to which is finished, but not
+     *     closed
+     * @return the number of exported entities
+     * @throws StorageException if an exception occurs during querying or
+     *     writing
+     */
+    public long export(Collection<Class<?>> entityClasses,
+            OutputStream outputStream) throws StorageException {
+        MetamodelIndex metamodelIndex = retrieveMetamodelIndex();
+        List<Class<?>> sortedEntityClasses = sortByDependencies(metamodelIndex,
+                entityClasses);
+        PersistenceUnitUtil persistenceUnitUtil;
+        EntityManager entityManager = storage.retrieveEntityManager();
+        try {
+            persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        }finally {
+            storage.releaseEntityManager(entityManager);
+        }
+        long retValue = 0;
+        try {
+            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream,
+                    BUFFER_SIZE);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(gzipOutputStream,
+                    BUFFER_SIZE));
+            output.writeInt(EntityTransferFormat.MAGIC);
+            output.writeShort(EntityTransferFormat.FORMAT_VERSION);
+            for(Class<?> entityClass : sortedEntityClasses) {
+                if(Modifier.isAbstract(entityClass.getModifiers())) {
+                    continue;
+                }
+                retValue += exportEntityClass(entityClass,
+                        metamodelIndex,
+                        persistenceUnitUtil,
+                        output);
+            }
+            output.writeByte(EntityTransferFormat.FILE_END);
+            output.flush();
+            gzipOutputStream.finish();
+        }catch(IOException ex) {
+            throw new StorageException(ex);
+        }
+        return retValue;
+    }
+
+    private long exportEntityClass(Class<?> entityClass,
+            MetamodelIndex metamodelIndex,
+            PersistenceUnitUtil persistenceUnitUtil,
+            DataOutputStream output) throws IOException, StorageException {
+        Map<String, Byte> attributes = retrieveExportedAttributes(entityClass,
+                metamodelIndex);
+        List<Member> members = new ArrayList<>(attributes.size());
+        output.writeByte(EntityTransferFormat.SECTION_START);
+        output.writeUTF(entityClass.getName());
+        output.writeInt(attributes.size());
+        for(Map.Entry<String, Byte> attribute : attributes.entrySet()) {
+            output.writeUTF(attribute.getKey());
+            output.writeByte(attribute.getValue());
+            Member member = metamodelIndex.getAttributeMember(entityClass,
+                    attribute.getKey());
+            if(member == null) {
+                //attributes of id classes aren't part of the metamodel's
+                //attributes
+                member = EntityTransferFormat.retrieveAttributeField(entityClass,
+                        attribute.getKey(),
+                        null //member
+                );
+            }
+            members.add(member);
+        }
+        ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(recordBuffer);
+        long count = 0;
+        String idAttributeName = retrieveOrderAttributeName(entityClass,
+                metamodelIndex);
+        List<JoinedAttribute> joinedAttributes = new ArrayList<>(attributes.size());
+        EntityManager joinEntityManager = null;
+        try (Stream<?> entities = storage.streamQuery(generateQueryText(entityClass,
+                        metamodelIndex),
+                entityClass,
+                fetchSize,
+                QueryPriority.BACKGROUND)) {
+            int attributeIndex = 0;
+            for(Map.Entry<String, Byte> attribute : attributes.entrySet()) {
+                JoinedAttribute joinedAttribute = null;
+                if(idAttributeName != null
+                        && isJoined(entityClass,
+                                attribute.getKey(),
+                                attribute.getValue(),
+                                members.get(attributeIndex),
+                                metamodelIndex)) {
+                    if(joinEntityManager == null) {
+                        joinEntityManager = storage.retrieveEntityManager();
+                        joinEntityManager.getTransaction().begin();
+                    }
+                    joinedAttribute = openJoinedAttribute(entityClass,
+                            attribute.getKey(),
+                            idAttributeName,
+                            members.get(attributeIndex),
+                            metamodelIndex,
+                            joinEntityManager.unwrap(Session.class));
+                }
+                joinedAttributes.add(joinedAttribute);
+                attributeIndex++;
+            }
+            Iterator<?> entityItr = entities.iterator();
+            while(entityItr.hasNext()) {
+                Object entity = entityItr.next();
+                Object entityId = joinEntityManager != null
+                        ? persistenceUnitUtil.getIdentifier(entity)
+                        : null;
+                recordBuffer.reset();
+                attributeIndex = 0;
+                for(byte attributeKind : attributes.values()) {
+                    JoinedAttribute joinedAttribute = joinedAttributes.get(attributeIndex);
+                    if(joinedAttribute != null) {
+                        writeJoinedAttribute(record,
+                                attributeKind,
+                                joinedAttribute.retrieveValues(entityId,
+                                        persistenceUnitUtil),
+                                members.get(attributeIndex));
+                    }else {
+                        Object value = EntityTransferFormat.retrieveAttributeValue(entity,
+                                members.get(attributeIndex));
+                        writeAttribute(record,
+                                attributeKind,
+                                value,
+                                persistenceUnitUtil);
+                    }
+                    attributeIndex++;
+                }
+                record.flush();
+                output.writeInt(recordBuffer.size());
+                recordBuffer.writeTo(output);
+                count++;
+            }
+            for(JoinedAttribute joinedAttribute : joinedAttributes) {
+                if(joinedAttribute != null && joinedAttribute.hasRemainingRows()) {
+                    throw new StorageException(String.format("entities of "
+                            + "entity class %s have been modified during the "
+                            + "export",
+                            entityClass.getName()),
+                            null);
+                }
+            }
+        }catch(RuntimeException ex) {
+            throw new StorageException(ex);
+        }finally {
+            for(JoinedAttribute joinedAttribute : joinedAttributes) {
+                if(joinedAttribute != null) {
+                    joinedAttribute.rows.close();
+                }
+            }
+            if(joinEntityManager != null) {
+                if(joinEntityManager.getTransaction().isActive()) {
+                    joinEntityManager.getTransaction().rollback();
+                }
+                storage.releaseEntityManager(joinEntityManager);
+            }
+        }
+        output.writeInt(EntityTransferFormat.SECTION_END);
+        LOGGER.info(String.format("exported %d entities of entity class %s",
+                count,
+                entityClass.getName()));
+        return count;
+    }
+
+    private void writeAttribute(DataOutputStream record,
+            byte attributeKind,
+            Object value,
+            PersistenceUnitUtil persistenceUnitUtil) throws IOException, StorageException {
+        switch(attributeKind) {
+            case EntityTransferFormat.ATTRIBUTE_TO_ONE:
+                EntityTransferFormat.writeValue(record,
+                        value != null
+                                ? persistenceUnitUtil.getIdentifier(value)
+                                : null);
+                break;
+            case EntityTransferFormat.ATTRIBUTE_TO_MANY:
+                if(value == null) {
+                    record.writeInt(-1);
+                    break;
+                }
+                Collection<?> targets = (Collection<?>) value;
+                record.writeInt(targets.size());
+                for(Object target : targets) {
+                    EntityTransferFormat.writeValue(record,
+                            target != null
+                                    ? persistenceUnitUtil.getIdentifier(target)
+                                    : null);
+                }
+                break;
+            default:
+                EntityTransferFormat.writeValue(record,
+                        value);
+        }
+    }
+
+    private static void writeJoinedAttribute(DataOutputStream record,
+            byte attributeKind,
+            List<Object> values,
+            Member member) throws IOException, StorageException {
+        if(attributeKind == EntityTransferFormat.ATTRIBUTE_TO_MANY) {
+            record.writeInt(values.size());
+            for(Object value : values) {
+                EntityTransferFormat.writeValue(record,
+                        value);
+            }
+        }else {
+            //element collection
+            EntityTransferFormat.writeValue(record,
+                    Set.class.isAssignableFrom(retrieveMemberType(member))
+                            ? new LinkedHashSet<>(values)
+                            : values);
+        }
+    }
+
+    /**
+     * Whether the attribute {@code attributeName} is read with a join query
+     * (see {@link JoinedAttribute}) which is the case for to-many
+     * associations and element collections of collection type.
+     * @param entityClass the entity class
+     * @param attributeName the attribute name
+     * @param attributeKind the {@code EntityTransferFormat.ATTRIBUTE_*} kind
+     *     of the attribute
+     * @param member the member of the attribute
+     * @param metamodelIndex the metamodel index to use
+     * @return {@code true} if the attribute is read with a join query
+     */
+    private static boolean isJoined(Class<?> entityClass,
+            String attributeName,
+            byte attributeKind,
+            Member member,
+            MetamodelIndex metamodelIndex) {
+        if(attributeKind == EntityTransferFormat.ATTRIBUTE_TO_MANY) {
+            return true;
+        }
+        return attributeKind == EntityTransferFormat.ATTRIBUTE_VALUE
+                && metamodelIndex.getAttributeKinds(entityClass).get(attributeName) == PersistentAttributeType.ELEMENT_COLLECTION
+                && Collection.class.isAssignableFrom(retrieveMemberType(member));
+    }
+
+    private JoinedAttribute openJoinedAttribute(Class<?> entityClass,
+            String attributeName,
+            String idAttributeName,
+            Member member,
+            MetamodelIndex metamodelIndex,
+            Session session) {
+        Class<?> targetClass = metamodelIndex.getToManyTargets(entityClass).get(attributeName);
+        String targetIdAttributeName = targetClass != null
+                ? metamodelIndex.getIdAttributeName(targetClass)
+                : null;
+        StringBuilder queryText = new StringBuilder(String.format("SELECT e.%s, t",
+                idAttributeName));
+        if(targetIdAttributeName != null) {
+            queryText.append('.').append(targetIdAttributeName);
+        }
+        queryText.append(String.format(" FROM %s e JOIN e.%s t",
+                metamodelIndex.getEntityName(entityClass),
+                attributeName));
+        queryText.append(generateTypeCondition(entityClass,
+                metamodelIndex));
+        queryText.append(String.format(" ORDER BY e.%s",
+                idAttributeName));
+        AnnotatedElement annotatedMember = (AnnotatedElement) member;
+        OrderBy orderBy = annotatedMember.getAnnotation(OrderBy.class);
+        if(annotatedMember.isAnnotationPresent(OrderColumn.class)) {
+            queryText.append(", INDEX(t)");
+        }else if(orderBy != null) {
+            if(orderBy.value().trim().isEmpty()) {
+                //ordered by the primary key of the target or the element
+                queryText.append(targetIdAttributeName != null
+                        ? ", t."+targetIdAttributeName
+                        : ", t");
+            }else {
+                for(String orderItem : orderBy.value().split(",")) {
+                    queryText.append(", t.").append(orderItem.trim());
+                }
+            }
+        }
+        LOGGER.debug(String.format("reading attribute %s of entity class %s "
+                + "with query '%s'",
+                attributeName,
+                entityClass.getName(),
+                queryText));
+        Query query = session.createQuery(queryText.toString());
+        query.setFetchSize(fetchSize);
+        query.setReadOnly(true);
+        query.setCacheMode(CacheMode.IGNORE);
+        ScrollableResultsIterator<Object[]> rows = new ScrollableResultsIterator<>(query.scroll(ScrollMode.FORWARD_ONLY),
+                session,
+                Object[].class,
+                fetchSize, //clearInterval
+                () -> {} //closeCallback (the entity manager is released after
+                    //the section)
+        );
+        return new JoinedAttribute(rows,
+                targetClass != null && targetIdAttributeName == null);
+    }
+
+    /**
+     * Figures out which attributes of {@code entityClass} are exported and
+     * how.
+     * @param entityClass the entity class
+     * @param metamodelIndex the metamodel index to use
+     * @return the map of attribute names and their
+     *     {@code EntityTransferFormat.ATTRIBUTE_*} kinds in the order in which
+     *     they're written
+     */
+    private static Map<String, Byte> retrieveExportedAttributes(Class<?> entityClass,
+            MetamodelIndex metamodelIndex) {
+        Map<String, Byte> retValue = new LinkedHashMap<>();
+        for(String idClassAttributeName : metamodelIndex.getIdClassAttributeNames(entityClass)) {
+            retValue.put(idClassAttributeName,
+                    EntityTransferFormat.ATTRIBUTE_VALUE);
+        }
+        Map<String, Class<?>> toOneTargets = metamodelIndex.getToOneTargets(entityClass);
+        Map<String, Class<?>> toManyTargets = metamodelIndex.getToManyTargets(entityClass);
+        for(String attributeName : metamodelIndex.getAttributeKinds(entityClass).keySet()) {
+            if(retValue.containsKey(attributeName)) {
+                continue;
+            }
+            Member member = metamodelIndex.getAttributeMember(entityClass,
+                    attributeName);
+            if(toOneTargets.containsKey(attributeName)) {
+                if(!isInverseSide(member,
+                        metamodelIndex)) {
+                    retValue.put(attributeName,
+                            EntityTransferFormat.ATTRIBUTE_TO_ONE);
+                }
+            }else if(toManyTargets.containsKey(attributeName)) {
+                if(isInverseSide(member,
+                        metamodelIndex)) {
+                    continue;
+                }
+                Class<?> memberType = retrieveMemberType(member);
+                if(!Collection.class.isAssignableFrom(memberType)) {
+                    LOGGER.warn(String.format("skipping association %s of "
+                            + "entity class %s because associations of type "
+                            + "%s aren't supported",
+                            attributeName,
+                            entityClass.getName(),
+                            memberType.getName()));
+                    continue;
+                }
+                retValue.put(attributeName,
+                        EntityTransferFormat.ATTRIBUTE_TO_MANY);
+            }else {
+                retValue.put(attributeName,
+                        EntityTransferFormat.ATTRIBUTE_VALUE);
+            }
+        }
+        return retValue;
+    }
+
+    private static Class<?> retrieveMemberType(Member member) {
+        return member instanceof Field
+                ? ((Field) member).getType()
+                : ((Method) member).getReturnType();
+    }
+
+    private static boolean isInverseSide(Member member,
+            MetamodelIndex metamodelIndex) {
+        return member instanceof Field
+                && metamodelIndex.isMappedBy((Field) member);
+    }
+
+    private static String generateQueryText(Class<?> entityClass,
+            MetamodelIndex metamodelIndex) {
+        String entityName = metamodelIndex.getEntityName(entityClass);
+        StringBuilder retValue = new StringBuilder(String.format("SELECT e FROM %s e",
+                entityName));
+        retValue.append(generateTypeCondition(entityClass,
+                metamodelIndex));
+        String idAttributeName = retrieveOrderAttributeName(entityClass,
+                metamodelIndex);
+        if(idAttributeName != null) {
+            retValue.append(String.format(" ORDER BY e.%s",
+                    idAttributeName));
+        }
+        return retValue.toString();
+    }
+
+    /**
+     * Restricts queries for {@code entityClass} to instances of exactly this
+     * class if it has subclasses since subclasses are exported in their own
+     * section.
+     * @param entityClass the entity class
+     * @param metamodelIndex the metamodel index to use
+     * @return the {@code WHERE} clause for the range variable {@code e} or an
+     *     empty string
+     */
+    private static String generateTypeCondition(Class<?> entityClass,
+            MetamodelIndex metamodelIndex) {
+        for(Class<?> otherEntityClass : metamodelIndex.getEntityClasses()) {
+            if(!otherEntityClass.equals(entityClass)
+                    && entityClass.isAssignableFrom(otherEntityClass)) {
+                return String.format(" WHERE TYPE(e) = %s",
+                        metamodelIndex.getEntityName(entityClass));
+            }
+        }
+        return "";
+    }
+
+    /**
+     * The attribute entities of {@code entityClass} are ordered by.
+     * @param entityClass the entity class
+     * @param metamodelIndex the metamodel index to use
+     * @return the name of the id attribute if it's a single basic attribute
+     *     or {@code null} otherwise
+     */
+    private static String retrieveOrderAttributeName(Class<?> entityClass,
+            MetamodelIndex metamodelIndex) {
+        String retValue = metamodelIndex.getIdAttributeName(entityClass);
+        if(retValue != null
+                && metamodelIndex.getAttributeKinds(entityClass).get(retValue) == PersistentAttributeType.BASIC) {
+            return retValue;
+        }
+        return null;
+    }
+
+    /**
+     * Sorts {@code entityClasses} so that each entity class comes after the
+     * entity classes its owning associations refer to (including subclasses
+     * of the targets). Associations of an entity class to itself are ignored.
+     * Cycles between entity classes are broken arbitrarily and logged since
+     * importing them only works if the associations are nullable or the
+     * database checks constraints deferred.
+     * @param metamodelIndex the metamodel index to use
+     * @param entityClasses the entity classes to sort
+     * @return the sorted entity classes
+     */
+    public static List<Class<?>> sortByDependencies(MetamodelIndex metamodelIndex,
+            Collection<Class<?>> entityClasses) {
+        List<Class<?>> candidates = new ArrayList<>(entityClasses);
+        candidates.sort(Comparator.comparing(Class::getName));
+            //make the result independent of the iteration order of
+            //entityClasses
+        Map<Class<?>, Set<Class<?>>> dependencies = new HashMap<>();
+        for(Class<?> entityClass : candidates) {
+            Set<Class<?>> entityClassDependencies = new LinkedHashSet<>();
+            List<Class<?>> targets = new ArrayList<>(metamodelIndex.getToOneTargets(entityClass).values());
+            for(Map.Entry<String, Class<?>> toManyTarget : metamodelIndex.getToManyTargets(entityClass).entrySet()) {
+                if(!isInverseSide(metamodelIndex.getAttributeMember(entityClass,
+                                toManyTarget.getKey()),
+                        metamodelIndex)) {
+                    targets.add(toManyTarget.getValue());
+                }
+            }
+            for(Class<?> target : targets) {
+                for(Class<?> candidate : candidates) {
+                    if(!candidate.equals(entityClass)
+                            && target.isAssignableFrom(candidate)) {
+                        entityClassDependencies.add(candidate);
+                    }
+                }
+            }
+            dependencies.put(entityClass,
+                    entityClassDependencies);
+        }
+        List<Class<?>> retValue = new ArrayList<>(candidates.size());
+        Set<Class<?>> visited = new HashSet<>();
+        Set<Class<?>> visiting = new HashSet<>();
+        for(Class<?> entityClass : candidates) {
+            visit(entityClass,
+                    dependencies,
+                    visited,
+                    visiting,
+                    retValue);
+        }
+        return retValue;
+    }
+
+    private static void visit(Class<?> entityClass,
+            Map<Class<?>, Set<Class<?>>> dependencies,
+            Set<Class<?>> visited,
+            Set<Class<?>> visiting,
+            List<Class<?>> sorted) {
+        if(visited.contains(entityClass)) {
+            return;
+        }
+        if(!visiting.add(entityClass)) {
+            LOGGER.warn(String.format("entity class %s is part of a cycle of "
+                    + "associations, importing it requires nullable "
+                    + "associations",
+                    entityClass.getName()));
+            return;
+        }
+        for(Class<?> dependency : dependencies.get(entityClass)) {
+            visit(dependency,
+                    dependencies,
+                    visited,
+                    visiting,
+                    sorted);
+        }
+        visiting.remove(entityClass);
+        visited.add(entityClass);
+        sorted.add(entityClass);
+    }
+
+    /**
+     * The rows of the join query of a to-many association or element
+     * collection which are consumed in the order of the entities.
+     */
+    private static class JoinedAttribute {
+        private final ScrollableResultsIterator<Object[]> rows;
+        /**
+         * Whether the query selects the target entities rather than their ids
+         * because they don't have a single id attribute.
+         */
+        private final boolean targetEntitySelected;
+        private Object[] pendingRow;
+
+        JoinedAttribute(ScrollableResultsIterator<Object[]> rows,
+                boolean targetEntitySelected) {
+            this.rows = rows;
+            this.targetEntitySelected = targetEntitySelected;
+        }
+
+        /**
+         * Consumes the rows of the entity with id {@code ownerId}.
+         * @param ownerId the id of the entity
+         * @param persistenceUnitUtil the persistence unit util to use
+         * @return the target ids or elements of the entity
+         */
+        List<Object> retrieveValues(Object ownerId,
+                PersistenceUnitUtil persistenceUnitUtil) {
+            List<Object> retValue = new ArrayList<>();
+            while(hasRemainingRows()
+                    && ownerId.equals(pendingRow[0])) {
+                retValue.add(targetEntitySelected
+                        ? persistenceUnitUtil.getIdentifier(pendingRow[1])
+                        : pendingRow[1]);
+                pendingRow = null;
+            }
+            return retValue;
+        }
+
+        boolean hasRemainingRows() {
+            if(pendingRow == null && rows.hasNext()) {
+                pendingRow = rows.next();
+            }
+            return pendingRow != null;
+        }
+    }
+
+    private MetamodelIndex retrieveMetamodelIndex() {
+        MetamodelIndex retValue = storage.getMetamodelIndex();
+        if(retValue == null) {
+            throw new IllegalStateException("storage hasn't been started");
+        }
+        return retValue;
+    }
+}
@@ -0,0 +1,549 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import javax.persistence.EntityManager;
+import org.hibernate.ReplicationMode;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- entities are written with Session.replicate rather than
+PersistenceStorage.storeAll because persisting would assign new ids from the
+id generators which breaks all associations which are transferred by id;
+ReplicationMode.EXCEPTION makes conflicts with existing rows fail instead of
+overwriting them
+- associations are resolved with EntityManager.getReference which creates
+uninitialized proxies; replicate doesn't cascade to uninitialized proxies, so
+that each entity is only written once in its own section
+- decoding (reflection, deserialization) runs on decoderThreadCount threads
+while the calling thread reads records and writes entities; the number of
+records in flight is limited to a window in order to keep memory consumption
+bounded and futures are processed in order of submission, so that entities
+are written in the order of the file
+- the persistence context is flushed and cleared every BATCH_SIZE entities
+which matches the JDBC batch size of AbstractPersistenceStorage
+- the names of classes which may be deserialized are collected once from the
+entity classes of the storage (see
+EntityTransferFormat.retrieveSerializableClassNames)
+*/
+/**
+ * Reads entities written by {@link EntityExporter} into a
+ * {@link PersistenceStorage}. Entities keep their ids, so that associations
+ * can be restored.
+ *
+ * The import tolerates schema changes between export and import: sections of
+ * entity classes which don't exist anymore as well as attributes which don't
+ * exist anymore or whose kind changed (e.g. from a value to an association)
+ * are skipped with a warning, new attributes keep the value assigned by the
+ * entity's constructor and values are converted to the type of the attribute
+ * with the widening conversions of
+ * {@link Field#set(java.lang.Object, java.lang.Object) }.
+ *
+ * Limitations:
+ * <ul>
+ * <li>The import should be performed into an empty database since it fails
+ * if an entity with the same id already exists. It's committed every
+ * {@code commitInterval} entities and thus not atomic.</li>
+ * <li>Identifier generators and sequences aren't advanced to the imported ids
+ * which might have to be done manually before new entities are stored.</li>
+ * <li>Associations between entities of the same class which point to
+ * entities later in the file and cycles of associations between entity
+ * classes only work if the association is nullable or constraints are checked
+ * deferred.</li>
+ * <li>Pre- and post-store callbacks of the storage aren't invoked.</li>
+ * <li>{@link RoutingPersistenceStorage}s aren't supported, entities have to
+ * be imported into each delegate separately.</li>
+ * </ul>
+ *
+ * @author richter
+ */
+public class EntityImporter {
+    private final static Logger LOGGER = LoggerFactory.getLogger(EntityImporter.class);
+    public final static int COMMIT_INTERVAL_DEFAULT = 1000;
+    private final static int BUFFER_SIZE = 65536;
+    /**
+     * The maximum number of records which are decoded or waiting to be
+     * written at the same time.
+     */
+    private final static int DECODE_WINDOW_SIZE = AbstractPersistenceStorage.BATCH_SIZE*2;
+    private final PersistenceStorage<?> storage;
+    private final int decoderThreadCount;
+    private final int commitInterval;
+
+    public EntityImporter(PersistenceStorage<?> storage) {
+        this(storage,
+                Runtime.getRuntime().availableProcessors(), //decoderThreadCount
+                COMMIT_INTERVAL_DEFAULT);
+    }
+
+    public EntityImporter(PersistenceStorage<?> storage,
+            int decoderThreadCount,
+            int commitInterval) {
+        if(storage == null) {
+            throw new IllegalArgumentException("storage mustn't be null");
+        }
+        if(storage instanceof RoutingPersistenceStorage) {
+            //the entity manager of a routing storage is the one of its
+            //default delegate which doesn't manage the routed classes
+            throw new IllegalArgumentException(String.format("%s doesn't "
+                    + "support %s, use it with each delegate instead",
+                    EntityImporter.class.getSimpleName(),
+                    RoutingPersistenceStorage.class.getSimpleName()));
+        }
+        if(decoderThreadCount <= 0) {
+            throw new IllegalArgumentException("decoderThreadCount has to be > 0");
+        }
+        if(commitInterval <= 0) {
+            throw new IllegalArgumentException("commitInterval has to be > 0");
+        }
+        this.storage = storage;
+        this.decoderThreadCount = decoderThreadCount;
+        this.commitInterval = commitInterval;
+    }
+
+    /**
+     * Imports all entities from {@code inputStream}.
+     * @param inputStream the stream to read from which isn't closed
+     * @return the number of imported entities
+     * @throws StorageException if the stream hasn't been written by
+     *     {@link EntityExporter}, has an unsupported format version or if an
+     *     exception occurs during reading or writing
+     */
+    public long importEntities(InputStream inputStream) throws StorageException {
+        MetamodelIndex metamodelIndex = storage.getMetamodelIndex();
+        if(metamodelIndex == null) {
+            throw new IllegalStateException("storage hasn't been started");
+        }
+        Map<String, Class<?>> entityClassesByName = new HashMap<>();
+        for(Class<?> entityClass : metamodelIndex.getEntityClasses()) {
+            entityClassesByName.put(entityClass.getName(),
+                    entityClass);
+        }
+        Set<String> serializableClassNames = EntityTransferFormat.retrieveSerializableClassNames(metamodelIndex.getEntityClasses());
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable,
+                    String.format("entity-import-decoder-%d",
+                            threadNumber.getAndIncrement()));
+            thread.setDaemon(true);
+                //mustn't prevent the JVM from exiting
+            return thread;
+        };
+        ExecutorService decoderExecutor = Executors.newFixedThreadPool(decoderThreadCount,
+                threadFactory);
+        EntityManager entityManager = storage.retrieveEntityManager();
+        long retValue = 0;
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(inputStream,
+                            BUFFER_SIZE),
+                    BUFFER_SIZE));
+            int magic = input.readInt();
+            if(magic != EntityTransferFormat.MAGIC) {
+                throw new StorageException("input hasn't been written by "
+                        + "EntityExporter",
+                        null);
+            }
+            short formatVersion = input.readShort();
+            if(formatVersion != EntityTransferFormat.FORMAT_VERSION) {
+                throw new StorageException(String.format("format version %d "
+                        + "isn't supported (expected %d)",
+                        formatVersion,
+                        EntityTransferFormat.FORMAT_VERSION),
+                        null);
+            }
+            EntityWriter entityWriter = new EntityWriter(entityManager);
+            entityManager.getTransaction().begin();
+            byte marker = input.readByte();
+            while(marker == EntityTransferFormat.SECTION_START) {
+                retValue += importSection(input,
+                        entityClassesByName,
+                        metamodelIndex,
+                        serializableClassNames,
+                        decoderExecutor,
+                        entityWriter);
+                marker = input.readByte();
+            }
+            if(marker != EntityTransferFormat.FILE_END) {
+                throw new StorageException(String.format("unexpected marker "
+                        + "%d, the input is corrupt",
+                        marker),
+                        null);
+            }
+            entityManager.flush();
+            entityManager.getTransaction().commit();
+        }catch(IOException | RuntimeException ex) {
+            throw new StorageException(ex);
+        }finally {
+            if(entityManager.getTransaction().isActive()) {
+                entityManager.getTransaction().rollback();
+            }
+            storage.releaseEntityManager(entityManager);
+            decoderExecutor.shutdownNow();
+            if(storage instanceof AbstractPersistenceStorage) {
+                QueryResultCache queryResultCache = ((AbstractPersistenceStorage<?>)storage).getQueryResultCache();
+                if(queryResultCache != null) {
+                    queryResultCache.clear();
+                }
+            }
+        }
+        return retValue;
+    }
+
+    private long importSection(DataInputStream input,
+            Map<String, Class<?>> entityClassesByName,
+            MetamodelIndex metamodelIndex,
+            Set<String> serializableClassNames,
+            ExecutorService decoderExecutor,
+            EntityWriter entityWriter) throws IOException, StorageException {
+        String entityClassName = input.readUTF();
+        int attributeCount = input.readInt();
+        List<ImportedAttribute> attributes = new ArrayList<>(attributeCount);
+        for(int i=0; i<attributeCount; i++) {
+            String attributeName = input.readUTF();
+            byte attributeKind = input.readByte();
+            attributes.add(new ImportedAttribute(attributeName,
+                    attributeKind));
+        }
+        Class<?> entityClass = entityClassesByName.get(entityClassName);
+        if(entityClass == null) {
+            LOGGER.warn(String.format("skipping entities of %s because it's "
+                    + "not an entity class of the storage anymore",
+                    entityClassName));
+            skipRecords(input);
+            return 0;
+        }
+        for(ImportedAttribute attribute : attributes) {
+            attribute.resolve(entityClass,
+                    metamodelIndex);
+        }
+        Constructor<?> constructor;
+        try {
+            constructor = entityClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        }catch(NoSuchMethodException ex) {
+            throw new StorageException(ex);
+        }
+        Deque<Future<DecodedEntity>> pending = new ArrayDeque<>(DECODE_WINDOW_SIZE);
+        long count = 0;
+        int recordLength = input.readInt();
+        while(recordLength != EntityTransferFormat.SECTION_END) {
+            byte[] record = new byte[recordLength];
+            input.readFully(record);
+            pending.add(decoderExecutor.submit(() -> decode(record,
+                    constructor,
+                    attributes,
+                    serializableClassNames)));
+            if(pending.size() >= DECODE_WINDOW_SIZE) {
+                entityWriter.write(retrieveDecoded(pending.poll()));
+                count++;
+            }
+            recordLength = input.readInt();
+        }
+        while(!pending.isEmpty()) {
+            entityWriter.write(retrieveDecoded(pending.poll()));
+            count++;
+        }
+        LOGGER.info(String.format("imported %d entities of entity class %s",
+                count,
+                entityClassName));
+        return count;
+    }
+
+    private static void skipRecords(DataInputStream input) throws IOException {
+        int recordLength = input.readInt();
+        while(recordLength != EntityTransferFormat.SECTION_END) {
+            input.skipBytes(recordLength);
+            recordLength = input.readInt();
+        }
+    }
+
+    private static DecodedEntity retrieveDecoded(Future<DecodedEntity> future) throws StorageException {
+        try {
+            return future.get();
+        }catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new StorageException(ex);
+        }catch(ExecutionException ex) {
+            throw new StorageException(ex.getCause());
+        }
+    }
+
+    private static DecodedEntity decode(byte[] record,
+            Constructor<?> constructor,
+            List<ImportedAttribute> attributes,
+            Set<String> serializableClassNames) throws IOException,
+            StorageException,
+            InstantiationException,
+            IllegalAccessException,
+            InvocationTargetException {
+        Object entity = constructor.newInstance();
+        ClassLoader classLoader = constructor.getDeclaringClass().getClassLoader();
+        DataInputStream recordInput = new DataInputStream(new ByteArrayInputStream(record));
+        List<PendingReference> references = new LinkedList<>();
+        for(ImportedAttribute attribute : attributes) {
+            Object value;
+            if(attribute.kind == EntityTransferFormat.ATTRIBUTE_TO_MANY) {
+                int size = recordInput.readInt();
+                if(size == -1) {
+                    value = null;
+                }else {
+                    List<Object> ids = new ArrayList<>(size);
+                    for(int i=0; i<size; i++) {
+                        ids.add(EntityTransferFormat.readValue(recordInput,
+                                classLoader,
+                                serializableClassNames));
+                    }
+                    value = ids;
+                }
+            }else {
+                value = EntityTransferFormat.readValue(recordInput,
+                        classLoader,
+                        serializableClassNames);
+            }
+            if(attribute.field == null) {
+                continue;
+            }
+            if(attribute.kind == EntityTransferFormat.ATTRIBUTE_VALUE) {
+                setFieldValue(entity,
+                        attribute.field,
+                        value instanceof Collection
+                                ? adaptCollection(attribute.field.getType(),
+                                        (Collection<?>) value)
+                                : value);
+            }else {
+                references.add(new PendingReference(attribute,
+                        value));
+            }
+        }
+        return new DecodedEntity(entity,
+                references);
+    }
+
+    private static void setFieldValue(Object entity,
+            Field field,
+            Object value) throws StorageException {
+        try {
+            field.set(entity,
+                    value);
+        }catch(IllegalArgumentException | IllegalAccessException ex) {
+            throw new StorageException(String.format("value %s can't be "
+                    + "assigned to attribute %s of entity class %s",
+                    value,
+                    field.getName(),
+                    entity.getClass().getName()),
+                    ex);
+        }
+    }
+
+    /**
+     * Copies {@code values} into a collection which can be assigned to a
+     * field of type {@code fieldType}.
+     * @param fieldType the type of the field
+     * @param values the values to copy
+     * @return the collection
+     */
+    private static Collection<Object> adaptCollection(Class<?> fieldType,
+            Collection<?> values) {
+        Collection<Object> retValue;
+        if(SortedSet.class.isAssignableFrom(fieldType)) {
+            retValue = new TreeSet<>();
+        }else if(fieldType.isAssignableFrom(ArrayList.class)) {
+            retValue = new ArrayList<>(values.size());
+        }else if(fieldType.isAssignableFrom(LinkedHashSet.class)) {
+            retValue = new LinkedHashSet<>(values.size());
+        }else {
+            retValue = new LinkedList<>();
+        }
+        retValue.addAll(values);
+        return retValue;
+    }
+
+    /**
+     * An attribute of a section and the field it's imported into.
+     */
+    private static class ImportedAttribute {
+        private final String name;
+        private final byte kind;
+        /**
+         * The field the attribute is imported into or {@code null} if the
+         * attribute is skipped.
+         */
+        private Field field;
+        private Class<?> targetClass;
+
+        ImportedAttribute(String name,
+                byte kind) {
+            this.name = name;
+            this.kind = kind;
+        }
+
+        void resolve(Class<?> entityClass,
+                MetamodelIndex metamodelIndex) {
+            Member member = metamodelIndex.getAttributeMember(entityClass,
+                    name);
+            byte currentKind;
+            if(metamodelIndex.getToOneTargets(entityClass).containsKey(name)) {
+                currentKind = EntityTransferFormat.ATTRIBUTE_TO_ONE;
+                targetClass = metamodelIndex.getToOneTargets(entityClass).get(name);
+            }else if(metamodelIndex.getToManyTargets(entityClass).containsKey(name)) {
+                currentKind = EntityTransferFormat.ATTRIBUTE_TO_MANY;
+                targetClass = metamodelIndex.getToManyTargets(entityClass).get(name);
+            }else {
+                currentKind = EntityTransferFormat.ATTRIBUTE_VALUE;
+            }
+            if(member == null
+                    && !metamodelIndex.getIdClassAttributeNames(entityClass).contains(name)) {
+                LOGGER.warn(String.format("skipping attribute %s because it "
+                        + "doesn't exist in entity class %s anymore",
+                        name,
+                        entityClass.getName()));
+                return;
+            }
+            if(currentKind != kind) {
+                LOGGER.warn(String.format("skipping attribute %s of entity "
+                        + "class %s because its kind changed",
+                        name,
+                        entityClass.getName()));
+                return;
+            }
+            field = EntityTransferFormat.retrieveAttributeField(entityClass,
+                    name,
+                    member);
+            if(field == null) {
+                LOGGER.warn(String.format("skipping attribute %s of entity "
+                        + "class %s because there's no field to store it in",
+                        name,
+                        entityClass.getName()));
+            }
+        }
+    }
+
+    /**
+     * An association of a decoded entity which is resolved when the entity
+     * is written since references can only be created with an entity
+     * manager.
+     */
+    private static class PendingReference {
+        private final ImportedAttribute attribute;
+        /**
+         * The id of the target for to-one associations or the list of ids
+         * of targets for to-many associations which might be {@code null}.
+         */
+        private final Object value;
+
+        PendingReference(ImportedAttribute attribute,
+                Object value) {
+            this.attribute = attribute;
+            this.value = value;
+        }
+    }
+
+    private static class DecodedEntity {
+        private final Object entity;
+        private final List<PendingReference> references;
+
+        DecodedEntity(Object entity,
+                List<PendingReference> references) {
+            this.entity = entity;
+            this.references = references;
+        }
+    }
+
+    /**
+     * Resolves references and writes entities in batches and transactions
+     * of the configured sizes.
+     */
+    private class EntityWriter {
+        private final EntityManager entityManager;
+        private final Session session;
+        private long count = 0;
+
+        EntityWriter(EntityManager entityManager) {
+            this.entityManager = entityManager;
+            this.session = entityManager.unwrap(Session.class);
+        }
+
+        void write(DecodedEntity decodedEntity) throws StorageException {
+            for(PendingReference reference : decodedEntity.references) {
+                Object value;
+                if(reference.value == null) {
+                    value = null;
+                }else if(reference.attribute.kind == EntityTransferFormat.ATTRIBUTE_TO_ONE) {
+                    value = entityManager.getReference(reference.attribute.targetClass,
+                            reference.value);
+                }else {
+                    List<?> ids = (List<?>) reference.value;
+                    List<Object> targets = new ArrayList<>(ids.size());
+                    for(Object id : ids) {
+                        targets.add(id != null
+                                ? entityManager.getReference(reference.attribute.targetClass,
+                                        id)
+                                : null);
+                    }
+                    value = adaptCollection(reference.attribute.field.getType(),
+                            targets);
+                }
+                setFieldValue(decodedEntity.entity,
+                        reference.attribute.field,
+                        value);
+            }
+            session.replicate(decodedEntity.entity,
+                    ReplicationMode.EXCEPTION);
+            count++;
+            if(count % AbstractPersistenceStorage.BATCH_SIZE == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+            if(count % commitInterval == 0) {
+                entityManager.flush();
+                entityManager.getTransaction().commit();
+                entityManager.clear();
+                entityManager.getTransaction().begin();
+            }
+        }
+    }
+}
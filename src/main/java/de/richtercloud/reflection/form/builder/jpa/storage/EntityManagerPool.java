@@ -0,0 +1,251 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- only the number of idle entity managers is bounded, the number of leased
+entity managers isn't because storage callbacks (e.g. the post store callbacks
+registered in JPAReflectionFormBuilder) run storage operations while the
+entity manager of the surrounding operation is still leased which would
+deadlock with a blocking limit
+- entity managers are cleared before they're put back into the idle queue so
+that the persistence context doesn't grow with every operation (which was the
+main source of the memory consumption described in AbstractPersistenceStorage)
+- leased entity managers are referenced weakly because callers of
+PersistenceStorage.retrieveEntityManager which predate
+PersistenceStorage.releaseEntityManager never release them and they used to be
+garbage collected
+- EntityManager isn't thread-safe, so the pool never accesses the persistence
+context of an entity manager leased by another thread, see
+containsLeasedByCurrentThread
+*/
+/**
+ * Manages the lifecycle of {@link EntityManager}s created by an
+ * {@link EntityManagerFactory}. Entity managers are leased with
+ * {@link #acquire() } and have to be returned with
+ * {@link #release(javax.persistence.EntityManager) } which clears their
+ * persistence context and either keeps them for reuse or closes them.
+ *
+ * Keeps track of leased entity managers in order to detect leaks, i.e. entity
+ * managers which are never released, which are reported and closed in
+ * {@link #close() } unless they've been garbage collected before.
+ *
+ * @author richter
+ */
+public class EntityManagerPool {
+    private final static Logger LOGGER = LoggerFactory.getLogger(EntityManagerPool.class);
+    private final EntityManagerFactory entityManagerFactory;
+    private final BlockingQueue<EntityManager> idleEntityManagers;
+    /**
+     * Maps leased entity managers to the thread which leased them in order to
+     * ease figuring out the source of a leak. Guarded by itself.
+     */
+    private final Map<EntityManager, Thread> leasedEntityManagers = new WeakHashMap<>();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Creates a new {@code EntityManagerPool}.
+     * @param entityManagerFactory the factory to create entity managers with
+     * @param maxIdle the maximum number of entity managers kept for reuse
+     * @throws IllegalArgumentException if {@code maxIdle} is less than 1
+     */
+    public EntityManagerPool(EntityManagerFactory entityManagerFactory,
+            int maxIdle) {
+        if(entityManagerFactory == null) {
+            throw new IllegalArgumentException("entityManagerFactory mustn't be null");
+        }
+        if(maxIdle <= 0) {
+            throw new IllegalArgumentException("maxIdle has to be > 0");
+        }
+        this.entityManagerFactory = entityManagerFactory;
+        this.idleEntityManagers = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * Leases an idle entity manager or creates a new one if there's none.
+     * @return the leased entity manager
+     * @throws IllegalStateException if the pool has been closed
+     */
+    public EntityManager acquire() {
+        if(closed) {
+            throw new IllegalStateException("entity manager pool has been closed");
+        }
+        EntityManager retValue = idleEntityManagers.poll();
+        while(retValue != null && !retValue.isOpen()) {
+            //might have been closed by a caller against the contract
+            retValue = idleEntityManagers.poll();
+        }
+        if(retValue == null) {
+            retValue = entityManagerFactory.createEntityManager();
+            createdCount.incrementAndGet();
+        }
+        synchronized(leasedEntityManagers) {
+            leasedEntityManagers.put(retValue,
+                    Thread.currentThread());
+        }
+        return retValue;
+    }
+
+    /**
+     * Returns {@code entityManager} to the pool. Rolls back any transaction
+     * which has been left active, clears the persistence context and keeps the
+     * entity manager for reuse if the maximum of idle entity managers hasn't
+     * been reached or closes it otherwise.
+     *
+     * @param entityManager the entity manager to release
+     */
+    public void release(EntityManager entityManager) {
+        if(entityManager == null) {
+            throw new IllegalArgumentException("entityManager mustn't be null");
+        }
+        Thread leasingThread;
+        synchronized(leasedEntityManagers) {
+            leasingThread = leasedEntityManagers.remove(entityManager);
+        }
+        if(leasingThread == null) {
+            LOGGER.warn("releasing entity manager which hasn't been leased from this pool or has already been released");
+        }
+        if(!entityManager.isOpen()) {
+            closedCount.incrementAndGet();
+            return;
+        }
+        if(entityManager.getTransaction().isActive()) {
+            LOGGER.warn("rolling back transaction which has been left active on released entity manager");
+            entityManager.getTransaction().rollback();
+        }
+        entityManager.clear();
+        if(closed || !idleEntityManagers.offer(entityManager)) {
+            closeEntityManager(entityManager);
+        }
+    }
+
+    /**
+     * Checks whether {@code object} is contained in the persistence context of
+     * an entity manager currently leased by the calling thread, e.g. by an
+     * operation which invokes a storage callback. Entity managers leased by
+     * other threads aren't checked since they're not thread-safe.
+     * @param object the object to check
+     * @return {@code true} if an entity manager leased by the calling thread
+     *     contains {@code object}, {@code false} otherwise
+     */
+    public boolean containsLeasedByCurrentThread(Object object) {
+        Thread currentThread = Thread.currentThread();
+        List<EntityManager> ownEntityManagers = new ArrayList<>();
+        synchronized(leasedEntityManagers) {
+            for(Map.Entry<EntityManager, Thread> leasedEntityManager : leasedEntityManagers.entrySet()) {
+                if(leasedEntityManager.getValue() == currentThread) {
+                    ownEntityManagers.add(leasedEntityManager.getKey());
+                }
+            }
+        }
+        for(EntityManager ownEntityManager : ownEntityManagers) {
+            if(ownEntityManager.isOpen()
+                    && ownEntityManager.contains(object)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes all idle entity managers and all entity managers which have been
+     * leased and never been released. The latter are reported as leaks.
+     */
+    public void close() {
+        closed = true;
+        EntityManager idleEntityManager;
+        while((idleEntityManager = idleEntityManagers.poll()) != null) {
+            closeEntityManager(idleEntityManager);
+        }
+        Map<EntityManager, Thread> leakedEntityManagers;
+        synchronized(leasedEntityManagers) {
+            leakedEntityManagers = new HashMap<>(leasedEntityManagers);
+            leasedEntityManagers.clear();
+        }
+        if(!leakedEntityManagers.isEmpty()) {
+            Set<String> leasingThreadNames = new LinkedHashSet<>();
+            for(Thread leasingThread : leakedEntityManagers.values()) {
+                leasingThreadNames.add(leasingThread.getName());
+            }
+            LOGGER.warn(String.format("closing %d entity manager(s) which have "
+                    + "never been released (leased by thread(s) %s)",
+                    leakedEntityManagers.size(),
+                    leasingThreadNames));
+            for(EntityManager leakedEntityManager : leakedEntityManagers.keySet()) {
+                closeEntityManager(leakedEntityManager);
+            }
+        }
+    }
+
+    private void closeEntityManager(EntityManager entityManager) {
+        if(entityManager.isOpen()) {
+            entityManager.close();
+        }
+        closedCount.incrementAndGet();
+    }
+
+    /**
+     * The number of leased entity managers which haven't been released and
+     * haven't been garbage collected.
+     * @return the leased count
+     */
+    public int getLeasedCount() {
+        synchronized(leasedEntityManagers) {
+            return leasedEntityManagers.size();
+        }
+    }
+
+    public int getIdleCount() {
+        return idleEntityManagers.size();
+    }
+
+    /**
+     * The number of entity managers created by this pool.
+     * @return the created count
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * The number of entity managers closed by this pool.
+     * @return the closed count
+     */
+    public long getClosedCount() {
+        return closedCount.get();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
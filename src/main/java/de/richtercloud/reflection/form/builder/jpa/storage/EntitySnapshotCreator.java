@@ -0,0 +1,205 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.persistence.Embeddable;
+import javax.persistence.Transient;
+import org.hibernate.Hibernate;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+
+/*
+internal implementation notes:
+- associated entities aren't copied because they're only written by merge if
+the association cascades the merge and copying them would require to copy the
+whole reachable object graph
+- uninitialized lazy collections aren't copied since they can't have been
+changed and copying them would require an open session
+*/
+/**
+ * Creates detached copies of entities which capture the state of the
+ * persistent fields at the time of the copy. Mutable values (dates, calendars,
+ * arrays, collections, maps and embeddables) are copied, other values
+ * (including associated entities) are shared with the original.
+ *
+ * @author richter
+ */
+final class EntitySnapshotCreator {
+    private static final ClassValue<List<Field>> FIELDS = new ClassValue<List<Field>>() {
+        @Override
+        protected List<Field> computeValue(Class<?> type) {
+            List<Field> retValue = new LinkedList<>();
+            Class<?> classPointer = type;
+            while(classPointer != null && !Object.class.equals(classPointer)) {
+                for(Field field : classPointer.getDeclaredFields()) {
+                    if(Modifier.isStatic(field.getModifiers())
+                            || Modifier.isTransient(field.getModifiers())
+                            || field.isSynthetic()
+                            || field.isAnnotationPresent(Transient.class)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    retValue.add(field);
+                }
+                classPointer = classPointer.getSuperclass();
+            }
+            return Collections.unmodifiableList(new ArrayList<>(retValue));
+        }
+    };
+
+    /**
+     * Creates a copy of {@code entity}. An uninitialized proxy is returned
+     * as is since it can't have been changed, the implementation of an
+     * initialized proxy is copied.
+     * @param entity the entity to copy
+     * @return the copy
+     * @throws IllegalArgumentException if the class of {@code entity} or one
+     *     of its embeddables doesn't provide a constructor without arguments
+     */
+    public static Object createSnapshot(Object entity) {
+        Object implementation = entity;
+        if(entity instanceof HibernateProxy) {
+            LazyInitializer lazyInitializer = ((HibernateProxy)entity).getHibernateLazyInitializer();
+            if(lazyInitializer.isUninitialized()) {
+                return entity;
+            }
+            implementation = lazyInitializer.getImplementation();
+        }
+        return copyObject(implementation);
+    }
+
+    private static Object copyObject(Object object) {
+        Class<?> clazz = object.getClass();
+        Object retValue;
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+                //JPA allows protected constructors
+            retValue = constructor.newInstance();
+        }catch(ReflectiveOperationException ex) {
+            throw new IllegalArgumentException(String.format("a copy of "
+                    + "instance of %s can't be created",
+                    clazz.getName()),
+                    ex);
+        }
+        for(Field field : FIELDS.get(clazz)) {
+            try {
+                field.set(retValue,
+                        copyValue(field.get(object),
+                                field.getType()));
+            }catch(IllegalAccessException ex) {
+                //fields have been made accessible
+                throw new IllegalStateException(ex);
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * Copies {@code value} if it's mutable.
+     * @param value the value to copy
+     * @param type the type the copy has to be assignable to
+     * @return the copy or {@code value} if it's immutable, an entity or can't
+     *     be copied into an instance of {@code type}
+     */
+    @SuppressWarnings("unchecked")
+    private static Object copyValue(Object value,
+            Class<?> type) {
+        if(value == null) {
+            return null;
+        }
+        Object retValue;
+        if(value instanceof Date) {
+            retValue = ((Date)value).clone();
+        }else if(value instanceof Calendar) {
+            retValue = ((Calendar)value).clone();
+        }else if(value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            retValue = Array.newInstance(value.getClass().getComponentType(),
+                    length);
+            System.arraycopy(value,
+                    0,
+                    retValue,
+                    0,
+                    length);
+        }else if(value.getClass().isAnnotationPresent(Embeddable.class)) {
+            retValue = copyObject(value);
+        }else if(value instanceof Collection) {
+            if(!Hibernate.isInitialized(value)) {
+                return value;
+            }
+            Collection<Object> collection = (Collection<Object>) value;
+            Collection<Object> collectionCopy;
+            if(value instanceof SortedSet) {
+                collectionCopy = new TreeSet<>(((SortedSet<Object>)value).comparator());
+            }else if(value instanceof Set) {
+                collectionCopy = new LinkedHashSet<>(collection.size());
+            }else {
+                collectionCopy = new ArrayList<>(collection.size());
+            }
+            for(Object element : collection) {
+                collectionCopy.add(copyValue(element,
+                        Object.class));
+            }
+            retValue = collectionCopy;
+        }else if(value instanceof Map) {
+            if(!Hibernate.isInitialized(value)) {
+                return value;
+            }
+            Map<Object, Object> map = (Map<Object, Object>) value;
+            Map<Object, Object> mapCopy;
+            if(value instanceof SortedMap) {
+                mapCopy = new TreeMap<>(((SortedMap<Object, Object>)value).comparator());
+            }else {
+                mapCopy = new LinkedHashMap<>(map.size());
+            }
+            for(Map.Entry<Object, Object> entry : map.entrySet()) {
+                mapCopy.put(entry.getKey(),
+                        copyValue(entry.getValue(),
+                                Object.class));
+            }
+            retValue = mapCopy;
+        }else {
+            return value;
+        }
+        if(!type.isInstance(retValue)) {
+            //e.g. a field of a concrete collection type
+            return value;
+        }
+        return retValue;
+    }
+
+    private EntitySnapshotCreator() {
+    }
+}
@@ -0,0 +1,738 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.IdClass;
+import javax.persistence.Transient;
+
+/*
+internal implementation notes:
+- strings are written with their length as int rather than with
+DataOutput.writeUTF because the latter is limited to 65535 bytes
+- all subclasses of Date which JPA knows (java.sql.Date, Time and Timestamp)
+and Calendar get their own tag in order to keep their type (and the
+nanoseconds of Timestamp) without Java serialization
+- embeddables are written field by field with their field names, so that the
+encoding doesn't depend on the class layout (serialVersionUID, field order) and
+fields which have been added or removed since the export are tolerated;
+associations inside embeddables aren't supported since their targets would have
+to be resolved like the ones of entities
+- collections and maps (element collections) are written element by element
+and read into ArrayList, LinkedHashSet and LinkedHashMap which EntityImporter
+adapts to the field type
+- values without tag (id classes, custom basic types) are written with Java
+serialization which JPA requires for id classes anyway; deserialization only
+resolves classes on an allow-list of JDK value classes and classes which are
+used in fields of the entity classes (see retrieveSerializableClassNames),
+so that a crafted file can't instantiate arbitrary classes of the classpath
+- the fields of embeddable classes are cached in a ClassValue which doesn't
+prevent their class loader from being garbage collected
+*/
+/**
+ * Constants and value encoding of the format written by
+ * {@link EntityExporter} and read by {@link EntityImporter}.
+ *
+ * A file starts with {@link #MAGIC} and {@link #FORMAT_VERSION} followed by
+ * one section per entity class. A section starts with
+ * {@link #SECTION_START}, the class name and the names and kinds of the
+ * exported attributes, followed by length-prefixed records of one entity each
+ * and a record length of {@code 0}. The file ends with {@link #FILE_END}. The
+ * complete stream is compressed with GZIP.
+ *
+ * @author richter
+ */
+final class EntityTransferFormat {
+    static final int MAGIC = 0x52464245;
+    static final short FORMAT_VERSION = 1;
+    static final byte FILE_END = 0;
+    static final byte SECTION_START = 1;
+    static final int SECTION_END = 0;
+    /**
+     * A value written with {@link #writeValue(java.io.DataOutput, java.lang.Object) }.
+     */
+    static final byte ATTRIBUTE_VALUE = 0;
+    /**
+     * The id of the target entity of a to-one association.
+     */
+    static final byte ATTRIBUTE_TO_ONE = 1;
+    /**
+     * The number of target entities of a to-many association ({@code -1} if
+     * the collection is {@code null}) followed by their ids.
+     */
+    static final byte ATTRIBUTE_TO_MANY = 2;
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_LONG = 2;
+    private static final byte TAG_INTEGER = 3;
+    private static final byte TAG_SHORT = 4;
+    private static final byte TAG_BYTE = 5;
+    private static final byte TAG_BOOLEAN = 6;
+    private static final byte TAG_CHARACTER = 7;
+    private static final byte TAG_FLOAT = 8;
+    private static final byte TAG_DOUBLE = 9;
+    private static final byte TAG_BYTES = 10;
+    private static final byte TAG_DATE = 11;
+    private static final byte TAG_BIG_DECIMAL = 12;
+    private static final byte TAG_BIG_INTEGER = 13;
+    private static final byte TAG_ENUM = 14;
+    private static final byte TAG_SERIALIZED = 15;
+    private static final byte TAG_SQL_DATE = 16;
+    private static final byte TAG_SQL_TIME = 17;
+    private static final byte TAG_TIMESTAMP = 18;
+    private static final byte TAG_CALENDAR = 19;
+    private static final byte TAG_EMBEDDABLE = 20;
+    private static final byte TAG_LIST = 21;
+    private static final byte TAG_SET = 22;
+    private static final byte TAG_MAP = 23;
+    /**
+     * The JDK classes which might be part of serialized values.
+     */
+    private static final Set<String> SERIALIZABLE_JDK_CLASS_NAMES = new HashSet<>(Arrays.asList(String.class.getName(),
+            Boolean.class.getName(),
+            Byte.class.getName(),
+            Character.class.getName(),
+            Short.class.getName(),
+            Integer.class.getName(),
+            Long.class.getName(),
+            Float.class.getName(),
+            Double.class.getName(),
+            Number.class.getName(),
+            Enum.class.getName(),
+            BigDecimal.class.getName(),
+            BigInteger.class.getName(),
+            Date.class.getName(),
+            java.sql.Date.class.getName(),
+            Time.class.getName(),
+            Timestamp.class.getName(),
+            java.util.UUID.class.getName(),
+            java.util.Locale.class.getName(),
+            ArrayList.class.getName(),
+            java.util.LinkedList.class.getName(),
+            java.util.HashMap.class.getName(),
+            LinkedHashMap.class.getName(),
+            HashSet.class.getName(),
+            LinkedHashSet.class.getName()));
+    private static final String SERIALIZABLE_JDK_PACKAGE_PREFIX = "java.time.";
+    private static final ClassValue<Map<String, Field>> EMBEDDABLE_FIELDS = new ClassValue<Map<String, Field>>() {
+        @Override
+        protected Map<String, Field> computeValue(Class<?> type) {
+            Map<String, Field> retValue = new LinkedHashMap<>();
+            Class<?> classPointer = type;
+            while(classPointer != null && !Object.class.equals(classPointer)) {
+                for(Field field : classPointer.getDeclaredFields()) {
+                    if(Modifier.isStatic(field.getModifiers())
+                            || Modifier.isTransient(field.getModifiers())
+                            || field.isSynthetic()
+                            || field.isAnnotationPresent(Transient.class)
+                            || retValue.containsKey(field.getName())) {
+                        //fields of subclasses hide fields with the same name
+                        //of superclasses
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    retValue.put(field.getName(),
+                            field);
+                }
+                classPointer = classPointer.getSuperclass();
+            }
+            return Collections.unmodifiableMap(retValue);
+        }
+    };
+
+    static void writeString(DataOutput output,
+            String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    static String readString(DataInput input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes,
+                StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings({"PMD.CyclomaticComplexity", "PMD.NPathComplexity"})
+    static void writeValue(DataOutput output,
+            Object value) throws IOException, StorageException {
+        if(value == null) {
+            output.writeByte(TAG_NULL);
+        }else if(value instanceof String) {
+            output.writeByte(TAG_STRING);
+            writeString(output,
+                    (String) value);
+        }else if(value instanceof Long) {
+            output.writeByte(TAG_LONG);
+            output.writeLong((Long) value);
+        }else if(value instanceof Integer) {
+            output.writeByte(TAG_INTEGER);
+            output.writeInt((Integer) value);
+        }else if(value instanceof Short) {
+            output.writeByte(TAG_SHORT);
+            output.writeShort((Short) value);
+        }else if(value instanceof Byte) {
+            output.writeByte(TAG_BYTE);
+            output.writeByte((Byte) value);
+        }else if(value instanceof Boolean) {
+            output.writeByte(TAG_BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        }else if(value instanceof Character) {
+            output.writeByte(TAG_CHARACTER);
+            output.writeChar((Character) value);
+        }else if(value instanceof Float) {
+            output.writeByte(TAG_FLOAT);
+            output.writeFloat((Float) value);
+        }else if(value instanceof Double) {
+            output.writeByte(TAG_DOUBLE);
+            output.writeDouble((Double) value);
+        }else if(value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            output.writeByte(TAG_BYTES);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }else if(value instanceof Date) {
+            writeDate(output,
+                    (Date) value);
+        }else if(value instanceof Calendar) {
+            Calendar calendar = (Calendar) value;
+            output.writeByte(TAG_CALENDAR);
+            output.writeLong(calendar.getTimeInMillis());
+            writeString(output,
+                    calendar.getTimeZone().getID());
+        }else if(value instanceof BigDecimal) {
+            output.writeByte(TAG_BIG_DECIMAL);
+            writeString(output,
+                    value.toString());
+        }else if(value instanceof BigInteger) {
+            output.writeByte(TAG_BIG_INTEGER);
+            writeString(output,
+                    value.toString());
+        }else if(value instanceof Enum) {
+            output.writeByte(TAG_ENUM);
+            writeString(output,
+                    ((Enum<?>) value).getDeclaringClass().getName());
+            writeString(output,
+                    ((Enum<?>) value).name());
+        }else if(value.getClass().isAnnotationPresent(Embeddable.class)) {
+            writeEmbeddable(output,
+                    value);
+        }else if(value instanceof Collection) {
+            Collection<?> values = (Collection<?>) value;
+            output.writeByte(value instanceof Set ? TAG_SET : TAG_LIST);
+            output.writeInt(values.size());
+            for(Object element : values) {
+                writeValue(output,
+                        element);
+            }
+        }else if(value instanceof Map) {
+            Map<?, ?> values = (Map<?, ?>) value;
+            output.writeByte(TAG_MAP);
+            output.writeInt(values.size());
+            for(Map.Entry<?, ?> entry : values.entrySet()) {
+                writeValue(output,
+                        entry.getKey());
+                writeValue(output,
+                        entry.getValue());
+            }
+        }else if(value instanceof Serializable) {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(serialized)) {
+                objectOutputStream.writeObject(value);
+            }
+            output.writeByte(TAG_SERIALIZED);
+            output.writeInt(serialized.size());
+            output.write(serialized.toByteArray());
+        }else {
+            throw new StorageException(String.format("values of type %s "
+                    + "can't be exported because they're not serializable",
+                    value.getClass().getName()),
+                    null);
+        }
+    }
+
+    private static void writeDate(DataOutput output,
+            Date value) throws IOException {
+        if(value instanceof Timestamp) {
+            output.writeByte(TAG_TIMESTAMP);
+            output.writeLong(value.getTime());
+            output.writeInt(((Timestamp) value).getNanos());
+        }else {
+            if(value instanceof java.sql.Date) {
+                output.writeByte(TAG_SQL_DATE);
+            }else if(value instanceof Time) {
+                output.writeByte(TAG_SQL_TIME);
+            }else {
+                output.writeByte(TAG_DATE);
+            }
+            output.writeLong(value.getTime());
+        }
+    }
+
+    private static void writeEmbeddable(DataOutput output,
+            Object value) throws IOException, StorageException {
+        Map<String, Field> fields = EMBEDDABLE_FIELDS.get(value.getClass());
+        output.writeByte(TAG_EMBEDDABLE);
+        writeString(output,
+                value.getClass().getName());
+        output.writeInt(fields.size());
+        for(Field field : fields.values()) {
+            Object fieldValue;
+            try {
+                fieldValue = field.get(value);
+            }catch(IllegalAccessException ex) {
+                throw new StorageException(ex);
+            }
+            if(fieldValue != null && isEntityInstance(fieldValue)) {
+                throw new StorageException(String.format("field %s of "
+                        + "embeddable %s refers to an entity which isn't "
+                        + "supported",
+                        field.getName(),
+                        value.getClass().getName()),
+                        null);
+            }
+            writeString(output,
+                    field.getName());
+            writeValue(output,
+                    fieldValue);
+        }
+    }
+
+    /**
+     * Whether {@code value} is an entity or a proxy of an entity (proxies are
+     * subclasses of the entity class which don't inherit the annotation).
+     * @param value the value to check
+     * @return {@code true} if {@code value} is an entity
+     */
+    private static boolean isEntityInstance(Object value) {
+        Class<?> classPointer = value.getClass();
+        while(classPointer != null) {
+            if(classPointer.isAnnotationPresent(Entity.class)) {
+                return true;
+            }
+            classPointer = classPointer.getSuperclass();
+        }
+        return false;
+    }
+
+    /**
+     * Reads a value written with
+     * {@link #writeValue(java.io.DataOutput, java.lang.Object) }.
+     * @param input the input to read from
+     * @param classLoader the class loader used to resolve enum, embeddable
+     *     and serialized classes
+     * @param serializableClassNames the names of the non-JDK classes which
+     *     are allowed in serialized values (see
+     *     {@link #retrieveSerializableClassNames(java.util.Collection) })
+     * @return the value
+     * @throws IOException if reading fails
+     * @throws StorageException if the value references a class which isn't
+     *     available or not allowed or the input is corrupt
+     */
+    @SuppressWarnings({"unchecked", "rawtypes", "PMD.CyclomaticComplexity"})
+    static Object readValue(DataInput input,
+            ClassLoader classLoader,
+            Set<String> serializableClassNames) throws IOException, StorageException {
+        byte tag = input.readByte();
+        switch(tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return readString(input);
+            case TAG_LONG:
+                return input.readLong();
+            case TAG_INTEGER:
+                return input.readInt();
+            case TAG_SHORT:
+                return input.readShort();
+            case TAG_BYTE:
+                return input.readByte();
+            case TAG_BOOLEAN:
+                return input.readBoolean();
+            case TAG_CHARACTER:
+                return input.readChar();
+            case TAG_FLOAT:
+                return input.readFloat();
+            case TAG_DOUBLE:
+                return input.readDouble();
+            case TAG_BYTES:
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                return bytes;
+            case TAG_DATE:
+                return new Date(input.readLong());
+            case TAG_SQL_DATE:
+                return new java.sql.Date(input.readLong());
+            case TAG_SQL_TIME:
+                return new Time(input.readLong());
+            case TAG_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(input.readLong());
+                timestamp.setNanos(input.readInt());
+                return timestamp;
+            case TAG_CALENDAR:
+                long timeInMillis = input.readLong();
+                Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(readString(input)));
+                calendar.setTimeInMillis(timeInMillis);
+                return calendar;
+            case TAG_BIG_DECIMAL:
+                return new BigDecimal(readString(input));
+            case TAG_BIG_INTEGER:
+                return new BigInteger(readString(input));
+            case TAG_ENUM:
+                String enumClassName = readString(input);
+                String constantName = readString(input);
+                try {
+                    Class enumClass = Class.forName(enumClassName,
+                            false, //initialize
+                            classLoader);
+                    return Enum.valueOf(enumClass,
+                            constantName);
+                }catch(ClassNotFoundException | IllegalArgumentException ex) {
+                    throw new StorageException(ex);
+                }
+            case TAG_EMBEDDABLE:
+                return readEmbeddable(input,
+                        classLoader,
+                        serializableClassNames);
+            case TAG_LIST:
+            case TAG_SET:
+                int size = input.readInt();
+                Collection<Object> values = tag == TAG_SET
+                        ? new LinkedHashSet<>()
+                        : new ArrayList<>();
+                for(int i=0; i<size; i++) {
+                    values.add(readValue(input,
+                            classLoader,
+                            serializableClassNames));
+                }
+                return values;
+            case TAG_MAP:
+                int entryCount = input.readInt();
+                Map<Object, Object> entries = new LinkedHashMap<>();
+                for(int i=0; i<entryCount; i++) {
+                    Object key = readValue(input,
+                            classLoader,
+                            serializableClassNames);
+                    entries.put(key,
+                            readValue(input,
+                                    classLoader,
+                                    serializableClassNames));
+                }
+                return entries;
+            case TAG_SERIALIZED:
+                byte[] serialized = new byte[input.readInt()];
+                input.readFully(serialized);
+                try (ObjectInputStream objectInputStream = new ClassLoaderObjectInputStream(new ByteArrayInputStream(serialized),
+                        classLoader,
+                        serializableClassNames)) {
+                    return objectInputStream.readObject();
+                }catch(ClassNotFoundException | InvalidClassException ex) {
+                    throw new StorageException(ex);
+                }
+            default:
+                throw new StorageException(String.format("unknown value tag "
+                        + "%d, the input is corrupt",
+                        tag),
+                        null);
+        }
+    }
+
+    private static Object readEmbeddable(DataInput input,
+            ClassLoader classLoader,
+            Set<String> serializableClassNames) throws IOException, StorageException {
+        String className = readString(input);
+        Object retValue;
+        try {
+            Class<?> embeddableClass = Class.forName(className,
+                    false, //initialize
+                    classLoader);
+            if(!embeddableClass.isAnnotationPresent(Embeddable.class)) {
+                throw new StorageException(String.format("class %s isn't an "
+                        + "embeddable",
+                        className),
+                        null);
+            }
+            Constructor<?> constructor = embeddableClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            retValue = constructor.newInstance();
+        }catch(ClassNotFoundException
+                | NoSuchMethodException
+                | InstantiationException
+                | IllegalAccessException
+                | InvocationTargetException ex) {
+            throw new StorageException(ex);
+        }
+        Map<String, Field> fields = EMBEDDABLE_FIELDS.get(retValue.getClass());
+        int fieldCount = input.readInt();
+        for(int i=0; i<fieldCount; i++) {
+            String fieldName = readString(input);
+            Object fieldValue = readValue(input,
+                    classLoader,
+                    serializableClassNames);
+            Field field = fields.get(fieldName);
+            if(field == null) {
+                //field has been removed since the export
+                continue;
+            }
+            try {
+                field.set(retValue,
+                        fieldValue);
+            }catch(IllegalArgumentException | IllegalAccessException ex) {
+                throw new StorageException(String.format("value %s can't be "
+                        + "assigned to field %s of embeddable %s",
+                        fieldValue,
+                        fieldName,
+                        className),
+                        ex);
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * Collects the names of all classes which are used in fields of
+     * {@code entityClasses} (including their superclasses, type arguments of
+     * collections and maps and id classes) transitively except JDK and entity
+     * classes. These are the only non-JDK classes which
+     * {@link #readValue(java.io.DataInput, java.lang.ClassLoader, java.util.Set) }
+     * deserializes.
+     * @param entityClasses the entity classes
+     * @return the class names
+     */
+    static Set<String> retrieveSerializableClassNames(Collection<Class<?>> entityClasses) {
+        Set<String> retValue = new HashSet<>();
+        Set<Class<?>> visited = new HashSet<>();
+        Deque<Class<?>> pending = new ArrayDeque<>(entityClasses);
+        while(!pending.isEmpty()) {
+            Class<?> clazz = pending.poll();
+            if(!visited.add(clazz)) {
+                continue;
+            }
+            if(!entityClasses.contains(clazz)) {
+                retValue.add(clazz.getName());
+            }
+            IdClass idClass = clazz.getAnnotation(IdClass.class);
+            if(idClass != null) {
+                pending.add(idClass.value());
+            }
+            Class<?> classPointer = clazz;
+            while(classPointer != null && !isJDKClass(classPointer)) {
+                for(Field field : classPointer.getDeclaredFields()) {
+                    if(!Modifier.isStatic(field.getModifiers())) {
+                        collectClasses(field.getGenericType(),
+                                pending);
+                    }
+                }
+                classPointer = classPointer.getSuperclass();
+            }
+        }
+        return retValue;
+    }
+
+    private static void collectClasses(Type type,
+            Deque<Class<?>> classes) {
+        if(type instanceof ParameterizedType) {
+            collectClasses(((ParameterizedType) type).getRawType(),
+                    classes);
+            for(Type typeArgument : ((ParameterizedType) type).getActualTypeArguments()) {
+                collectClasses(typeArgument,
+                        classes);
+            }
+        }else if(type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            while(clazz.isArray()) {
+                clazz = clazz.getComponentType();
+            }
+            if(!clazz.isPrimitive() && !isJDKClass(clazz)) {
+                classes.add(clazz);
+            }
+        }
+    }
+
+    private static boolean isJDKClass(Class<?> clazz) {
+        return clazz.getName().startsWith("java.")
+                || clazz.getName().startsWith("javax.");
+    }
+
+    /**
+     * Whether the class with the binary name {@code className} (as used by
+     * {@link ObjectStreamClass#getName() }, i.e. with array descriptors) may
+     * be deserialized.
+     * @param className the class name
+     * @param serializableClassNames the allowed non-JDK classes
+     * @return {@code true} if the class may be deserialized
+     */
+    static boolean isSerializationAllowed(String className,
+            Set<String> serializableClassNames) {
+        String componentName = className;
+        if(componentName.startsWith("[")) {
+            while(componentName.startsWith("[")) {
+                componentName = componentName.substring(1);
+            }
+            if(componentName.length() == 1) {
+                //primitive type
+                return true;
+            }
+            componentName = componentName.substring(1,
+                    componentName.length()-1);
+                //remove L and ;
+        }
+        return SERIALIZABLE_JDK_CLASS_NAMES.contains(componentName)
+                || componentName.startsWith(SERIALIZABLE_JDK_PACKAGE_PREFIX)
+                || serializableClassNames.contains(componentName);
+    }
+
+    /**
+     * Reads the attribute {@code member} of {@code object}.
+     * @param object the object to read from
+     * @param member the field or getter of the attribute
+     * @return the attribute value
+     * @throws StorageException if the member isn't accessible
+     */
+    static Object retrieveAttributeValue(Object object,
+            Member member) throws StorageException {
+        try {
+            if(member instanceof Field) {
+                Field field = (Field) member;
+                field.setAccessible(true);
+                return field.get(object);
+            }
+            Method getter = (Method) member;
+            getter.setAccessible(true);
+            return getter.invoke(object);
+        }catch(IllegalAccessException | InvocationTargetException ex) {
+            throw new StorageException(ex);
+        }
+    }
+
+    /**
+     * The field in which the attribute {@code attributeName} is stored which
+     * is the member of the attribute for field access and the field with the
+     * attribute name for property access.
+     * @param entityClass the entity class
+     * @param attributeName the attribute name
+     * @param member the member of the attribute
+     * @return the accessible field or {@code null} if there's none
+     */
+    static Field retrieveAttributeField(Class<?> entityClass,
+            String attributeName,
+            Member member) {
+        Field retValue = null;
+        if(member instanceof Field) {
+            retValue = (Field) member;
+        }else {
+            Class<?> classPointer = entityClass;
+            while(retValue == null && classPointer != null) {
+                try {
+                    retValue = classPointer.getDeclaredField(attributeName);
+                }catch(NoSuchFieldException ex) {
+                    classPointer = classPointer.getSuperclass();
+                }
+            }
+        }
+        if(retValue != null) {
+            retValue.setAccessible(true);
+        }
+        return retValue;
+    }
+
+    private EntityTransferFormat() {
+    }
+
+    /**
+     * Resolves classes with a specific class loader since the one of
+     * {@link ObjectInputStream} might not see entity classes and rejects
+     * classes which aren't allowed by
+     * {@link #isSerializationAllowed(java.lang.String, java.util.Set) }
+     * before they're loaded.
+     */
+    private static class ClassLoaderObjectInputStream extends ObjectInputStream {
+        private final ClassLoader classLoader;
+        private final Set<String> serializableClassNames;
+
+        ClassLoaderObjectInputStream(InputStream in,
+                ClassLoader classLoader,
+                Set<String> serializableClassNames) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+            this.serializableClassNames = serializableClassNames;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+                ClassNotFoundException {
+            if(!isSerializationAllowed(desc.getName(),
+                    serializableClassNames)) {
+                throw new InvalidClassException(desc.getName(),
+                        "class isn't allowed in imported values");
+            }
+            try {
+                return Class.forName(desc.getName(),
+                        false, //initialize
+                        classLoader);
+            }catch(ClassNotFoundException ex) {
+                return super.resolveClass(desc);
+            }
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException,
+                ClassNotFoundException {
+            throw new InvalidClassException(Arrays.toString(interfaces),
+                    "proxy classes aren't allowed in imported values");
+        }
+    }
+}
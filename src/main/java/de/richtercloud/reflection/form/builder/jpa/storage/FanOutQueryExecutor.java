@@ -0,0 +1,365 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- shard queries run on a dedicated thread pool rather than the
+AsyncPersistenceStorage of the storages because the fan-out is usually started
+from a thread of such a facade and waiting there for tasks queued on the same
+facade can deadlock; every storage still limits its parallel queries with its
+QueryAdmissionController
+- the calling thread polls for completed shards in short intervals in order to
+notice the cancellation of the fan-out query since CancellableQuery doesn't
+provide a cancellation callback
+- shard results are sorted before merging in case the query has no matching
+ORDER BY clause; TimSort (used by List.sort) is linear for already sorted
+input, so this costs next to nothing in the intended usage
+*/
+/**
+ * Runs one JPQL query on several {@link PersistenceStorage}s in parallel and
+ * merges the results, e.g. in order to search several archives at once.
+ *
+ * Without comparator the results are concatenated in the order in which the
+ * storages answer and the remaining storage queries are cancelled as soon as
+ * the global limit is reached. With comparator the results of all storages
+ * are awaited (no storage query is cancelled early), every storage's results
+ * are sorted and the sorted results are merged up to the global limit. The
+ * storage queries should have an {@code ORDER BY} clause matching the
+ * comparator since otherwise every storage's limit cuts off arbitrary
+ * results.
+ *
+ * Results don't carry the storage they've been retrieved from. They have to
+ * be treated as read-only unless the caller can map them to their storage
+ * otherwise.
+ *
+ * Queries are returned as {@link CancellableQuery}s which cancel all running
+ * storage queries when they're cancelled or time out. Shut down the executor
+ * with {@link #shutdown() } when it's no longer needed.
+ *
+ * @author richter
+ */
+public class FanOutQueryExecutor {
+    private final static Logger LOGGER = LoggerFactory.getLogger(FanOutQueryExecutor.class);
+    /**
+     * The interval in which the calling thread checks whether the fan-out
+     * query has been cancelled while waiting for storage queries.
+     */
+    private final static long CANCEL_POLL_INTERVAL_MILLIS = 50;
+
+    /**
+     * Merges the sorted lists {@code sortedLists} into one sorted list
+     * containing at most {@code limit} items. Only as many items as needed
+     * are taken from the lists. Ties are resolved in favour of the list with
+     * the lower index.
+     * @param <T> the type of items
+     * @param sortedLists the lists sorted according to {@code comparator}
+     * @param comparator the comparator
+     * @param limit the maximum number of items to return
+     * @return the merged list
+     */
+    static <T> List<T> merge(List<List<T>> sortedLists,
+            Comparator<? super T> comparator,
+            int limit) {
+        PriorityQueue<MergeCursor<T>> heads = new PriorityQueue<>(Math.max(1, sortedLists.size()),
+                (cursor1, cursor2) -> {
+                    int comparison = comparator.compare(cursor1.head,
+                            cursor2.head);
+                    if(comparison != 0) {
+                        return comparison;
+                    }
+                    return Integer.compare(cursor1.listIndex,
+                            cursor2.listIndex);
+                });
+        int totalSize = 0;
+        for(int i=0; i<sortedLists.size(); i++) {
+            List<T> sortedList = sortedLists.get(i);
+            totalSize += sortedList.size();
+            Iterator<T> sortedListItr = sortedList.iterator();
+            if(sortedListItr.hasNext()) {
+                heads.add(new MergeCursor<>(i,
+                        sortedListItr));
+            }
+        }
+        List<T> retValue = new ArrayList<>(Math.min(limit, totalSize));
+        while(retValue.size() < limit && !heads.isEmpty()) {
+            MergeCursor<T> cursor = heads.poll();
+            retValue.add(cursor.head);
+            if(cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+        return retValue;
+    }
+
+    private final List<PersistenceStorage<?>> storages;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates a new {@code FanOutQueryExecutor}.
+     * @param storages the storages to query
+     * @throws IllegalArgumentException if {@code storages} is {@code null} or
+     *     empty
+     */
+    public FanOutQueryExecutor(List<? extends PersistenceStorage<?>> storages) {
+        if(storages == null || storages.isEmpty()) {
+            throw new IllegalArgumentException("storages mustn't be null or empty");
+        }
+        this.storages = Collections.unmodifiableList(new ArrayList<>(storages));
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable,
+                    String.format("fan-out-query-%d",
+                            threadNumber.getAndIncrement()));
+            thread.setDaemon(true);
+                //mustn't prevent the JVM from exiting
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(storages.size(), //corePoolSize
+                storages.size(), //maximumPoolSize
+                60, //keepAliveTime
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                threadFactory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public List<PersistenceStorage<?>> getStorages() {
+        return storages;
+    }
+
+    /**
+     * Prepares {@code queryString} for all storages, see
+     * {@link PersistenceStorage#prepareQuery(java.lang.String, java.lang.Class, int, de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority, long) }.
+     * @param <T> the type of results
+     * @param queryString the JPQL query
+     * @param clazz the type of results
+     * @param queryLimit the maximum number of results of every storage and of
+     *     the merged results
+     * @param queryPriority the priority of the storage queries
+     * @param timeoutMillis the timeout of the fan-out query and of every
+     *     storage query or a value {@code <= 0} for no timeout
+     * @param comparator the order of results or {@code null} if results
+     *     should be returned in the order they arrive
+     * @return the cancellable fan-out query
+     */
+    public <T> CancellableQuery<T> prepareQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis,
+            Comparator<? super T> comparator) {
+        return prepareFanOutQuery(storage -> storage.prepareQuery(queryString,
+                        clazz,
+                        queryLimit,
+                        queryPriority,
+                        timeoutMillis),
+                queryLimit,
+                timeoutMillis,
+                comparator);
+    }
+
+    /**
+     * Prepares the projection query {@code queryString} for all storages, see
+     * {@link PersistenceStorage#prepareProjectionQuery(java.lang.String, java.util.List, int, de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority, long) }.
+     * @param queryString the JPQL query
+     * @param attributeNames the names of the attributes to retrieve
+     * @param queryLimit the maximum number of rows of every storage and of
+     *     the merged rows
+     * @param queryPriority the priority of the storage queries
+     * @param timeoutMillis the timeout of the fan-out query and of every
+     *     storage query or a value {@code <= 0} for no timeout
+     * @param comparator the order of rows or {@code null} if rows should be
+     *     returned in the order they arrive
+     * @return the cancellable fan-out query
+     */
+    public CancellableQuery<Object[]> prepareProjectionQuery(String queryString,
+            List<String> attributeNames,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis,
+            Comparator<? super Object[]> comparator) {
+        return prepareFanOutQuery(storage -> storage.prepareProjectionQuery(queryString,
+                        attributeNames,
+                        queryLimit,
+                        queryPriority,
+                        timeoutMillis),
+                queryLimit,
+                timeoutMillis,
+                comparator);
+    }
+
+    private <T> CancellableQuery<T> prepareFanOutQuery(Function<PersistenceStorage<?>, CancellableQuery<T>> shardQueryFactory,
+            int queryLimit,
+            long timeoutMillis,
+            Comparator<? super T> comparator) {
+        return new CancellableQuery<>(timeoutMillis,
+                cancellableQuery -> {
+                    List<CancellableQuery<T>> shardQueries = new ArrayList<>(storages.size());
+                    for(PersistenceStorage<?> storage : storages) {
+                        shardQueries.add(shardQueryFactory.apply(storage));
+                    }
+                    return execute(cancellableQuery,
+                            shardQueries,
+                            queryLimit,
+                            comparator);
+                });
+    }
+
+    @SuppressWarnings("PMD.AvoidInstantiatingObjectsInLoops")
+    private <T> List<T> execute(CancellableQuery<T> cancellableQuery,
+            List<CancellableQuery<T>> shardQueries,
+            int queryLimit,
+            Comparator<? super T> comparator) throws StorageException {
+        CompletionService<ShardResult<T>> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<ShardResult<T>>> shardFutures = new LinkedList<>();
+        for(int i=0; i<shardQueries.size(); i++) {
+            int shardIndex = i;
+            CancellableQuery<T> shardQuery = shardQueries.get(i);
+            shardFutures.add(completionService.submit(() -> new ShardResult<>(shardIndex,
+                    shardQuery.execute())));
+        }
+        List<List<T>> shardResults = new ArrayList<>(Collections.nCopies(shardQueries.size(),
+                Collections.<T>emptyList()));
+        List<T> unorderedResults = new LinkedList<>();
+        try {
+            int completedCount = 0;
+            while(completedCount < shardQueries.size()) {
+                cancellableQuery.checkCancelled();
+                Future<ShardResult<T>> completedFuture = completionService.poll(CANCEL_POLL_INTERVAL_MILLIS,
+                        TimeUnit.MILLISECONDS);
+                if(completedFuture == null) {
+                    continue;
+                }
+                completedCount++;
+                ShardResult<T> shardResult = retrieveShardResult(completedFuture);
+                if(comparator == null) {
+                    unorderedResults.addAll(shardResult.results);
+                    if(unorderedResults.size() >= queryLimit) {
+                        LOGGER.debug(String.format("query limit %d reached "
+                                + "after %d of %d storages, cancelling the "
+                                + "remaining storage queries",
+                                queryLimit,
+                                completedCount,
+                                shardQueries.size()));
+                        break;
+                    }
+                }else {
+                    List<T> sortedResults = new ArrayList<>(shardResult.results);
+                    sortedResults.sort(comparator);
+                    shardResults.set(shardResult.shardIndex,
+                            sortedResults);
+                }
+            }
+        }catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new QueryCancelledException("interrupted while waiting for "
+                    + "storage queries",
+                    false, //timeout
+                    ex);
+        }finally {
+            //has no effect on finished queries
+            for(CancellableQuery<T> shardQuery : shardQueries) {
+                shardQuery.cancel();
+            }
+            for(Future<ShardResult<T>> shardFuture : shardFutures) {
+                shardFuture.cancel(false //mayInterruptIfRunning
+                );
+                    //avoids that queued storage queries are started
+            }
+        }
+        if(comparator == null) {
+            return unorderedResults.size() > queryLimit
+                    ? new ArrayList<>(unorderedResults.subList(0, queryLimit))
+                    : unorderedResults;
+        }
+        return merge(shardResults,
+                comparator,
+                queryLimit);
+    }
+
+    private <T> ShardResult<T> retrieveShardResult(Future<ShardResult<T>> shardFuture) throws StorageException, InterruptedException {
+        try {
+            return shardFuture.get();
+        }catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof StorageException) {
+                throw (StorageException) cause;
+            }
+            throw new StorageException(cause);
+        }
+    }
+
+    /**
+     * Shuts down the threads running storage queries. Doesn't shut down the
+     * storages.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class ShardResult<T> {
+        private final int shardIndex;
+        private final List<T> results;
+
+        ShardResult(int shardIndex,
+                List<T> results) {
+            this.shardIndex = shardIndex;
+            this.results = results;
+        }
+    }
+
+    private static class MergeCursor<T> {
+        private final int listIndex;
+        private final Iterator<T> itr;
+        private T head;
+
+        MergeCursor(int listIndex,
+                Iterator<T> itr) {
+            this.listIndex = listIndex;
+            this.itr = itr;
+            this.head = itr.next();
+        }
+
+        boolean advance() {
+            if(!itr.hasNext()) {
+                return false;
+            }
+            head = itr.next();
+            return true;
+        }
+    }
+}
@@ -27,6 +27,10 @@ internal implementation notes:
  * Note that initializing fields through reflection doesn't work in Hibernate
  * 5.0.11.Final, maybe in Hibernate or JPA in general.
  *
+ * Entities of a {@link PersistenceStorage} are detached, so that
+ * initializers should be invoked through
+ * {@link PersistenceStorage#initialize(java.lang.Object, de.richtercloud.reflection.form.builder.jpa.storage.FieldInitializer) }.
+ *
  * @author richter
  */
 public interface FieldInitializer {
@@ -0,0 +1,57 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a keyset paginated query result.
+ *
+ * @author richter
+ * @param <T> the type of results
+ */
+public class KeysetPage<T> {
+    private final List<T> results;
+    private final KeysetToken continuationToken;
+
+    /**
+     * Creates a new {@code KeysetPage}.
+     * @param results the results of the page
+     * @param continuationToken the token to pass in order to retrieve the next
+     *     page or {@code null} if this is the last page
+     */
+    public KeysetPage(List<T> results,
+            KeysetToken continuationToken) {
+        this.results = results;
+        this.continuationToken = continuationToken;
+    }
+
+    public List<T> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * The token to retrieve the next page.
+     * @return the continuation token or {@code null} if this is the last page
+     */
+    public KeysetToken getContinuationToken() {
+        return continuationToken;
+    }
+
+    public boolean isLastPage() {
+        return continuationToken == null;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The continuation token of a keyset (seek) paginated query which holds the
+ * sort key and the id of the last entity of a page. The next page starts after
+ * the entity described by the token.
+ *
+ * @author richter
+ */
+public class KeysetToken implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final Object lastSortKey;
+    private final Object lastId;
+
+    public KeysetToken(Object lastSortKey,
+            Object lastId) {
+        if(lastSortKey == null) {
+            throw new IllegalArgumentException("lastSortKey mustn't be null");
+        }
+        if(lastId == null) {
+            throw new IllegalArgumentException("lastId mustn't be null");
+        }
+        this.lastSortKey = lastSortKey;
+        this.lastId = lastId;
+    }
+
+    public Object getLastSortKey() {
+        return lastSortKey;
+    }
+
+    public Object getLastId() {
+        return lastId;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 59 * hash + Objects.hashCode(this.lastSortKey);
+        hash = 59 * hash + Objects.hashCode(this.lastId);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final KeysetToken other = (KeysetToken) obj;
+        if (!Objects.equals(this.lastSortKey, other.lastSortKey)) {
+            return false;
+        }
+        return Objects.equals(this.lastId, other.lastId);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("KeysetToken[lastSortKey=%s, lastId=%s]",
+                lastSortKey,
+                lastId);
+    }
+}
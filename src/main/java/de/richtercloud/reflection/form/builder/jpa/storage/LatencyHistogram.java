@@ -0,0 +1,107 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+internal implementation notes:
+- buckets with exponentially growing bounds keep memory constant and recording
+lock-free at the cost of a relative error of percentiles of at most factor 2
+which is sufficient to spot degradations
+- the count of a snapshot is computed from the buckets rather than from a
+separate counter in order to keep percentiles consistent with it; the total
+and maximum might be slightly ahead of the buckets during concurrent recording
+*/
+/**
+ * A thread-safe histogram of latencies with bucket {@code i > 0} covering
+ * {@code [2^(i-1), 2^i)} microseconds and bucket 0 covering everything below
+ * one microsecond.
+ *
+ * @author richter
+ */
+public class LatencyHistogram {
+    public final static int BUCKET_COUNT = 40;
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Figures out the index of the bucket {@code durationNanos} is counted
+     * in.
+     * @param durationNanos the duration in nanoseconds
+     * @return the bucket index
+     */
+    public static int retrieveBucketIndex(long durationNanos) {
+        long durationMicros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+        if(durationMicros <= 0) {
+            return 0;
+        }
+        return Math.min(Long.SIZE-Long.numberOfLeadingZeros(durationMicros),
+                BUCKET_COUNT-1);
+    }
+
+    /**
+     * The exclusive upper bound of the bucket with index {@code bucketIndex}.
+     * @param bucketIndex the bucket index
+     * @return the upper bound in nanoseconds
+     */
+    public static long retrieveBucketUpperBoundNanos(int bucketIndex) {
+        if(bucketIndex < 0 || bucketIndex >= BUCKET_COUNT) {
+            throw new IllegalArgumentException(String.format("bucketIndex has "
+                    + "to be >= 0 and < %d",
+                    BUCKET_COUNT));
+        }
+        return TimeUnit.MICROSECONDS.toNanos(1L << bucketIndex);
+    }
+
+    /**
+     * Records a duration. Negative durations (caused by a non-monotonic clock)
+     * are recorded as 0.
+     * @param durationNanos the duration in nanoseconds
+     */
+    public void record(long durationNanos) {
+        long durationNanos0 = Math.max(0, durationNanos);
+        bucketCounts.incrementAndGet(retrieveBucketIndex(durationNanos0));
+        totalNanos.add(durationNanos0);
+        maxNanos.accumulateAndGet(durationNanos0,
+                Math::max);
+    }
+
+    public LatencySnapshot snapshot() {
+        long[] bucketCountsCopy = new long[BUCKET_COUNT];
+        for(int i=0; i<BUCKET_COUNT; i++) {
+            bucketCountsCopy[i] = bucketCounts.get(i);
+        }
+        return new LatencySnapshot(totalNanos.sum(),
+                maxNanos.get(),
+                bucketCountsCopy);
+    }
+
+    /**
+     * Discards all recorded durations. Durations recorded concurrently might
+     * be discarded partially.
+     */
+    public void reset() {
+        for(int i=0; i<BUCKET_COUNT; i++) {
+            bucketCounts.set(i, 0);
+        }
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.beans.ConstructorProperties;
+import java.util.Arrays;
+
+/*
+internal implementation notes:
+- the getters are mapped to items of a CompositeData by the MXBean framework,
+so that percentiles which are relevant for monitoring are provided as getters
+and @ConstructorProperties allows to reconstruct instances in MXBean proxies
+*/
+/**
+ * An immutable copy of the state of a {@link LatencyHistogram}.
+ *
+ * @author richter
+ */
+public class LatencySnapshot {
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] bucketCounts;
+
+    @ConstructorProperties({"totalNanos", "maxNanos", "bucketCounts"})
+    public LatencySnapshot(long totalNanos,
+            long maxNanos,
+            long[] bucketCounts) {
+        if(bucketCounts.length != LatencyHistogram.BUCKET_COUNT) {
+            throw new IllegalArgumentException(String.format("bucketCounts "
+                    + "has to have length %d",
+                    LatencyHistogram.BUCKET_COUNT));
+        }
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.bucketCounts = Arrays.copyOf(bucketCounts,
+                bucketCounts.length);
+        long count = 0;
+        for(long bucketCount : bucketCounts) {
+            count += bucketCount;
+        }
+        this.count = count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * The mean duration.
+     * @return the mean duration in nanoseconds or 0 if nothing has been
+     *     recorded
+     */
+    public long getMeanNanos() {
+        if(count == 0) {
+            return 0;
+        }
+        return totalNanos/count;
+    }
+
+    public long getP50Nanos() {
+        return retrievePercentileNanos(0.5);
+    }
+
+    public long getP90Nanos() {
+        return retrievePercentileNanos(0.9);
+    }
+
+    public long getP99Nanos() {
+        return retrievePercentileNanos(0.99);
+    }
+
+    public long[] getBucketCounts() {
+        return Arrays.copyOf(bucketCounts,
+                bucketCounts.length);
+    }
+
+    /**
+     * Estimates the percentile {@code percentile} as the upper bound of the
+     * bucket it falls into capped at the maximum recorded duration.
+     * @param percentile the percentile between 0 (exclusive) and 1
+     *     (inclusive)
+     * @return the estimated percentile in nanoseconds or 0 if nothing has
+     *     been recorded
+     */
+    public long retrievePercentileNanos(double percentile) {
+        if(percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile has to be > 0 and "
+                    + "<= 1");
+        }
+        if(count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile*count);
+        long cumulativeCount = 0;
+        for(int i=0; i<bucketCounts.length; i++) {
+            cumulativeCount += bucketCounts[i];
+            if(cumulativeCount >= rank) {
+                return Math.min(LatencyHistogram.retrieveBucketUpperBoundNanos(i),
+                        maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count: %d, mean: %d ns, p50: %d ns, p99: %d ns, "
+                + "max: %d ns",
+                count,
+                getMeanNanos(),
+                getP50Nanos(),
+                getP99Nanos(),
+                maxNanos);
+    }
+}
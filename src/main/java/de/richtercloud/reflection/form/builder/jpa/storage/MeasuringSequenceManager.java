@@ -0,0 +1,79 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManagementException;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManager;
+
+/**
+ * Records calls to a {@link SequenceManager} as
+ * {@link StorageOperation#SEQUENCE} in {@link StorageMetrics}.
+ *
+ * @author richter
+ */
+class MeasuringSequenceManager implements SequenceManager<Long> {
+    private final SequenceManager<Long> delegate;
+    private final StorageMetrics storageMetrics;
+
+    MeasuringSequenceManager(SequenceManager<Long> delegate,
+            StorageMetrics storageMetrics) {
+        this.delegate = delegate;
+        this.storageMetrics = storageMetrics;
+    }
+
+    @Override
+    public boolean checkSequenceExists(String sequenceName) throws SequenceManagementException {
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            boolean retValue = delegate.checkSequenceExists(sequenceName);
+            failed = false;
+            return retValue;
+        }finally {
+            storageMetrics.recordOperation(StorageOperation.SEQUENCE,
+                    System.nanoTime()-startNanos,
+                    failed);
+        }
+    }
+
+    @Override
+    public void createSequence(String sequenceName) throws SequenceManagementException {
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.createSequence(sequenceName);
+            failed = false;
+        }finally {
+            storageMetrics.recordOperation(StorageOperation.SEQUENCE,
+                    System.nanoTime()-startNanos,
+                    failed);
+        }
+    }
+
+    @Override
+    public Long getNextSequenceValue(String sequenceName) throws SequenceManagementException {
+        long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            Long retValue = delegate.getNextSequenceValue(sequenceName);
+            failed = false;
+            return retValue;
+        }finally {
+            storageMetrics.recordOperation(StorageOperation.SEQUENCE,
+                    System.nanoTime()-startNanos,
+                    failed);
+        }
+    }
+}
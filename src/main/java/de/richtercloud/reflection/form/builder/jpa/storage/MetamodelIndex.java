@@ -0,0 +1,499 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import javax.persistence.EntityListeners;
+import javax.persistence.ManyToMany;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.PostUpdate;
+import javax.persistence.PreUpdate;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.IdentifiableType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- all maps and sets are unmodifiable and filled completely in create before
+the instance is published, so that the index can be shared between threads
+without synchronization
+- mappedBy isn't part of the JPA metamodel and is read from the annotations of
+the attributes' fields; attributes with property access (whose member is a
+getter) don't have fields and aren't part of mappedBy pairs and mapped field
+candidates
+- mapped field candidates follow the documentation of
+QueryPanel.retrieveMappedFieldCandidates and
+ReflectionFormBuilderHelperJPA.retrieveMappedFieldCandidates: an association
+of an entity class is a candidate if its target has an association back to a
+type which the entity class is assignable to (or which is assignable to the
+entity class in order to support inheritance on both sides)
+*/
+/**
+ * An immutable index of the entity types, id attributes, attribute kinds,
+ * association targets and {@code mappedBy} pairs of a persistence unit which
+ * is created once from the {@link Metamodel} when the storage is started (see
+ * {@link PersistenceStorage#getMetamodelIndex() }) and answers lookups in
+ * constant time. Lookups for classes which aren't entities throw
+ * {@link IllegalArgumentException} like {@link Metamodel#entity(java.lang.Class) }.
+ *
+ * @author richter
+ */
+public final class MetamodelIndex {
+    private final static Logger LOGGER = LoggerFactory.getLogger(MetamodelIndex.class);
+
+    /**
+     * Creates the index of all entity types of {@code metamodel}.
+     * @param metamodel the metamodel to index
+     * @param entityClasses the entity classes of the storage configuration
+     *     which are checked to be part of the metamodel (missing ones are
+     *     logged since they're not supported by the storage)
+     * @return the new index
+     */
+    public static MetamodelIndex create(Metamodel metamodel,
+            Set<Class<?>> entityClasses) {
+        Map<Class<?>, EntityInfo> entityInfos = new HashMap<>();
+        for(EntityType<?> entityType : metamodel.getEntities()) {
+            entityInfos.put(entityType.getJavaType(),
+                    new EntityInfo(entityType));
+        }
+        for(Class<?> entityClass : entityClasses) {
+            if(!entityInfos.containsKey(entityClass)) {
+                LOGGER.warn(String.format("entity class %s of the storage "
+                        + "configuration isn't part of the metamodel of the "
+                        + "persistence unit",
+                        entityClass.getName()));
+            }
+        }
+        Map<Field, Field> mappedByCounterparts = new HashMap<>();
+        for(EntityInfo entityInfo : entityInfos.values()) {
+            entityInfo.resolve(entityInfos,
+                    mappedByCounterparts);
+        }
+        return new MetamodelIndex(entityInfos,
+                mappedByCounterparts);
+    }
+
+    private final Map<Class<?>, EntityInfo> entityInfos;
+    /**
+     * Maps both the owning and the inverse field of every {@code mappedBy}
+     * pair to the respective other one.
+     */
+    private final Map<Field, Field> mappedByCounterparts;
+
+    private MetamodelIndex(Map<Class<?>, EntityInfo> entityInfos,
+            Map<Field, Field> mappedByCounterparts) {
+        this.entityInfos = Collections.unmodifiableMap(entityInfos);
+        this.mappedByCounterparts = Collections.unmodifiableMap(mappedByCounterparts);
+    }
+
+    /**
+     * Whether {@code clazz} is an entity of the persistence unit.
+     * @param clazz the class to check
+     * @return {@code true} if {@code clazz} is an entity, {@code false}
+     *     otherwise
+     */
+    public boolean isEntity(Class<?> clazz) {
+        return entityInfos.containsKey(clazz);
+    }
+
+    public Set<Class<?>> getEntityClasses() {
+        return entityInfos.keySet();
+    }
+
+    /**
+     * The name of {@code entityClass} used in JPQL queries.
+     * @param entityClass the entity class
+     * @return the entity name
+     */
+    public String getEntityName(Class<?> entityClass) {
+        return retrieveEntityInfo(entityClass).entityName;
+    }
+
+    /**
+     * A pattern which finds the entity name of {@code entityClass} as a whole
+     * word in query texts. It's compiled once when the index is created.
+     * @param entityClass the entity class
+     * @return the pattern
+     */
+    public Pattern getEntityNamePattern(Class<?> entityClass) {
+        return retrieveEntityInfo(entityClass).entityNamePattern;
+    }
+
+    /**
+     * The root of the entity hierarchy {@code entityClass} belongs to, i.e.
+     * the topmost entity class (mapped superclasses aren't part of the
+     * entity hierarchy).
+     * @param entityClass the entity class
+     * @return the root entity class which might be {@code entityClass}
+     */
+    public Class<?> getRootEntityClass(Class<?> entityClass) {
+        return retrieveEntityInfo(entityClass).rootEntityClass;
+    }
+
+    /**
+     * The name of the id attribute of {@code entityClass} if it has a single
+     * id attribute (including embedded ids).
+     * @param entityClass the entity class
+     * @return the name of the id attribute or {@code null} if
+     *     {@code entityClass} uses an id class
+     */
+    public String getIdAttributeName(Class<?> entityClass) {
+        return retrieveEntityInfo(entityClass).idAttributeName;
+    }
+
+    /**
+     * The names of the attributes of {@code entityClass} which make up its id
+     * class.
+     * @param entityClass the entity class
+     * @return the attribute names or an empty list if {@code entityClass}
+     *     has a single id attribute
+     */
+    public List<String> getIdClassAttributeNames(Class<?> entityClass) {
+        return retrieveEntityInfo(entityClass).idClassAttributeNames;
+    }
+
+    /**
+     * The kinds of all attributes of {@code entityClass} including inherited
+     * ones.
+     * @param entityClass the entity class
+     * @return the map of attribute names and kinds
+     */
+    public Map<String, PersistentAttributeType> getAttributeKinds(Class<?> entityClass) {
+        return retrieveEntityInfo(entityClass).attributeKinds;
+    }
+
+    /**
+     * The field or getter of the attribute {@code attributeName} of
+     * {@code entityClass}.
+     * @param entityClass the entity class
+     * @param attributeName the attribute name
+     * @return the member or {@code null} if {@code entityClass} doesn't have
+     *     an attribute with that name
+     */
+    public Member getAttributeMember(Class<?> entityClass,
+            String attributeName) {
+        return retrieveEntityInfo(entityClass).attributeMembers.get(attributeName);
+    }
+
+    /**
+     * Whether attributes of {@code entityClass} can be written with a JPQL
+     * bulk {@code UPDATE} without bypassing JPA features, i.e. whether it has
+     * a single id attribute, no version attribute and no {@code PreUpdate} or
+     * {@code PostUpdate} callbacks or entity listeners. Default entity
+     * listeners specified in {@code orm.xml} aren't detected.
+     * @param entityClass the entity class
+     * @return {@code true} if bulk updates are supported, {@code false}
+     *     otherwise
+     */
+    public boolean supportsBulkUpdate(Class<?> entityClass) {
+        return retrieveEntityInfo(entityClass).bulkUpdateSupported;
+    }
+
+    /**
+     * The target entity classes of the {@code OneToOne} and {@code ManyToOne}
+     * associations of {@code entityClass}.
+     * @param entityClass the entity class
+     * @return the map of attribute names and target classes
+     */
+    public Map<String, Class<?>> getToOneTargets(Class<?> entityClass) {
+        return retrieveEntityInfo(entityClass).toOneTargets;
+    }
+
+    /**
+     * The element entity classes of the {@code OneToMany} and
+     * {@code ManyToMany} associations of {@code entityClass}.
+     * @param entityClass the entity class
+     * @return the map of attribute names and target classes
+     */
+    public Map<String, Class<?>> getToManyTargets(Class<?> entityClass) {
+        return retrieveEntityInfo(entityClass).toManyTargets;
+    }
+
+    /**
+     * The other side of the bidirectional association {@code field} belongs
+     * to if it's specified with {@code mappedBy}.
+     * @param field the owning or inverse field of the association
+     * @return the field of the other side or {@code null} if {@code field}
+     *     isn't part of an association with {@code mappedBy}
+     */
+    public Field getMappedByCounterpart(Field field) {
+        return mappedByCounterparts.get(field);
+    }
+
+    /**
+     * Whether {@code field} is the inverse side of an association which
+     * specifies the owning side with {@code mappedBy}.
+     * @param field the field to check
+     * @return {@code true} if {@code field} declares {@code mappedBy},
+     *     {@code false} otherwise
+     */
+    public boolean isMappedBy(Field field) {
+        EntityInfo entityInfo = entityInfos.get(field.getDeclaringClass());
+        if(entityInfo != null) {
+            return entityInfo.mappedByFields.contains(field);
+        }
+        //field might be declared in a mapped superclass
+        for(EntityInfo candidate : entityInfos.values()) {
+            if(candidate.mappedByFields.contains(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The fields of the {@code OneToOne} and {@code ManyToOne} associations
+     * of {@code entityClass} whose target has an association back to
+     * {@code entityClass}.
+     * @param entityClass the entity class
+     * @return the candidate fields
+     */
+    public Set<Field> getToOneMappedFieldCandidates(Class<?> entityClass) {
+        return retrieveEntityInfo(entityClass).toOneMappedFieldCandidates;
+    }
+
+    /**
+     * The fields of the {@code OneToMany} and {@code ManyToMany} associations
+     * of {@code entityClass} whose element type has a {@code ManyToOne} or
+     * {@code ManyToMany} association back to {@code entityClass}.
+     * @param entityClass the entity class
+     * @return the candidate fields
+     */
+    public Set<Field> getToManyMappedFieldCandidates(Class<?> entityClass) {
+        return retrieveEntityInfo(entityClass).toManyMappedFieldCandidates;
+    }
+
+    private EntityInfo retrieveEntityInfo(Class<?> entityClass) {
+        EntityInfo retValue = entityInfos.get(entityClass);
+        if(retValue == null) {
+            throw new IllegalArgumentException(String.format("%s isn't an "
+                    + "entity of the persistence unit",
+                    entityClass));
+        }
+        return retValue;
+    }
+
+    private static boolean isToOne(PersistentAttributeType attributeKind) {
+        return attributeKind == PersistentAttributeType.ONE_TO_ONE
+                || attributeKind == PersistentAttributeType.MANY_TO_ONE;
+    }
+
+    private static boolean isToMany(PersistentAttributeType attributeKind) {
+        return attributeKind == PersistentAttributeType.ONE_TO_MANY
+                || attributeKind == PersistentAttributeType.MANY_TO_MANY;
+    }
+
+    private static boolean isRelated(Class<?> clazz,
+            Class<?> otherClass) {
+        return clazz.isAssignableFrom(otherClass)
+                || otherClass.isAssignableFrom(clazz);
+    }
+
+    /**
+     * The index entries of one entity class. The fields of the second pass
+     * (see {@link #resolve(java.util.Map, java.util.Map) }) are set before
+     * the index is published.
+     */
+    private static class EntityInfo {
+        private final Class<?> entityClass;
+        private final String entityName;
+        private final Pattern entityNamePattern;
+        private final Class<?> rootEntityClass;
+        private final String idAttributeName;
+        private final List<String> idClassAttributeNames;
+        private final Map<String, PersistentAttributeType> attributeKinds;
+        private final Map<String, Class<?>> toOneTargets;
+        private final Map<String, Class<?>> toManyTargets;
+        /**
+         * The fields of the attributes of the entity class.
+         */
+        private final Map<String, Field> attributeFields;
+        private final Map<String, Member> attributeMembers;
+        private final Set<Field> mappedByFields;
+        private final boolean bulkUpdateSupported;
+        private Set<Field> toOneMappedFieldCandidates;
+        private Set<Field> toManyMappedFieldCandidates;
+
+        EntityInfo(EntityType<?> entityType) {
+            this.entityClass = entityType.getJavaType();
+            this.entityName = entityType.getName();
+            this.entityNamePattern = Pattern.compile(String.format("\\b%s\\b",
+                    Pattern.quote(entityName)));
+            IdentifiableType<?> rootType = entityType;
+            while(rootType.getSupertype() instanceof EntityType) {
+                //mapped superclasses aren't part of the entity hierarchy
+                rootType = rootType.getSupertype();
+            }
+            this.rootEntityClass = rootType.getJavaType();
+            if(entityType.hasSingleIdAttribute()) {
+                this.idAttributeName = entityType.getId(entityType.getIdType().getJavaType()).getName();
+                this.idClassAttributeNames = Collections.emptyList();
+            }else {
+                this.idAttributeName = null;
+                List<String> idClassAttributeNames = new ArrayList<>();
+                for(SingularAttribute<?, ?> idAttribute : entityType.getIdClassAttributes()) {
+                    idClassAttributeNames.add(idAttribute.getName());
+                }
+                this.idClassAttributeNames = Collections.unmodifiableList(idClassAttributeNames);
+            }
+            Map<String, PersistentAttributeType> attributeKinds = new LinkedHashMap<>();
+            Map<String, Class<?>> toOneTargets = new LinkedHashMap<>();
+            Map<String, Class<?>> toManyTargets = new LinkedHashMap<>();
+            Map<String, Field> attributeFields = new HashMap<>();
+            Map<String, Member> attributeMembers = new HashMap<>();
+            Set<Field> mappedByFields = new HashSet<>();
+            for(Attribute<?, ?> attribute : entityType.getAttributes()) {
+                PersistentAttributeType attributeKind = attribute.getPersistentAttributeType();
+                attributeKinds.put(attribute.getName(),
+                        attributeKind);
+                if(isToOne(attributeKind)) {
+                    toOneTargets.put(attribute.getName(),
+                            attribute.getJavaType());
+                }else if(isToMany(attributeKind)) {
+                    toManyTargets.put(attribute.getName(),
+                            ((PluralAttribute<?, ?, ?>)attribute).getElementType().getJavaType());
+                }
+                Member member = attribute.getJavaMember();
+                attributeMembers.put(attribute.getName(),
+                        member);
+                if(member instanceof Field) {
+                    Field field = (Field) member;
+                    attributeFields.put(attribute.getName(),
+                            field);
+                    if(!retrieveMappedBy(field).isEmpty()) {
+                        mappedByFields.add(field);
+                    }
+                }
+            }
+            this.attributeKinds = Collections.unmodifiableMap(attributeKinds);
+            this.toOneTargets = Collections.unmodifiableMap(toOneTargets);
+            this.toManyTargets = Collections.unmodifiableMap(toManyTargets);
+            this.attributeFields = Collections.unmodifiableMap(attributeFields);
+            this.attributeMembers = Collections.unmodifiableMap(attributeMembers);
+            this.mappedByFields = Collections.unmodifiableSet(mappedByFields);
+            this.bulkUpdateSupported = idAttributeName != null
+                    && !entityType.hasVersionAttribute()
+                    && !hasUpdateCallbacks(entityClass);
+        }
+
+        private static boolean hasUpdateCallbacks(Class<?> entityClass) {
+            Class<?> classPointer = entityClass;
+            while(classPointer != null
+                    && !classPointer.equals(Object.class)) {
+                if(classPointer.getDeclaredAnnotation(EntityListeners.class) != null) {
+                    return true;
+                }
+                for(Method method : classPointer.getDeclaredMethods()) {
+                    if(method.getDeclaredAnnotation(PreUpdate.class) != null
+                            || method.getDeclaredAnnotation(PostUpdate.class) != null) {
+                        return true;
+                    }
+                }
+                classPointer = classPointer.getSuperclass();
+            }
+            return false;
+        }
+
+        /**
+         * Resolves {@code mappedBy} pairs and mapped field candidates which
+         * require the entries of the targets of associations.
+         * @param entityInfos the entries of all entity classes
+         * @param mappedByCounterparts the map to add {@code mappedBy} pairs
+         *     to
+         */
+        void resolve(Map<Class<?>, EntityInfo> entityInfos,
+                Map<Field, Field> mappedByCounterparts) {
+            Set<Field> toOneMappedFieldCandidates = new HashSet<>();
+            Set<Field> toManyMappedFieldCandidates = new HashSet<>();
+            for(Map.Entry<String, Field> attributeField : attributeFields.entrySet()) {
+                String attributeName = attributeField.getKey();
+                Field field = attributeField.getValue();
+                PersistentAttributeType attributeKind = attributeKinds.get(attributeName);
+                Class<?> targetClass = isToOne(attributeKind)
+                        ? toOneTargets.get(attributeName)
+                        : toManyTargets.get(attributeName);
+                if(targetClass == null) {
+                    //not an association
+                    continue;
+                }
+                EntityInfo targetInfo = entityInfos.get(targetClass);
+                if(targetInfo == null) {
+                    continue;
+                }
+                if(mappedByFields.contains(field)) {
+                    Field owningField = targetInfo.attributeFields.get(retrieveMappedBy(field));
+                    if(owningField != null) {
+                        mappedByCounterparts.put(field,
+                                owningField);
+                        mappedByCounterparts.put(owningField,
+                                field);
+                    }
+                }
+                for(Map.Entry<String, PersistentAttributeType> targetAttributeKind : targetInfo.attributeKinds.entrySet()) {
+                    PersistentAttributeType backKind = targetAttributeKind.getValue();
+                    if(isToOne(attributeKind) && isToOne(backKind)
+                            && isRelated(targetInfo.toOneTargets.get(targetAttributeKind.getKey()),
+                                    entityClass)) {
+                        toOneMappedFieldCandidates.add(field);
+                    }else if(isToMany(attributeKind)
+                            && (backKind == PersistentAttributeType.MANY_TO_ONE
+                                    && isRelated(targetInfo.toOneTargets.get(targetAttributeKind.getKey()),
+                                            entityClass)
+                                || backKind == PersistentAttributeType.MANY_TO_MANY
+                                    && isRelated(targetInfo.toManyTargets.get(targetAttributeKind.getKey()),
+                                            entityClass))) {
+                        toManyMappedFieldCandidates.add(field);
+                    }
+                }
+            }
+            this.toOneMappedFieldCandidates = Collections.unmodifiableSet(toOneMappedFieldCandidates);
+            this.toManyMappedFieldCandidates = Collections.unmodifiableSet(toManyMappedFieldCandidates);
+        }
+
+        private static String retrieveMappedBy(Field field) {
+            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+            if(oneToOne != null) {
+                return oneToOne.mappedBy();
+            }
+            OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+            if(oneToMany != null) {
+                return oneToMany.mappedBy();
+            }
+            ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+            if(manyToMany != null) {
+                return manyToMany.mappedBy();
+            }
+            return "";
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.Map;
+import java.util.regex.Pattern;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -56,6 +57,12 @@ public class MySQLAutoPersistenceStorage extends AbstractProcessPersistenceStora
     private final static String COMMAND_FAILED_TEMPLATE = "command '%s' failed with returncode %d";
     private final static String SOCKET_TEMPLATE = "--socket=%s";
     private final static String USER_TEMPLATE = "--user=root";
+    /**
+     * The line logged by {@code mysqld} once it listens on the configured
+     * port (the error log goes to stderr since {@code my.cnf} doesn't specify
+     * {@code log-error}).
+     */
+    private final static Pattern READY_LINE_PATTERN = Pattern.compile("ready for connections");
 
     public MySQLAutoPersistenceStorage(MySQLAutoPersistenceStorageConf storageConf,
             String persistenceUnitName,
@@ -77,6 +84,11 @@ public class MySQLAutoPersistenceStorage extends AbstractProcessPersistenceStora
         return new MySQLSequenceManager(this);
     }
 
+    @Override
+    protected Pattern getReadyLinePattern() {
+        return READY_LINE_PATTERN;
+    }
+
     @Override
     protected void preCreation() throws IOException {
         assert getStorageConf() != null: "storage configuration mustn't be null";
@@ -171,25 +183,26 @@ public class MySQLAutoPersistenceStorage extends AbstractProcessPersistenceStora
             //isn't set yet
             //specification of --host causes failure here (but
             //succeeds after the password has been set)
-        Process mysqladminProcess = null;
-        int mysqladminTries = 0;
-        int mysqladminTriesMax = 5;
-        while(mysqladminTries < mysqladminTriesMax) {
-            LOGGER.debug(String.format(RUNNING_COMMAND_TEMPLATE,
-                    mysqladminProcessBuilder.command().toString()));
-            mysqladminProcess = mysqladminProcessBuilder.start();
-            mysqladminProcess.waitFor();
-            IOUtils.copy(mysqladminProcess.getInputStream(), System.out);
-            IOUtils.copy(mysqladminProcess.getErrorStream(), System.err);
-            if(mysqladminProcess.exitValue() == 0) {
-                break;
-            }
-            mysqladminTries += 1;
-            LOGGER.debug("sleeping 0.5 s to wait for mysqld to be available");
-            Thread.sleep(500);
-        }
-        if(mysqladminTries == mysqladminTriesMax) {
-            throw new StorageCreationException(String.format("command '%s' failed 5 times (last time with returncode %d)", mysqladminProcessBuilder.command(), mysqladminProcess.exitValue()));
+        try {
+            ProcessBuilder mysqladminPasswordProcessBuilder = mysqladminProcessBuilder;
+            waitForServerToBeUp(() -> {
+                LOGGER.debug(String.format(RUNNING_COMMAND_TEMPLATE,
+                        mysqladminPasswordProcessBuilder.command().toString()));
+                Process mysqladminPasswordProcess = mysqladminPasswordProcessBuilder.start();
+                mysqladminPasswordProcess.waitFor();
+                IOUtils.copy(mysqladminPasswordProcess.getInputStream(), System.out);
+                IOUtils.copy(mysqladminPasswordProcess.getErrorStream(), System.err);
+                if(mysqladminPasswordProcess.exitValue() != 0) {
+                    return new Exception(String.format(COMMAND_FAILED_TEMPLATE,
+                            mysqladminPasswordProcessBuilder.command(),
+                            mysqladminPasswordProcess.exitValue()));
+                }
+                return null;
+            },
+                    "mysqladmin password command");
+        }catch(ServerStartTimeoutException ex) {
+            shutdown();
+            throw new StorageCreationException(ex);
         }
         //create database
         mysqladminProcessBuilder = new ProcessBuilder(getStorageConf().getMysqladmin(),
@@ -200,7 +213,7 @@ public class MySQLAutoPersistenceStorage extends AbstractProcessPersistenceStora
                 "create", getStorageConf().getDatabaseName());
         LOGGER.debug(String.format(RUNNING_COMMAND_TEMPLATE,
                 mysqladminProcessBuilder.command().toString()));
-        mysqladminProcess = mysqladminProcessBuilder.start();
+        Process mysqladminProcess = mysqladminProcessBuilder.start();
         mysqladminProcess.waitFor();
         IOUtils.copy(mysqladminProcess.getInputStream(), System.out);
         IOUtils.copy(mysqladminProcess.getErrorStream(), System.err);
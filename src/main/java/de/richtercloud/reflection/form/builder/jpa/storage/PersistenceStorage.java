@@ -14,10 +14,18 @@
  */
 package de.richtercloud.reflection.form.builder.jpa.storage;
 
+import de.richtercloud.reflection.form.builder.fieldhandler.FieldHandlingException;
 import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManager;
 import de.richtercloud.reflection.form.builder.storage.Storage;
 import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 import javax.persistence.EntityManager;
 
 /*
@@ -49,16 +57,496 @@ SequenceManager and PersistenceStorage
  */
 public interface PersistenceStorage<T> extends Storage<Object, AbstractPersistenceStorageConf>, SequenceManager<T> {
 
+    /**
+     * Stores all of {@code objects} in one transaction using batching.
+     * @param objects the objects to store
+     * @throws StorageException if an exception occurs during storage in which
+     *     case none of the objects is stored
+     */
+    void storeAll(Collection<?> objects) throws StorageException;
+
+    /**
+     * Updates all of {@code objects} in one transaction using batching.
+     * @param objects the objects to update
+     * @throws StorageException if an exception occurs during storage in which
+     *     case none of the objects is updated
+     */
+    void updateAll(Collection<?> objects) throws StorageException;
+
+    /**
+     * Updates only the attributes {@code attributeNames} of {@code object},
+     * e.g. the ones changed in a form, which avoids writing unchanged columns.
+     * Implementations may perform a full update (see
+     * {@link #update(java.lang.Object) }) if a partial update isn't possible.
+     * The caller has to make sure that {@code attributeNames} contains all
+     * changed attributes. Performs a full update if {@code attributeNames}
+     * is empty since changes might have been made without being tracked.
+     * The default implementation performs a full update.
+     * @param object the object to update
+     * @param attributeNames the names of the changed attributes
+     * @throws StorageException if an exception occurs during the update
+     */
+    default void update(Object object,
+            Set<String> attributeNames) throws StorageException {
+        update(object);
+    }
+
+    /**
+     * Updates {@code object} either synchronously or - if the implementation
+     * supports and has enabled write-behind - by queuing the update and
+     * writing it later together with other updates. Queued updates of the
+     * same entity are coalesced. Use this for updates nobody waits for, e.g.
+     * of the other side of relationships changed in a form.
+     * The default implementation updates synchronously.
+     * @param object the object to update
+     * @throws StorageException if an exception occurs during a synchronous
+     *     update
+     */
+    default void scheduleUpdate(Object object) throws StorageException {
+        update(object);
+    }
+
+    /**
+     * Blocks until all updates scheduled with
+     * {@link #scheduleUpdate(java.lang.Object) } before the invocation have
+     * been written. Returns immediately if write-behind is disabled.
+     * The default implementation returns immediately.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    default void flushScheduledUpdates() throws InterruptedException {
+        //nothing to wait for since the default implementation of
+        //scheduleUpdate updates synchronously
+    }
+
+    /**
+     * Warms up the started storage on a background thread so that the first
+     * queries of the user don't pay for opening connections and translating
+     * queries. Returns immediately and never blocks
+     * the event dispatch thread.
+     * The default implementation doesn't warm up anything and returns a
+     * completed future.
+     * @param querySource the source of queries to translate, e.g. the most
+     *     used queries of the query history, or {@code null}
+     * @param listener the listener to notify about the progress or
+     *     {@code null}
+     * @return a future which is completed when the warm-up finished
+     */
+    default CompletableFuture<Void> warmUp(WarmUpQuerySource querySource,
+            StorageWarmUpListener listener) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Deletes all of {@code objects} in one transaction using batching.
+     * @param objects the objects to delete
+     * @throws StorageException if an exception occurs during storage in which
+     *     case none of the objects is deleted
+     */
+    void deleteAll(Collection<?> objects) throws StorageException;
+
+    /**
+     * Deletes all entities of type {@code clazz} with an id contained in
+     * {@code ids} with a bulk delete query which bypasses cascading.
+     * @param ids the ids of the entities to delete
+     * @param clazz the entity class
+     * @return the number of deleted entities
+     * @throws StorageException if an exception occurs during storage
+     */
+    int deleteAllById(Collection<?> ids,
+            Class<?> clazz) throws StorageException;
+
+    /**
+     * Retrieves the entity of type {@code clazz} with id {@code id}.
+     * Redeclared in order to document that persistence storages don't throw
+     * checked exceptions on retrieval.
+     * @param <T> the entity type
+     * @param id the id of the entity
+     * @param clazz the entity class
+     * @return the entity or {@code null} if it doesn't exist
+     */
+    @Override
+    <T> T retrieve(Object id,
+            Class<T> clazz);
+
+    /**
+     * Runs {@code queryString} with a priority depending on the calling
+     * thread, see
+     * {@link #runQuery(java.lang.String, java.lang.Class, int, de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority) }.
+     * @param <T> the type of results
+     * @param queryString the JPQL query
+     * @param clazz the type of results
+     * @param queryLimit the maximum number of results
+     * @return the list of results
+     * @throws StorageException if an exception occurs during the query
+     */
     <T> List<T> runQuery(String queryString,
             Class<T> clazz,
             int queryLimit) throws StorageException;
 
+    /**
+     * Runs {@code queryString} as soon as it's admitted with
+     * {@code queryPriority}, i.e. before all waiting queries of lower priority.
+     * The default implementation ignores {@code queryPriority}.
+     * @param <T> the type of results
+     * @param queryString the JPQL query
+     * @param clazz the type of results
+     * @param queryLimit the maximum number of results
+     * @param queryPriority the priority of the query
+     * @return the list of results
+     * @throws StorageException if an exception occurs during the query
+     */
+    default <T> List<T> runQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority) throws StorageException {
+        return runQuery(queryString,
+                clazz,
+                queryLimit);
+    }
+
+    /**
+     * Runs {@code queryString} and aborts it if it doesn't finish within
+     * {@code timeoutMillis} including the time waiting for admission.
+     * @param <T> the type of results
+     * @param queryString the JPQL query
+     * @param clazz the type of results
+     * @param queryLimit the maximum number of results
+     * @param queryPriority the priority of the query
+     * @param timeoutMillis the timeout in milliseconds
+     * @return the list of results
+     * @throws QueryCancelledException if the timeout elapsed
+     * @throws StorageException if another exception occurs during the query
+     */
+    <T> List<T> runQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis) throws StorageException;
+
+    /**
+     * Creates a handle for running {@code queryString} with
+     * {@link CancellableQuery#execute() } which can be cancelled from another
+     * thread with {@link CancellableQuery#cancel() }. Cancellation of a running
+     * query cancels the JDBC statement so that the admission capacity of the
+     * query is released as soon as the database aborted it. The statement is
+     * cancelled in the same way once {@code timeoutMillis} passed.
+     * @param <T> the type of results
+     * @param queryString the JPQL query
+     * @param clazz the type of results
+     * @param queryLimit the maximum number of results
+     * @param queryPriority the priority of the query
+     * @param timeoutMillis the timeout in milliseconds or a value {@code <= 0}
+     *     for no timeout
+     * @return the cancellable query
+     */
+    <T> CancellableQuery<T> prepareQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis);
+
+    /**
+     * Creates a handle for running {@code queryString} as a projection which
+     * only retrieves the values of {@code attributeNames} of the selected
+     * entities instead of hydrating them. Every result row contains the class
+     * of the entity (which might be a subclass of the queried entity) as first
+     * element followed by the values of {@code attributeNames} in the same
+     * order.
+     * @param queryString the JPQL query of the form
+     *     {@code SELECT alias FROM Entity alias ...}
+     * @param attributeNames the names of the singular attributes to retrieve
+     * @param queryLimit the maximum number of results
+     * @param queryPriority the priority of the query
+     * @param timeoutMillis the timeout in milliseconds or a value {@code <= 0}
+     *     for no timeout
+     * @return the cancellable query
+     * @throws IllegalArgumentException if {@code queryString} doesn't select
+     *     exactly one identification variable
+     */
+    CancellableQuery<Object[]> prepareProjectionQuery(String queryString,
+            List<String> attributeNames,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis);
+
+    /**
+     * Prepares a projection query like
+     * {@link #prepareProjectionQuery(java.lang.String, java.util.List, int, de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority, long) }
+     * which passes every row to {@code rowConsumer} while it's read from the
+     * database instead of returning a list of all rows, so that callers can
+     * store rows in a compact form without holding all of them as arrays.
+     * Rows are passed in the thread executing the query. The returned query
+     * returns an empty list. The default implementation retrieves all rows
+     * before passing them to {@code rowConsumer}.
+     * @param queryString the JPQL query of the form
+     *     {@code SELECT alias FROM Entity alias ...}
+     * @param attributeNames the names of the singular attributes to retrieve
+     * @param queryLimit the maximum number of rows
+     * @param queryPriority the priority of the query
+     * @param timeoutMillis the timeout in milliseconds or a value {@code <= 0}
+     *     for no timeout
+     * @param rowConsumer the consumer of the rows
+     * @return the cancellable query
+     * @throws IllegalArgumentException if {@code queryString} doesn't select
+     *     exactly one identification variable
+     */
+    default CancellableQuery<Object[]> prepareProjectionCursorQuery(String queryString,
+            List<String> attributeNames,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis,
+            Consumer<Object[]> rowConsumer) {
+        CancellableQuery<Object[]> projectionQuery = prepareProjectionQuery(queryString,
+                attributeNames,
+                queryLimit,
+                queryPriority,
+                timeoutMillis);
+        return new CancellableQuery<Object[]>(timeoutMillis,
+                cancellableQuery -> {
+                    for(Object[] row : projectionQuery.execute()) {
+                        rowConsumer.accept(row);
+                    }
+                    return Collections.emptyList();
+                }) {
+            @Override
+            public void cancel() {
+                super.cancel();
+                projectionQuery.cancel();
+            }
+        };
+    }
+
+    /**
+     * Counts the results of {@code queryString} with one scalar query instead
+     * of retrieving them. Grouped queries are counted by retrieving one small
+     * row per group.
+     * @param queryString the JPQL query of the form
+     *     {@code SELECT [DISTINCT] expression[, expression...] FROM ...} whose
+     *     results are counted, distinct tuples can't be counted
+     * @return the number of results of {@code queryString}
+     * @throws StorageException if an exception occurs during the query
+     */
+    long count(String queryString) throws StorageException;
+
+    /**
+     * Counts the results of {@code queryString} with {@code queryPriority}.
+     * The default implementation ignores {@code queryPriority}.
+     * @param queryString the JPQL query whose results are counted
+     * @param queryPriority the priority of the query
+     * @return the number of results of {@code queryString}
+     * @throws StorageException if an exception occurs during the query
+     * @see #count(java.lang.String)
+     */
+    default long count(String queryString,
+            QueryPriority queryPriority) throws StorageException {
+        return count(queryString);
+    }
+
+    /**
+     * Checks whether {@code queryString} has at least one result without
+     * retrieving it.
+     * The default implementation counts the results of {@code queryString}.
+     * @param queryString the JPQL query of the form
+     *     {@code SELECT expression FROM ...}
+     * @return {@code true} if {@code queryString} has a result, {@code false}
+     *     otherwise
+     * @throws StorageException if an exception occurs during the query
+     */
+    default boolean exists(String queryString) throws StorageException {
+        return count(queryString) > 0;
+    }
+
+    /**
+     * Checks whether an entity of type {@code clazz} with id {@code id} has
+     * been persisted without loading it.
+     * The default implementation retrieves the entity.
+     * @param id the id which can be an instance of the {@link javax.persistence.IdClass}
+     *     of {@code clazz}
+     * @param clazz the entity class
+     * @return {@code true} if the entity exists, {@code false} otherwise
+     * @throws StorageException if an exception occurs during the query
+     */
+    default boolean exists(Object id,
+            Class<?> clazz) throws StorageException {
+        return retrieve(id,
+                clazz) != null;
+    }
+
     <T> List<T> runQuery(String attribueName,
             String attributeValue,
             Class<T> clazz) throws StorageException;
 
+    /**
+     * Retrieves all entities of type {@code clazz}. Loads the complete table
+     * into memory, consider using
+     * {@link #streamQuery(java.lang.String, java.lang.Class, int) } for large
+     * tables.
+     * @param <T> the entity type
+     * @param clazz the entity class
+     * @return the list of all entities
+     */
     <T> List<T> runQueryAll(Class<T> clazz);
 
+    /**
+     * Runs {@code queryString} and provides the results as a stream which
+     * fetches {@code fetchSize} results at once from a database cursor and
+     * doesn't keep already processed results in memory. Lazy attributes of a
+     * result can be loaded until the next result is requested.
+     * @param <T> the type of results
+     * @param queryString the JPQL query
+     * @param clazz the type of results ({@code Object[]} for queries which
+     *     select more than one expression)
+     * @param fetchSize the number of results to fetch at once
+     * @return the stream of results which has to be closed if it's not
+     *     consumed completely
+     * @throws StorageException if an exception occurs during creation of the
+     *     query
+     */
+    <T> Stream<T> streamQuery(String queryString,
+            Class<T> clazz,
+            int fetchSize) throws StorageException;
+
+    /**
+     * Streams the results of {@code queryString} like
+     * {@link #streamQuery(java.lang.String, java.lang.Class, int) } with
+     * {@code queryPriority}, e.g. {@link QueryPriority#BACKGROUND} for exports.
+     * The default implementation ignores {@code queryPriority}.
+     * @param <T> the type of results
+     * @param queryString the JPQL query
+     * @param clazz the type of results
+     * @param fetchSize the number of results to fetch at once
+     * @param queryPriority the priority of the query
+     * @return the stream of results which has to be closed if it's not
+     *     consumed completely
+     * @throws StorageException if an exception occurs during creation of the
+     *     query
+     */
+    default <T> Stream<T> streamQuery(String queryString,
+            Class<T> clazz,
+            int fetchSize,
+            QueryPriority queryPriority) throws StorageException {
+        return streamQuery(queryString,
+                clazz,
+                fetchSize);
+    }
+
+    /**
+     * Retrieves the page of results of {@code queryString} which follows the
+     * entity described by {@code continuationToken} using keyset (seek)
+     * pagination, i.e. the position is expressed as a condition on the sort
+     * key instead of an offset, so that retrieving page N costs as much as
+     * retrieving page 1 if the sort attribute is indexed.
+     *
+     * @param <T> the entity type
+     * @param queryString the JPQL query of the form
+     *     {@code SELECT alias FROM Entity alias [WHERE ...]} which mustn't
+     *     contain an {@code ORDER BY} clause or subqueries
+     * @param alias the identification variable of the selected entity in
+     *     {@code queryString}
+     * @param clazz the entity class
+     * @param sortAttributeName the name of the singular attribute to sort by
+     *     which mustn't be optional (see
+     *     {@link javax.persistence.metamodel.SingularAttribute#isOptional() })
+     *     since rows with a {@code null} sort key can't be paged, the id is
+     *     used as tie breaker
+     * @param continuationToken the token of the previous page or {@code null}
+     *     in order to retrieve the first page
+     * @param pageSize the maximum number of results on the page
+     * @return the page of results
+     * @throws StorageException if an exception occurs during the query
+     * @throws IllegalArgumentException if the sort attribute is optional
+     */
+    <T> KeysetPage<T> runQueryPage(String queryString,
+            String alias,
+            Class<T> clazz,
+            String sortAttributeName,
+            KeysetToken continuationToken,
+            int pageSize) throws StorageException;
+
+    /**
+     * Retrieves the page of all entities of type {@code clazz} which follows
+     * the entity described by {@code continuationToken}.
+     * The default implementation queries all entities of {@code clazz} with
+     * {@link #runQueryPage(java.lang.String, java.lang.String, java.lang.Class,
+     * java.lang.String,
+     * de.richtercloud.reflection.form.builder.jpa.storage.KeysetToken, int) }.
+     * @param <T> the entity type
+     * @param clazz the entity class
+     * @param sortAttributeName the name of the attribute to sort by
+     * @param continuationToken the token of the previous page or {@code null}
+     *     in order to retrieve the first page
+     * @param pageSize the maximum number of results on the page
+     * @return the page of results
+     * @throws StorageException if an exception occurs during the query
+     * @see #runQueryPage(java.lang.String, java.lang.String, java.lang.Class,
+     *     java.lang.String,
+     *     de.richtercloud.reflection.form.builder.jpa.storage.KeysetToken, int)
+     */
+    default <T> KeysetPage<T> runQueryPage(Class<T> clazz,
+            String sortAttributeName,
+            KeysetToken continuationToken,
+            int pageSize) throws StorageException {
+        String queryString = String.format("SELECT e FROM %s e",
+                getMetamodelIndex().getEntityName(clazz));
+        return runQueryPage(queryString,
+                "e", //alias
+                clazz,
+                sortAttributeName,
+                continuationToken,
+                pageSize);
+    }
+
+    /**
+     * Figures out the attributes of {@code clazz} which can hold large amounts
+     * of data, i.e. binary attributes and attributes mapped as
+     * {@link javax.persistence.Lob}, based on the metamodel. Such attributes
+     * should be excluded from projections and be read with
+     * {@link #openBinaryAttribute(java.lang.Object, java.lang.Class, java.lang.String) }.
+     * The default implementation doesn't consider any attribute large.
+     * @param clazz the entity class
+     * @return the names of the large attributes
+     * @throws IllegalArgumentException if {@code clazz} isn't an entity
+     */
+    default Set<String> retrieveLargeAttributeNames(Class<?> clazz) {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Opens a stream which reads the value of the binary attribute
+     * {@code attributeName} of the entity with id {@code id} from the database
+     * while it's consumed without loading the entity or materializing the
+     * complete value in memory. The stream occupies database resources and
+     * query capacity until it's closed.
+     * @param id the id of the entity
+     * @param clazz the entity class
+     * @param attributeName the name of a {@code byte[]}, {@code Byte[]} or
+     *     {@link java.sql.Blob} attribute
+     * @return the stream which has to be closed or {@code null} if the entity
+     *     doesn't exist or the attribute value is {@code null}
+     * @throws StorageException if an exception occurs during the query
+     * @throws IllegalArgumentException if {@code attributeName} isn't a binary
+     *     attribute
+     */
+    InputStream openBinaryAttribute(Object id,
+            Class<?> clazz,
+            String attributeName) throws StorageException;
+
+    /**
+     * The facade which runs operations of this storage asynchronously on a
+     * bounded executor. Callers should use it instead of creating threads.
+     * @return the asynchronous storage
+     */
+    AsyncPersistenceStorage getAsyncStorage();
+
+    /**
+     * The latency histograms, error counts and gauges of this storage. Use
+     * {@link StorageMetrics#snapshot() } in order to read them
+     * programmatically. Implementations should publish them as MXBean as
+     * well.
+     * @return the storage metrics
+     */
+    StorageMetrics getStorageMetrics();
+
     /**
      * Checks whether {@code clazz} is a managed entity.
      * @param clazz the class to check
@@ -67,6 +555,14 @@ public interface PersistenceStorage<T> extends Storage<Object, AbstractPersisten
      */
     boolean isClassSupported(Class<?> clazz);
 
+    /**
+     * The index of entity types and their associations which is created when
+     * the storage is started and allows lookups without accessing the
+     * metamodel or reflection.
+     * @return the metamodel index or {@code null} if the storage isn't started
+     */
+    MetamodelIndex getMetamodelIndex();
+
     /**
      * Checks whether {@code object} in managed in a JPA context.
      * @param object the object to check
@@ -75,5 +571,37 @@ public interface PersistenceStorage<T> extends Storage<Object, AbstractPersisten
      */
     boolean isManaged(Object object);
 
+    /**
+     * Initializes the lazily fetched fields of {@code entity} with
+     * {@code fieldInitializer} in a context in which they can be loaded.
+     * Entities returned by the storage are detached, so that their lazily
+     * fetched fields can only be initialized through this method. The
+     * default implementation invokes {@code fieldInitializer} directly.
+     * @param entity the entity to initialize
+     * @param fieldInitializer the field initializer to use
+     * @throws FieldHandlingException if {@code fieldInitializer} throws it
+     */
+    default void initialize(Object entity,
+            FieldInitializer fieldInitializer) throws FieldHandlingException {
+        fieldInitializer.initialize(entity);
+    }
+
+    /**
+     * Retrieves an {@link EntityManager} for direct access to the underlying
+     * JPA context. The returned instance has to be passed to
+     * {@link #releaseEntityManager(javax.persistence.EntityManager) } after
+     * usage, preferably in a {@code finally} block. Entity managers which
+     * aren't released aren't reused and are garbage collected once they're
+     * unreachable.
+     * @return the entity manager
+     */
     EntityManager retrieveEntityManager();
+
+    /**
+     * Releases an {@link EntityManager} retrieved with
+     * {@link #retrieveEntityManager() } which clears its persistence context.
+     * The entity manager mustn't be used after it has been released.
+     * @param entityManager the entity manager to release
+     */
+    void releaseEntityManager(EntityManager entityManager);
 }
@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +51,11 @@ import org.slf4j.LoggerFactory;
 public class PostgresqlAutoPersistenceStorage extends AbstractProcessPersistenceStorage<PostgresqlAutoPersistenceStorageConf> {
     private static final long serialVersionUID = 1L;
     private final static Logger LOGGER = LoggerFactory.getLogger(PostgresqlAutoPersistenceStorage.class);
+    /**
+     * The line logged by {@code postgres} once the startup is complete (the
+     * server log goes to stderr by default).
+     */
+    private final static Pattern READY_LINE_PATTERN = Pattern.compile("database system is ready to accept connections");
 
     public PostgresqlAutoPersistenceStorage(PostgresqlAutoPersistenceStorageConf storageConf,
             String persistenceUnitName,
@@ -71,6 +77,11 @@ public class PostgresqlAutoPersistenceStorage extends AbstractProcessPersistence
         return new PostgresqlSequenceManager(this);
     }
 
+    @Override
+    protected Pattern getReadyLinePattern() {
+        return READY_LINE_PATTERN;
+    }
+
     @Override
     protected void preCreation() throws IOException {
         //do nothing
@@ -36,7 +36,7 @@ public class PostgresqlPersistenceStorage extends AbstractPersistenceStorage<Pos
                 persistenceUnitName,
                 parallelQueryCount,
                 fieldRetriever);
-        this.sequenceManager = new PostgresqlSequenceManager(this);
+        this.sequenceManager = measureSequenceManager(new PostgresqlSequenceManager(this));
     }
 
     @Override
@@ -0,0 +1,172 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- the output is forwarded unchanged and only inspected line by line, so that
+wrapping the output of a process doesn't change what's written to stdout and
+stderr
+- the detector doesn't know whether the process is still alive, so callers
+have to check that themselves after they've been woken up (see
+signalProcessTerminated)
+*/
+/**
+ * Watches the output of a database server process for the line which the
+ * server prints once it accepts connections, e.g. {@code ready to accept
+ * connections} for PostgreSQL and {@code ready for connections} for MySQL.
+ * This allows to treat the readiness of the server as an event rather than
+ * polling it in fixed intervals.
+ *
+ * @author richter
+ */
+class ProcessReadyLineDetector {
+    private final static Logger LOGGER = LoggerFactory.getLogger(ProcessReadyLineDetector.class);
+    private final Pattern readyLinePattern;
+    private final CountDownLatch readyLatch = new CountDownLatch(1);
+    private volatile boolean ready;
+    private volatile long readyNanos;
+
+    /**
+     * Creates a new {@code ProcessReadyLineDetector}.
+     * @param readyLinePattern the pattern which is searched for in every line
+     *     of output
+     */
+    ProcessReadyLineDetector(Pattern readyLinePattern) {
+        if(readyLinePattern == null) {
+            throw new IllegalArgumentException("readyLinePattern mustn't be null");
+        }
+        this.readyLinePattern = readyLinePattern;
+    }
+
+    /**
+     * Wraps {@code target} in a stream which forwards everything written to it
+     * to {@code target} and checks every complete line for the ready line.
+     * More than one stream can be wrapped (e.g. stdout and stderr of the same
+     * process) and the first match on any of them marks the process as ready.
+     * @param target the stream to forward to
+     * @return the wrapping stream
+     */
+    OutputStream wrap(OutputStream target) {
+        return new LineInspectingOutputStream(target);
+    }
+
+    /**
+     * Waits at most the specified time for the ready line to appear or the
+     * process to terminate (see {@link #signalProcessTerminated() }).
+     * @param timeout the maximum time to wait
+     * @param unit the unit of {@code timeout}
+     * @return {@code true} if the ready line appeared or the process
+     *     terminated, {@code false} if the wait timed out
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    boolean await(long timeout,
+            TimeUnit unit) throws InterruptedException {
+        return readyLatch.await(timeout,
+                unit);
+    }
+
+    /**
+     * Whether the ready line has been detected.
+     * @return {@code true} if the ready line has been detected, {@code false}
+     *     otherwise
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * The value of {@link System#nanoTime() } at the time the ready line has
+     * been detected.
+     * @return the time of detection or {@code 0} if the ready line hasn't
+     *     been detected yet
+     */
+    long getReadyNanos() {
+        return readyNanos;
+    }
+
+    /**
+     * Wakes up all threads waiting in {@link #await(long, java.util.concurrent.TimeUnit) }
+     * without marking the process as ready, so that they don't wait for a
+     * line which will never appear.
+     */
+    void signalProcessTerminated() {
+        readyLatch.countDown();
+    }
+
+    private void inspectLine(String line) {
+        if(ready) {
+            return;
+        }
+        if(readyLinePattern.matcher(line).find()) {
+            LOGGER.debug(String.format("detected ready line '%s'",
+                    line));
+            readyNanos = System.nanoTime();
+            ready = true;
+            readyLatch.countDown();
+        }
+    }
+
+    private class LineInspectingOutputStream extends FilterOutputStream {
+        private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+
+        LineInspectingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            inspect(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+                //FilterOutputStream.write(byte[], int, int) writes byte by
+                //byte
+            for(int i=off; i<off+len; i++) {
+                inspect(b[i]);
+            }
+        }
+
+        private void inspect(int b) {
+            if(ready) {
+                //avoid buffering output which will never be inspected
+                return;
+            }
+            if(b == '\n') {
+                inspectLine(new String(lineBuffer.toByteArray(),
+                        Charset.defaultCharset()));
+                    //the process is started with the platform's default
+                    //encoding
+                lineBuffer.reset();
+            }else {
+                lineBuffer.write(b);
+            }
+        }
+    }
+}
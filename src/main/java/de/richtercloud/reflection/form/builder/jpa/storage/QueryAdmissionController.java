@@ -0,0 +1,513 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- heap usage is sampled from MemoryMXBean when the limit is adjusted instead of
+subscribing to GC notifications because the latter require
+com.sun.management.GarbageCollectionNotificationInfo to be useful and the
+sampling is cheap and throttled to ADJUSTMENT_INTERVAL_MILLIS anyway
+- the limit is adjusted with additive increase and multiplicative decrease
+(like TCP congestion control) so that heap pressure is reacted to quickly
+while capacity is regained carefully
+- only the first waiter in admission order can be admitted (even if a later
+one would fit) in order to avoid starvation of heavy queries by a stream of
+light ones
+- waiters are ordered by priority and arrival; the priority of a waiter is
+raised by one level every AGING_INTERVAL_MILLIS it waits so that background
+queries keep moving under a constant load of interactive queries; the
+effective priority changes over time and is thus evaluated on every admission
+check which is fine since there're only few waiters at a time
+- aging stops below INTERACTIVE, otherwise a long waiting background query
+would be admitted before an interactive query which arrived later and the
+user would wait for it
+- since aging changes the first waiter without a release, waiters in acquire
+wait at most AGING_INTERVAL_MILLIS before they check again
+- PrioritizableReentrantLock isn't used because it only allows one lock owner
+while the capacity here is shared by many queries
+- a query whose weight exceeds the limit is admitted if nothing else is running
+because it'd never be admitted otherwise
+*/
+/**
+ * Limits the number of queries running in parallel like a {@link java.util.concurrent.Semaphore}
+ * with a limit which is adjusted at runtime based on heap usage and observed
+ * query latency. Queries can acquire different amounts of capacity (their
+ * weight), e.g. queries of entities with large binary data acquire more than
+ * queries of strings.
+ *
+ * The limit is decreased multiplicatively if heap usage exceeds
+ * {@link #HEAP_USAGE_HIGH_DEFAULT} and by one if the average latency exceeds
+ * {@link #LATENCY_DEGRADATION_FACTOR} times the best average latency seen so
+ * far. It's increased by one if heap usage is below
+ * {@link #HEAP_USAGE_LOW_DEFAULT} and queries had to wait for admission.
+ *
+ * Waiting queries are admitted in the order of their {@link QueryPriority},
+ * so that an {@link QueryPriority#INTERACTIVE} query gets the next free
+ * capacity. Queries of equal priority are admitted in the order they arrived.
+ * In order to avoid starvation the priority of a waiting query is raised by
+ * one level every {@link #AGING_INTERVAL_MILLIS}, but never to
+ * {@link QueryPriority#INTERACTIVE}.
+ *
+ * @author richter
+ */
+public class QueryAdmissionController {
+    private final static Logger LOGGER = LoggerFactory.getLogger(QueryAdmissionController.class);
+    /**
+     * The weight of a query which doesn't involve large data.
+     */
+    public final static int WEIGHT_DEFAULT = 1;
+    /**
+     * The weight of a query which involves large binary data.
+     */
+    public final static int WEIGHT_LARGE = 4;
+    public final static double HEAP_USAGE_HIGH_DEFAULT = 0.85;
+    public final static double HEAP_USAGE_LOW_DEFAULT = 0.6;
+    public final static double LATENCY_DEGRADATION_FACTOR = 3.0;
+    public final static long ADJUSTMENT_INTERVAL_MILLIS = 1000;
+    /**
+     * The time after which the priority of a waiting query is raised by one
+     * level.
+     */
+    public final static long AGING_INTERVAL_MILLIS = 2000;
+    /**
+     * The weight of a new latency sample in the exponentially weighted moving
+     * average.
+     */
+    private final static double LATENCY_SMOOTHING = 0.2;
+    /**
+     * The factor the best average latency is increased with at every
+     * adjustment.
+     */
+    private final static double BEST_LATENCY_DECAY = 1.05;
+    /**
+     * The interval in which the cancellation of a waiting query is checked.
+     */
+    private final static long CANCELLATION_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    /**
+     * The highest rank a waiting query can be raised to by aging.
+     */
+    private final static int AGING_RANK_LIMIT = QueryPriority.INTERACTIVE.ordinal()+1;
+    private final int minLimit;
+    private final int maxLimit;
+    private final DoubleSupplier heapUsageSupplier;
+    private final LongSupplier clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition admissionCondition = lock.newCondition();
+    private final List<Waiter> waiters = new LinkedList<>();
+    private long waiterSequence;
+    private int limit;
+    private int used;
+    private long lastAdjustmentMillis;
+    /**
+     * Whether a query had to wait since the last adjustment, i.e. whether
+     * there's demand for a higher limit.
+     */
+    private boolean contended;
+    /**
+     * The exponentially weighted moving average of query latency per weight
+     * unit in nanoseconds or {@code -1} if no sample has been recorded yet.
+     */
+    private double averageLatencyNanos = -1;
+    private double bestAverageLatencyNanos = Double.MAX_VALUE;
+
+    private static double retrieveHeapUsage(MemoryMXBean memoryMXBean) {
+        MemoryUsage heapUsage = memoryMXBean.getHeapMemoryUsage();
+        long max = heapUsage.getMax();
+        if(max <= 0) {
+            //undefined
+            max = heapUsage.getCommitted();
+        }
+        return (double) heapUsage.getUsed() / max;
+    }
+
+    /**
+     * Creates a new {@code QueryAdmissionController} which samples heap usage
+     * from the platform {@link MemoryMXBean}.
+     * @param initialLimit the limit to start with
+     * @param minLimit the minimum limit
+     * @param maxLimit the maximum limit
+     */
+    public QueryAdmissionController(int initialLimit,
+            int minLimit,
+            int maxLimit) {
+        this(initialLimit,
+                minLimit,
+                maxLimit,
+                () -> retrieveHeapUsage(ManagementFactory.getMemoryMXBean()),
+                System::currentTimeMillis);
+    }
+
+    QueryAdmissionController(int initialLimit,
+            int minLimit,
+            int maxLimit,
+            DoubleSupplier heapUsageSupplier,
+            LongSupplier clock) {
+        if(minLimit <= 0) {
+            throw new IllegalArgumentException("minLimit has to be > 0");
+        }
+        if(maxLimit < minLimit) {
+            throw new IllegalArgumentException("maxLimit has to be >= minLimit");
+        }
+        if(initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("initialLimit has to be between "
+                    + "minLimit and maxLimit");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.heapUsageSupplier = heapUsageSupplier;
+        this.clock = clock;
+        this.lastAdjustmentMillis = clock.getAsLong();
+    }
+
+    /**
+     * Acquires {@code weight} units of capacity with
+     * {@link QueryPriority#NORMAL}.
+     * @param weight the weight of the query
+     * @see #acquire(int,
+     *     de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority)
+     */
+    public void acquire(int weight) {
+        acquire(weight,
+                QueryPriority.NORMAL);
+    }
+
+    /**
+     * Blocks uninterruptibly until {@code weight} units of capacity are
+     * available and all queries which are before this one in admission order
+     * have been admitted. The interrupt status of the waiting thread is
+     * restored after admission.
+     * @param weight the weight of the query
+     * @param priority the priority of the query
+     */
+    public void acquire(int weight,
+            QueryPriority priority) {
+        if(weight <= 0) {
+            throw new IllegalArgumentException("weight has to be > 0");
+        }
+        if(priority == null) {
+            throw new IllegalArgumentException("priority mustn't be null");
+        }
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            Waiter waiter = new Waiter(priority,
+                    waiterSequence++,
+                    clock.getAsLong());
+            waiters.add(waiter);
+            while(retrieveFirstWaiter() != waiter || !fits(weight)) {
+                contended = true;
+                try {
+                    admissionCondition.await(AGING_INTERVAL_MILLIS,
+                            TimeUnit.MILLISECONDS);
+                        //the first waiter can change by aging
+                }catch(InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            waiters.remove(waiter);
+            used += weight;
+            admissionCondition.signalAll();
+                //the next waiter might fit as well
+        }finally {
+            lock.unlock();
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits at most {@code timeoutNanos} for admission like
+     * {@link #acquire(int, de.richtercloud.reflection.form.builder.jpa.storage.QueryPriority) }
+     * and gives up as soon as {@code cancelled} returns {@code true}.
+     * Interruption of the waiting thread is treated like a cancellation and
+     * the interrupt status is restored.
+     * @param weight the weight of the query
+     * @param priority the priority of the query
+     * @param timeoutNanos the maximum time to wait in nanoseconds or a
+     *     negative value in order to wait without timeout
+     * @param cancelled checked periodically while waiting
+     * @return {@code true} if the query has been admitted, {@code false} if
+     *     the timeout elapsed or the query has been cancelled before
+     */
+    public boolean tryAcquire(int weight,
+            QueryPriority priority,
+            long timeoutNanos,
+            BooleanSupplier cancelled) {
+        if(weight <= 0) {
+            throw new IllegalArgumentException("weight has to be > 0");
+        }
+        if(priority == null) {
+            throw new IllegalArgumentException("priority mustn't be null");
+        }
+        long startNanos = System.nanoTime();
+        lock.lock();
+        Waiter waiter = new Waiter(priority,
+                waiterSequence++,
+                clock.getAsLong());
+        waiters.add(waiter);
+        try {
+            while(retrieveFirstWaiter() != waiter || !fits(weight)) {
+                long remainingNanos = timeoutNanos < 0
+                        ? CANCELLATION_CHECK_INTERVAL_NANOS
+                        : timeoutNanos-(System.nanoTime()-startNanos);
+                if(cancelled.getAsBoolean() || remainingNanos <= 0) {
+                    return false;
+                }
+                contended = true;
+                try {
+                    admissionCondition.awaitNanos(Math.min(remainingNanos,
+                            CANCELLATION_CHECK_INTERVAL_NANOS));
+                }catch(InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            used += weight;
+            return true;
+        }finally {
+            waiters.remove(waiter);
+            admissionCondition.signalAll();
+                //the next waiter might fit after admission of this waiter or
+                //become the first waiter after this one gave up
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Finds the waiter to admit next, i.e. the one with the highest effective
+     * priority which arrived first. Has to be called with {@code lock} held.
+     * @return the first waiter
+     */
+    private Waiter retrieveFirstWaiter() {
+        long now = clock.getAsLong();
+        Waiter retValue = null;
+        int retValueRank = Integer.MAX_VALUE;
+        for(Waiter waiter : waiters) {
+            int rank = waiter.retrieveEffectiveRank(now);
+            if(rank < retValueRank
+                    || rank == retValueRank && waiter.sequence < retValue.sequence) {
+                retValue = waiter;
+                retValueRank = rank;
+            }
+        }
+        return retValue;
+    }
+
+    private boolean fits(int weight) {
+        return used == 0 || used + weight <= limit;
+    }
+
+    /**
+     * Releases {@code weight} units of capacity without recording a latency
+     * sample (e.g. for long-running cursors whose duration doesn't reflect
+     * the database load).
+     * @param weight the weight passed to {@link #acquire(int) }
+     */
+    public void release(int weight) {
+        release(weight,
+                -1 //durationNanos
+        );
+    }
+
+    /**
+     * Releases {@code weight} units of capacity and records the duration of
+     * the query.
+     * @param weight the weight passed to {@link #acquire(int) }
+     * @param durationNanos the duration of the query in nanoseconds or a
+     *     negative value in order to not record a latency sample
+     */
+    public void release(int weight,
+            long durationNanos) {
+        lock.lock();
+        try {
+            used -= weight;
+            if(durationNanos >= 0) {
+                double sample = (double) durationNanos / weight;
+                if(averageLatencyNanos < 0) {
+                    averageLatencyNanos = sample;
+                }else {
+                    averageLatencyNanos = LATENCY_SMOOTHING*sample
+                            + (1-LATENCY_SMOOTHING)*averageLatencyNanos;
+                }
+            }
+            adjustLimit();
+            admissionCondition.signalAll();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adjusts the limit at most every {@link #ADJUSTMENT_INTERVAL_MILLIS}.
+     * Has to be called with {@code lock} held.
+     */
+    private void adjustLimit() {
+        long now = clock.getAsLong();
+        if(now - lastAdjustmentMillis < ADJUSTMENT_INTERVAL_MILLIS) {
+            return;
+        }
+        lastAdjustmentMillis = now;
+        int oldLimit = limit;
+        double heapUsage = heapUsageSupplier.getAsDouble();
+        if(averageLatencyNanos >= 0) {
+            if(averageLatencyNanos < bestAverageLatencyNanos) {
+                bestAverageLatencyNanos = averageLatencyNanos;
+            }else {
+                bestAverageLatencyNanos *= BEST_LATENCY_DECAY;
+                    //lets the reference follow a permanent change of the
+                    //workload (e.g. a growing database) instead of
+                    //decreasing the limit forever
+            }
+        }
+        if(heapUsage > HEAP_USAGE_HIGH_DEFAULT) {
+            limit = Math.max(minLimit, limit/2);
+        }else if(averageLatencyNanos > LATENCY_DEGRADATION_FACTOR*bestAverageLatencyNanos) {
+            limit = Math.max(minLimit, limit-1);
+        }else if(heapUsage < HEAP_USAGE_LOW_DEFAULT && contended) {
+            limit = Math.min(maxLimit, limit+1);
+        }
+        contended = false;
+        if(limit != oldLimit) {
+            LOGGER.debug(String.format("adjusted query limit from %d to %d "
+                    + "(heap usage %.2f, average latency per weight unit %d ms)",
+                    oldLimit,
+                    limit,
+                    heapUsage,
+                    TimeUnit.NANOSECONDS.toMillis((long) averageLatencyNanos)));
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * The capacity which is currently acquired.
+     * @return the used capacity
+     */
+    public int getUsed() {
+        lock.lock();
+        try {
+            return used;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The capacity which can be acquired without waiting.
+     * @return the available capacity which is negative if a query exceeding
+     *     the limit has been admitted or the limit has been decreased
+     */
+    public int getAvailableCapacity() {
+        lock.lock();
+        try {
+            return limit - used;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of queries of priority {@code priority} waiting for
+     * admission.
+     * @param priority the priority
+     * @return the queue length
+     */
+    public int getQueueLength(QueryPriority priority) {
+        lock.lock();
+        try {
+            int retValue = 0;
+            for(Waiter waiter : waiters) {
+                if(waiter.priority == priority) {
+                    retValue++;
+                }
+            }
+            return retValue;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of queries waiting for admission.
+     * @return the queue length
+     */
+    public int getQueueLength() {
+        lock.lock();
+        try {
+            return waiters.size();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Waiter {
+        private final QueryPriority priority;
+        private final long sequence;
+        private final long enqueueMillis;
+
+        Waiter(QueryPriority priority,
+                long sequence,
+                long enqueueMillis) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.enqueueMillis = enqueueMillis;
+        }
+
+        /**
+         * The priority raised by the time waited where {@code 0} is the
+         * highest. Aging raises the priority to at most
+         * {@link #AGING_RANK_LIMIT}.
+         * @param now the current time in milliseconds
+         * @return the effective rank
+         */
+        int retrieveEffectiveRank(long now) {
+            long promotion = (now-enqueueMillis)/AGING_INTERVAL_MILLIS;
+            return (int) Math.max(Math.min(priority.ordinal(), AGING_RANK_LIMIT),
+                    priority.ordinal()-promotion);
+        }
+    }
+}
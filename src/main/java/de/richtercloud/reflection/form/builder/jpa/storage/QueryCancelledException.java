@@ -0,0 +1,55 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+
+/**
+ * Indicates that a query has been cancelled with
+ * {@link CancellableQuery#cancel() } or exceeded its deadline before it
+ * finished.
+ *
+ * @author richter
+ */
+public class QueryCancelledException extends StorageException {
+    private static final long serialVersionUID = 1L;
+    private final boolean timeout;
+
+    /**
+     * Creates a new {@code QueryCancelledException}.
+     * @param message the message
+     * @param timeout whether the query has been cancelled because it exceeded
+     *     its deadline (rather than explicitly)
+     * @param cause the cause of the cancellation reported by the JPA provider
+     *     or JDBC driver or {@code null} if the query has been cancelled
+     *     before it has been executed
+     */
+    public QueryCancelledException(String message,
+            boolean timeout,
+            Throwable cause) {
+        super(message,
+                cause);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Whether the query exceeded its deadline.
+     * @return {@code true} if the query timed out, {@code false} if it has
+     *     been cancelled explicitly
+     */
+    public boolean isTimeout() {
+        return timeout;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+/**
+ * An immutable copy of the statistics {@link SlowQueryLog} keeps for all
+ * queries with the same fingerprint.
+ *
+ * @author richter
+ */
+public class QueryFingerprintStatistics {
+    private final String fingerprint;
+    private final String sampleQueryText;
+    private final LatencySnapshot latency;
+    private final long errorCount;
+    private final int maxResultCount;
+
+    public QueryFingerprintStatistics(String fingerprint,
+            String sampleQueryText,
+            LatencySnapshot latency,
+            long errorCount,
+            int maxResultCount) {
+        this.fingerprint = fingerprint;
+        this.sampleQueryText = sampleQueryText;
+        this.latency = latency;
+        this.errorCount = errorCount;
+        this.maxResultCount = maxResultCount;
+    }
+
+    /**
+     * The normalized query text (see
+     * {@link SlowQueryLog#createFingerprint(java.lang.String) }).
+     * @return the fingerprint
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * The text of the slowest query with this fingerprint including its
+     * literals.
+     * @return the sample query text
+     */
+    public String getSampleQueryText() {
+        return sampleQueryText;
+    }
+
+    /**
+     * The durations of all queries with this fingerprint which provide the
+     * count as well as p50 and p99.
+     * @return the latency snapshot
+     */
+    public LatencySnapshot getLatency() {
+        return latency;
+    }
+
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * The maximum number of results returned by a query with this
+     * fingerprint.
+     * @return the maximum result count or -1 if all queries failed
+     */
+    public int getMaxResultCount() {
+        return maxResultCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%s, errors: %d, max. results: %d)",
+                fingerprint,
+                latency,
+                errorCount,
+                maxResultCount);
+    }
+}
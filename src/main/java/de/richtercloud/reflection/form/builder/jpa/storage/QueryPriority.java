@@ -0,0 +1,38 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+/**
+ * The priority with which queries waiting for admission by
+ * {@link QueryAdmissionController} are admitted. Declared in descending order
+ * of priority.
+ *
+ * @author richter
+ */
+public enum QueryPriority {
+    /**
+     * Queries a user is waiting for while typing, e.g. auto-completion and
+     * checks of string fields.
+     */
+    INTERACTIVE,
+    /**
+     * Queries explicitly run by the user, e.g. in query panels.
+     */
+    NORMAL,
+    /**
+     * Long-running queries nobody is waiting for immediately, e.g. exports.
+     */
+    BACKGROUND
+}
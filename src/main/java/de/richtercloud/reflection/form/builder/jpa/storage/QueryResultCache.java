@@ -0,0 +1,316 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.Entity;
+import org.hibernate.proxy.HibernateProxy;
+
+/*
+internal implementation notes:
+- a LinkedHashMap in access order provides LRU eviction with
+removeEldestEntry; access order means that get modifies the map as well, so
+that all access needs to be synchronized
+- every invalidation increments a generation counter and results of queries
+which were started before an invalidation are discarded in put; otherwise a
+query which read old data could put its result after the write which
+invalidated the cache finished
+- entities are copied with EntitySnapshotCreator in put and in get because
+forms edit the entities they display in place; copying in put prevents changes
+of the caller which ran the query from leaking into the cache, copying in get
+prevents callers which retrieve the same result from sharing instances
+- projection rows are copied because arrays are mutable, entities in rows are
+copied as well
+*/
+/**
+ * A size-bounded LRU cache for query results keyed by query text, result class
+ * and query limit. Every entry records the entity classes it depends on and is
+ * removed when an instance of one of these classes or of one of their
+ * subclasses is written (see {@link #invalidate(java.lang.Class) }).
+ *
+ * Every caller retrieves detached copies of the cached entities (see
+ * {@link EntitySnapshotCreator}), so that changes to them don't affect other
+ * callers. Associated entities are shared between the copies.
+ *
+ * @author richter
+ */
+public class QueryResultCache {
+    private final int maxEntries;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long generation;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * Creates a new {@code QueryResultCache}.
+     * @param maxEntries the maximum number of cached query results after which
+     *     the least recently used result is evicted
+     * @throws IllegalArgumentException if {@code maxEntries} is less than 1
+     */
+    public QueryResultCache(int maxEntries) {
+        if(maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries has to be > 0");
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, Entry>(16,
+                0.75f, //loadFactor
+                true //accessOrder
+        ) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if(size() > QueryResultCache.this.maxEntries) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Retrieves a copy of the cached result.
+     * @param <T> the type of results
+     * @param queryString the query text
+     * @param clazz the result class
+     * @param queryLimit the query limit
+     * @return a copy of the cached result list containing copies of the
+     *     cached entities or {@code null} if there's no cached result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> get(String queryString,
+            Class<T> clazz,
+            int queryLimit) {
+        Entry entry;
+        synchronized(this) {
+            entry = entries.get(new Key(queryString, clazz, queryLimit));
+        }
+        if(entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return (List<T>) copyResults(entry.getResults());
+    }
+
+    /**
+     * The current generation which has to be retrieved before the query is run
+     * and passed to
+     * {@link #put(java.lang.String, java.lang.Class, int, java.util.List, java.util.Set, long) }.
+     * @return the generation
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches {@code results} unless an invalidation occurred since
+     * {@code generation} has been retrieved.
+     * @param <T> the type of results
+     * @param queryString the query text
+     * @param clazz the result class
+     * @param queryLimit the query limit
+     * @param results the results to cache
+     * @param entityClasses the entity classes the result depends on
+     * @param generation the generation retrieved with
+     *     {@link #getGeneration() } before the query has been run
+     * @return {@code true} if {@code results} have been cached, {@code false}
+     *     if they have been discarded because they might be outdated
+     */
+    public synchronized <T> boolean put(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            List<T> results,
+            Set<Class<?>> entityClasses,
+            long generation) {
+        if(generation != this.generation) {
+            return false;
+        }
+        entries.put(new Key(queryString, clazz, queryLimit),
+                new Entry(copyResults(results),
+                        entityClasses));
+        return true;
+    }
+
+    private static List<?> copyResults(List<?> results) {
+        List<Object> retValue = new ArrayList<>(results.size());
+        for(Object result : results) {
+            retValue.add(copyResult(result));
+        }
+        return retValue;
+    }
+
+    /**
+     * Copies entities and projection rows in {@code result}.
+     * @param result the result to copy
+     * @return the copy or {@code result} if it's neither an entity nor a row
+     */
+    private static Object copyResult(Object result) {
+        if(result == null) {
+            return null;
+        }
+        if(result instanceof Object[]) {
+            Object[] row = (Object[]) result;
+            Object[] rowCopy = new Object[row.length];
+            for(int i=0; i<row.length; i++) {
+                rowCopy[i] = copyResult(row[i]);
+            }
+            return rowCopy;
+        }
+        if(result instanceof HibernateProxy
+                || result.getClass().isAnnotationPresent(Entity.class)) {
+            return EntitySnapshotCreator.createSnapshot(result);
+        }
+        return result;
+    }
+
+    /**
+     * Removes all cached results which depend on {@code entityClass} or one of
+     * its superclasses, i.e. all results a new, changed or deleted instance of
+     * {@code entityClass} might be part of.
+     * @param entityClass the class of the written entity
+     */
+    public synchronized void invalidate(Class<?> entityClass) {
+        generation++;
+        Iterator<Entry> entryItr = entries.values().iterator();
+        while(entryItr.hasNext()) {
+            Entry entry = entryItr.next();
+            for(Class<?> dependency : entry.getEntityClasses()) {
+                if(dependency.isAssignableFrom(entityClass)) {
+                    entryItr.remove();
+                    invalidationCount.incrementAndGet();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public synchronized void clear() {
+        generation++;
+        invalidationCount.addAndGet(entries.size());
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * The number of results removed because the maximum number of entries has
+     * been exceeded.
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * The number of results removed because of a write to an entity class they
+     * depend on.
+     * @return the invalidation count
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    private static class Key {
+        private final String queryString;
+        private final Class<?> clazz;
+        private final int queryLimit;
+
+        Key(String queryString,
+                Class<?> clazz,
+                int queryLimit) {
+            this.queryString = queryString;
+            this.clazz = clazz;
+            this.queryLimit = queryLimit;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 3;
+            hash = 41 * hash + Objects.hashCode(this.queryString);
+            hash = 41 * hash + Objects.hashCode(this.clazz);
+            hash = 41 * hash + this.queryLimit;
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            if (this.queryLimit != other.queryLimit) {
+                return false;
+            }
+            if (!Objects.equals(this.queryString, other.queryString)) {
+                return false;
+            }
+            return Objects.equals(this.clazz, other.clazz);
+        }
+    }
+
+    private static class Entry {
+        private final List<?> results;
+        private final Set<Class<?>> entityClasses;
+
+        Entry(List<?> results,
+                Set<Class<?>> entityClasses) {
+            this.results = results;
+            this.entityClasses = Collections.unmodifiableSet(entityClasses);
+        }
+
+        public List<?> getResults() {
+            return results;
+        }
+
+        public Set<Class<?>> getEntityClasses() {
+            return entityClasses;
+        }
+    }
+}
@@ -0,0 +1,790 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.fieldhandler.FieldHandlingException;
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManagementException;
+import de.richtercloud.reflection.form.builder.storage.AbstractStorage;
+import de.richtercloud.reflection.form.builder.storage.StorageCallback;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import javax.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- extends AbstractStorage in order to manage store callbacks itself; they're
+invoked around the calls to the delegate the same way AbstractPersistenceStorage
+invokes them around the transaction
+- query strings are routed based on the entity names following FROM since the
+class passed to query methods can be the type of a projection; the entity names
+are resolved with the metamodel of the default storage which is the same for all
+delegates because they share the persistence unit
+- the routing result of every class is cached since the lookup walks the class
+hierarchy
+- delegates aren't started in start because storage factories return started
+storages
+- entity names are searched in every FROM clause (including subqueries) at
+the beginning, after commas (further range variable declarations) and after
+JOIN (entity joins); paths following JOIN are matched as well, but aren't
+found in the entity name map
+- associations between entities of different delegates are rejected because
+neither joins nor cascades work across databases; the check requires the
+metamodel which mocks of delegates don't provide
+- sequences are routed to the delegate of the entity class they've been
+registered for or whose entity or class name they have since the sequence
+manager interface doesn't provide the entity class
+*/
+/**
+ * A {@link PersistenceStorage} which routes every operation to one of several
+ * delegate storages based on the entity class involved. This allows to put
+ * entities with different load profiles (e.g. large binary documents and
+ * lightweight metadata) into different databases. Each delegate keeps its own
+ * query admission control, {@link javax.persistence.EntityManagerFactory},
+ * connection pool and sequence manager, so that they scale independently.
+ *
+ * Routes apply to an entity class and all its subclasses unless a subclass has
+ * a route of its own. Entity classes without route are managed by the default
+ * storage which also provides the metamodel, the storage metrics and the
+ * entity managers of this storage.
+ *
+ * Associations between entity classes managed by different delegates aren't
+ * supported and a route map leading to them is rejected. Sequences are
+ * managed by the delegate of the entity class registered with
+ * {@link #registerSequence(java.lang.String, java.lang.Class) } or the entity
+ * class whose entity or class name is the sequence name and by the default
+ * storage otherwise.
+ *
+ * Batch operations ({@link #storeAll(java.util.Collection) } etc.) are split
+ * up by delegate and run in one transaction per delegate, i.e. they're only
+ * atomic if all objects are routed to the same storage. Queries whose
+ * {@code FROM} clauses refer to entities of different delegates are rejected.
+ *
+ * Created by {@link DelegatingPersistenceStorageFactory} from a
+ * {@link RoutingPersistenceStorageConf}.
+ *
+ * @author richter
+ */
+public class RoutingPersistenceStorage extends AbstractStorage<Object, AbstractPersistenceStorageConf> implements PersistenceStorage<Long> {
+    private final static Logger LOGGER = LoggerFactory.getLogger(RoutingPersistenceStorage.class);
+    /**
+     * Matches the range variable declarations and joins of a {@code FROM}
+     * clause up to the next clause or the end of a subquery.
+     */
+    private final static Pattern FROM_CLAUSE_PATTERN = Pattern.compile("\\bFROM\\s+(.+?)(?=\\bWHERE\\b|\\bGROUP\\s+BY\\b|\\bHAVING\\b|\\bORDER\\s+BY\\b|\\)|$)",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private final static Pattern FROM_ENTITY_NAME_PATTERN = Pattern.compile("(?:^|,|\\bJOIN(?:\\s+FETCH)?)\\s*([\\w.$]+)",
+            Pattern.CASE_INSENSITIVE);
+    private final RoutingPersistenceStorageConf storageConf;
+    private final PersistenceStorage<Long> defaultStorage;
+    private final Map<Class<?>, PersistenceStorage<Long>> routes;
+    /**
+     * The default storage and all route storages without duplicates.
+     */
+    private final List<PersistenceStorage<Long>> delegates;
+    private final Map<Class<?>, PersistenceStorage<Long>> delegateCache = new ConcurrentHashMap<>();
+    /**
+     * Maps entity names and class names to entity classes. Created lazily
+     * because it requires the metamodel of the default storage.
+     */
+    private volatile Map<String, Class<?>> entityNameMap;
+    /**
+     * Maps sequence names to the entity classes whose delegate manages the
+     * sequence.
+     */
+    private final Map<String, Class<?>> sequenceEntityClasses = new ConcurrentHashMap<>();
+    private final int asyncThreadCount;
+    private AsyncPersistenceStorage asyncStorage;
+
+    /**
+     * Creates a new {@code RoutingPersistenceStorage}.
+     * @param storageConf the configuration the delegates have been created
+     *     from
+     * @param defaultStorage the started storage managing all entity classes
+     *     without route
+     * @param routes the mapping from entity classes to started storages
+     *     managing them and their subclasses
+     * @param asyncThreadCount the number of threads of the facade returned by
+     *     {@link #getAsyncStorage() }
+     * @throws IllegalArgumentException if an entity class has an association
+     *     to an entity class (or one of its subclasses) which is managed by
+     *     another delegate
+     */
+    public RoutingPersistenceStorage(RoutingPersistenceStorageConf storageConf,
+            PersistenceStorage<Long> defaultStorage,
+            Map<Class<?>, PersistenceStorage<Long>> routes,
+            int asyncThreadCount) {
+        super();
+        if(defaultStorage == null) {
+            throw new IllegalArgumentException("defaultStorage mustn't be null");
+        }
+        if(routes == null) {
+            throw new IllegalArgumentException("routes mustn't be null");
+        }
+        if(asyncThreadCount <= 0) {
+            throw new IllegalArgumentException("asyncThreadCount has to be > 0");
+        }
+        this.storageConf = storageConf;
+        this.defaultStorage = defaultStorage;
+        this.routes = Collections.unmodifiableMap(new HashMap<>(routes));
+        Set<PersistenceStorage<Long>> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<PersistenceStorage<Long>> delegates0 = new LinkedList<>();
+        seen.add(defaultStorage);
+        delegates0.add(defaultStorage);
+        for(PersistenceStorage<Long> route : routes.values()) {
+            if(seen.add(route)) {
+                delegates0.add(route);
+            }
+        }
+        this.delegates = Collections.unmodifiableList(delegates0);
+        this.asyncThreadCount = asyncThreadCount;
+        MetamodelIndex metamodelIndex = defaultStorage.getMetamodelIndex();
+        if(metamodelIndex != null) {
+            validateAssociations(metamodelIndex);
+        }
+    }
+
+    private void validateAssociations(MetamodelIndex metamodelIndex) {
+        Set<Class<?>> entityClasses = metamodelIndex.getEntityClasses();
+        for(Class<?> entityClass : entityClasses) {
+            PersistenceStorage<Long> delegate = retrieveDelegate(entityClass);
+            Map<String, Class<?>> targets = new HashMap<>(metamodelIndex.getToOneTargets(entityClass));
+            targets.putAll(metamodelIndex.getToManyTargets(entityClass));
+            for(Map.Entry<String, Class<?>> target : targets.entrySet()) {
+                for(Class<?> targetClass : entityClasses) {
+                    if(target.getValue().isAssignableFrom(targetClass)
+                            && retrieveDelegate(targetClass) != delegate) {
+                        throw new IllegalArgumentException(String.format(
+                                "association %s of entity class %s refers to "
+                                        + "entity class %s which is managed "
+                                        + "by another storage",
+                                target.getKey(),
+                                entityClass.getName(),
+                                targetClass.getName()));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The storage which manages {@code clazz}.
+     * @param clazz the entity class
+     * @return the route of {@code clazz} or its closest superclass with a
+     *     route or the default storage if there's none
+     */
+    public PersistenceStorage<Long> retrieveDelegate(Class<?> clazz) {
+        PersistenceStorage<Long> retValue = delegateCache.get(clazz);
+        if(retValue == null) {
+            retValue = defaultStorage;
+            Class<?> current = clazz;
+            while(current != null) {
+                PersistenceStorage<Long> route = routes.get(current);
+                if(route != null) {
+                    retValue = route;
+                    break;
+                }
+                current = current.getSuperclass();
+            }
+            delegateCache.put(clazz,
+                    retValue);
+        }
+        return retValue;
+    }
+
+    /**
+     * The storage which manages the entities queried by
+     * {@code queryString}.
+     * @param queryString the JPQL query
+     * @param clazz the result type of the query which is used if no entity
+     *     can be found in the query or {@code null}
+     * @return the delegate
+     * @throws IllegalArgumentException if the query refers to entities
+     *     managed by different delegates
+     */
+    private PersistenceStorage<Long> retrieveDelegate(String queryString,
+            Class<?> clazz) {
+        Map<String, Class<?>> entityNameMap = retrieveEntityNameMap();
+        PersistenceStorage<Long> retValue = null;
+        for(String entityName : retrieveFromEntityNames(queryString)) {
+            Class<?> entityClass = entityNameMap.get(entityName);
+            if(entityClass == null) {
+                continue;
+            }
+            PersistenceStorage<Long> delegate = retrieveDelegate(entityClass);
+            if(retValue != null && retValue != delegate) {
+                throw new IllegalArgumentException(String.format("query '%s' "
+                        + "refers to entities managed by different storages",
+                        queryString));
+            }
+            retValue = delegate;
+        }
+        if(retValue == null) {
+            if(clazz != null) {
+                retValue = retrieveDelegate(clazz);
+            }else {
+                retValue = defaultStorage;
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * Retrieves the candidates for entity names in the {@code FROM} clauses of
+     * {@code queryString}, i.e. the abstract schema names of all range
+     * variable declarations and entity joins. Candidates which aren't entity
+     * names (e.g. {@code IN} of collection member declarations) have to be
+     * ignored by the caller.
+     * @param queryString the JPQL query
+     * @return the candidates in the order of their occurance
+     */
+    static List<String> retrieveFromEntityNames(String queryString) {
+        List<String> retValue = new LinkedList<>();
+        Matcher fromClauseMatcher = FROM_CLAUSE_PATTERN.matcher(queryString);
+        while(fromClauseMatcher.find()) {
+            Matcher matcher = FROM_ENTITY_NAME_PATTERN.matcher(fromClauseMatcher.group(1));
+            while(matcher.find()) {
+                retValue.add(matcher.group(1));
+            }
+        }
+        return retValue;
+    }
+
+    private Map<String, Class<?>> retrieveEntityNameMap() {
+        Map<String, Class<?>> retValue = entityNameMap;
+        if(retValue == null) {
+            MetamodelIndex metamodelIndex = defaultStorage.getMetamodelIndex();
+            if(metamodelIndex == null) {
+                //not started
+                return Collections.emptyMap();
+            }
+            retValue = new HashMap<>();
+            for(Class<?> entityClass : metamodelIndex.getEntityClasses()) {
+                retValue.put(metamodelIndex.getEntityName(entityClass),
+                        entityClass);
+                retValue.put(entityClass.getName(),
+                        entityClass);
+            }
+            entityNameMap = retValue;
+        }
+        return retValue;
+    }
+
+    private Map<PersistenceStorage<Long>, List<Object>> groupByDelegate(Collection<?> objects) {
+        Map<PersistenceStorage<Long>, List<Object>> retValue = new LinkedHashMap<>();
+        for(Object object : objects) {
+            PersistenceStorage<Long> delegate = retrieveDelegate(object.getClass());
+            List<Object> delegateObjects = retValue.get(delegate);
+            if(delegateObjects == null) {
+                delegateObjects = new LinkedList<>();
+                retValue.put(delegate,
+                        delegateObjects);
+            }
+            delegateObjects.add(object);
+        }
+        return retValue;
+    }
+
+    private void invokePreStoreCallbacks(Object object) throws StorageException {
+        List<StorageCallback> preStoreCallbacks = getPreStoreCallbacks(object);
+        if(preStoreCallbacks != null) {
+            for(StorageCallback preStoreCallback : preStoreCallbacks) {
+                preStoreCallback.callback(object);
+            }
+        }
+    }
+
+    private void invokePostStoreCallbacks(Object object) throws StorageException {
+        List<StorageCallback> postStoreCallbacks = getPostStoreCallbacks(object);
+        if(postStoreCallbacks != null) {
+            for(StorageCallback postStoreCallback : postStoreCallbacks) {
+                postStoreCallback.callback(object);
+            }
+        }
+    }
+
+    /**
+     * The default storage and all route storages without duplicates, e.g. in
+     * order to retrieve their metrics.
+     * @return the delegates with the default storage being the first
+     */
+    public List<PersistenceStorage<Long>> getDelegates() {
+        return delegates;
+    }
+
+    public RoutingPersistenceStorageConf getRoutingStorageConf() {
+        return storageConf;
+    }
+
+    /**
+     * The configuration of the default storage.
+     * @return the configuration of the default storage
+     * @see #getRoutingStorageConf()
+     */
+    @Override
+    public AbstractPersistenceStorageConf getStorageConf() {
+        return defaultStorage.getStorageConf();
+    }
+
+    @Override
+    public void start() throws StorageCreationException {
+        super.start();
+        LOGGER.info(String.format("routing %d entity classes to %d storages",
+                routes.size(),
+                delegates.size()));
+    }
+
+    @Override
+    public void store(Object object) throws StorageException {
+        invokePreStoreCallbacks(object);
+        retrieveDelegate(object.getClass()).store(object);
+        invokePostStoreCallbacks(object);
+    }
+
+    @Override
+    public void delete(Object object) throws StorageException {
+        retrieveDelegate(object.getClass()).delete(object);
+    }
+
+    @Override
+    public void update(Object object) throws StorageException {
+        retrieveDelegate(object.getClass()).update(object);
+    }
+
+    @Override
+    public void update(Object object,
+            Set<String> attributeNames) throws StorageException {
+        retrieveDelegate(object.getClass()).update(object,
+                attributeNames);
+    }
+
+    @Override
+    public void refresh(Object object) throws StorageException {
+        retrieveDelegate(object.getClass()).refresh(object);
+    }
+
+    @Override
+    public void storeAll(Collection<?> objects) throws StorageException {
+        for(Object object : objects) {
+            invokePreStoreCallbacks(object);
+        }
+        for(Map.Entry<PersistenceStorage<Long>, List<Object>> entry : groupByDelegate(objects).entrySet()) {
+            entry.getKey().storeAll(entry.getValue());
+        }
+        for(Object object : objects) {
+            invokePostStoreCallbacks(object);
+        }
+    }
+
+    @Override
+    public void updateAll(Collection<?> objects) throws StorageException {
+        for(Map.Entry<PersistenceStorage<Long>, List<Object>> entry : groupByDelegate(objects).entrySet()) {
+            entry.getKey().updateAll(entry.getValue());
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<?> objects) throws StorageException {
+        for(Map.Entry<PersistenceStorage<Long>, List<Object>> entry : groupByDelegate(objects).entrySet()) {
+            entry.getKey().deleteAll(entry.getValue());
+        }
+    }
+
+    @Override
+    public int deleteAllById(Collection<?> ids,
+            Class<?> clazz) throws StorageException {
+        return retrieveDelegate(clazz).deleteAllById(ids,
+                clazz);
+    }
+
+    @Override
+    public void scheduleUpdate(Object object) throws StorageException {
+        retrieveDelegate(object.getClass()).scheduleUpdate(object);
+    }
+
+    @Override
+    public void flushScheduledUpdates() throws InterruptedException {
+        for(PersistenceStorage<Long> delegate : delegates) {
+            delegate.flushScheduledUpdates();
+        }
+    }
+
+    /**
+     * Warms up all delegates in parallel.
+     * @param querySource the source of queries which are translated by the
+     *     storage they're routed to or {@code null}
+     * @param listener the listener which is notified about the progress of
+     *     every delegate or {@code null}
+     * @return a future which is completed when the warm-up of all delegates
+     *     finished
+     */
+    @Override
+    public CompletableFuture<Void> warmUp(WarmUpQuerySource querySource,
+            StorageWarmUpListener listener) {
+        List<CompletableFuture<Void>> warmUps = new LinkedList<>();
+        for(PersistenceStorage<Long> delegate : delegates) {
+            WarmUpQuerySource delegateQuerySource = null;
+            if(querySource != null) {
+                delegateQuerySource = entityClass -> {
+                    if(retrieveDelegate(entityClass) != delegate) {
+                        return Collections.emptyList();
+                    }
+                    return querySource.retrieveQueryTexts(entityClass);
+                };
+            }
+            warmUps.add(delegate.warmUp(delegateQuerySource,
+                    listener));
+        }
+        return CompletableFuture.allOf(warmUps.toArray(new CompletableFuture<?>[warmUps.size()]));
+    }
+
+    @Override
+    public <T> T retrieve(Object id,
+            Class<T> clazz) {
+        return retrieveDelegate(clazz).retrieve(id,
+                clazz);
+    }
+
+    @Override
+    public <T> List<T> runQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit) throws StorageException {
+        return retrieveDelegate(queryString,
+                clazz).runQuery(queryString,
+                        clazz,
+                        queryLimit);
+    }
+
+    @Override
+    public <T> List<T> runQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority) throws StorageException {
+        return retrieveDelegate(queryString,
+                clazz).runQuery(queryString,
+                        clazz,
+                        queryLimit,
+                        queryPriority);
+    }
+
+    @Override
+    public <T> List<T> runQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis) throws StorageException {
+        return retrieveDelegate(queryString,
+                clazz).runQuery(queryString,
+                        clazz,
+                        queryLimit,
+                        queryPriority,
+                        timeoutMillis);
+    }
+
+    @Override
+    public <T> CancellableQuery<T> prepareQuery(String queryString,
+            Class<T> clazz,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis) {
+        return retrieveDelegate(queryString,
+                clazz).prepareQuery(queryString,
+                        clazz,
+                        queryLimit,
+                        queryPriority,
+                        timeoutMillis);
+    }
+
+    @Override
+    public CancellableQuery<Object[]> prepareProjectionQuery(String queryString,
+            List<String> attributeNames,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis) {
+        return retrieveDelegate(queryString,
+                null //clazz
+        ).prepareProjectionQuery(queryString,
+                attributeNames,
+                queryLimit,
+                queryPriority,
+                timeoutMillis);
+    }
+
+    @Override
+    public CancellableQuery<Object[]> prepareProjectionCursorQuery(String queryString,
+            List<String> attributeNames,
+            int queryLimit,
+            QueryPriority queryPriority,
+            long timeoutMillis,
+            Consumer<Object[]> rowConsumer) {
+        return retrieveDelegate(queryString,
+                null //clazz
+        ).prepareProjectionCursorQuery(queryString,
+                attributeNames,
+                queryLimit,
+                queryPriority,
+                timeoutMillis,
+                rowConsumer);
+    }
+
+    @Override
+    public long count(String queryString) throws StorageException {
+        return retrieveDelegate(queryString,
+                null //clazz
+        ).count(queryString);
+    }
+
+    @Override
+    public long count(String queryString,
+            QueryPriority queryPriority) throws StorageException {
+        return retrieveDelegate(queryString,
+                null //clazz
+        ).count(queryString,
+                queryPriority);
+    }
+
+    @Override
+    public boolean exists(String queryString) throws StorageException {
+        return retrieveDelegate(queryString,
+                null //clazz
+        ).exists(queryString);
+    }
+
+    @Override
+    public boolean exists(Object id,
+            Class<?> clazz) throws StorageException {
+        return retrieveDelegate(clazz).exists(id,
+                clazz);
+    }
+
+    @Override
+    public <T> List<T> runQuery(String attribueName,
+            String attributeValue,
+            Class<T> clazz) throws StorageException {
+        return retrieveDelegate(clazz).runQuery(attribueName,
+                attributeValue,
+                clazz);
+    }
+
+    @Override
+    public <T> List<T> runQueryAll(Class<T> clazz) {
+        return retrieveDelegate(clazz).runQueryAll(clazz);
+    }
+
+    @Override
+    public <T> Stream<T> streamQuery(String queryString,
+            Class<T> clazz,
+            int fetchSize) throws StorageException {
+        return retrieveDelegate(queryString,
+                clazz).streamQuery(queryString,
+                        clazz,
+                        fetchSize);
+    }
+
+    @Override
+    public <T> Stream<T> streamQuery(String queryString,
+            Class<T> clazz,
+            int fetchSize,
+            QueryPriority queryPriority) throws StorageException {
+        return retrieveDelegate(queryString,
+                clazz).streamQuery(queryString,
+                        clazz,
+                        fetchSize,
+                        queryPriority);
+    }
+
+    @Override
+    public <T> KeysetPage<T> runQueryPage(String queryString,
+            String alias,
+            Class<T> clazz,
+            String sortAttributeName,
+            KeysetToken continuationToken,
+            int pageSize) throws StorageException {
+        return retrieveDelegate(queryString,
+                clazz).runQueryPage(queryString,
+                        alias,
+                        clazz,
+                        sortAttributeName,
+                        continuationToken,
+                        pageSize);
+    }
+
+    @Override
+    public <T> KeysetPage<T> runQueryPage(Class<T> clazz,
+            String sortAttributeName,
+            KeysetToken continuationToken,
+            int pageSize) throws StorageException {
+        return retrieveDelegate(clazz).runQueryPage(clazz,
+                sortAttributeName,
+                continuationToken,
+                pageSize);
+    }
+
+    @Override
+    public Set<String> retrieveLargeAttributeNames(Class<?> clazz) {
+        return retrieveDelegate(clazz).retrieveLargeAttributeNames(clazz);
+    }
+
+    @Override
+    public InputStream openBinaryAttribute(Object id,
+            Class<?> clazz,
+            String attributeName) throws StorageException {
+        return retrieveDelegate(clazz).openBinaryAttribute(id,
+                clazz,
+                attributeName);
+    }
+
+    /**
+     * A facade running operations asynchronously on this storage, i.e. the
+     * operations are routed like synchronous ones. The facade is shut down in
+     * {@link #shutdown() }.
+     * @return the asynchronous storage
+     */
+    @Override
+    public synchronized AsyncPersistenceStorage getAsyncStorage() {
+        if(asyncStorage == null) {
+            asyncStorage = new AsyncPersistenceStorage(this,
+                    asyncThreadCount, //threadCount
+                    AsyncPersistenceStorage.QUEUE_CAPACITY_DEFAULT);
+        }
+        return asyncStorage;
+    }
+
+    /**
+     * The metrics of the default storage. Use {@link #getDelegates() } to
+     * retrieve the metrics of other delegates.
+     * @return the metrics of the default storage
+     */
+    @Override
+    public StorageMetrics getStorageMetrics() {
+        return defaultStorage.getStorageMetrics();
+    }
+
+    @Override
+    public boolean isClassSupported(Class<?> clazz) {
+        return retrieveDelegate(clazz).isClassSupported(clazz);
+    }
+
+    @Override
+    public MetamodelIndex getMetamodelIndex() {
+        return defaultStorage.getMetamodelIndex();
+    }
+
+    @Override
+    public boolean isManaged(Object object) {
+        return retrieveDelegate(object.getClass()).isManaged(object);
+    }
+
+    @Override
+    public void initialize(Object entity,
+            FieldInitializer fieldInitializer) throws FieldHandlingException {
+        retrieveDelegate(entity.getClass()).initialize(entity,
+                fieldInitializer);
+    }
+
+    /**
+     * Retrieves an entity manager of the default storage.
+     * @return the entity manager which has to be released with
+     *     {@link #releaseEntityManager(javax.persistence.EntityManager) }
+     */
+    @Override
+    public EntityManager retrieveEntityManager() {
+        return defaultStorage.retrieveEntityManager();
+    }
+
+    @Override
+    public void releaseEntityManager(EntityManager entityManager) {
+        defaultStorage.releaseEntityManager(entityManager);
+    }
+
+    /**
+     * Makes the delegate managing {@code entityClass} manage the sequence
+     * {@code sequenceName}. Has to be invoked before the sequence is used if
+     * its name is neither the entity name nor the class name of the entity
+     * class whose ids it generates.
+     * @param sequenceName the sequence name
+     * @param entityClass the entity class whose ids the sequence generates
+     */
+    public void registerSequence(String sequenceName,
+            Class<?> entityClass) {
+        sequenceEntityClasses.put(sequenceName,
+                entityClass);
+    }
+
+    /**
+     * The storage which manages the sequence {@code sequenceName}.
+     * @param sequenceName the sequence name
+     * @return the delegate of the entity class registered for
+     *     {@code sequenceName} or with {@code sequenceName} as entity or
+     *     class name or the default storage if there's none
+     */
+    private PersistenceStorage<Long> retrieveSequenceDelegate(String sequenceName) {
+        Class<?> entityClass = sequenceEntityClasses.get(sequenceName);
+        if(entityClass == null) {
+            entityClass = retrieveEntityNameMap().get(sequenceName);
+        }
+        if(entityClass == null) {
+            return defaultStorage;
+        }
+        return retrieveDelegate(entityClass);
+    }
+
+    @Override
+    public boolean checkSequenceExists(String sequenceName) throws SequenceManagementException {
+        return retrieveSequenceDelegate(sequenceName).checkSequenceExists(sequenceName);
+    }
+
+    @Override
+    public void createSequence(String sequenceName) throws SequenceManagementException {
+        retrieveSequenceDelegate(sequenceName).createSequence(sequenceName);
+    }
+
+    @Override
+    public Long getNextSequenceValue(String sequenceName) throws SequenceManagementException {
+        return retrieveSequenceDelegate(sequenceName).getNextSequenceValue(sequenceName);
+    }
+
+    /**
+     * Shuts down the asynchronous facade and all delegates.
+     */
+    @Override
+    public void shutdown() {
+        synchronized(this) {
+            if(this.asyncStorage != null) {
+                this.asyncStorage.shutdown();
+            }
+        }
+        for(PersistenceStorage<Long> delegate : delegates) {
+            delegate.shutdown();
+        }
+    }
+}
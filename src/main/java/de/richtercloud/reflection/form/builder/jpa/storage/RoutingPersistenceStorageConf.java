@@ -0,0 +1,163 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageConf;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.apache.commons.lang3.builder.RecursiveToStringStyle;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/*
+internal implementation notes:
+- the same configuration instance can be used for several routes in which case
+only one storage is created for them (configurations are compared by identity
+because two equal configurations pointing to the same database would compete
+for the same resources)
+*/
+/**
+ * A composite storage configuration which assigns entity classes to the
+ * configurations of different storages. A {@link RoutingPersistenceStorage}
+ * is created from it by {@link DelegatingPersistenceStorageFactory}. A route
+ * applies to the entity class and all its subclasses unless a subclass has a
+ * route of its own. Entity classes without route are managed by the storage
+ * created from the default configuration.
+ *
+ * All configurations have to refer to the same persistence unit. Entities
+ * routed to different storages mustn't reference each other since
+ * relationships can't span databases.
+ *
+ * @author richter
+ */
+public class RoutingPersistenceStorageConf implements StorageConf, Serializable {
+    private static final long serialVersionUID = 1L;
+    private final AbstractPersistenceStorageConf defaultStorageConf;
+    private final LinkedHashMap<Class<?>, AbstractPersistenceStorageConf> routes;
+
+    /**
+     * Creates a new {@code RoutingPersistenceStorageConf}.
+     * @param defaultStorageConf the configuration of the storage managing all
+     *     entity classes without route
+     * @param routes the mapping from entity classes (including their
+     *     subclasses) to configurations of the storages managing them
+     */
+    public RoutingPersistenceStorageConf(AbstractPersistenceStorageConf defaultStorageConf,
+            Map<Class<?>, AbstractPersistenceStorageConf> routes) {
+        if(defaultStorageConf == null) {
+            throw new IllegalArgumentException("defaultStorageConf mustn't be null");
+        }
+        if(routes == null) {
+            throw new IllegalArgumentException("routes mustn't be null");
+        }
+        if(routes.containsKey(null) || routes.containsValue(null)) {
+            throw new IllegalArgumentException("routes mustn't contain null keys or values");
+        }
+        this.defaultStorageConf = defaultStorageConf;
+        this.routes = new LinkedHashMap<>(routes);
+    }
+
+    public AbstractPersistenceStorageConf getDefaultStorageConf() {
+        return defaultStorageConf;
+    }
+
+    public Map<Class<?>, AbstractPersistenceStorageConf> getRoutes() {
+        return Collections.unmodifiableMap(routes);
+    }
+
+    /**
+     * The default configuration and all route configurations without
+     * duplicates.
+     * @return the distinct configurations with the default configuration
+     *     being the first
+     */
+    public List<AbstractPersistenceStorageConf> getDistinctStorageConfs() {
+        Set<AbstractPersistenceStorageConf> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<AbstractPersistenceStorageConf> retValue = new LinkedList<>();
+        seen.add(defaultStorageConf);
+        retValue.add(defaultStorageConf);
+        for(AbstractPersistenceStorageConf storageConf : routes.values()) {
+            if(seen.add(storageConf)) {
+                retValue.add(storageConf);
+            }
+        }
+        return retValue;
+    }
+
+    /**
+     * Validates all distinct configurations.
+     * @throws StorageConfValidationException if one of the configurations is
+     *     invalid
+     */
+    @Override
+    public void validate() throws StorageConfValidationException {
+        for(AbstractPersistenceStorageConf storageConf : getDistinctStorageConfs()) {
+            storageConf.validate();
+        }
+    }
+
+    @Override
+    public String getShortDescription() {
+        return "Routing database connection";
+    }
+
+    @Override
+    public String getLongDescription() {
+        return "Distributes entity classes over several databases, e.g. in "
+                + "order to separate large binary data from frequently queried "
+                + "data.";
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 41 * hash + Objects.hashCode(this.defaultStorageConf);
+        hash = 41 * hash + Objects.hashCode(this.routes);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final RoutingPersistenceStorageConf other = (RoutingPersistenceStorageConf) obj;
+        if (!Objects.equals(this.defaultStorageConf, other.defaultStorageConf)) {
+            return false;
+        }
+        return Objects.equals(this.routes, other.routes);
+    }
+
+    @Override
+    public String toString() {
+        ToStringBuilder toStringBuilder = new ReflectionToStringBuilder(this,
+                new RecursiveToStringStyle());
+        return toStringBuilder.toString();
+    }
+}
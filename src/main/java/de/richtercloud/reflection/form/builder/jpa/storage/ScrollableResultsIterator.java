@@ -0,0 +1,144 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+/*
+internal implementation notes:
+- ScrollableResults.next moves the cursor, so that a look-ahead has to be
+cached in order to implement Iterator.hasNext idempotently
+- the session is cleared before the cursor is moved rather than after a row
+has been returned because ScrollableResults.next loads the entities of the new
+row into the session and because the caller might still load lazy attributes
+of the last returned row
+*/
+/**
+ * An {@link Iterator} over the first column of a forward-only
+ * {@link ScrollableResults} (or over complete rows if the type of results is
+ * {@code Object[]}) which clears the underlying {@link Session} every
+ * {@code clearInterval} rows so that already returned entities are detached and
+ * can be garbage collected. The last returned row stays attached until the
+ * next row is requested, so that its lazy attributes can be loaded.
+ *
+ * Closes itself as soon as the results are exhausted. Callers which stop
+ * iterating early have to invoke {@link #close() } in order to free the
+ * database cursor and the resources passed as {@code closeCallback}.
+ *
+ * @author richter
+ * @param <T> the type of the iterated results
+ */
+public class ScrollableResultsIterator<T> implements Iterator<T>, AutoCloseable {
+    private final ScrollableResults scrollableResults;
+    private final Session session;
+    private final Class<T> clazz;
+    private final int clearInterval;
+    private final Runnable closeCallback;
+    /**
+     * The cached result of the last {@link ScrollableResults#next() } or
+     * {@code null} if the cursor needs to be moved.
+     */
+    private Boolean nextAvailable;
+    private long count;
+    private boolean closed;
+
+    /**
+     * Creates a new {@code ScrollableResultsIterator}.
+     * @param scrollableResults the results to iterate
+     * @param session the session to clear periodically
+     * @param clazz the type of results
+     * @param clearInterval the number of rows after which {@code session} is
+     *     cleared
+     * @param closeCallback invoked once after {@code scrollableResults} have
+     *     been closed in order to release resources like the transaction,
+     *     entity manager and query permit
+     */
+    public ScrollableResultsIterator(ScrollableResults scrollableResults,
+            Session session,
+            Class<T> clazz,
+            int clearInterval,
+            Runnable closeCallback) {
+        if(clearInterval <= 0) {
+            throw new IllegalArgumentException("clearInterval has to be > 0");
+        }
+        this.scrollableResults = scrollableResults;
+        this.session = session;
+        this.clazz = clazz;
+        this.clearInterval = clearInterval;
+        this.closeCallback = closeCallback;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(closed) {
+            return false;
+        }
+        if(nextAvailable == null) {
+            if(count > 0 && count % clearInterval == 0) {
+                session.clear();
+            }
+            nextAvailable = scrollableResults.next();
+        }
+        if(!nextAvailable) {
+            close();
+        }
+        return nextAvailable;
+    }
+
+    @Override
+    public T next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        nextAvailable = null;
+        Object row = Object[].class.equals(clazz)
+                ? scrollableResults.get()
+                : scrollableResults.get(0);
+        count++;
+        return clazz.cast(row);
+    }
+
+    /**
+     * The number of rows returned so far.
+     * @return the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes the results and invokes the close callback. Subsequent calls
+     * don't have any effect.
+     */
+    @Override
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            scrollableResults.close();
+        }finally {
+            closeCallback.run();
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- statistics are kept for all queries rather than only for slow ones because
+p50 and p99 of a query shape are only meaningful if fast executions are
+counted as well
+- statistics are kept in a LinkedHashMap in access order which evicts the
+least recently used fingerprint like QueryResultCache
+- the log file is opened for every entry since slow queries are rare by
+definition and it avoids keeping a file handle open for the lifetime of the
+storage
+- keywords are upper-cased unless they're preceded by a `.` in order to not
+change path expressions like `e.order`; identifiers are case-sensitive in JPQL
+and are kept as they are
+- fingerprints are cached by query text because creating them takes several
+regular expression passes while most query texts are run repeatedly (often
+as the same String instance which String.equals detects without comparing
+characters); the cache is bounded by maxFingerprints like the statistics
+*/
+/**
+ * Normalizes query texts into fingerprints by replacing literals with
+ * {@code ?} and collapsing whitespace, keeps bounded statistics for every
+ * fingerprint in memory and writes queries which take longer than a
+ * configurable threshold to a rolling log file.
+ *
+ * @author richter
+ */
+public class SlowQueryLog {
+    private final static Logger LOGGER = LoggerFactory.getLogger(SlowQueryLog.class);
+    public final static long THRESHOLD_MILLIS_DEFAULT = 1000;
+    public final static int MAX_FINGERPRINTS_DEFAULT = 500;
+    public final static long MAX_FILE_BYTES_DEFAULT = 10*1024*1024;
+    public final static int MAX_BACKUP_COUNT_DEFAULT = 3;
+    private final static Pattern STRING_LITERAL_PATTERN = Pattern.compile("'(?:[^']|'')*'");
+    private final static Pattern NUMERIC_LITERAL_PATTERN = Pattern.compile("(?<![\\p{javaJavaIdentifierPart}?])\\d+(?:\\.\\d+)?(?:[eE][-+]?\\d+)?[lLfFdD]?(?![\\p{javaJavaIdentifierPart}])");
+    private final static Pattern PARAMETER_LIST_PATTERN = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private final static Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+    private final static Pattern KEYWORD_PATTERN = Pattern.compile("(?<![.\\p{javaJavaIdentifierPart}])(?:SELECT|DISTINCT|FROM|WHERE|AND|OR|NOT|LIKE|IN|IS|NULL|BETWEEN|MEMBER|OF|EXISTS|AS|JOIN|LEFT|INNER|OUTER|FETCH|ORDER|GROUP|BY|HAVING|ASC|DESC|COUNT|TYPE|UPDATE|DELETE|SET)(?![\\p{javaJavaIdentifierPart}])",
+            Pattern.CASE_INSENSITIVE);
+    private final int maxFingerprints;
+    private final LinkedHashMap<String, Entry> entries;
+    /**
+     * Maps query texts to their fingerprints in access order.
+     */
+    private final LinkedHashMap<String, String> fingerprints;
+    private final AtomicLong thresholdNanos = new AtomicLong(TimeUnit.MILLISECONDS.toNanos(THRESHOLD_MILLIS_DEFAULT));
+    private final Object logFileLock = new Object();
+    /**
+     * The rolling log file or {@code null} if slow queries aren't written to
+     * a file.
+     */
+    private File logFile;
+    private long maxFileBytes;
+    private int maxBackupCount;
+
+    /**
+     * Normalizes {@code queryText} by replacing string and numeric literals
+     * with {@code ?}, collapsing lists of parameters (e.g. in {@code IN}
+     * expressions) into one parameter, upper-casing keywords and collapsing
+     * whitespace. Named parameters are kept.
+     * @param queryText the query text to normalize
+     * @return the fingerprint
+     */
+    public static String createFingerprint(String queryText) {
+        String retValue = STRING_LITERAL_PATTERN.matcher(queryText).replaceAll("?");
+        retValue = NUMERIC_LITERAL_PATTERN.matcher(retValue).replaceAll("?");
+        retValue = PARAMETER_LIST_PATTERN.matcher(retValue).replaceAll("?");
+        Matcher keywordMatcher = KEYWORD_PATTERN.matcher(retValue);
+        StringBuffer keywordBuffer = new StringBuffer(retValue.length());
+        while(keywordMatcher.find()) {
+            keywordMatcher.appendReplacement(keywordBuffer,
+                    keywordMatcher.group().toUpperCase());
+        }
+        keywordMatcher.appendTail(keywordBuffer);
+        return WHITESPACE_PATTERN.matcher(keywordBuffer).replaceAll(" ").trim();
+    }
+
+    public SlowQueryLog() {
+        this(MAX_FINGERPRINTS_DEFAULT);
+    }
+
+    /**
+     * Creates a new {@code SlowQueryLog}.
+     * @param maxFingerprints the maximum number of fingerprints statistics are
+     *     kept for after which the statistics of the least recently executed
+     *     fingerprint are discarded
+     * @throws IllegalArgumentException if {@code maxFingerprints} is less
+     *     than 1
+     */
+    public SlowQueryLog(int maxFingerprints) {
+        if(maxFingerprints <= 0) {
+            throw new IllegalArgumentException("maxFingerprints has to be > 0");
+        }
+        this.maxFingerprints = maxFingerprints;
+        this.entries = new LinkedHashMap<String, Entry>(16,
+                0.75f, //loadFactor
+                true //accessOrder
+        ) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SlowQueryLog.this.maxFingerprints;
+            }
+        };
+        this.fingerprints = new LinkedHashMap<String, String>(16,
+                0.75f, //loadFactor
+                true //accessOrder
+        ) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > SlowQueryLog.this.maxFingerprints;
+            }
+        };
+    }
+
+    /**
+     * Retrieves the fingerprint of {@code queryText} from the cache or
+     * creates it.
+     * @param queryText the query text
+     * @return the fingerprint
+     */
+    private String retrieveFingerprint(String queryText) {
+        synchronized(fingerprints) {
+            String retValue = fingerprints.get(queryText);
+            if(retValue != null) {
+                return retValue;
+            }
+        }
+        String retValue = createFingerprint(queryText);
+            //outside the lock since it's comparatively expensive
+        synchronized(fingerprints) {
+            fingerprints.put(queryText,
+                    retValue);
+        }
+        return retValue;
+    }
+
+    /**
+     * Records an execution of {@code queryText} in the statistics of its
+     * fingerprint and writes it to the log file if it took at least the
+     * threshold.
+     * @param queryText the query text
+     * @param durationNanos the duration of the execution
+     * @param resultCount the number of results or a negative value if the
+     *     query failed
+     */
+    public void record(String queryText,
+            long durationNanos,
+            int resultCount) {
+        String fingerprint = retrieveFingerprint(queryText);
+        synchronized(entries) {
+            Entry entry = entries.get(fingerprint);
+            if(entry == null) {
+                entry = new Entry();
+                entries.put(fingerprint,
+                        entry);
+            }
+            entry.record(queryText,
+                    durationNanos,
+                    resultCount);
+        }
+        if(durationNanos >= thresholdNanos.get()) {
+            LOGGER.debug(String.format("slow query with fingerprint '%s' took "
+                    + "%d ms",
+                    fingerprint,
+                    TimeUnit.NANOSECONDS.toMillis(durationNanos)));
+            writeLogFileEntry(fingerprint,
+                    queryText,
+                    durationNanos,
+                    resultCount);
+        }
+    }
+
+    /**
+     * The statistics of all fingerprints in descending order of the total
+     * time spent in queries with the fingerprint.
+     * @return a list of statistics snapshots
+     */
+    public List<QueryFingerprintStatistics> retrieveStatistics() {
+        List<QueryFingerprintStatistics> retValue = new ArrayList<>();
+        synchronized(entries) {
+            for(Map.Entry<String, Entry> entry : entries.entrySet()) {
+                retValue.add(entry.getValue().snapshot(entry.getKey()));
+            }
+        }
+        retValue.sort(Comparator.comparingLong((QueryFingerprintStatistics statistics) -> statistics.getLatency().getTotalNanos()).reversed());
+        return retValue;
+    }
+
+    /**
+     * Discards the statistics of all fingerprints.
+     */
+    public void clear() {
+        synchronized(entries) {
+            entries.clear();
+        }
+    }
+
+    public long getThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(thresholdNanos.get());
+    }
+
+    /**
+     * Sets the duration after which queries are written to the log file.
+     * @param thresholdMillis the threshold in milliseconds
+     * @throws IllegalArgumentException if {@code thresholdMillis} is negative
+     */
+    public void setThresholdMillis(long thresholdMillis) {
+        if(thresholdMillis < 0) {
+            throw new IllegalArgumentException("thresholdMillis has to be >= 0");
+        }
+        thresholdNanos.set(TimeUnit.MILLISECONDS.toNanos(thresholdMillis));
+    }
+
+    /**
+     * Enables writing of slow queries to {@code logFile}. Once
+     * {@code logFile} exceeds {@code maxFileBytes} it's renamed to
+     * {@code logFile.1} (after {@code logFile.1} has been renamed to
+     * {@code logFile.2} and so on) and the oldest of {@code maxBackupCount}
+     * backups is deleted.
+     * @param logFile the log file
+     * @param maxFileBytes the size after which the log file is rolled
+     * @param maxBackupCount the number of backups to keep
+     */
+    public void enableLogFile(File logFile,
+            long maxFileBytes,
+            int maxBackupCount) {
+        if(maxFileBytes <= 0) {
+            throw new IllegalArgumentException("maxFileBytes has to be > 0");
+        }
+        if(maxBackupCount < 0) {
+            throw new IllegalArgumentException("maxBackupCount has to be >= 0");
+        }
+        synchronized(logFileLock) {
+            this.logFile = logFile;
+            this.maxFileBytes = maxFileBytes;
+            this.maxBackupCount = maxBackupCount;
+        }
+    }
+
+    public void disableLogFile() {
+        synchronized(logFileLock) {
+            this.logFile = null;
+        }
+    }
+
+    /*
+    internal implementation notes:
+    - failure to write the log file is only logged since it mustn't fail the
+    query
+    */
+    private void writeLogFileEntry(String fingerprint,
+            String queryText,
+            long durationNanos,
+            int resultCount) {
+        synchronized(logFileLock) {
+            if(logFile == null) {
+                return;
+            }
+            String line = String.format("%s\t%d\t%s\t%s\t%s%n",
+                    Instant.now(),
+                    TimeUnit.NANOSECONDS.toMillis(durationNanos),
+                    resultCount < 0 ? "failed" : String.valueOf(resultCount),
+                    fingerprint,
+                    WHITESPACE_PATTERN.matcher(queryText).replaceAll(" ").trim());
+            byte[] lineBytes = line.getBytes(StandardCharsets.UTF_8);
+            try {
+                if(logFile.exists()
+                        && logFile.length()+lineBytes.length > maxFileBytes) {
+                    rollLogFile();
+                }
+                try (BufferedWriter writer = Files.newBufferedWriter(logFile.toPath(),
+                        StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND)) {
+                    writer.write(line);
+                }
+            }catch(IOException ex) {
+                LOGGER.warn(String.format("writing slow query to log file "
+                        + "'%s' failed",
+                        logFile.getAbsolutePath()),
+                        ex);
+            }
+        }
+    }
+
+    private void rollLogFile() throws IOException {
+        if(maxBackupCount == 0) {
+            Files.delete(logFile.toPath());
+            return;
+        }
+        File oldestBackup = retrieveBackupFile(maxBackupCount);
+        Files.deleteIfExists(oldestBackup.toPath());
+        for(int i=maxBackupCount-1; i>=1; i--) {
+            File backup = retrieveBackupFile(i);
+            if(backup.exists()) {
+                Files.move(backup.toPath(),
+                        retrieveBackupFile(i+1).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(logFile.toPath(),
+                retrieveBackupFile(1).toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private File retrieveBackupFile(int index) {
+        return new File(logFile.getParentFile(),
+                String.format("%s.%d",
+                        logFile.getName(),
+                        index));
+    }
+
+    /**
+     * The mutable statistics of one fingerprint. Guarded by the lock of
+     * {@link #entries}.
+     */
+    private static class Entry {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private long errorCount;
+        private int maxResultCount = -1;
+        private String sampleQueryText;
+        private long sampleDurationNanos = -1;
+
+        void record(String queryText,
+                long durationNanos,
+                int resultCount) {
+            latency.record(durationNanos);
+            if(resultCount < 0) {
+                errorCount++;
+            }else {
+                maxResultCount = Math.max(maxResultCount,
+                        resultCount);
+            }
+            if(durationNanos > sampleDurationNanos) {
+                sampleQueryText = queryText;
+                sampleDurationNanos = durationNanos;
+            }
+        }
+
+        QueryFingerprintStatistics snapshot(String fingerprint) {
+            return new QueryFingerprintStatistics(fingerprint,
+                    sampleQueryText,
+                    latency.snapshot(),
+                    errorCount,
+                    maxResultCount);
+        }
+    }
+}
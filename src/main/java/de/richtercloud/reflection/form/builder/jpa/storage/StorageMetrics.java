@@ -0,0 +1,194 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/*
+internal implementation notes:
+- the entity manager pool is retrieved through a supplier because it's
+recreated in AbstractPersistenceStorage.recreateEntityManager
+- gauges (queue length, capacity and entity manager counts) are read when a
+snapshot is created rather than recorded
+*/
+/**
+ * Records latency histograms and error counts of the operations of a
+ * {@link PersistenceStorage} as well as the time queries wait for admission
+ * and provides them together with the current queue length and number of
+ * active {@link javax.persistence.EntityManager}s as
+ * {@link StorageMetricsSnapshot}s. Published as MXBean by
+ * {@link AbstractPersistenceStorage}.
+ *
+ * @author richter
+ */
+public class StorageMetrics implements StorageMetricsMXBean {
+    public final static String OBJECT_NAME_DOMAIN = "de.richtercloud.reflection.form.builder.jpa.storage";
+    private final Map<StorageOperation, LatencyHistogram> operationLatencies = new EnumMap<>(StorageOperation.class);
+    private final Map<StorageOperation, LongAdder> operationErrorCounts = new EnumMap<>(StorageOperation.class);
+        //both maps are populated in the constructor and never modified
+        //afterwards, so that they can be read concurrently
+    private final LatencyHistogram admissionWait = new LatencyHistogram();
+    private final QueryAdmissionController queryAdmissionController;
+    private final Supplier<EntityManagerPool> entityManagerPoolSupplier;
+    private final Supplier<ConnectionPoolStatistics> connectionPoolStatisticsSupplier;
+
+    /**
+     * Creates the name under which the metrics of {@code storage} are
+     * registered which is unique for every storage instance.
+     * @param persistenceUnitName the persistence unit name of the storage
+     * @param storage the storage
+     * @return the object name
+     * @throws MalformedObjectNameException if the object name can't be
+     *     created
+     */
+    public static ObjectName createObjectName(String persistenceUnitName,
+            Object storage) throws MalformedObjectNameException {
+        return new ObjectName(String.format("%s:type=%s,persistenceUnit=%s,id=%s",
+                OBJECT_NAME_DOMAIN,
+                storage.getClass().getSimpleName(),
+                ObjectName.quote(persistenceUnitName),
+                Integer.toHexString(System.identityHashCode(storage))));
+    }
+
+    /**
+     * Creates a new {@code StorageMetrics}.
+     * @param queryAdmissionController the admission controller to read the
+     *     queue length and capacity from
+     * @param entityManagerPoolSupplier supplies the current entity manager
+     *     pool or {@code null} if the storage hasn't been started
+     */
+    public StorageMetrics(QueryAdmissionController queryAdmissionController,
+            Supplier<EntityManagerPool> entityManagerPoolSupplier) {
+        this(queryAdmissionController,
+                entityManagerPoolSupplier,
+                () -> null //connectionPoolStatisticsSupplier
+        );
+    }
+
+    /**
+     * Creates a new {@code StorageMetrics}.
+     * @param queryAdmissionController the admission controller to read the
+     *     queue length and capacity from
+     * @param entityManagerPoolSupplier supplies the current entity manager
+     *     pool or {@code null} if the storage hasn't been started
+     * @param connectionPoolStatisticsSupplier supplies the current state of
+     *     the JDBC connection pool or {@code null} if connections aren't
+     *     pooled or the storage hasn't been started
+     */
+    public StorageMetrics(QueryAdmissionController queryAdmissionController,
+            Supplier<EntityManagerPool> entityManagerPoolSupplier,
+            Supplier<ConnectionPoolStatistics> connectionPoolStatisticsSupplier) {
+        this.queryAdmissionController = queryAdmissionController;
+        this.entityManagerPoolSupplier = entityManagerPoolSupplier;
+        this.connectionPoolStatisticsSupplier = connectionPoolStatisticsSupplier;
+        for(StorageOperation operation : StorageOperation.values()) {
+            operationLatencies.put(operation,
+                    new LatencyHistogram());
+            operationErrorCounts.put(operation,
+                    new LongAdder());
+        }
+    }
+
+    /**
+     * Records an invocation of {@code operation}.
+     * @param operation the operation
+     * @param durationNanos the duration of the invocation
+     * @param failed whether the invocation failed with an exception
+     */
+    public void recordOperation(StorageOperation operation,
+            long durationNanos,
+            boolean failed) {
+        operationLatencies.get(operation).record(durationNanos);
+        if(failed) {
+            operationErrorCounts.get(operation).increment();
+        }
+    }
+
+    /**
+     * Records the time a query waited for admission.
+     * @param waitNanos the wait time in nanoseconds
+     */
+    public void recordAdmissionWait(long waitNanos) {
+        admissionWait.record(waitNanos);
+    }
+
+    /**
+     * Creates a snapshot of the recorded metrics and current gauges.
+     * @return the snapshot
+     */
+    public StorageMetricsSnapshot snapshot() {
+        Map<StorageOperation, LatencySnapshot> latencySnapshots = new EnumMap<>(StorageOperation.class);
+        Map<StorageOperation, Long> errorCounts = new EnumMap<>(StorageOperation.class);
+        for(StorageOperation operation : StorageOperation.values()) {
+            latencySnapshots.put(operation,
+                    operationLatencies.get(operation).snapshot());
+            errorCounts.put(operation,
+                    operationErrorCounts.get(operation).sum());
+        }
+        EntityManagerPool entityManagerPool = entityManagerPoolSupplier.get();
+        return new StorageMetricsSnapshot(System.currentTimeMillis(),
+                latencySnapshots,
+                errorCounts,
+                admissionWait.snapshot(),
+                queryAdmissionController.getQueueLength(),
+                queryAdmissionController.getLimit(),
+                queryAdmissionController.getUsed(),
+                entityManagerPool != null ? entityManagerPool.getLeasedCount() : 0,
+                entityManagerPool != null ? entityManagerPool.getIdleCount() : 0,
+                connectionPoolStatisticsSupplier.get());
+    }
+
+    @Override
+    public StorageMetricsSnapshot getSnapshot() {
+        return snapshot();
+    }
+
+    @Override
+    public int getQueueLength() {
+        return queryAdmissionController.getQueueLength();
+    }
+
+    @Override
+    public int getActiveEntityManagerCount() {
+        EntityManagerPool entityManagerPool = entityManagerPoolSupplier.get();
+        if(entityManagerPool == null) {
+            return 0;
+        }
+        return entityManagerPool.getLeasedCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        long retValue = 0;
+        for(LongAdder errorCount : operationErrorCounts.values()) {
+            retValue += errorCount.sum();
+        }
+        return retValue;
+    }
+
+    @Override
+    public void reset() {
+        for(StorageOperation operation : StorageOperation.values()) {
+            operationLatencies.get(operation).reset();
+            operationErrorCounts.get(operation).reset();
+        }
+        admissionWait.reset();
+    }
+}
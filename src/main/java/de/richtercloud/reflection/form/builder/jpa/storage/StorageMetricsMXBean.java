@@ -0,0 +1,42 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+/**
+ * The management interface of {@link StorageMetrics} which is registered in
+ * the platform MBean server for every started {@link AbstractPersistenceStorage}
+ * (see {@link StorageMetrics#createObjectName(java.lang.String, java.lang.Object) }).
+ *
+ * @author richter
+ */
+public interface StorageMetricsMXBean {
+
+    StorageMetricsSnapshot getSnapshot();
+
+    int getQueueLength();
+
+    int getActiveEntityManagerCount();
+
+    /**
+     * The number of failed invocations of all operations.
+     * @return the total error count
+     */
+    long getErrorCount();
+
+    /**
+     * Discards all recorded latencies and error counts.
+     */
+    void reset();
+}
@@ -0,0 +1,137 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.beans.ConstructorProperties;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * An immutable copy of the metrics of a {@link PersistenceStorage} created
+ * with {@link StorageMetrics#snapshot() }.
+ *
+ * @author richter
+ */
+public class StorageMetricsSnapshot {
+    private final long timestampMillis;
+    private final Map<StorageOperation, LatencySnapshot> operationLatencies;
+    private final Map<StorageOperation, Long> operationErrorCounts;
+    private final LatencySnapshot admissionWait;
+    private final int queueLength;
+    private final int admissionLimit;
+    private final int usedCapacity;
+    private final int activeEntityManagerCount;
+    private final int idleEntityManagerCount;
+    private final ConnectionPoolStatistics connectionPool;
+
+    @ConstructorProperties({"timestampMillis", "operationLatencies",
+        "operationErrorCounts", "admissionWait", "queueLength",
+        "admissionLimit", "usedCapacity", "activeEntityManagerCount",
+        "idleEntityManagerCount", "connectionPool"})
+    public StorageMetricsSnapshot(long timestampMillis,
+            Map<StorageOperation, LatencySnapshot> operationLatencies,
+            Map<StorageOperation, Long> operationErrorCounts,
+            LatencySnapshot admissionWait,
+            int queueLength,
+            int admissionLimit,
+            int usedCapacity,
+            int activeEntityManagerCount,
+            int idleEntityManagerCount,
+            ConnectionPoolStatistics connectionPool) {
+        this.timestampMillis = timestampMillis;
+        this.operationLatencies = Collections.unmodifiableMap(new EnumMap<>(operationLatencies));
+        this.operationErrorCounts = Collections.unmodifiableMap(new EnumMap<>(operationErrorCounts));
+        this.admissionWait = admissionWait;
+        this.queueLength = queueLength;
+        this.admissionLimit = admissionLimit;
+        this.usedCapacity = usedCapacity;
+        this.activeEntityManagerCount = activeEntityManagerCount;
+        this.idleEntityManagerCount = idleEntityManagerCount;
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * The time the snapshot has been created.
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * The latencies of successful and failed invocations of every operation.
+     * @return an unmodifiable map containing all {@link StorageOperation}s
+     */
+    public Map<StorageOperation, LatencySnapshot> getOperationLatencies() {
+        return operationLatencies;
+    }
+
+    /**
+     * The number of invocations of every operation which failed with an
+     * exception.
+     * @return an unmodifiable map containing all {@link StorageOperation}s
+     */
+    public Map<StorageOperation, Long> getOperationErrorCounts() {
+        return operationErrorCounts;
+    }
+
+    /**
+     * The time queries spent waiting for admission by the
+     * {@link QueryAdmissionController}.
+     * @return the admission wait latencies
+     */
+    public LatencySnapshot getAdmissionWait() {
+        return admissionWait;
+    }
+
+    /**
+     * The number of queries waiting for admission.
+     * @return the queue length
+     */
+    public int getQueueLength() {
+        return queueLength;
+    }
+
+    public int getAdmissionLimit() {
+        return admissionLimit;
+    }
+
+    public int getUsedCapacity() {
+        return usedCapacity;
+    }
+
+    /**
+     * The number of {@link javax.persistence.EntityManager}s currently leased
+     * from the storage's {@link EntityManagerPool}.
+     * @return the number of active entity managers
+     */
+    public int getActiveEntityManagerCount() {
+        return activeEntityManagerCount;
+    }
+
+    public int getIdleEntityManagerCount() {
+        return idleEntityManagerCount;
+    }
+
+    /**
+     * The state of the JDBC connection pool.
+     * @return the connection pool statistics or {@code null} if connections
+     *     aren't pooled or the storage hasn't been started
+     */
+    public ConnectionPoolStatistics getConnectionPool() {
+        return connectionPool;
+    }
+}
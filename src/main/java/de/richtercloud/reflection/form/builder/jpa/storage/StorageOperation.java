@@ -0,0 +1,51 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+/**
+ * The operations of {@link PersistenceStorage} for which {@link StorageMetrics}
+ * records latencies and errors.
+ *
+ * @author richter
+ */
+public enum StorageOperation {
+    STORE,
+    UPDATE,
+    DELETE,
+    RETRIEVE,
+    /**
+     * Batch operations like
+     * {@link PersistenceStorage#storeAll(java.util.Collection) } and
+     * {@link PersistenceStorage#deleteAllById(java.util.Collection, java.lang.Class) }.
+     */
+    BATCH,
+    /**
+     * All queries which are admitted by the {@link QueryAdmissionController}
+     * and return their result at once (excluding streamed queries whose
+     * duration depends on the consumer). Cache hits aren't recorded.
+     */
+    QUERY,
+    /**
+     * Calls to the {@link de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManager}
+     * methods of the storage.
+     */
+    SEQUENCE,
+    /**
+     * The startup of the storage in {@link AbstractPersistenceStorage#start() }
+     * including the startup of a managed server process and the creation of
+     * the {@link javax.persistence.EntityManagerFactory}.
+     */
+    STARTUP
+}
@@ -0,0 +1,229 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- connections are held until all of them have been opened because a
+connection which is returned to the pool right away would be handed out again
+for the next step
+- Hibernate caches the translation of JPQL queries in the query plan cache of
+the session factory when they're created, so queries don't need to be
+executed (which would put load on the database and require parameters)
+- Hibernate builds the metamodel eagerly when the entity manager factory is
+created, so there's nothing to load for it; the entity query phase translates
+the queries which the storage derives from the metamodel for every entity class
+instead
+- failures of a phase are logged and don't prevent the following phases since
+the warm-up is an optimization and the storage works without it
+*/
+/**
+ * Performs the warm-up of a storage after it has been started (see
+ * {@link PersistenceStorage#warmUp(de.richtercloud.reflection.form.builder.jpa.storage.WarmUpQuerySource, de.richtercloud.reflection.form.builder.jpa.storage.StorageWarmUpListener) }).
+ * The phases are run in the order of {@link StorageWarmUpPhase} and can be
+ * cancelled by interrupting the running thread.
+ *
+ * @author richter
+ */
+class StorageWarmUp {
+    private final static Logger LOGGER = LoggerFactory.getLogger(StorageWarmUp.class);
+    private final PersistenceStorage<?> storage;
+    private final MetamodelIndex metamodelIndex;
+    private final ConnectionProvider connectionProvider;
+    private final int connectionCount;
+    private final Set<Class<?>> entityClasses;
+    private final WarmUpQuerySource querySource;
+    private final StorageWarmUpListener listener;
+
+    /**
+     * Creates a new {@code StorageWarmUp}.
+     * @param storage the storage to retrieve entity managers from
+     * @param metamodelIndex the index to retrieve entity names from
+     * @param connectionProvider the connection provider to open connections
+     *     with or {@code null} if connections shouldn't be opened
+     * @param connectionCount the number of connections to open
+     * @param entityClasses the entity classes to translate entity queries
+     *     for and retrieve queries for
+     * @param querySource the source of queries to translate or {@code null}
+     *     if no queries should be translated
+     * @param listener the listener to notify about progress or {@code null}
+     */
+    StorageWarmUp(PersistenceStorage<?> storage,
+            MetamodelIndex metamodelIndex,
+            ConnectionProvider connectionProvider,
+            int connectionCount,
+            Set<Class<?>> entityClasses,
+            WarmUpQuerySource querySource,
+            StorageWarmUpListener listener) {
+        this.storage = storage;
+        this.metamodelIndex = metamodelIndex;
+        this.connectionProvider = connectionProvider;
+        this.connectionCount = connectionCount;
+        this.entityClasses = entityClasses;
+        this.querySource = querySource;
+        this.listener = listener;
+    }
+
+    /**
+     * Runs all phases of the warm-up.
+     * @throws InterruptedException if the running thread is interrupted in
+     *     which case the warm-up stops after the current step
+     */
+    void run() throws InterruptedException {
+        warmUpConnections();
+        warmUpEntityQueries();
+        warmUpQueries();
+    }
+
+    private void warmUpConnections() throws InterruptedException {
+        if(connectionProvider == null) {
+            LOGGER.debug("no connection provider available, skipping opening "
+                    + "connections");
+            return;
+        }
+        notifyProgress(StorageWarmUpPhase.CONNECTIONS,
+                0,
+                connectionCount);
+        List<Connection> connections = new LinkedList<>();
+        try {
+            for(int i=0; i<connectionCount; i++) {
+                checkInterrupted();
+                connections.add(connectionProvider.getConnection());
+                notifyProgress(StorageWarmUpPhase.CONNECTIONS,
+                        i+1,
+                        connectionCount);
+            }
+        }catch(SQLException ex) {
+            LOGGER.warn(String.format("opening connection %d of %d failed",
+                    connections.size()+1,
+                    connectionCount),
+                    ex);
+        }finally {
+            for(Connection connection : connections) {
+                try {
+                    connectionProvider.closeConnection(connection);
+                }catch(SQLException ex) {
+                    LOGGER.debug("returning connection to pool failed",
+                            ex);
+                }
+            }
+        }
+    }
+
+    private void warmUpEntityQueries() throws InterruptedException {
+        notifyProgress(StorageWarmUpPhase.ENTITY_QUERIES,
+                0,
+                entityClasses.size());
+        int completedSteps = 0;
+        EntityManager entityManager = storage.retrieveEntityManager();
+        try {
+            for(Class<?> entityClass : entityClasses) {
+                checkInterrupted();
+                if(metamodelIndex.isEntity(entityClass)) {
+                    String queryText = String.format("SELECT e FROM %s e",
+                            metamodelIndex.getEntityName(entityClass));
+                    translateQuery(entityManager,
+                            queryText);
+                    translateQuery(entityManager,
+                            AbstractPersistenceStorage.buildCountQueryText(queryText));
+                }else {
+                    LOGGER.debug(String.format("class %s isn't an entity, "
+                            + "skipping translation of entity queries",
+                            entityClass.getName()));
+                }
+                completedSteps += 1;
+                notifyProgress(StorageWarmUpPhase.ENTITY_QUERIES,
+                        completedSteps,
+                        entityClasses.size());
+            }
+        }finally {
+            storage.releaseEntityManager(entityManager);
+        }
+    }
+
+    private void warmUpQueries() throws InterruptedException {
+        if(querySource == null) {
+            return;
+        }
+        Map<Class<?>, List<String>> queryTextsMap = new HashMap<>();
+        int totalSteps = 0;
+        for(Class<?> entityClass : entityClasses) {
+            List<String> queryTexts = querySource.retrieveQueryTexts(entityClass);
+            queryTextsMap.put(entityClass,
+                    queryTexts);
+            totalSteps += queryTexts.size();
+        }
+        notifyProgress(StorageWarmUpPhase.QUERIES,
+                0,
+                totalSteps);
+        int completedSteps = 0;
+        EntityManager entityManager = storage.retrieveEntityManager();
+        try {
+            for(List<String> queryTexts : queryTextsMap.values()) {
+                for(String queryText : queryTexts) {
+                    checkInterrupted();
+                    translateQuery(entityManager,
+                            queryText);
+                        //query history might contain invalid queries
+                    completedSteps += 1;
+                    notifyProgress(StorageWarmUpPhase.QUERIES,
+                            completedSteps,
+                            totalSteps);
+                }
+            }
+        }finally {
+            storage.releaseEntityManager(entityManager);
+        }
+    }
+
+    private void translateQuery(EntityManager entityManager,
+            String queryText) {
+        try {
+            entityManager.createQuery(queryText);
+        }catch(IllegalArgumentException ex) {
+            LOGGER.debug(String.format("translating query '%s' failed",
+                    queryText),
+                    ex);
+        }
+    }
+
+    private void checkInterrupted() throws InterruptedException {
+        if(Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private void notifyProgress(StorageWarmUpPhase phase,
+            int completedSteps,
+            int totalSteps) {
+        if(listener != null) {
+            listener.onProgress(phase,
+                    completedSteps,
+                    totalSteps);
+        }
+    }
+}
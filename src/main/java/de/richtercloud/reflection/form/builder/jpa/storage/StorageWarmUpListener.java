@@ -0,0 +1,37 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+/**
+ * Receives the progress of a storage warm-up. Invoked on the warm-up thread,
+ * i.e. implementations updating GUI components have to do that with
+ * {@link javax.swing.SwingUtilities#invokeLater(java.lang.Runnable) }.
+ *
+ * @author richter
+ */
+@FunctionalInterface
+public interface StorageWarmUpListener {
+
+    /**
+     * Invoked once at the start of each phase (with {@code completedSteps}
+     * being {@code 0}) and after every completed step.
+     * @param phase the current phase
+     * @param completedSteps the number of completed steps of the phase
+     * @param totalSteps the total number of steps of the phase
+     */
+    void onProgress(StorageWarmUpPhase phase,
+            int completedSteps,
+            int totalSteps);
+}
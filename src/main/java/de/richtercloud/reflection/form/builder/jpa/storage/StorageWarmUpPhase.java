@@ -0,0 +1,38 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+/**
+ * The phases of the warm-up started with
+ * {@link PersistenceStorage#warmUp(de.richtercloud.reflection.form.builder.jpa.storage.WarmUpQuerySource, de.richtercloud.reflection.form.builder.jpa.storage.StorageWarmUpListener) }
+ * in the order they're run.
+ *
+ * @author richter
+ */
+public enum StorageWarmUpPhase {
+    /**
+     * Opening connections up to the minimum size of the connection pool.
+     */
+    CONNECTIONS,
+    /**
+     * Translating the queries for all entities of every entity class of the
+     * storage configuration and for their count into SQL.
+     */
+    ENTITY_QUERIES,
+    /**
+     * Translating queries provided by a {@link WarmUpQuerySource} into SQL.
+     */
+    QUERIES
+}
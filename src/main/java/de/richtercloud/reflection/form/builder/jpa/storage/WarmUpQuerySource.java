@@ -0,0 +1,35 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.util.List;
+
+/**
+ * Provides the queries which are translated during a storage warm-up, e.g.
+ * the most used queries of the query history.
+ *
+ * @author richter
+ */
+@FunctionalInterface
+public interface WarmUpQuerySource {
+
+    /**
+     * Retrieves the JPQL query texts to translate for {@code entityClass}.
+     * @param entityClass the entity class
+     * @return the query texts ordered by importance (the most important
+     *     first), never {@code null}
+     */
+    List<String> retrieveQueryTexts(Class<?> entityClass);
+}
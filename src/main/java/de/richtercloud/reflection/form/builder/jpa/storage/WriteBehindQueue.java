@@ -0,0 +1,508 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.message.handler.ExceptionMessage;
+import de.richtercloud.message.handler.IssueHandler;
+import de.richtercloud.message.handler.Message;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import javax.swing.JOptionPane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+internal implementation notes:
+- pending entities are kept in insertion order and a coalesced entity is moved
+to the tail with a new sequence number, so that the sequence numbers of
+pending entities are ascending and everything up to the highest sequence
+number of a written batch has been written (or superseded by a pending
+entity with a higher sequence number) which makes the flush barrier a simple
+comparison
+- a single writer thread keeps writes of the same entity in order
+- a failed batch is written again entity by entity in order to report only
+the entities which actually fail and not to lose the other updates of the
+batch
+- entities without an id are coalesced by object identity
+- a snapshot of the entity is queued instead of the entity itself since the
+caller (usually the event dispatch thread) continues to modify the entity
+while the writer thread reads it during merge; the snapshot is created on the
+calling thread
+- the writer thread catches everything thrown while writing a batch because
+its death would leave callers of flush and enqueue waiting forever; if it
+terminates nevertheless (interruption) the queue is closed, pending updates
+are reported as discarded and waiters are woken up
+*/
+/**
+ * Queues updates of entities and writes them in batches on a background
+ * writer thread. Updates of the same entity identity which are queued before
+ * the entity is written are coalesced into one. The number of pending
+ * entities is bounded and {@link #enqueue(java.lang.Object) } blocks if the
+ * queue is full. Failures are reported through an {@link IssueHandler} since
+ * the caller has returned already.
+ *
+ * @author richter
+ */
+public class WriteBehindQueue {
+    private final static Logger LOGGER = LoggerFactory.getLogger(WriteBehindQueue.class);
+    public final static int CAPACITY_DEFAULT = 1000;
+    public final static long LINGER_MILLIS_DEFAULT = 200;
+    private final EntityWriter entityWriter;
+    private final Function<Object, Object> identityRetriever;
+    private final Function<Object, Object> snapshotCreator;
+    private final IssueHandler issueHandler;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingCondition = lock.newCondition();
+    private final Condition capacityCondition = lock.newCondition();
+    private final Condition progressCondition = lock.newCondition();
+    private final LinkedHashMap<Object, Entry> pending = new LinkedHashMap<>();
+    /**
+     * The keys of the batch which is currently being written.
+     */
+    private final Set<Object> inFlightKeys = new HashSet<>();
+    private long lastSequence;
+    private long completedSequence;
+    private boolean flushRequested;
+    private boolean closed;
+    /**
+     * Whether the writer thread has terminated. Set before waiting threads are
+     * woken up for the last time.
+     */
+    private boolean writerTerminated;
+    private final Thread writerThread;
+
+    /**
+     * Creates the key under which the entity of type {@code clazz} with id
+     * {@code id} is queued if {@code identityRetriever} returns it for an
+     * entity.
+     * @param clazz the entity class
+     * @param id the id
+     * @return the key
+     */
+    public static Object createKey(Class<?> clazz,
+            Object id) {
+        return Arrays.asList(clazz,
+                id);
+    }
+
+    /**
+     * Creates a new {@code WriteBehindQueue} and starts its writer thread.
+     * @param entityWriter the writer used to write batches and single
+     *     entities
+     * @param identityRetriever retrieves the key of an entity which has to be
+     *     created with {@link #createKey(java.lang.Class, java.lang.Object) }
+     *     or {@code null} if the entity doesn't have an id yet
+     * @param snapshotCreator creates a copy of an entity which is queued and
+     *     written instead of the entity, so that the entity can be modified
+     *     after it's been queued
+     * @param issueHandler the issue handler to report failed writes to
+     * @param capacity the maximum number of pending entities
+     * @param maxBatchSize the maximum number of entities written in one
+     *     transaction
+     * @param lingerMillis the time the writer waits for further updates after
+     *     the first update has been queued in order to fill batches and
+     *     coalesce updates (0 to write immediately)
+     */
+    public WriteBehindQueue(EntityWriter entityWriter,
+            Function<Object, Object> identityRetriever,
+            Function<Object, Object> snapshotCreator,
+            IssueHandler issueHandler,
+            int capacity,
+            int maxBatchSize,
+            long lingerMillis) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("capacity has to be > 0");
+        }
+        if(maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize has to be > 0");
+        }
+        if(lingerMillis < 0) {
+            throw new IllegalArgumentException("lingerMillis has to be >= 0");
+        }
+        this.entityWriter = entityWriter;
+        this.identityRetriever = identityRetriever;
+        this.snapshotCreator = snapshotCreator;
+        this.issueHandler = issueHandler;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.writerThread = new Thread(this::runWriter,
+                "persistence-storage-write-behind");
+        this.writerThread.setDaemon(true);
+            //pending updates are written in close which is invoked in
+            //AbstractPersistenceStorage.shutdown
+        this.writerThread.start();
+    }
+
+    private Object retrieveKey(Object entity) {
+        Object key = identityRetriever.apply(entity);
+        if(key == null) {
+            return new IdentityKey(entity);
+        }
+        return key;
+    }
+
+    /**
+     * Queues an update of a snapshot of {@code entity} which replaces a
+     * pending update of the same entity identity. Blocks while the queue is
+     * full. Changes made to {@code entity} after the invocation aren't
+     * written.
+     * @param entity the entity to update
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *     for capacity
+     * @throws IllegalStateException if the queue has been closed or the
+     *     writer thread terminated
+     */
+    public void enqueue(Object entity) throws InterruptedException {
+        Object key = retrieveKey(entity);
+        Object snapshot = snapshotCreator.apply(entity);
+        lock.lockInterruptibly();
+        try {
+            while(!closed
+                    && pending.size() >= capacity
+                    && !pending.containsKey(key)) {
+                capacityCondition.await();
+            }
+            if(closed) {
+                throw new IllegalStateException("write-behind queue has been "
+                        + "closed");
+            }
+            Entry previous = pending.remove(key);
+                //removed in order to move the entity to the tail
+            if(previous != null) {
+                LOGGER.trace(String.format("coalescing update of entity with "
+                        + "key %s",
+                        key));
+            }
+            pending.put(key,
+                    new Entry(snapshot,
+                            ++lastSequence));
+            pendingCondition.signalAll();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a pending update of {@code entity} and waits until a batch which
+     * is currently written and contains it has been written. Has to be
+     * invoked before {@code entity} is written or deleted synchronously in
+     * order to avoid that the pending update overwrites the change or
+     * recreates a deleted entity.
+     * @param entity the entity
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void discard(Object entity) throws InterruptedException {
+        discardKey(retrieveKey(entity));
+    }
+
+    /**
+     * Like {@link #discard(java.lang.Object) } for the entity of type
+     * {@code clazz} with id {@code id}.
+     * @param clazz the entity class
+     * @param id the id
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void discard(Class<?> clazz,
+            Object id) throws InterruptedException {
+        discardKey(createKey(clazz,
+                id));
+    }
+
+    private void discardKey(Object key) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if(pending.remove(key) != null) {
+                capacityCondition.signalAll();
+                if(pending.isEmpty() && inFlightKeys.isEmpty()) {
+                    completedSequence = lastSequence;
+                    progressCondition.signalAll();
+                }
+            }
+            while(inFlightKeys.contains(key)
+                    && !writerTerminated) {
+                progressCondition.await();
+            }
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until all updates which have been queued before the invocation
+     * have been written (successfully or not). Updates queued afterwards
+     * might be written as well.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws IllegalStateException if the writer thread terminated before
+     *     all updates have been written
+     */
+    public void flush() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long targetSequence = lastSequence;
+            flushRequested = true;
+            pendingCondition.signalAll();
+                //wakes up the writer if it's lingering
+            while(completedSequence < targetSequence
+                    && !writerTerminated) {
+                progressCondition.await();
+            }
+            if(completedSequence < targetSequence) {
+                throw new IllegalStateException("write-behind writer thread "
+                        + "terminated before all updates have been written");
+            }
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all pending updates and stops the writer thread. Further
+     * invocations of {@link #enqueue(java.lang.Object) } fail.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *     for the writer thread
+     */
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            closed = true;
+            pendingCondition.signalAll();
+            capacityCondition.signalAll();
+        }finally {
+            lock.unlock();
+        }
+        writerThread.join();
+    }
+
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    private void runWriter() {
+        try {
+            while(true) {
+                List<Object> batch = new ArrayList<>(maxBatchSize);
+                long batchSequence = 0;
+                lock.lock();
+                try {
+                    while(pending.isEmpty()
+                            && !closed) {
+                        pendingCondition.await();
+                    }
+                    if(pending.isEmpty()) {
+                        //closed
+                        return;
+                    }
+                    long lingerDeadlineNanos = System.nanoTime()+lingerNanos;
+                    while(!closed
+                            && !flushRequested
+                            && pending.size() < maxBatchSize) {
+                        long remainingNanos = lingerDeadlineNanos-System.nanoTime();
+                        if(remainingNanos <= 0) {
+                            break;
+                        }
+                        pendingCondition.awaitNanos(remainingNanos);
+                    }
+                    Iterator<Map.Entry<Object, Entry>> pendingItr = pending.entrySet().iterator();
+                    while(pendingItr.hasNext()
+                            && batch.size() < maxBatchSize) {
+                        Map.Entry<Object, Entry> pendingEntry = pendingItr.next();
+                        batch.add(pendingEntry.getValue().getEntity());
+                        batchSequence = pendingEntry.getValue().getSequence();
+                        inFlightKeys.add(pendingEntry.getKey());
+                        pendingItr.remove();
+                    }
+                    capacityCondition.signalAll();
+                }finally {
+                    lock.unlock();
+                }
+                try {
+                    writeBatch(batch);
+                }catch(Throwable ex) {
+                    //writeBatch handles storage and runtime exceptions of
+                    //single entities, so this is an error which must not
+                    //terminate the writer thread
+                    LOGGER.error(String.format("an unexpected exception "
+                            + "occured during writing of a batch of %d "
+                            + "entities, the batch is discarded",
+                            batch.size()),
+                            ex);
+                    issueHandler.handleUnexpectedException(new ExceptionMessage(ex));
+                }finally {
+                    lock.lock();
+                    try {
+                        inFlightKeys.clear();
+                        if(pending.isEmpty()) {
+                            completedSequence = lastSequence;
+                                //pending entities might have been discarded
+                            flushRequested = false;
+                        }else {
+                            completedSequence = Math.max(completedSequence,
+                                    batchSequence);
+                        }
+                        progressCondition.signalAll();
+                    }finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }catch(InterruptedException ex) {
+            LOGGER.warn("write-behind writer thread has been interrupted, "
+                    + "pending updates are discarded",
+                    ex);
+        }finally {
+            terminateWriter();
+        }
+    }
+
+    /**
+     * Closes the queue after the writer thread terminated, discards pending
+     * updates and wakes up all waiting threads which then fail instead of
+     * waiting forever.
+     */
+    private void terminateWriter() {
+        lock.lock();
+        try {
+            closed = true;
+            writerTerminated = true;
+            if(!pending.isEmpty()) {
+                LOGGER.error(String.format("write-behind writer thread "
+                        + "terminated, %d pending updates have been discarded",
+                        pending.size()));
+                pending.clear();
+            }
+            inFlightKeys.clear();
+            pendingCondition.signalAll();
+            capacityCondition.signalAll();
+            progressCondition.signalAll();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeBatch(List<Object> batch) {
+        LOGGER.debug(String.format("writing batch of %d entities",
+                batch.size()));
+        try {
+            entityWriter.writeAll(batch);
+            return;
+        }catch(StorageException | RuntimeException ex) {
+            LOGGER.debug("writing batch failed, writing entities one by one",
+                    ex);
+        }
+        for(Object entity : batch) {
+            try {
+                entityWriter.write(entity);
+            }catch(StorageException ex) {
+                issueHandler.handle(new Message(ex,
+                        JOptionPane.ERROR_MESSAGE));
+            }catch(RuntimeException ex) {
+                issueHandler.handleUnexpectedException(new ExceptionMessage(ex));
+            }
+        }
+    }
+
+    /**
+     * Writes entities for {@link WriteBehindQueue}.
+     */
+    public interface EntityWriter {
+
+        /**
+         * Writes all of {@code entities} in one transaction.
+         * @param entities the entities to write
+         * @throws StorageException if an exception occurs during writing in
+         *     which case none of {@code entities} has been written
+         */
+        void writeAll(List<Object> entities) throws StorageException;
+
+        void write(Object entity) throws StorageException;
+    }
+
+    private static class Entry {
+        private final Object entity;
+        private final long sequence;
+
+        Entry(Object entity,
+                long sequence) {
+            this.entity = entity;
+            this.sequence = sequence;
+        }
+
+        public Object getEntity() {
+            return entity;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    /**
+     * Compares entities without an id by identity since their
+     * {@code equals} and {@code hashCode} might change once they're
+     * written.
+     */
+    private static class IdentityKey {
+        private final Object entity;
+
+        IdentityKey(Object entity) {
+            this.entity = entity;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(entity);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            return entity == ((IdentityKey)obj).entity;
+        }
+    }
+}
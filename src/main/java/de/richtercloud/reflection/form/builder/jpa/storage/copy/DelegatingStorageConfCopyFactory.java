@@ -14,15 +14,21 @@
  */
 package de.richtercloud.reflection.form.builder.jpa.storage.copy;
 
+import de.richtercloud.reflection.form.builder.jpa.storage.AbstractPersistenceStorageConf;
 import de.richtercloud.reflection.form.builder.jpa.storage.DerbyEmbeddedPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyMemoryPersistenceStorageConf;
 import de.richtercloud.reflection.form.builder.jpa.storage.DerbyNetworkPersistenceStorageConf;
 import de.richtercloud.reflection.form.builder.jpa.storage.MySQLAutoPersistenceStorageConf;
 import de.richtercloud.reflection.form.builder.jpa.storage.PostgresqlAutoPersistenceStorageConf;
 import de.richtercloud.reflection.form.builder.jpa.storage.PostgresqlPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.jpa.storage.RoutingPersistenceStorageConf;
 import de.richtercloud.reflection.form.builder.storage.StorageConf;
 import de.richtercloud.reflection.form.builder.storage.copy.StorageConfCopyException;
 import de.richtercloud.reflection.form.builder.storage.copy.StorageConfCopyFactory;
 import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  *
@@ -45,6 +51,22 @@ public class DelegatingStorageConfCopyFactory implements StorageConfCopyFactory<
             } catch (IOException ex) {
                 throw new StorageConfCopyException(ex);
             }
+        }else if(storageConf instanceof DerbyMemoryPersistenceStorageConf) {
+            DerbyMemoryPersistenceStorageConf storageConfCast = (DerbyMemoryPersistenceStorageConf) storageConf;
+            DerbyMemoryPersistenceStorageConf retValue0;
+            try {
+                retValue0 = new DerbyMemoryPersistenceStorageConf(storageConfCast.getDatabaseDriver(),
+                        storageConfCast.getEntityClasses(),
+                        storageConfCast.getUsername(),
+                        storageConfCast.getPassword(),
+                        storageConfCast.getDatabaseName(),
+                        storageConfCast.getSchemeChecksumFile());
+            } catch (IOException ex) {
+                throw new StorageConfCopyException(ex);
+            }
+            retValue0.setSnapshotDir(storageConfCast.getSnapshotDir());
+            retValue0.setSnapshotIntervalSeconds(storageConfCast.getSnapshotIntervalSeconds());
+            retValue = retValue0;
         }else if(storageConf instanceof DerbyNetworkPersistenceStorageConf) {
             DerbyNetworkPersistenceStorageConf storageConfCast = (DerbyNetworkPersistenceStorageConf) storageConf;
             try {
@@ -108,11 +130,31 @@ public class DelegatingStorageConfCopyFactory implements StorageConfCopyFactory<
             } catch (IOException ex) {
                 throw new StorageConfCopyException(ex);
             }
+        }else if(storageConf instanceof RoutingPersistenceStorageConf) {
+            RoutingPersistenceStorageConf storageConfCast = (RoutingPersistenceStorageConf) storageConf;
+            Map<AbstractPersistenceStorageConf, AbstractPersistenceStorageConf> copies = new IdentityHashMap<>();
+                //configurations shared by several routes stay shared
+            for(AbstractPersistenceStorageConf delegateConf : storageConfCast.getDistinctStorageConfs()) {
+                copies.put(delegateConf,
+                        (AbstractPersistenceStorageConf) copy(delegateConf));
+            }
+            Map<Class<?>, AbstractPersistenceStorageConf> routes = new LinkedHashMap<>();
+            for(Map.Entry<Class<?>, AbstractPersistenceStorageConf> route : storageConfCast.getRoutes().entrySet()) {
+                routes.put(route.getKey(),
+                        copies.get(route.getValue()));
+            }
+            retValue = new RoutingPersistenceStorageConf(copies.get(storageConfCast.getDefaultStorageConf()),
+                    routes);
         }else {
             throw new IllegalArgumentException(String.format("storage conf of "
                     + "type %s not supported",
                     storageConf.getClass()));
         }
+        if(storageConf instanceof AbstractPersistenceStorageConf) {
+            //the pool settings of the delegates of routing configurations are
+            //copied in the recursive invocations
+            ((AbstractPersistenceStorageConf) storageConf).copyPoolSettingsTo((AbstractPersistenceStorageConf) retValue);
+        }
         return retValue;
     }
 }
@@ -85,8 +85,9 @@ public class ToOneTypeHandler implements TypeHandler<Object, FieldUpdateEvent<Ob
         }
         Class<?> entityClass = (Class<?>)type;
         List<Field> entityClassFields = readOnlyFieldRetriever.retrieveRelevantFields(entityClass);
-        Set<Field> mappedFieldCandidates = QueryPanel.retrieveMappedFieldCandidates(entityClass,
-                        entityClassFields);
+        Set<Field> mappedFieldCandidates = QueryPanel.retrieveMappedFieldCandidates(storage.getMetamodelIndex(),
+                entityClass,
+                entityClassFields);
         BidirectionalControlPanel bidirectionalControlPanel;
         bidirectionalControlPanel = new BidirectionalControlPanel(declaringClass,
                 bidirectionalHelpDialogTitle,
@@ -0,0 +1,77 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import java.lang.ref.Reference;
+import java.lang.reflect.Field;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class DirtyFieldTrackerTest {
+
+    private static class Entity {
+        @SuppressWarnings("unused")
+        private String name;
+    }
+
+    @Test
+    public void testMarkDirty() throws NoSuchFieldException {
+        DirtyFieldTracker instance = new DirtyFieldTracker();
+        Entity entity = new Entity();
+        Entity otherEntity = new Entity();
+        Field field = Entity.class.getDeclaredField("name");
+        assertTrue(instance.retrieveDirtyFields(entity).isEmpty());
+        instance.markDirty(entity,
+                field);
+        instance.markDirty(entity,
+                field);
+        Set<Field> result = instance.retrieveDirtyFields(entity);
+        assertEquals(1,
+                result.size());
+        assertTrue(result.contains(field));
+        assertTrue(instance.retrieveDirtyFields(otherEntity).isEmpty());
+        instance.clear(entity);
+        assertTrue(instance.retrieveDirtyFields(entity).isEmpty());
+    }
+
+    @Test
+    public void testMarkDirtyCollected() throws NoSuchFieldException {
+        DirtyFieldTracker instance = new DirtyFieldTracker();
+        Field field = Entity.class.getDeclaredField("name");
+        Entity entity = new Entity();
+        Entity otherEntity = new Entity();
+        instance.markDirty(entity,
+                field);
+        assertEquals(1,
+                instance.size());
+        //simulates the collection of entity deterministically
+        for(Reference<Object> reference : instance.retrieveReferences()) {
+            reference.clear();
+            assertTrue(reference.enqueue());
+        }
+        assertEquals(0,
+                instance.size());
+        assertTrue(instance.retrieveDirtyFields(entity).isEmpty());
+        instance.markDirty(otherEntity,
+                field);
+        assertEquals(1,
+                instance.size());
+    }
+}
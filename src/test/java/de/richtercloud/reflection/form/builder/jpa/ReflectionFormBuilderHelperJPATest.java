@@ -0,0 +1,186 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa;
+
+import de.richtercloud.reflection.form.builder.jpa.panels.QueryPanel;
+import de.richtercloud.reflection.form.builder.jpa.retriever.JPAOrderedCachedFieldRetriever;
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyMemoryPersistenceStorage;
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyMemoryPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.jpa.storage.MetamodelIndex;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import de.richtercloud.validation.tools.FieldRetriever;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the metamodel index-backed mapped field candidates with the
+ * reflection-based ones on entities of a running storage.
+ *
+ * @author richter
+ */
+public class ReflectionFormBuilderHelperJPATest {
+    private final static String PERSISTENCE_UNIT_NAME = "reflection-form-builder-jpa-test";
+    private final static Set<Class<?>> ENTITY_CLASSES = new HashSet<>(Arrays.asList(MappedParent.class,
+            MappedChild.class,
+            MappedDetail.class,
+            MappedTag.class));
+    private DerbyMemoryPersistenceStorage storage;
+    private FieldRetriever fieldRetriever;
+
+    @Before
+    public void setUp() throws IOException,
+            StorageConfValidationException,
+            StorageCreationException {
+        File schemeChecksumFile = File.createTempFile(ReflectionFormBuilderHelperJPATest.class.getSimpleName(), null);
+        schemeChecksumFile.delete();
+        DerbyMemoryPersistenceStorageConf storageConf = new DerbyMemoryPersistenceStorageConf(ENTITY_CLASSES,
+                "reflection-form-builder-helper-jpa-test",
+                schemeChecksumFile);
+        fieldRetriever = new JPAOrderedCachedFieldRetriever(ENTITY_CLASSES);
+        storage = new DerbyMemoryPersistenceStorage(storageConf,
+                PERSISTENCE_UNIT_NAME,
+                1, //parallelQueryCount
+                fieldRetriever);
+        storage.start();
+    }
+
+    @After
+    public void tearDown() {
+        storage.shutdown();
+    }
+
+    @Test
+    public void testRetrieveToOneMappedFieldCandidates() {
+        MetamodelIndex metamodelIndex = storage.getMetamodelIndex();
+        for(Class<?> entityClass : ENTITY_CLASSES) {
+            List<Field> entityClassFields = fieldRetriever.retrieveRelevantFields(entityClass);
+            assertEquals(QueryPanel.retrieveMappedFieldCandidates(entityClass,
+                            entityClassFields),
+                    QueryPanel.retrieveMappedFieldCandidates(metamodelIndex,
+                            entityClass,
+                            entityClassFields));
+        }
+    }
+
+    @Test
+    public void testRetrieveToManyMappedFieldCandidates() throws NoSuchFieldException {
+        MetamodelIndex metamodelIndex = storage.getMetamodelIndex();
+        List<Field> entityClassFields = new ArrayList<>(fieldRetriever.retrieveRelevantFields(MappedParent.class));
+        Field tagsField = MappedParent.class.getDeclaredField("tags");
+        entityClassFields.remove(tagsField);
+            //the reflection-based variant only supports List
+        Set<Field> expResult = Collections.singleton(MappedParent.class.getDeclaredField("children"));
+        assertEquals(expResult,
+                ReflectionFormBuilderHelperJPA.retrieveMappedFieldCandidates(MappedParent.class,
+                        entityClassFields,
+                        fieldRetriever));
+        assertEquals(expResult,
+                ReflectionFormBuilderHelperJPA.retrieveMappedFieldCandidates(metamodelIndex,
+                        MappedParent.class,
+                        entityClassFields,
+                        fieldRetriever));
+    }
+
+    @Test
+    public void testRetrieveToManyMappedFieldCandidatesSet() throws NoSuchFieldException {
+        MetamodelIndex metamodelIndex = storage.getMetamodelIndex();
+        List<Field> entityClassFields = fieldRetriever.retrieveRelevantFields(MappedParent.class);
+        assertEquals(new HashSet<>(Arrays.asList(MappedParent.class.getDeclaredField("children"),
+                        MappedParent.class.getDeclaredField("tags"))),
+                ReflectionFormBuilderHelperJPA.retrieveMappedFieldCandidates(metamodelIndex,
+                        MappedParent.class,
+                        entityClassFields,
+                        fieldRetriever));
+        try {
+            ReflectionFormBuilderHelperJPA.retrieveMappedFieldCandidates(MappedParent.class,
+                    entityClassFields,
+                    fieldRetriever);
+            fail("IllegalArgumentException expected");
+        }catch(IllegalArgumentException expected) {
+            //the reflection-based variant doesn't support Set
+        }
+    }
+
+    @Entity(name = "MappedParent")
+    public static class MappedParent implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @Id
+        private Long id;
+        @OneToOne
+        private MappedDetail detail;
+        @OneToMany(mappedBy = "parent")
+        private List<MappedChild> children = new ArrayList<>();
+        @ManyToMany
+        private Set<MappedTag> tags = new HashSet<>();
+
+        protected MappedParent() {
+        }
+    }
+
+    @Entity(name = "MappedChild")
+    public static class MappedChild implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @Id
+        private Long id;
+        @ManyToOne(targetEntity = MappedParent.class)
+        private MappedParent parent;
+
+        protected MappedChild() {
+        }
+    }
+
+    @Entity(name = "MappedDetail")
+    public static class MappedDetail implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @Id
+        private Long id;
+        @OneToOne(mappedBy = "detail")
+        private MappedParent parent;
+
+        protected MappedDetail() {
+        }
+    }
+
+    @Entity(name = "MappedTag")
+    public static class MappedTag implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @Id
+        private Long id;
+        @ManyToMany(mappedBy = "tags")
+        private Set<MappedParent> parents = new HashSet<>();
+
+        protected MappedTag() {
+        }
+    }
+}
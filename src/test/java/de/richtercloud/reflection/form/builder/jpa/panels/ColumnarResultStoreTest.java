@@ -0,0 +1,73 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.panels;
+
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class ColumnarResultStoreTest {
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testAddRowGetValue() {
+        ColumnarResultStore instance = new ColumnarResultStore(Arrays.asList(Long.class,
+                int.class,
+                Float.class,
+                Boolean.class,
+                String.class));
+        for(int i=0; i<100; i++) {
+            //exceeds the initial capacity
+            instance.addRow(new Object[] {(long)i, i, i/2f, i%2 == 0, String.valueOf(i)});
+        }
+        instance.addRow(new Object[] {null, 0, null, null, null});
+        assertEquals(101, instance.getRowCount());
+        assertEquals(42L, instance.getValue(42, 0));
+        assertEquals(42, instance.getValue(42, 1));
+        assertEquals(21f, instance.getValue(42, 2));
+        assertEquals(true, instance.getValue(42, 3));
+        assertEquals(false, instance.getValue(43, 3));
+        assertEquals("42", instance.getValue(42, 4));
+        assertNull(instance.getValue(100, 0));
+        assertNull(instance.getValue(100, 2));
+        assertNull(instance.getValue(100, 3));
+    }
+
+    @Test
+    public void testGetRow() {
+        ColumnarResultStore instance = new ColumnarResultStore(Arrays.asList(Class.class,
+                Long.class,
+                String.class));
+        instance.addRow(new Object[] {String.class, 1L, "a"});
+        instance.addRow(new Object[] {Integer.class, null, null});
+        assertArrayEquals(new Object[] {String.class, 1L, "a"},
+                instance.getRow(0));
+        assertArrayEquals(new Object[] {Integer.class, null, null},
+                instance.getRow(1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testClear() {
+        ColumnarResultStore instance = new ColumnarResultStore(Arrays.asList(Long.class));
+        instance.addRow(new Object[] {1L});
+        instance.clear();
+        assertEquals(0, instance.getRowCount());
+        instance.getValue(0, 0);
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.panels;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author richter
+ */
+public class QueryHistoryWarmUpQuerySourceTest {
+
+    @Test
+    public void testRetrieveQueryTexts() {
+        QueryHistoryEntryStorage entryStorage = mock(QueryHistoryEntryStorage.class);
+        when(entryStorage.retrieve(Integer.class)).thenReturn(Arrays.asList(
+                new QueryHistoryEntry("SELECT i FROM Integer i", 1, new Date()),
+                new QueryHistoryEntry("SELECT i FROM Integer i WHERE i.id > 1", 7, new Date()),
+                new QueryHistoryEntry("SELECT i FROM Integer i WHERE i.id > 2", 3, new Date())));
+        when(entryStorage.retrieve(Long.class)).thenReturn(Collections.emptyList());
+        QueryHistoryWarmUpQuerySource instance = new QueryHistoryWarmUpQuerySource(entryStorage,
+                2 //queryCount
+        );
+        List<String> result = instance.retrieveQueryTexts(Integer.class);
+        assertEquals(Arrays.asList("SELECT i FROM Integer i WHERE i.id > 1",
+                "SELECT i FROM Integer i WHERE i.id > 2"),
+                result);
+        assertTrue(instance.retrieveQueryTexts(Long.class).isEmpty());
+    }
+}
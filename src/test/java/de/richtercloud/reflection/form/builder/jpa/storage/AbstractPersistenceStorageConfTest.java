@@ -0,0 +1,72 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class AbstractPersistenceStorageConfTest {
+
+    @Test
+    public void testGenerateSchemeFingerprint() {
+        String fingerprint = AbstractPersistenceStorageConf.generateSchemeFingerprint(new LinkedHashSet<>(Arrays.asList(EntityA.class, EntityB.class)));
+        assertEquals(fingerprint,
+                AbstractPersistenceStorageConf.generateSchemeFingerprint(new LinkedHashSet<>(Arrays.asList(EntityB.class, EntityA.class))));
+        assertNotEquals(fingerprint,
+                AbstractPersistenceStorageConf.generateSchemeFingerprint(new HashSet<>(Arrays.asList(EntityA.class))));
+        //embeddables of fields are included
+        assertEquals(AbstractPersistenceStorageConf.generateSchemeFingerprint(new HashSet<>(Arrays.asList(EntityB.class))),
+                AbstractPersistenceStorageConf.generateSchemeFingerprint(new HashSet<>(Arrays.asList(EntityB.class, Address.class))));
+    }
+
+    @Test
+    public void testGetSchemeFingerprintFile() throws IOException {
+        File schemeChecksumFile = File.createTempFile(AbstractPersistenceStorageConfTest.class.getSimpleName(), null);
+        DerbyMemoryPersistenceStorageConf instance = new DerbyMemoryPersistenceStorageConf(new HashSet<>(),
+                "scratch",
+                schemeChecksumFile);
+        assertEquals(new File(schemeChecksumFile.getAbsolutePath()+AbstractPersistenceStorageConf.SCHEME_FINGERPRINT_FILE_SUFFIX),
+                instance.getSchemeFingerprintFile());
+    }
+
+    @Entity
+    private static class EntityA {
+        @Column(length = 10)
+        private String name;
+    }
+
+    @Entity
+    private static class EntityB {
+        private List<Address> addresses;
+    }
+
+    @Embeddable
+    private static class Address {
+        private String street;
+    }
+}
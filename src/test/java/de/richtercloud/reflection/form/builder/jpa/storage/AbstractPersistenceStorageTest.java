@@ -0,0 +1,388 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.jpa.retriever.JPAOrderedCachedFieldRetriever;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class AbstractPersistenceStorageTest {
+    private final static String PERSISTENCE_UNIT_NAME = "reflection-form-builder-jpa-test";
+    private final static String COUNT_QUERY_TEXT = "SELECT e FROM BatchEntity e";
+    private final static AtomicInteger DATABASE_COUNTER = new AtomicInteger();
+    private DerbyMemoryPersistenceStorage storage;
+
+    @Before
+    public void setUp() throws IOException,
+            StorageConfValidationException,
+            StorageCreationException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(BatchEntity.class));
+        File schemeChecksumFile = File.createTempFile(AbstractPersistenceStorageTest.class.getSimpleName(), null);
+        schemeChecksumFile.delete();
+        DerbyMemoryPersistenceStorageConf storageConf = new DerbyMemoryPersistenceStorageConf(entityClasses,
+                String.format("abstract-persistence-storage-test-%d",
+                        DATABASE_COUNTER.getAndIncrement()),
+                schemeChecksumFile);
+        storage = new DerbyMemoryPersistenceStorage(storageConf,
+                PERSISTENCE_UNIT_NAME,
+                1, //parallelQueryCount
+                new JPAOrderedCachedFieldRetriever(entityClasses));
+        storage.start();
+    }
+
+    @After
+    public void tearDown() {
+        storage.shutdown();
+    }
+
+    @Test
+    public void testStoreAll() throws StorageException {
+        List<BatchEntity> entities = createEntities(AbstractPersistenceStorage.BATCH_SIZE*2+1);
+            //covers flushing and clearing between batches
+        List<Boolean> callbackResults = new LinkedList<>();
+        for(BatchEntity entity : Arrays.asList(entities.get(0),
+                entities.get(entities.size()-1))) {
+            storage.registerPostStoreCallback(entity,
+                    object -> callbackResults.add(storage.retrieve(((BatchEntity) object).id,
+                            BatchEntity.class) != null));
+                //post store callbacks have to be invoked after the commit
+        }
+        storage.storeAll(entities);
+        assertEquals(entities.size(),
+                storage.count(COUNT_QUERY_TEXT));
+        assertEquals(Arrays.asList(true, true),
+                callbackResults);
+    }
+
+    @Test
+    public void testStoreAllRollback() throws StorageException {
+        List<BatchEntity> entities = createEntities(AbstractPersistenceStorage.BATCH_SIZE+1);
+        entities.add(new BatchEntity(1L, "duplicate"));
+        List<Object> callbackObjects = new LinkedList<>();
+        storage.registerPostStoreCallback(entities.get(0),
+                callbackObjects::add);
+        try {
+            storage.storeAll(entities);
+            fail("StorageException expected");
+        }catch(StorageException expected) {
+            //expected
+        }
+        assertEquals(0,
+                storage.count(COUNT_QUERY_TEXT));
+        assertTrue(callbackObjects.isEmpty());
+    }
+
+    @Test
+    public void testUpdateAll() throws StorageException {
+        List<BatchEntity> entities = createEntities(AbstractPersistenceStorage.BATCH_SIZE+1);
+        storage.storeAll(entities);
+        for(BatchEntity entity : entities) {
+            entity.name = "updated";
+        }
+        storage.updateAll(entities);
+        assertEquals(entities.size(),
+                storage.count("SELECT e FROM BatchEntity e WHERE e.name = 'updated'"));
+        for(BatchEntity entity : entities) {
+            entity.name = "rolled back";
+        }
+        entities.get(entities.size()-1).name = null;
+            //violates the NOT NULL constraint in the second batch
+        try {
+            storage.updateAll(entities);
+            fail("StorageException expected");
+        }catch(StorageException expected) {
+            //expected
+        }
+        assertEquals(entities.size(),
+                storage.count("SELECT e FROM BatchEntity e WHERE e.name = 'updated'"));
+    }
+
+    @Test
+    public void testDeleteAll() throws StorageException {
+        List<BatchEntity> entities = createEntities(AbstractPersistenceStorage.BATCH_SIZE+1);
+        storage.storeAll(entities);
+        storage.deleteAll(entities.subList(0, AbstractPersistenceStorage.BATCH_SIZE));
+        assertEquals(1,
+                storage.count(COUNT_QUERY_TEXT));
+        assertNotNull(storage.retrieve(entities.get(entities.size()-1).id,
+                BatchEntity.class));
+    }
+
+    @Test
+    public void testDeleteAllById() throws StorageException {
+        List<BatchEntity> entities = createEntities(AbstractPersistenceStorage.BATCH_SIZE*2+1);
+        storage.storeAll(entities);
+        List<Long> ids = new ArrayList<>();
+        for(BatchEntity entity : entities.subList(1, entities.size())) {
+            ids.add(entity.id);
+        }
+        ids.add(-1L);
+            //non-existing ids are ignored
+        int result = storage.deleteAllById(ids,
+                BatchEntity.class);
+        assertEquals(entities.size()-1,
+                result);
+        assertEquals(1,
+                storage.count(COUNT_QUERY_TEXT));
+    }
+
+    @Test(expected = StorageConfValidationException.class)
+    public void testPoolMinSizeExceedingDerivedMaxSize() throws IOException,
+            StorageConfValidationException,
+            StorageCreationException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(BatchEntity.class));
+        File schemeChecksumFile = File.createTempFile(AbstractPersistenceStorageTest.class.getSimpleName(), null);
+        schemeChecksumFile.delete();
+        DerbyMemoryPersistenceStorageConf storageConf = new DerbyMemoryPersistenceStorageConf(entityClasses,
+                String.format("abstract-persistence-storage-test-%d",
+                        DATABASE_COUNTER.getAndIncrement()),
+                schemeChecksumFile);
+        storageConf.setPoolMinSize(AbstractPersistenceStorage.MAX_QUERY_LIMIT_FACTOR+2);
+            //derived maximum is MAX_QUERY_LIMIT_FACTOR+1 for one parallel
+            //query
+        new DerbyMemoryPersistenceStorage(storageConf,
+                PERSISTENCE_UNIT_NAME,
+                1, //parallelQueryCount
+                new JPAOrderedCachedFieldRetriever(entityClasses));
+    }
+
+    private static List<BatchEntity> createEntities(int count) {
+        List<BatchEntity> retValue = new ArrayList<>(count);
+        for(long i=1; i<=count; i++) {
+            retValue.add(new BatchEntity(i,
+                    String.format("entity %d", i)));
+        }
+        return retValue;
+    }
+
+    @Test
+    public void testRunQueryPage() throws StorageException {
+        storage.storeAll(createEntities(3));
+        KeysetPage<BatchEntity> page = storage.runQueryPage(COUNT_QUERY_TEXT,
+                "e", //alias
+                BatchEntity.class,
+                "id", //sortAttributeName
+                null, //continuationToken
+                2 //pageSize
+        );
+        assertEquals(2,
+                page.getResults().size());
+        KeysetPage<BatchEntity> page2 = storage.runQueryPage(COUNT_QUERY_TEXT,
+                "e", //alias
+                BatchEntity.class,
+                "id", //sortAttributeName
+                page.getContinuationToken(),
+                2 //pageSize
+        );
+        assertEquals(1,
+                page2.getResults().size());
+        assertNull(page2.getContinuationToken());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRunQueryPageNullSortKey() throws StorageException {
+        storage.storeAll(createEntities(3));
+            //note is null for all entities, so that they'd all be skipped
+            //after the first page
+        storage.runQueryPage(COUNT_QUERY_TEXT,
+                "e", //alias
+                BatchEntity.class,
+                "note", //sortAttributeName
+                null, //continuationToken
+                2 //pageSize
+        );
+    }
+
+    @Test
+    public void testBuildKeysetQueryTextFirstPage() {
+        String result = AbstractPersistenceStorage.buildKeysetQueryText("SELECT e FROM Entity e",
+                "e", //alias
+                "name", //sortAttributeName
+                "id", //idAttributeName
+                false //continued
+        );
+        assertEquals("SELECT e FROM Entity e ORDER BY e.name, e.id",
+                result);
+    }
+
+    @Test
+    public void testBuildKeysetQueryTextWhere() {
+        String result = AbstractPersistenceStorage.buildKeysetQueryText("SELECT e FROM Entity e where e.a = 1 OR e.b = 2",
+                "e", //alias
+                "name", //sortAttributeName
+                "id", //idAttributeName
+                true //continued
+        );
+        assertEquals("SELECT e FROM Entity e where (e.a = 1 OR e.b = 2) AND "
+                + "(e.name > :keysetLastSortKey OR (e.name = :keysetLastSortKey "
+                + "AND e.id > :keysetLastId)) ORDER BY e.name, e.id",
+                result);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuildKeysetQueryTextOrderBy() {
+        AbstractPersistenceStorage.buildKeysetQueryText("SELECT e FROM Entity e ORDER BY e.name",
+                "e", //alias
+                "name", //sortAttributeName
+                "id", //idAttributeName
+                false //continued
+        );
+    }
+
+    @Test
+    public void testBuildCountQueryText() {
+        String result = AbstractPersistenceStorage.buildCountQueryText("SELECT e.name from Entity e WHERE e.name LIKE '%a%' ORDER BY e.name");
+        assertEquals("SELECT COUNT(e.name) from Entity e WHERE e.name LIKE '%a%'",
+                result);
+    }
+
+    @Test
+    public void testBuildCountQueryTextDistinct() {
+        String result = AbstractPersistenceStorage.buildCountQueryText("select distinct e from Entity e");
+        assertEquals("SELECT COUNT(DISTINCT e) from Entity e",
+                result);
+    }
+
+    @Test
+    public void testBuildCountQueryTextMultipleSelection() {
+        String result = AbstractPersistenceStorage.buildCountQueryText("SELECT e.a, e.b FROM Entity e");
+        assertEquals("SELECT COUNT(*) FROM Entity e",
+                result);
+    }
+
+    @Test
+    public void testBuildCountQueryTextConstructorExpression() {
+        String result = AbstractPersistenceStorage.buildCountQueryText("SELECT NEW a.B(e.a, e.b) FROM Entity e");
+        assertEquals("SELECT COUNT(*) FROM Entity e",
+                result);
+    }
+
+    @Test
+    public void testBuildCountQueryTextFunctionArguments() {
+        String result = AbstractPersistenceStorage.buildCountQueryText("SELECT CONCAT(e.a, e.b) FROM Entity e WHERE e.a = 'x, ORDER BY y' ORDER BY e.a");
+        assertEquals("SELECT COUNT(CONCAT(e.a, e.b)) FROM Entity e WHERE e.a = 'x, ORDER BY y'",
+                result);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuildCountQueryTextDistinctMultipleSelection() {
+        AbstractPersistenceStorage.buildCountQueryText("SELECT DISTINCT e.a, e.b FROM Entity e");
+    }
+
+    @Test
+    public void testIsGroupedQuery() {
+        assertTrue(AbstractPersistenceStorage.isGroupedQuery("SELECT e.name, COUNT(e) FROM Entity e GROUP BY e.name"));
+        assertTrue(AbstractPersistenceStorage.isGroupedQuery("SELECT MAX(e.id) FROM Entity e"));
+        assertFalse(AbstractPersistenceStorage.isGroupedQuery("SELECT e FROM Entity e WHERE e.id IN (SELECT MAX(f.id) FROM Entity f GROUP BY f.name)"));
+    }
+
+    @Test
+    public void testBuildGroupCountQueryText() {
+        String result = AbstractPersistenceStorage.buildGroupCountQueryText("SELECT e.name, COUNT(e) FROM Entity e GROUP BY e.name HAVING COUNT(e) > 1 ORDER BY e.name");
+        assertEquals("SELECT 1 FROM Entity e GROUP BY e.name HAVING COUNT(e) > 1",
+                result);
+    }
+
+    @Test
+    public void testCountGroupBy() throws StorageException {
+        List<BatchEntity> entities = createEntities(5);
+        entities.get(1).name = entities.get(0).name;
+        storage.storeAll(entities);
+        assertEquals(4,
+                storage.count("SELECT e.name, COUNT(e) FROM BatchEntity e GROUP BY e.name"));
+        assertEquals(1,
+                storage.count("SELECT e.name FROM BatchEntity e GROUP BY e.name HAVING COUNT(e) > 1"));
+        assertEquals(5,
+                storage.count("SELECT e.id, e.name FROM BatchEntity e"));
+    }
+
+    @Test
+    public void testWarmUp() throws InterruptedException,
+            ExecutionException {
+        List<String> progress = Collections.synchronizedList(new LinkedList<>());
+        storage.warmUp(null, //querySource
+                (phase, completedSteps, totalSteps) -> progress.add(String.format("%s %d/%d",
+                        phase,
+                        completedSteps,
+                        totalSteps))
+        ).get();
+        assertTrue(progress.contains(String.format("%s 1/1",
+                StorageWarmUpPhase.ENTITY_QUERIES)));
+    }
+
+    @Test
+    public void testBuildExistsQueryText() {
+        String result = AbstractPersistenceStorage.buildExistsQueryText("SELECT e FROM Entity e WHERE e.id = 1 ORDER BY e.id");
+        assertEquals("SELECT 1 FROM Entity e WHERE e.id = 1",
+                result);
+    }
+
+    @Test
+    public void testBuildProjectionQueryText() {
+        String result = AbstractPersistenceStorage.buildProjectionQueryText("SELECT e FROM Entity e WHERE e.id > 1 ORDER BY e.name",
+                Arrays.asList("id", "name"));
+        assertEquals("SELECT TYPE(e), e.id, e.name FROM Entity e WHERE e.id > 1 ORDER BY e.name",
+                result);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuildProjectionQueryTextNoIdentificationVariable() {
+        AbstractPersistenceStorage.buildProjectionQueryText("SELECT e.name FROM Entity e",
+                Arrays.asList("id"));
+    }
+
+    @Entity(name = "BatchEntity")
+    public static class BatchEntity implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @Id
+        private Long id;
+        @Column(nullable = false)
+        private String name;
+        private String note;
+
+        protected BatchEntity() {
+        }
+
+        public BatchEntity(Long id,
+                String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author richter
+ */
+public class AsyncPersistenceStorageTest {
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(10, TimeUnit.SECONDS);
+        }catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Test
+    public void testSubmit() throws InterruptedException, ExecutionException {
+        AsyncPersistenceStorage instance = new AsyncPersistenceStorage(mock(PersistenceStorage.class),
+                1, //threadCount
+                1 //queueCapacity
+        );
+        try {
+            CompletableFuture<String> result = instance.submit(() -> "a");
+            assertEquals("a", result.get());
+        }finally {
+            instance.shutdown();
+        }
+    }
+
+    @Test
+    public void testSubmitError() throws InterruptedException {
+        AsyncPersistenceStorage instance = new AsyncPersistenceStorage(mock(PersistenceStorage.class),
+                1, //threadCount
+                1 //queueCapacity
+        );
+        try {
+            CompletableFuture<Object> result = instance.submit(() -> {
+                throw new AssertionError("task failed");
+            });
+            try {
+                result.get();
+                fail("ExecutionException expected");
+            }catch(ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof AssertionError);
+            }
+        }finally {
+            instance.shutdown();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testRejectedQueueFull() throws InterruptedException {
+        AsyncPersistenceStorage instance = new AsyncPersistenceStorage(mock(PersistenceStorage.class),
+                1, //threadCount
+                1 //queueCapacity
+        );
+        CountDownLatch blocker = new CountDownLatch(1);
+        try {
+            instance.submit(() -> await(blocker));
+            instance.submit(() -> null);
+                //queued
+            CompletableFuture<Object> rejected = instance.submit(() -> null);
+            try {
+                rejected.get();
+                fail("RejectedExecutionException expected");
+            }catch(ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof RejectedExecutionException);
+            }
+            assertEquals(1L, instance.getRejectedCount());
+            assertEquals(1, instance.getQueueSize());
+        }finally {
+            blocker.countDown();
+            instance.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownCompletesQueued() throws InterruptedException {
+        AsyncPersistenceStorage instance = new AsyncPersistenceStorage(mock(PersistenceStorage.class),
+                1, //threadCount
+                1 //queueCapacity
+        );
+        CountDownLatch blocker = new CountDownLatch(1);
+        try {
+            instance.submit(() -> await(blocker));
+            CompletableFuture<Object> queued = instance.submit(() -> null);
+            instance.shutdown();
+            assertTrue(queued.isCompletedExceptionally());
+        }finally {
+            blocker.countDown();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author richter
+ */
+public class BinaryAttributeInputStreamTest {
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testReadClose() throws IOException, SQLException {
+        Statement statement = mock(Statement.class);
+        AtomicInteger closeCallbackCount = new AtomicInteger();
+        BinaryAttributeInputStream instance = new BinaryAttributeInputStream(new ByteArrayInputStream(new byte[] {1, 2}),
+                statement,
+                closeCallbackCount::incrementAndGet);
+        assertEquals(1, instance.read());
+        assertEquals(2, instance.read());
+        assertEquals(-1, instance.read());
+        instance.close();
+        instance.close();
+        assertTrue(instance.isClosed());
+        verify(statement, times(1)).close();
+        assertEquals(1, closeCallbackCount.get());
+    }
+
+    @Test
+    public void testCloseFailure() throws SQLException {
+        Statement statement = mock(Statement.class);
+        doThrow(new SQLException()).when(statement).close();
+        AtomicInteger closeCallbackCount = new AtomicInteger();
+        BinaryAttributeInputStream instance = new BinaryAttributeInputStream(new ByteArrayInputStream(new byte[0]),
+                statement,
+                closeCallbackCount::incrementAndGet);
+        try {
+            instance.close();
+            fail("IOException expected");
+        }catch(IOException expected) {
+            assertEquals(1, closeCallbackCount.get());
+        }
+    }
+}
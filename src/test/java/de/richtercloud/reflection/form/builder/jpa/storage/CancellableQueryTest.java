@@ -0,0 +1,130 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.hibernate.Session;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author richter
+ */
+public class CancellableQueryTest {
+
+    @Test
+    public void testExecute() throws StorageException {
+        CancellableQuery<String> instance = new CancellableQuery<>(0, //timeoutMillis
+                cancellableQuery -> Arrays.asList("a"));
+        List<String> result = instance.execute();
+        assertEquals(Arrays.asList("a"), result);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExecuteTwice() throws StorageException {
+        CancellableQuery<String> instance = new CancellableQuery<>(0, //timeoutMillis
+                cancellableQuery -> Arrays.asList("a"));
+        instance.execute();
+        instance.execute();
+    }
+
+    @Test
+    public void testCancelBeforeExecution() throws StorageException {
+        CancellableQuery<String> instance = new CancellableQuery<>(0, //timeoutMillis
+                cancellableQuery -> {
+                    throw new AssertionError("query mustn't be executed after cancellation");
+                });
+        instance.cancel();
+        try {
+            instance.execute();
+            fail("QueryCancelledException expected");
+        }catch(QueryCancelledException ex) {
+            assertFalse(ex.isTimeout());
+        }
+    }
+
+    @Test
+    public void testCancelRunning() {
+        Session session = mock(Session.class);
+        CancellableQuery<String> instance = new CancellableQuery<>(0, //timeoutMillis
+                cancellableQuery -> null);
+        instance.setRunningSession(session);
+        instance.cancel();
+        verify(session).cancelQuery();
+        assertTrue(instance.isCancelled());
+    }
+
+    @Test
+    public void testTimeout() throws StorageException {
+        CancellableQuery<String> instance = new CancellableQuery<>(1, //timeoutMillis
+                cancellableQuery -> {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException ex) {
+                        throw new StorageException(ex);
+                    }
+                    cancellableQuery.checkCancelled();
+                    return null;
+                });
+        try {
+            instance.execute();
+            fail("QueryCancelledException expected");
+        }catch(QueryCancelledException ex) {
+            assertTrue(ex.isTimeout());
+        }
+    }
+
+    @Test
+    public void testTimeoutCancelsRunningStatement() throws StorageException {
+        Session session = mock(Session.class);
+        CountDownLatch cancelLatch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            cancelLatch.countDown();
+            return null;
+        }).when(session).cancelQuery();
+        CancellableQuery<String> instance = new CancellableQuery<>(10, //timeoutMillis
+                cancellableQuery -> {
+                    cancellableQuery.setRunningSession(session);
+                    try {
+                        //simulates a statement which only returns after it
+                        //has been cancelled
+                        if(!cancelLatch.await(10, TimeUnit.SECONDS)) {
+                            throw new AssertionError("statement hasn't been "
+                                    + "cancelled at the deadline");
+                        }
+                    } catch (InterruptedException ex) {
+                        throw new StorageException(ex);
+                    }finally {
+                        cancellableQuery.setRunningSession(null);
+                    }
+                    cancellableQuery.checkCancelled();
+                    return null;
+                });
+        try {
+            instance.execute();
+            fail("QueryCancelledException expected");
+        }catch(QueryCancelledException ex) {
+            assertTrue(ex.isTimeout());
+        }
+        verify(session).cancelQuery();
+        assertFalse(instance.isCancelled());
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class DerbyMemoryPersistenceStorageConfTest {
+
+    @Test
+    public void testGetConnectionURL() throws IOException {
+        DerbyMemoryPersistenceStorageConf instance = new DerbyMemoryPersistenceStorageConf(new HashSet<>(),
+                "scratch",
+                File.createTempFile(DerbyMemoryPersistenceStorageConfTest.class.getSimpleName(), null));
+        assertEquals("jdbc:derby:memory:scratch;create=true",
+                instance.getConnectionURL());
+        assertEquals("jdbc:derby:memory:scratch;drop=true",
+                instance.getDropConnectionURL());
+        File snapshot = new File("snapshots", "scratch");
+        assertEquals(String.format("jdbc:derby:memory:scratch;restoreFrom=%s",
+                        snapshot.getAbsolutePath()),
+                instance.getRestoreConnectionURL(snapshot));
+    }
+
+    @Test(expected = StorageConfValidationException.class)
+    public void testValidateSnapshotInterval() throws IOException,
+            StorageConfValidationException {
+        File schemeChecksumFile = File.createTempFile(DerbyMemoryPersistenceStorageConfTest.class.getSimpleName(), null);
+        schemeChecksumFile.delete();
+        DerbyMemoryPersistenceStorageConf instance = new DerbyMemoryPersistenceStorageConf(new HashSet<>(),
+                "scratch",
+                schemeChecksumFile);
+        instance.setSnapshotIntervalSeconds(-1);
+        instance.validate();
+    }
+}
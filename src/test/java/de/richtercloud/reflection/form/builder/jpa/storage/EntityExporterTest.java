@@ -0,0 +1,228 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.jpa.retriever.JPAOrderedCachedFieldRetriever;
+import de.richtercloud.reflection.form.builder.storage.StorageConfValidationException;
+import de.richtercloud.reflection.form.builder.storage.StorageCreationException;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import javax.persistence.ElementCollection;
+import javax.persistence.Embeddable;
+import javax.persistence.Embedded;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.Id;
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OrderColumn;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author richter
+ */
+public class EntityExporterTest {
+    private final static String PERSISTENCE_UNIT_NAME = "reflection-form-builder-jpa-test";
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testExportImport() throws IOException,
+            StorageConfValidationException,
+            StorageCreationException,
+            StorageException {
+        Set<Class<?>> entityClasses = new HashSet<>(Arrays.asList(TransferTag.class,
+                TransferItem.class));
+        DerbyMemoryPersistenceStorage source = createStorage(entityClasses,
+                "entity-exporter-test-source");
+        DerbyMemoryPersistenceStorage target = createStorage(entityClasses,
+                "entity-exporter-test-target");
+        try {
+            source.start();
+            target.start();
+            TransferTag tag1 = new TransferTag(1L, "tag1");
+            TransferTag tag2 = new TransferTag(2L, "tag2");
+            TransferTag tag3 = new TransferTag(3L, "tag3");
+            TransferItem parent = new TransferItem(10L,
+                    "parent",
+                    null, //parent
+                    Arrays.asList(tag3, tag1));
+            TransferItem child = new TransferItem(11L,
+                    "child",
+                    parent,
+                    Arrays.asList(tag2));
+            child.labels.addAll(Arrays.asList("a", "b"));
+            child.address = new TransferAddress("street", 5);
+            for(Object entity : Arrays.asList(tag1, tag2, tag3, parent, child,
+                    new TransferItem(12L, "empty", null, new ArrayList<>()))) {
+                source.store(entity);
+            }
+            ByteArrayOutputStream exported = new ByteArrayOutputStream();
+            long exportedCount = new EntityExporter(source,
+                    2 //fetchSize (smaller than the number of entities in
+                        //order to cover clearing of the session)
+            ).export(exported);
+            assertEquals(6, exportedCount);
+            long importedCount = new EntityImporter(target,
+                    2, //decoderThreadCount
+                    2 //commitInterval
+            ).importEntities(new ByteArrayInputStream(exported.toByteArray()));
+            assertEquals(6, importedCount);
+            EntityManager entityManager = target.retrieveEntityManager();
+            try {
+                TransferItem parentResult = entityManager.find(TransferItem.class,
+                        10L);
+                assertEquals(Arrays.asList(3L, 1L),
+                        retrieveTagIds(parentResult));
+                assertTrue(parentResult.labels.isEmpty());
+                TransferItem childResult = entityManager.find(TransferItem.class,
+                        11L);
+                assertEquals("child", childResult.name);
+                assertEquals(child.created, childResult.created);
+                assertEquals(child.modified, childResult.modified);
+                assertEquals(10L, (long) childResult.parent.id);
+                assertEquals(Arrays.asList(2L),
+                        retrieveTagIds(childResult));
+                assertEquals(new LinkedHashSet<>(Arrays.asList("a", "b")),
+                        childResult.labels);
+                assertEquals("street", childResult.address.street);
+                assertEquals(5, childResult.address.number);
+                assertEquals("tag3",
+                        entityManager.find(TransferTag.class, 3L).name);
+                assertTrue(retrieveTagIds(entityManager.find(TransferItem.class,
+                        12L)).isEmpty());
+            }finally {
+                target.releaseEntityManager(entityManager);
+            }
+        }finally {
+            source.shutdown();
+            target.shutdown();
+        }
+    }
+
+    private static List<Long> retrieveTagIds(TransferItem item) {
+        return item.tags.stream()
+                .map(tag -> tag.id)
+                .collect(Collectors.toList());
+    }
+
+    private static DerbyMemoryPersistenceStorage createStorage(Set<Class<?>> entityClasses,
+            String databaseName) throws IOException,
+            StorageConfValidationException,
+            StorageCreationException {
+        File schemeChecksumFile = File.createTempFile(EntityExporterTest.class.getSimpleName(), null);
+        schemeChecksumFile.delete();
+        DerbyMemoryPersistenceStorageConf storageConf = new DerbyMemoryPersistenceStorageConf(entityClasses,
+                databaseName,
+                schemeChecksumFile);
+        return new DerbyMemoryPersistenceStorage(storageConf,
+                PERSISTENCE_UNIT_NAME,
+                1, //parallelQueryCount
+                new JPAOrderedCachedFieldRetriever(entityClasses));
+    }
+
+    @Entity(name = "TransferTag")
+    public static class TransferTag implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @Id
+        private Long id;
+        private String name;
+
+        protected TransferTag() {
+        }
+
+        public TransferTag(Long id,
+                String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    @Embeddable
+    public static class TransferAddress implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String street;
+        private int number;
+
+        protected TransferAddress() {
+        }
+
+        public TransferAddress(String street,
+                int number) {
+            this.street = street;
+            this.number = number;
+        }
+    }
+
+    @Entity(name = "TransferItem")
+    public static class TransferItem implements Serializable {
+        private static final long serialVersionUID = 1L;
+        @Id
+        private Long id;
+        private String name;
+        @Temporal(TemporalType.TIMESTAMP)
+        private Date created = new Date(1000);
+        private Timestamp modified = new Timestamp(2000);
+        @Embedded
+        private TransferAddress address;
+        @ManyToOne
+        private TransferItem parent;
+        @ManyToMany
+        @OrderColumn
+        private List<TransferTag> tags = new ArrayList<>();
+        @ElementCollection
+        private Set<String> labels = new HashSet<>();
+
+        protected TransferItem() {
+        }
+
+        public TransferItem(Long id,
+                String name,
+                TransferItem parent,
+                List<TransferTag> tags) {
+            this.id = id;
+            this.name = name;
+            this.parent = parent;
+            this.tags = new ArrayList<>(tags);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExporterRejectsRoutingStorage() {
+        new EntityExporter(mock(RoutingPersistenceStorage.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testImporterRejectsRoutingStorage() {
+        new EntityImporter(mock(RoutingPersistenceStorage.class));
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author richter
+ */
+public class EntityManagerPoolTest {
+
+    private static EntityManager mockEntityManager() {
+        EntityManager retValue = mock(EntityManager.class);
+        EntityTransaction transaction = mock(EntityTransaction.class);
+        when(retValue.isOpen()).thenReturn(true);
+        when(retValue.getTransaction()).thenReturn(transaction);
+        return retValue;
+    }
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testAcquireRelease() {
+        EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+        EntityManager entityManager = mockEntityManager();
+        when(entityManagerFactory.createEntityManager()).thenReturn(entityManager);
+        EntityManagerPool instance = new EntityManagerPool(entityManagerFactory,
+                1 //maxIdle
+        );
+        EntityManager result = instance.acquire();
+        assertSame(entityManager, result);
+        assertEquals(1, instance.getLeasedCount());
+        instance.release(result);
+        verify(entityManager).clear();
+        assertEquals(0, instance.getLeasedCount());
+        assertEquals(1, instance.getIdleCount());
+        //reuse
+        result = instance.acquire();
+        assertSame(entityManager, result);
+        assertEquals(1L, instance.getCreatedCount());
+        instance.release(result);
+    }
+
+    @Test
+    public void testReleaseExceedingMaxIdle() {
+        EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+        EntityManager entityManager0 = mockEntityManager();
+        EntityManager entityManager1 = mockEntityManager();
+        when(entityManagerFactory.createEntityManager()).thenReturn(entityManager0,
+                entityManager1);
+        EntityManagerPool instance = new EntityManagerPool(entityManagerFactory,
+                1 //maxIdle
+        );
+        EntityManager result0 = instance.acquire();
+        EntityManager result1 = instance.acquire();
+        instance.release(result0);
+        instance.release(result1);
+        verify(entityManager1).close();
+        assertEquals(1, instance.getIdleCount());
+    }
+
+    @Test
+    public void testReleaseActiveTransaction() {
+        EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+        EntityManager entityManager = mockEntityManager();
+        when(entityManager.getTransaction().isActive()).thenReturn(true);
+        when(entityManagerFactory.createEntityManager()).thenReturn(entityManager);
+        EntityManagerPool instance = new EntityManagerPool(entityManagerFactory,
+                1 //maxIdle
+        );
+        instance.release(instance.acquire());
+        verify(entityManager.getTransaction()).rollback();
+    }
+
+    @Test
+    public void testCloseLeaked() {
+        EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+        EntityManager entityManager = mockEntityManager();
+        when(entityManagerFactory.createEntityManager()).thenReturn(entityManager);
+        EntityManagerPool instance = new EntityManagerPool(entityManagerFactory,
+                1 //maxIdle
+        );
+        instance.acquire();
+        instance.close();
+        verify(entityManager).close();
+        assertEquals(0, instance.getLeasedCount());
+    }
+
+    @Test
+    public void testContainsLeasedByCurrentThread() throws InterruptedException {
+        EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+        EntityManager otherThreadEntityManager = mockEntityManager();
+        EntityManager entityManager = mockEntityManager();
+        Object entity = new Object();
+        when(otherThreadEntityManager.contains(entity)).thenReturn(true);
+        when(entityManager.contains(entity)).thenReturn(true);
+        when(entityManagerFactory.createEntityManager()).thenReturn(otherThreadEntityManager,
+                entityManager);
+        EntityManagerPool instance = new EntityManagerPool(entityManagerFactory,
+                2 //maxIdle
+        );
+        Thread otherThread = new Thread(instance::acquire);
+        otherThread.start();
+        otherThread.join();
+        assertFalse(instance.containsLeasedByCurrentThread(entity));
+        verify(otherThreadEntityManager, never()).contains(any());
+        EntityManager result = instance.acquire();
+        assertTrue(instance.containsLeasedByCurrentThread(entity));
+        instance.release(result);
+        assertFalse(instance.containsLeasedByCurrentThread(entity));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAcquireClosed() {
+        EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+        EntityManagerPool instance = new EntityManagerPool(entityManagerFactory,
+                1 //maxIdle
+        );
+        instance.close();
+        instance.acquire();
+    }
+}
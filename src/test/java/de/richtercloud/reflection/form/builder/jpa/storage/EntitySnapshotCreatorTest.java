@@ -0,0 +1,78 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import javax.persistence.Embeddable;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class EntitySnapshotCreatorTest {
+
+    @Embeddable
+    private static class SnapshotEmbeddable {
+        private String value;
+
+        protected SnapshotEmbeddable() {
+        }
+
+        SnapshotEmbeddable(String value) {
+            this.value = value;
+        }
+    }
+
+    private static class SnapshotEntity {
+        private Long id;
+        private Date date;
+        private byte[] data;
+        private List<String> labels = new LinkedList<>();
+        private SnapshotEmbeddable embeddable;
+        private SnapshotEntity reference;
+
+        protected SnapshotEntity() {
+        }
+    }
+
+    @Test
+    public void testCreateSnapshot() {
+        SnapshotEntity entity = new SnapshotEntity();
+        entity.id = 1L;
+        entity.date = new Date(1000L);
+        entity.data = new byte[] {1, 2};
+        entity.labels.addAll(Arrays.asList("a", "b"));
+        entity.embeddable = new SnapshotEmbeddable("c");
+        entity.reference = new SnapshotEntity();
+        SnapshotEntity result = (SnapshotEntity) EntitySnapshotCreator.createSnapshot(entity);
+        entity.date.setTime(2000L);
+        entity.data[0] = 3;
+        entity.labels.add("d");
+        entity.embeddable.value = "e";
+        assertNotSame(entity, result);
+        assertEquals(Long.valueOf(1L), result.id);
+        assertEquals(new Date(1000L), result.date);
+        assertArrayEquals(new byte[] {1, 2}, result.data);
+        assertEquals(Arrays.asList("a", "b"), result.labels);
+        assertEquals("c", result.embeddable.value);
+        assertSame(entity.reference, result.reference);
+            //associated entities aren't copied
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.Embeddable;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class EntityTransferFormatTest {
+
+    @Test
+    public void testValueRoundTrip() throws IOException, StorageException {
+        List<Object> values = Arrays.asList(null,
+                "abc\u00e4",
+                1L,
+                2,
+                (short)3,
+                (byte)4,
+                true,
+                'c',
+                1.5f,
+                2.5d,
+                new Date(1000),
+                new BigDecimal("1.23"),
+                new BigInteger("12345678901234567890"),
+                TimeUnit.SECONDS,
+                new java.sql.Date(3000),
+                new java.sql.Time(4000),
+                createTimestamp(),
+                createCalendar(),
+                new TestEmbeddable("a", 1, new TestEmbeddable("b", 2, null)),
+                new ArrayList<>(Arrays.asList("a", "b")),
+                new LinkedHashSet<>(Arrays.asList(1L, 2L)),
+                createMap(),
+                new TestIdClass(5L));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(outputStream);
+        for(Object value : values) {
+            EntityTransferFormat.writeValue(output,
+                    value);
+        }
+        EntityTransferFormat.writeValue(output,
+                new byte[] {1, 2});
+        output.flush();
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        for(Object value : values) {
+            Object result = EntityTransferFormat.readValue(input,
+                    getClass().getClassLoader(),
+                    Collections.singleton(TestIdClass.class.getName()));
+            assertEquals(value, result);
+            if(value != null) {
+                assertEquals(value.getClass(), result.getClass());
+            }
+        }
+        assertArrayEquals(new byte[] {1, 2},
+                (byte[]) EntityTransferFormat.readValue(input,
+                        getClass().getClassLoader(),
+                        Collections.emptySet()));
+        assertEquals(-1, input.read());
+    }
+
+    @Test(expected = StorageException.class)
+    public void testReadValueUnknownTag() throws IOException, StorageException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(new byte[] {Byte.MAX_VALUE}));
+        EntityTransferFormat.readValue(input,
+                getClass().getClassLoader(),
+                Collections.emptySet());
+    }
+
+    @Test(expected = StorageException.class)
+    public void testReadValueSerializedNotAllowed() throws IOException,
+            StorageException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(outputStream);
+        EntityTransferFormat.writeValue(output,
+                new AtomicLong(1));
+        output.flush();
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(outputStream.toByteArray()));
+        EntityTransferFormat.readValue(input,
+                getClass().getClassLoader(),
+                Collections.singleton(TestIdClass.class.getName()));
+    }
+
+    @Test
+    public void testIsSerializationAllowed() {
+        Set<String> serializableClassNames = Collections.singleton(TestIdClass.class.getName());
+        assertTrue(EntityTransferFormat.isSerializationAllowed("java.lang.Long",
+                serializableClassNames));
+        assertTrue(EntityTransferFormat.isSerializationAllowed("[J",
+                serializableClassNames));
+        assertTrue(EntityTransferFormat.isSerializationAllowed(String.format("[[L%s;",
+                        TestIdClass.class.getName()),
+                serializableClassNames));
+        assertFalse(EntityTransferFormat.isSerializationAllowed("java.util.PriorityQueue",
+                serializableClassNames));
+    }
+
+    @Test
+    public void testRetrieveSerializableClassNames() {
+        Set<String> result = EntityTransferFormat.retrieveSerializableClassNames(Arrays.asList(TestEntity.class));
+        assertEquals(new LinkedHashSet<>(Arrays.asList(TestIdClass.class.getName(),
+                        TestEmbeddable.class.getName())),
+                result);
+    }
+
+    private static java.sql.Timestamp createTimestamp() {
+        java.sql.Timestamp retValue = new java.sql.Timestamp(2000);
+        retValue.setNanos(123456789);
+        return retValue;
+    }
+
+    private static Calendar createCalendar() {
+        Calendar retValue = Calendar.getInstance(TimeZone.getTimeZone("Europe/Berlin"));
+        retValue.setTimeInMillis(5000);
+        return retValue;
+    }
+
+    private static Map<String, Integer> createMap() {
+        Map<String, Integer> retValue = new LinkedHashMap<>();
+        retValue.put("a", 1);
+        retValue.put("b", null);
+        return retValue;
+    }
+
+    @Embeddable
+    private static class TestEmbeddable {
+        private String name;
+        private int number;
+        private TestEmbeddable child;
+        private transient String cache = "cache";
+
+        TestEmbeddable() {
+        }
+
+        TestEmbeddable(String name,
+                int number,
+                TestEmbeddable child) {
+            this.name = name;
+            this.number = number;
+            this.child = child;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name,
+                    number,
+                    child);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof TestEmbeddable)) {
+                return false;
+            }
+            TestEmbeddable other = (TestEmbeddable) obj;
+            return Objects.equals(name, other.name)
+                    && number == other.number
+                    && Objects.equals(child, other.child);
+        }
+    }
+
+    private static class TestIdClass implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private Long id;
+
+        TestIdClass(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(id);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof TestIdClass
+                    && Objects.equals(id, ((TestIdClass) obj).id);
+        }
+    }
+
+    @javax.persistence.IdClass(TestIdClass.class)
+    private static class TestEntity {
+        private Long id;
+        private List<TestEmbeddable> embeddables;
+        private Map<String, Date> dates;
+        private TestEntity parent;
+    }
+}
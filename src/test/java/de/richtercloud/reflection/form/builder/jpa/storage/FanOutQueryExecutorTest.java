@@ -0,0 +1,122 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author richter
+ */
+public class FanOutQueryExecutorTest {
+
+    @SuppressWarnings("unchecked")
+    private static PersistenceStorage<Long> mockStorage(String queryString,
+            CancellableQuery<Integer> query) {
+        PersistenceStorage<Long> retValue = mock(PersistenceStorage.class);
+        doReturn(query).when(retValue).prepareQuery(queryString,
+                Integer.class,
+                3,
+                QueryPriority.NORMAL,
+                0L);
+        return retValue;
+    }
+
+    @Test
+    public void testMerge() {
+        List<Integer> result = FanOutQueryExecutor.merge(Arrays.asList(Arrays.asList(1, 4, 7),
+                        Collections.<Integer>emptyList(),
+                        Arrays.asList(2, 3, 8),
+                        Arrays.asList(5)),
+                Comparator.naturalOrder(),
+                5);
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5),
+                result);
+    }
+
+    @Test
+    public void testPrepareQueryOrdered() throws StorageException {
+        String queryString = "SELECT i FROM Item i ORDER BY i.value";
+        PersistenceStorage<Long> storage1 = mockStorage(queryString,
+                new CancellableQuery<>(0L, query -> Arrays.asList(1, 4, 6)));
+        PersistenceStorage<Long> storage2 = mockStorage(queryString,
+                new CancellableQuery<>(0L, query -> Arrays.asList(2, 3, 5)));
+        FanOutQueryExecutor instance = new FanOutQueryExecutor(Arrays.asList(storage1,
+                storage2));
+        try {
+            List<Integer> result = instance.prepareQuery(queryString,
+                    Integer.class,
+                    3, //queryLimit
+                    QueryPriority.NORMAL,
+                    0L, //timeoutMillis
+                    Comparator.naturalOrder()).execute();
+            assertEquals(Arrays.asList(1, 2, 3),
+                    result);
+        }finally {
+            instance.shutdown();
+        }
+    }
+
+    @Test
+    public void testPrepareQueryUnorderedEarlyTermination() throws StorageException,
+            InterruptedException {
+        String queryString = "SELECT i FROM Item i";
+        CountDownLatch blocker = new CountDownLatch(1);
+        CancellableQuery<Integer> blockingQuery = new CancellableQuery<>(0L,
+                query -> {
+                    while(!query.isCancelled()) {
+                        try {
+                            blocker.await(10,
+                                    TimeUnit.MILLISECONDS);
+                        }catch(InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                    query.checkCancelled();
+                    return Collections.emptyList();
+                });
+        PersistenceStorage<Long> storage1 = mockStorage(queryString,
+                new CancellableQuery<>(0L, query -> Arrays.asList(1, 2, 3, 4)));
+        PersistenceStorage<Long> storage2 = mockStorage(queryString,
+                blockingQuery);
+        FanOutQueryExecutor instance = new FanOutQueryExecutor(Arrays.asList(storage1,
+                storage2));
+        try {
+            List<Integer> result = instance.prepareQuery(queryString,
+                    Integer.class,
+                    3, //queryLimit
+                    QueryPriority.NORMAL,
+                    0L, //timeoutMillis
+                    null //comparator
+            ).execute();
+            assertEquals(Arrays.asList(1, 2, 3),
+                    result);
+            assertTrue(blockingQuery.isCancelled());
+        }finally {
+            blocker.countDown();
+            instance.shutdown();
+        }
+    }
+}
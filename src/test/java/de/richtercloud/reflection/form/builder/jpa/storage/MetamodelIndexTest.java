@@ -0,0 +1,129 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.persistence.Entity;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.Attribute.PersistentAttributeType;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author richter
+ */
+public class MetamodelIndexTest {
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testCreate() throws NoSuchFieldException {
+        Field parentChildrenField = Parent.class.getDeclaredField("children");
+        Field childParentField = Child.class.getDeclaredField("parent");
+        PluralAttribute<?, ?, ?> parentChildren = mock(PluralAttribute.class);
+        Type<?> childType = mock(Type.class);
+        doReturn(Child.class).when(childType).getJavaType();
+        doReturn("children").when(parentChildren).getName();
+        doReturn(PersistentAttributeType.ONE_TO_MANY).when(parentChildren).getPersistentAttributeType();
+        doReturn(List.class).when(parentChildren).getJavaType();
+        doReturn(childType).when(parentChildren).getElementType();
+        doReturn(parentChildrenField).when(parentChildren).getJavaMember();
+        SingularAttribute<?, ?> childParent = mock(SingularAttribute.class);
+        doReturn("parent").when(childParent).getName();
+        doReturn(PersistentAttributeType.MANY_TO_ONE).when(childParent).getPersistentAttributeType();
+        doReturn(Parent.class).when(childParent).getJavaType();
+        doReturn(childParentField).when(childParent).getJavaMember();
+        EntityType<?> parentEntityType = mockEntityType(Parent.class,
+                parentChildren);
+        EntityType<?> childEntityType = mockEntityType(Child.class,
+                childParent);
+        Metamodel metamodel = mock(Metamodel.class);
+        doReturn(new HashSet<>(Arrays.asList(parentEntityType, childEntityType))).when(metamodel).getEntities();
+        MetamodelIndex instance = MetamodelIndex.create(metamodel,
+                new HashSet<>(Arrays.asList(Parent.class, Child.class)));
+        assertTrue(instance.isEntity(Parent.class));
+        assertFalse(instance.isEntity(String.class));
+        assertEquals("id", instance.getIdAttributeName(Child.class));
+        assertEquals("Parent", instance.getEntityName(Parent.class));
+        assertTrue(instance.getEntityNamePattern(Parent.class).matcher("SELECT p FROM Parent p").find());
+        assertFalse(instance.getEntityNamePattern(Parent.class).matcher("SELECT p FROM ParentDetail p").find());
+        assertEquals(Parent.class, instance.getRootEntityClass(Parent.class));
+        assertEquals(Collections.singletonMap("children", Child.class),
+                instance.getToManyTargets(Parent.class));
+        assertEquals(Collections.singletonMap("parent", Parent.class),
+                instance.getToOneTargets(Child.class));
+        assertEquals(childParentField,
+                instance.getMappedByCounterpart(parentChildrenField));
+        assertEquals(parentChildrenField,
+                instance.getMappedByCounterpart(childParentField));
+        assertTrue(instance.isMappedBy(parentChildrenField));
+        assertFalse(instance.isMappedBy(childParentField));
+        assertEquals(Collections.singleton(parentChildrenField),
+                instance.getToManyMappedFieldCandidates(Parent.class));
+        assertTrue(instance.getToOneMappedFieldCandidates(Parent.class).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetEntityNameNoEntity() {
+        Metamodel metamodel = mock(Metamodel.class);
+        doReturn(Collections.emptySet()).when(metamodel).getEntities();
+        MetamodelIndex instance = MetamodelIndex.create(metamodel,
+                Collections.emptySet());
+        instance.getEntityName(String.class);
+    }
+
+    private EntityType<?> mockEntityType(Class<?> entityClass,
+            Attribute<?, ?> attribute) {
+        EntityType<?> retValue = mock(EntityType.class);
+        doReturn(entityClass).when(retValue).getJavaType();
+        doReturn(entityClass.getSimpleName()).when(retValue).getName();
+        doReturn(true).when(retValue).hasSingleIdAttribute();
+        Type<?> idType = mock(Type.class);
+        doReturn(Long.class).when(idType).getJavaType();
+        doReturn(idType).when(retValue).getIdType();
+        SingularAttribute<?, ?> idAttribute = mock(SingularAttribute.class);
+        doReturn("id").when(idAttribute).getName();
+        doReturn(idAttribute).when(retValue).getId(Long.class);
+        Set<Attribute<?, ?>> attributes = new HashSet<>();
+        attributes.add(attribute);
+        doReturn(attributes).when(retValue).getAttributes();
+        return retValue;
+    }
+
+    @Entity
+    private static class Parent {
+        @OneToMany(mappedBy = "parent")
+        private List<Child> children;
+    }
+
+    @Entity
+    private static class Child {
+        @ManyToOne
+        private Parent parent;
+    }
+}
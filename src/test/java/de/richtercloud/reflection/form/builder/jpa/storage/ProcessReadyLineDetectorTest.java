@@ -0,0 +1,59 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class ProcessReadyLineDetectorTest {
+
+    @Test
+    public void testWrap() throws IOException, InterruptedException {
+        ProcessReadyLineDetector instance = new ProcessReadyLineDetector(Pattern.compile("ready to accept connections"));
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        OutputStream wrapped = instance.wrap(target);
+        String output = "LOG:  database system was shut down\nLOG:  database system is ready to accept";
+        wrapped.write(output.getBytes(Charset.defaultCharset()));
+        assertFalse(instance.isReady());
+        assertFalse(instance.await(1, TimeUnit.MILLISECONDS));
+        long beforeReadyNanos = System.nanoTime();
+        wrapped.write(" connections\n".getBytes(Charset.defaultCharset()));
+            //line split over two writes
+        assertTrue(instance.isReady());
+        assertTrue(instance.getReadyNanos()-beforeReadyNanos >= 0);
+        assertTrue(instance.await(0, TimeUnit.MILLISECONDS));
+        assertEquals(output+" connections\n",
+                new String(target.toByteArray(), Charset.defaultCharset()));
+    }
+
+    @Test
+    public void testSignalProcessTerminated() throws InterruptedException {
+        ProcessReadyLineDetector instance = new ProcessReadyLineDetector(Pattern.compile("ready for connections"));
+        instance.signalProcessTerminated();
+        assertTrue(instance.await(0, TimeUnit.MILLISECONDS));
+        assertFalse(instance.isReady());
+        assertEquals(0, instance.getReadyNanos());
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class QueryAdmissionControllerTest {
+
+    @Test
+    public void testWeightedAdmission() throws InterruptedException {
+        QueryAdmissionController instance = new QueryAdmissionController(4, //initialLimit
+                1, //minLimit
+                8, //maxLimit
+                () -> 0.5, //heapUsageSupplier
+                () -> 0L //clock
+        );
+        instance.acquire(QueryAdmissionController.WEIGHT_LARGE);
+        assertEquals(0, instance.getAvailableCapacity());
+        CountDownLatch admittedLatch = new CountDownLatch(1);
+        Thread waitingThread = new Thread(() -> {
+            instance.acquire(QueryAdmissionController.WEIGHT_DEFAULT);
+            admittedLatch.countDown();
+        });
+        waitingThread.start();
+        assertFalse(admittedLatch.await(100, TimeUnit.MILLISECONDS));
+        instance.release(QueryAdmissionController.WEIGHT_LARGE);
+        assertTrue(admittedLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, instance.getUsed());
+    }
+
+    @Test
+    public void testAdmissionExceedingLimit() {
+        QueryAdmissionController instance = new QueryAdmissionController(1, //initialLimit
+                1, //minLimit
+                1, //maxLimit
+                () -> 0.5, //heapUsageSupplier
+                () -> 0L //clock
+        );
+        instance.acquire(QueryAdmissionController.WEIGHT_LARGE);
+            //mustn't block forever
+        assertEquals(QueryAdmissionController.WEIGHT_LARGE, instance.getUsed());
+    }
+
+    @Test
+    public void testDecreaseOnHeapPressure() {
+        AtomicLong clock = new AtomicLong();
+        QueryAdmissionController instance = new QueryAdmissionController(8, //initialLimit
+                1, //minLimit
+                8, //maxLimit
+                () -> 0.95, //heapUsageSupplier
+                clock::get);
+        instance.acquire(1);
+        clock.addAndGet(QueryAdmissionController.ADJUSTMENT_INTERVAL_MILLIS);
+        instance.release(1, 1000L);
+        assertEquals(4, instance.getLimit());
+    }
+
+    @Test
+    public void testNoIncreaseWithoutContention() {
+        AtomicLong clock = new AtomicLong();
+        QueryAdmissionController instance = new QueryAdmissionController(2, //initialLimit
+                1, //minLimit
+                8, //maxLimit
+                () -> 0.1, //heapUsageSupplier
+                clock::get);
+        instance.acquire(1);
+        clock.addAndGet(QueryAdmissionController.ADJUSTMENT_INTERVAL_MILLIS);
+        instance.release(1, 1000L);
+        assertEquals(2, instance.getLimit());
+    }
+
+    @Test
+    public void testAgingBelowInteractive() throws InterruptedException {
+        AtomicLong clock = new AtomicLong();
+        QueryAdmissionController instance = new QueryAdmissionController(1, //initialLimit
+                1, //minLimit
+                1, //maxLimit
+                () -> 0.5, //heapUsageSupplier
+                clock::get);
+        instance.acquire(1);
+        CountDownLatch backgroundLatch = new CountDownLatch(1);
+        Thread backgroundThread = new Thread(() -> {
+            instance.acquire(1,
+                    QueryPriority.BACKGROUND);
+            backgroundLatch.countDown();
+        });
+        backgroundThread.start();
+        while(instance.getQueueLength(QueryPriority.BACKGROUND) == 0) {
+            Thread.sleep(10);
+        }
+        clock.addAndGet(10*QueryAdmissionController.AGING_INTERVAL_MILLIS);
+        CountDownLatch interactiveLatch = new CountDownLatch(1);
+        Thread interactiveThread = new Thread(() -> {
+            instance.acquire(1,
+                    QueryPriority.INTERACTIVE);
+            interactiveLatch.countDown();
+        });
+        interactiveThread.start();
+        while(instance.getQueueLength(QueryPriority.INTERACTIVE) == 0) {
+            Thread.sleep(10);
+        }
+        instance.release(1);
+        assertTrue(interactiveLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, backgroundLatch.getCount());
+        instance.release(1);
+        assertTrue(backgroundLatch.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTryAcquireTimeout() {
+        QueryAdmissionController instance = new QueryAdmissionController(1, //initialLimit
+                1, //minLimit
+                1, //maxLimit
+                () -> 0.5, //heapUsageSupplier
+                () -> 0L //clock
+        );
+        instance.acquire(1);
+        boolean result = instance.tryAcquire(1,
+                QueryPriority.NORMAL,
+                TimeUnit.MILLISECONDS.toNanos(100),
+                () -> false //cancelled
+        );
+        assertFalse(result);
+        assertEquals(0, instance.getQueueLength());
+    }
+
+    @Test
+    public void testTryAcquireCancelled() {
+        QueryAdmissionController instance = new QueryAdmissionController(1, //initialLimit
+                1, //minLimit
+                1, //maxLimit
+                () -> 0.5, //heapUsageSupplier
+                () -> 0L //clock
+        );
+        instance.acquire(1);
+        boolean result = instance.tryAcquire(1,
+                QueryPriority.NORMAL,
+                -1, //timeoutNanos
+                () -> true //cancelled
+        );
+        assertFalse(result);
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import javax.persistence.Entity;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class QueryResultCacheTest {
+
+    private static class EntityA {
+    }
+
+    private static class EntityB extends EntityA {
+    }
+
+    private static class EntityC {
+    }
+
+    @Entity
+    private static class CachedEntity {
+        private String name;
+
+        protected CachedEntity() {
+        }
+
+        CachedEntity(String name) {
+            this.name = name;
+        }
+    }
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testGetPut() {
+        QueryResultCache instance = new QueryResultCache(2 //maxEntries
+        );
+        assertNull(instance.get("query", String.class, 10));
+        assertEquals(1L, instance.getMissCount());
+        List<String> results = Arrays.asList("a", "b");
+        assertTrue(instance.put("query",
+                String.class,
+                10,
+                results,
+                new HashSet<>(Arrays.<Class<?>>asList(EntityA.class)),
+                instance.getGeneration()));
+        assertEquals(results, instance.get("query", String.class, 10));
+        assertEquals(1L, instance.getHitCount());
+        assertNull(instance.get("query", String.class, 20));
+        //different limit
+    }
+
+    @Test
+    public void testEviction() {
+        QueryResultCache instance = new QueryResultCache(1 //maxEntries
+        );
+        instance.put("query0", String.class, 10, Collections.<String>emptyList(),
+                Collections.<Class<?>>emptySet(), instance.getGeneration());
+        instance.put("query1", String.class, 10, Collections.<String>emptyList(),
+                Collections.<Class<?>>emptySet(), instance.getGeneration());
+        assertNull(instance.get("query0", String.class, 10));
+        assertEquals(1L, instance.getEvictionCount());
+    }
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testInvalidateSubclass() {
+        QueryResultCache instance = new QueryResultCache(10 //maxEntries
+        );
+        instance.put("queryA", String.class, 10, Collections.<String>emptyList(),
+                new HashSet<>(Arrays.<Class<?>>asList(EntityA.class)), instance.getGeneration());
+        instance.put("queryC", String.class, 10, Collections.<String>emptyList(),
+                new HashSet<>(Arrays.<Class<?>>asList(EntityC.class)), instance.getGeneration());
+        instance.invalidate(EntityB.class);
+        assertNull(instance.get("queryA", String.class, 10));
+        assertNotNull(instance.get("queryC", String.class, 10));
+        assertEquals(1L, instance.getInvalidationCount());
+    }
+
+    @Test
+    public void testPutOutdatedGeneration() {
+        QueryResultCache instance = new QueryResultCache(10 //maxEntries
+        );
+        long generation = instance.getGeneration();
+        instance.invalidate(EntityA.class);
+        assertFalse(instance.put("query", String.class, 10, Collections.<String>emptyList(),
+                Collections.<Class<?>>emptySet(), generation));
+        assertEquals(0, instance.size());
+    }
+
+    @Test
+    public void testEntitiesAreCopied() {
+        QueryResultCache instance = new QueryResultCache(2 //maxEntries
+        );
+        CachedEntity entity = new CachedEntity("a");
+        instance.put("query",
+                CachedEntity.class,
+                10,
+                Arrays.asList(entity),
+                new HashSet<>(Arrays.<Class<?>>asList(CachedEntity.class)),
+                instance.getGeneration());
+        entity.name = "changed by the caller which ran the query";
+        List<CachedEntity> result = instance.get("query", CachedEntity.class, 10);
+        assertNotSame(entity, result.get(0));
+        assertEquals("a", result.get(0).name);
+        result.get(0).name = "changed in a form";
+        List<CachedEntity> result2 = instance.get("query", CachedEntity.class, 10);
+        assertNotSame(result.get(0), result2.get(0));
+        assertEquals("a", result2.get(0).name);
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.reflection.form.builder.jpa.sequence.SequenceManagementException;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author richter
+ */
+public class RoutingPersistenceStorageTest {
+
+    private static class Metadata {
+    }
+
+    private static class Document {
+    }
+
+    private static class ScannedDocument extends Document {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PersistenceStorage<Long> mockStorage() {
+        return mock(PersistenceStorage.class);
+    }
+
+    private static RoutingPersistenceStorage createInstance(PersistenceStorage<Long> defaultStorage,
+            PersistenceStorage<Long> documentStorage) {
+        Map<Class<?>, PersistenceStorage<Long>> routes = new HashMap<>();
+        routes.put(Document.class,
+                documentStorage);
+        return new RoutingPersistenceStorage(null, //storageConf
+                defaultStorage,
+                routes,
+                1 //asyncThreadCount
+        );
+    }
+
+    @Test
+    public void testRetrieveDelegate() {
+        PersistenceStorage<Long> defaultStorage = mockStorage();
+        PersistenceStorage<Long> documentStorage = mockStorage();
+        RoutingPersistenceStorage instance = createInstance(defaultStorage,
+                documentStorage);
+        assertSame(defaultStorage,
+                instance.retrieveDelegate(Metadata.class));
+        assertSame(documentStorage,
+                instance.retrieveDelegate(Document.class));
+        assertSame(documentStorage,
+                instance.retrieveDelegate(ScannedDocument.class));
+        assertEquals(Arrays.asList(defaultStorage, documentStorage),
+                instance.getDelegates());
+    }
+
+    @Test
+    public void testStoreAll() throws StorageException {
+        PersistenceStorage<Long> defaultStorage = mockStorage();
+        PersistenceStorage<Long> documentStorage = mockStorage();
+        RoutingPersistenceStorage instance = createInstance(defaultStorage,
+                documentStorage);
+        Metadata metadata = new Metadata();
+        Document document = new Document();
+        ScannedDocument scannedDocument = new ScannedDocument();
+        instance.storeAll(Arrays.asList(document,
+                metadata,
+                scannedDocument));
+        verify(defaultStorage).storeAll(Collections.singletonList(metadata));
+        verify(documentStorage).storeAll(Arrays.asList(document,
+                scannedDocument));
+    }
+
+    @Test
+    public void testRunQueryWithoutMetamodel() throws StorageException {
+        PersistenceStorage<Long> defaultStorage = mockStorage();
+        PersistenceStorage<Long> documentStorage = mockStorage();
+        RoutingPersistenceStorage instance = createInstance(defaultStorage,
+                documentStorage);
+        String queryString = "SELECT d FROM Document d";
+        instance.runQuery(queryString,
+                Document.class,
+                10);
+        verify(documentStorage).runQuery(queryString,
+                Document.class,
+                10);
+        verify(defaultStorage,
+                never()).runQuery(queryString,
+                        Document.class,
+                        10);
+    }
+
+    @Test
+    public void testRetrieveFromEntityNames() {
+        assertEquals(Arrays.asList("Document", "Metadata"),
+                RoutingPersistenceStorage.retrieveFromEntityNames("SELECT d FROM Document d, Metadata m WHERE d.id = m.id"));
+        assertEquals(Arrays.asList("Document", "d.pages", "Metadata"),
+                RoutingPersistenceStorage.retrieveFromEntityNames("SELECT d FROM Document AS d LEFT JOIN d.pages p JOIN Metadata m ON m.id = d.id"));
+            //paths are ignored since they're not entity names
+        assertEquals(Arrays.asList("Document", "Metadata"),
+                RoutingPersistenceStorage.retrieveFromEntityNames("SELECT d FROM Document d WHERE EXISTS (SELECT m FROM Metadata m WHERE m.id = d.id) ORDER BY d.id"));
+    }
+
+    @Test
+    public void testSequences() throws SequenceManagementException {
+        PersistenceStorage<Long> defaultStorage = mockStorage();
+        PersistenceStorage<Long> documentStorage = mockStorage();
+        RoutingPersistenceStorage instance = createInstance(defaultStorage,
+                documentStorage);
+        instance.registerSequence("documentSequence",
+                ScannedDocument.class);
+        instance.getNextSequenceValue("documentSequence");
+        instance.getNextSequenceValue("otherSequence");
+        verify(documentStorage).getNextSequenceValue("documentSequence");
+        verify(defaultStorage).getNextSequenceValue("otherSequence");
+        verify(defaultStorage,
+                never()).getNextSequenceValue("documentSequence");
+    }
+
+    @Test
+    public void testShutdown() {
+        PersistenceStorage<Long> defaultStorage = mockStorage();
+        PersistenceStorage<Long> documentStorage = mockStorage();
+        Map<Class<?>, PersistenceStorage<Long>> routes = new HashMap<>();
+        routes.put(Document.class,
+                documentStorage);
+        routes.put(ScannedDocument.class,
+                documentStorage);
+        RoutingPersistenceStorage instance = new RoutingPersistenceStorage(null, //storageConf
+                defaultStorage,
+                routes,
+                1 //asyncThreadCount
+        );
+        instance.shutdown();
+        verify(defaultStorage).shutdown();
+        verify(documentStorage).shutdown();
+    }
+}
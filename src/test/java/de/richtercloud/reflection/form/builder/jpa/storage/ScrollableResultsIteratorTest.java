@@ -0,0 +1,88 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author richter
+ */
+public class ScrollableResultsIteratorTest {
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testIteration() {
+        ScrollableResults scrollableResults = mock(ScrollableResults.class);
+        when(scrollableResults.next()).thenReturn(true, true, true, false);
+        when(scrollableResults.get(0)).thenReturn("a", "b", "c");
+        Session session = mock(Session.class);
+        Runnable closeCallback = mock(Runnable.class);
+        ScrollableResultsIterator<String> instance = new ScrollableResultsIterator<>(scrollableResults,
+                session,
+                String.class,
+                2, //clearInterval
+                closeCallback);
+        assertTrue(instance.hasNext());
+        assertTrue(instance.hasNext());
+            //hasNext mustn't move the cursor
+        assertEquals("a", instance.next());
+        assertEquals("b", instance.next());
+        verify(session, never()).clear();
+            //the last returned row has to stay attached
+        assertEquals("c", instance.next());
+        verify(session, times(1)).clear();
+        assertFalse(instance.hasNext());
+        assertTrue(instance.isClosed());
+        verify(scrollableResults).close();
+        verify(closeCallback).run();
+        assertEquals(3L, instance.getCount());
+    }
+
+    @Test
+    public void testIterationRows() {
+        ScrollableResults scrollableResults = mock(ScrollableResults.class);
+        Object[] row = new Object[] {1L, "a"};
+        when(scrollableResults.next()).thenReturn(true, false);
+        when(scrollableResults.get()).thenReturn(row);
+        ScrollableResultsIterator<Object[]> instance = new ScrollableResultsIterator<>(scrollableResults,
+                mock(Session.class),
+                Object[].class,
+                1, //clearInterval
+                mock(Runnable.class));
+        assertSame(row, instance.next());
+        assertFalse(instance.hasNext());
+    }
+
+    @Test
+    public void testCloseIdempotent() {
+        ScrollableResults scrollableResults = mock(ScrollableResults.class);
+        Session session = mock(Session.class);
+        Runnable closeCallback = mock(Runnable.class);
+        ScrollableResultsIterator<String> instance = new ScrollableResultsIterator<>(scrollableResults,
+                session,
+                String.class,
+                1, //clearInterval
+                closeCallback);
+        instance.close();
+        instance.close();
+        verify(closeCallback, times(1)).run();
+        assertFalse(instance.hasNext());
+    }
+}
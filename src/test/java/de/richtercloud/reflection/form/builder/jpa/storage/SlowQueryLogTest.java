@@ -0,0 +1,115 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class SlowQueryLogTest {
+
+    @Test
+    public void testCreateFingerprint() {
+        assertEquals("SELECT e.name FROM Entity1 e WHERE e.name LIKE ?",
+                SlowQueryLog.createFingerprint("select e.name from Entity1 e  where e.name LIKE '%it''s%'"));
+        assertEquals("SELECT e FROM Entity1 e WHERE e.id IN (?) AND e.value > ? AND e.order = :order1",
+                SlowQueryLog.createFingerprint("SELECT e FROM Entity1 e\nWHERE e.id IN (1, 2,3) AND e.value > 1.5e3 AND e.order = :order1"));
+    }
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testRecord() {
+        SlowQueryLog instance = new SlowQueryLog();
+        instance.record("SELECT e FROM Entity1 e WHERE e.id = 1",
+                TimeUnit.MILLISECONDS.toNanos(1),
+                1 //resultCount
+        );
+        instance.record("SELECT e FROM Entity1 e WHERE e.id = 2",
+                TimeUnit.MILLISECONDS.toNanos(5),
+                3 //resultCount
+        );
+        instance.record("SELECT e FROM Entity1 e WHERE e.id = 3",
+                TimeUnit.MILLISECONDS.toNanos(2),
+                -1 //resultCount
+        );
+        instance.record("SELECT e FROM Entity2 e",
+                TimeUnit.MILLISECONDS.toNanos(1),
+                0 //resultCount
+        );
+        List<QueryFingerprintStatistics> statistics = instance.retrieveStatistics();
+        assertEquals(2, statistics.size());
+        QueryFingerprintStatistics first = statistics.get(0);
+        assertEquals("SELECT e FROM Entity1 e WHERE e.id = ?", first.getFingerprint());
+        assertEquals(3L, first.getCount());
+        assertEquals(1L, first.getErrorCount());
+        assertEquals(3, first.getMaxResultCount());
+        assertEquals("SELECT e FROM Entity1 e WHERE e.id = 2", first.getSampleQueryText());
+    }
+
+    @Test
+    public void testMaxFingerprints() {
+        SlowQueryLog instance = new SlowQueryLog(2 //maxFingerprints
+        );
+        instance.record("SELECT a FROM A a", 1, 0);
+        instance.record("SELECT b FROM B b", 1, 0);
+        instance.record("SELECT c FROM C c", 1, 0);
+        assertEquals(2, instance.retrieveStatistics().size());
+    }
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testLogFileRolling() throws IOException {
+        File logFile = File.createTempFile(SlowQueryLogTest.class.getSimpleName(), null);
+        File backupFile = new File(logFile.getParentFile(),
+                logFile.getName()+".1");
+        try {
+            SlowQueryLog instance = new SlowQueryLog();
+            instance.setThresholdMillis(10);
+            instance.enableLogFile(logFile,
+                    100, //maxFileBytes
+                    1 //maxBackupCount
+            );
+            instance.record("SELECT e FROM Entity1 e WHERE e.id = 1",
+                    TimeUnit.MILLISECONDS.toNanos(1), //below threshold
+                    1);
+            assertEquals(0L, logFile.length());
+            instance.record("SELECT e FROM Entity1 e WHERE e.id = 1",
+                    TimeUnit.MILLISECONDS.toNanos(20),
+                    1);
+            List<String> lines = Files.readAllLines(logFile.toPath(),
+                    StandardCharsets.UTF_8);
+            assertEquals(1, lines.size());
+            assertTrue(lines.get(0).contains("\t20\t1\tSELECT e FROM Entity1 e WHERE e.id = ?\t"));
+            instance.record("SELECT e FROM Entity1 e WHERE e.id = 2",
+                    TimeUnit.MILLISECONDS.toNanos(30),
+                    1);
+            assertTrue(backupFile.exists());
+            assertEquals(1, Files.readAllLines(logFile.toPath(),
+                    StandardCharsets.UTF_8).size());
+        }finally {
+            Files.deleteIfExists(logFile.toPath());
+            Files.deleteIfExists(backupFile.toPath());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class StorageMetricsTest {
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testLatencyHistogram() {
+        LatencyHistogram instance = new LatencyHistogram();
+        assertEquals(0L, instance.snapshot().getP99Nanos());
+        for(int i=0; i<99; i++) {
+            instance.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        instance.record(TimeUnit.MILLISECONDS.toNanos(500));
+        LatencySnapshot snapshot = instance.snapshot();
+        assertEquals(100L, snapshot.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), snapshot.getMaxNanos());
+        //100 us fall into the bucket [64, 128) us
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(128), snapshot.getP50Nanos());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(128), snapshot.getP99Nanos());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500),
+                snapshot.retrievePercentileNanos(1.0));
+        instance.reset();
+        assertEquals(0L, instance.snapshot().getCount());
+    }
+
+    @Test
+    public void testRetrieveBucketIndex() {
+        assertEquals(0, LatencyHistogram.retrieveBucketIndex(-1));
+        assertEquals(0, LatencyHistogram.retrieveBucketIndex(999));
+        assertEquals(1, LatencyHistogram.retrieveBucketIndex(1000));
+        assertEquals(LatencyHistogram.BUCKET_COUNT-1,
+                LatencyHistogram.retrieveBucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    @SuppressWarnings("PMD.JUnitTestContainsTooManyAsserts")
+    public void testSnapshot() {
+        QueryAdmissionController queryAdmissionController = new QueryAdmissionController(2, //initialLimit
+                1, //minLimit
+                8 //maxLimit
+        );
+        StorageMetrics instance = new StorageMetrics(queryAdmissionController,
+                () -> null //entityManagerPoolSupplier
+        );
+        instance.recordOperation(StorageOperation.STORE,
+                1000,
+                false //failed
+        );
+        instance.recordOperation(StorageOperation.STORE,
+                2000,
+                true //failed
+        );
+        instance.recordAdmissionWait(500);
+        StorageMetricsSnapshot snapshot = instance.snapshot();
+        assertEquals(2L, snapshot.getOperationLatencies().get(StorageOperation.STORE).getCount());
+        assertEquals(Long.valueOf(1), snapshot.getOperationErrorCounts().get(StorageOperation.STORE));
+        assertEquals(0L, snapshot.getOperationLatencies().get(StorageOperation.QUERY).getCount());
+        assertEquals(1L, snapshot.getAdmissionWait().getCount());
+        assertEquals(2, snapshot.getAdmissionLimit());
+        assertEquals(0, snapshot.getActiveEntityManagerCount());
+        assertEquals(1L, instance.getErrorCount());
+        instance.reset();
+        assertEquals(0L, instance.getErrorCount());
+    }
+
+    @Test
+    public void testMXBeanRegistration() throws Exception {
+        StorageMetrics instance = new StorageMetrics(new QueryAdmissionController(2, //initialLimit
+                        1, //minLimit
+                        8 //maxLimit
+                ),
+                () -> null //entityManagerPoolSupplier
+        );
+        instance.recordOperation(StorageOperation.RETRIEVE,
+                1000,
+                true //failed
+        );
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = StorageMetrics.createObjectName("unit:test",
+                instance);
+        mBeanServer.registerMBean(instance,
+                objectName);
+        try {
+            assertEquals(1L, mBeanServer.getAttribute(objectName, "ErrorCount"));
+            CompositeData snapshot = (CompositeData) mBeanServer.getAttribute(objectName, "Snapshot");
+            assertEquals(2, snapshot.get("admissionLimit"));
+        }finally {
+            mBeanServer.unregisterMBean(objectName);
+        }
+    }
+}
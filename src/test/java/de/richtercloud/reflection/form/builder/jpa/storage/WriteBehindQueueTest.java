@@ -0,0 +1,179 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage;
+
+import de.richtercloud.message.handler.ExceptionMessage;
+import de.richtercloud.message.handler.IssueHandler;
+import de.richtercloud.message.handler.Message;
+import de.richtercloud.reflection.form.builder.storage.StorageException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import org.mockito.ArgumentCaptor;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author richter
+ */
+public class WriteBehindQueueTest {
+
+    private static class Entity1 {
+        private final Long id;
+        private String name;
+
+        Entity1(Long id) {
+            this.id = id;
+        }
+
+        Entity1(Long id,
+                String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public Long getId() {
+            return id;
+        }
+    }
+
+    private static WriteBehindQueue createInstance(WriteBehindQueue.EntityWriter entityWriter,
+            IssueHandler issueHandler) {
+        return createInstance(entityWriter,
+                Function.identity(),
+                issueHandler);
+    }
+
+    private static WriteBehindQueue createInstance(WriteBehindQueue.EntityWriter entityWriter,
+            Function<Object, Object> snapshotCreator,
+            IssueHandler issueHandler) {
+        return new WriteBehindQueue(entityWriter,
+                entity -> ((Entity1)entity).getId() == null
+                        ? null
+                        : WriteBehindQueue.createKey(Entity1.class,
+                                ((Entity1)entity).getId()),
+                snapshotCreator,
+                issueHandler,
+                10, //capacity
+                5, //maxBatchSize
+                60000 //lingerMillis (writes only happen on flush)
+        );
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCoalescing() throws InterruptedException, StorageException {
+        WriteBehindQueue.EntityWriter entityWriter = mock(WriteBehindQueue.EntityWriter.class);
+        WriteBehindQueue instance = createInstance(entityWriter,
+                mock(IssueHandler.class));
+        Entity1 entity1 = new Entity1(1L);
+        Entity1 entity1Copy = new Entity1(1L);
+        Entity1 entity2 = new Entity1(2L);
+        instance.enqueue(entity1);
+        instance.enqueue(entity2);
+        instance.enqueue(entity1Copy);
+        assertEquals(2, instance.getPendingCount());
+        instance.flush();
+        verify(entityWriter).writeAll(Arrays.<Object>asList(entity2, entity1Copy));
+        instance.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFailureReporting() throws InterruptedException, StorageException {
+        WriteBehindQueue.EntityWriter entityWriter = mock(WriteBehindQueue.EntityWriter.class);
+        IssueHandler issueHandler = mock(IssueHandler.class);
+        Entity1 entity1 = new Entity1(1L);
+        Entity1 entity2 = new Entity1(2L);
+        doThrow(new StorageException("batch failed", null)).when(entityWriter).writeAll(any(List.class));
+        doThrow(new StorageException("entity failed", null)).when(entityWriter).write(entity1);
+        WriteBehindQueue instance = createInstance(entityWriter,
+                issueHandler);
+        instance.enqueue(entity1);
+        instance.enqueue(entity2);
+        instance.flush();
+        verify(entityWriter).write(entity2);
+        verify(issueHandler).handle(any(Message.class));
+        instance.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEnqueueSnapshot() throws InterruptedException, StorageException {
+        WriteBehindQueue.EntityWriter entityWriter = mock(WriteBehindQueue.EntityWriter.class);
+        WriteBehindQueue instance = createInstance(entityWriter,
+                entity -> new Entity1(((Entity1)entity).getId(),
+                        ((Entity1)entity).name),
+                mock(IssueHandler.class));
+        Entity1 entity1 = new Entity1(1L,
+                "a");
+        instance.enqueue(entity1);
+        entity1.name = "b";
+            //changes after enqueueing aren't written
+        instance.flush();
+        ArgumentCaptor<List> batchCaptor = ArgumentCaptor.forClass(List.class);
+        verify(entityWriter).writeAll(batchCaptor.capture());
+        assertEquals(1, batchCaptor.getValue().size());
+        Entity1 written = (Entity1) batchCaptor.getValue().get(0);
+        assertNotSame(entity1, written);
+        assertEquals("a", written.name);
+        instance.close();
+    }
+
+    /**
+     * Tests that an error thrown during writing doesn't terminate the writer
+     * thread and doesn't block {@link WriteBehindQueue#flush() }.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWriterError() throws InterruptedException, StorageException {
+        WriteBehindQueue.EntityWriter entityWriter = mock(WriteBehindQueue.EntityWriter.class);
+        IssueHandler issueHandler = mock(IssueHandler.class);
+        doThrow(new Error("write failed")).doNothing().when(entityWriter).writeAll(any(List.class));
+        WriteBehindQueue instance = createInstance(entityWriter,
+                issueHandler);
+        instance.enqueue(new Entity1(1L));
+        instance.flush();
+        verify(issueHandler).handleUnexpectedException(any(ExceptionMessage.class));
+        instance.enqueue(new Entity1(2L));
+        instance.flush();
+        verify(entityWriter, times(2)).writeAll(any(List.class));
+        instance.close();
+    }
+
+    @Test
+    public void testDiscard() throws InterruptedException, StorageException {
+        WriteBehindQueue.EntityWriter entityWriter = mock(WriteBehindQueue.EntityWriter.class);
+        WriteBehindQueue instance = createInstance(entityWriter,
+                mock(IssueHandler.class));
+        instance.enqueue(new Entity1(1L));
+        instance.discard(Entity1.class,
+                1L);
+        instance.flush();
+        instance.close();
+        verifyZeroInteractions(entityWriter);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEnqueueClosed() throws InterruptedException {
+        WriteBehindQueue instance = createInstance(mock(WriteBehindQueue.EntityWriter.class),
+                mock(IssueHandler.class));
+        instance.close();
+        instance.enqueue(new Entity1(null));
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.richtercloud.reflection.form.builder.jpa.storage.copy;
+
+import de.richtercloud.reflection.form.builder.jpa.storage.AbstractPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.jpa.storage.DerbyMemoryPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.jpa.storage.RoutingPersistenceStorageConf;
+import de.richtercloud.reflection.form.builder.storage.copy.StorageConfCopyException;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author richter
+ */
+public class DelegatingStorageConfCopyFactoryTest {
+
+    @Test
+    public void testCopyPoolSettings() throws IOException, StorageConfCopyException {
+        File schemeChecksumFile = File.createTempFile(DelegatingStorageConfCopyFactoryTest.class.getSimpleName(), null);
+        DerbyMemoryPersistenceStorageConf storageConf = new DerbyMemoryPersistenceStorageConf(new HashSet<>(),
+                "scratch",
+                schemeChecksumFile);
+        storageConf.setPoolMaxSize(7);
+        storageConf.setPoolIdleTimeoutSeconds(11);
+        storageConf.setPoolValidationOnCheckout(true);
+        storageConf.setPoolValidationIntervalSeconds(13);
+        storageConf.setStatementCacheSize(17);
+        DelegatingStorageConfCopyFactory instance = new DelegatingStorageConfCopyFactory();
+        RoutingPersistenceStorageConf result = (RoutingPersistenceStorageConf) instance.copy(new RoutingPersistenceStorageConf(storageConf,
+                new HashMap<>()));
+        AbstractPersistenceStorageConf resultDelegate = result.getDefaultStorageConf();
+        assertNotSame(storageConf,
+                resultDelegate);
+        assertNull(resultDelegate.getPoolMinSize());
+            //unset settings stay unset
+        assertEquals(Integer.valueOf(7),
+                resultDelegate.getPoolMaxSize());
+        assertEquals(11,
+                resultDelegate.getPoolIdleTimeoutSeconds());
+        assertTrue(resultDelegate.isPoolValidationOnCheckout());
+        assertEquals(13,
+                resultDelegate.getPoolValidationIntervalSeconds());
+        assertEquals(17,
+                resultDelegate.getStatementCacheSize());
+    }
+}